@@ -0,0 +1,55 @@
+package bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, adding the allocation profiler and writing the results
+ * to jmh-result.json unless told otherwise, so that runs can be compared.
+ *
+ * Example: java -jar bench/target/benchmarks.jar StepBenchmark -p bodies=10000 -p distribution=DISK
+ */
+public class BenchmarkMain {
+
+	private static final String RESULT_FILE = "jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException, IOException {
+		CommandLineOptions commandLine;
+		try {
+			commandLine = new CommandLineOptions(args);
+		} catch (CommandLineOptionException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+				|| commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+			// Let JMH print what was asked for.
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (commandLine.getProfilers().isEmpty()) {
+			builder.addProfiler(GCProfiler.class);
+		}
+		if (!commandLine.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			builder.result(RESULT_FILE);
+		}
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+
+}
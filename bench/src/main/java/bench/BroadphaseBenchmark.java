@@ -0,0 +1,26 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import app.Universe;
+
+/**
+ * Finding the overlapping pairs of one step with the spatial hash. Nothing is changed, so every invocation does
+ * the same work.
+ */
+public class BroadphaseBenchmark extends UniverseState {
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		createUniverses();
+	}
+
+	@Benchmark
+	public Universe findCollisions() {
+		universe.findCollisions();
+		return universe;
+	}
+
+}
@@ -0,0 +1,33 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import app.Universe;
+
+/**
+ * Resolving the collisions of one step and removing the destroyed bodies. Resolving them changes the bodies, so
+ * the starting conditions and the collisions are restored before every invocation; only the merging is timed.
+ * Per-invocation setup adds some noise, which is small next to the phase itself for the larger body counts.
+ */
+public class CollisionBenchmark extends UniverseState {
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		createUniverses();
+	}
+
+	@Setup(Level.Invocation)
+	public void findCollisions() {
+		reset();
+		universe.findCollisions();
+	}
+
+	@Benchmark
+	public Universe processCollisions() {
+		universe.processCollisions();
+		return universe;
+	}
+
+}
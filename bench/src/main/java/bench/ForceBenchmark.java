@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import app.Config;
+import app.GravityKernel;
+import app.OpeningCriterion;
+import app.Universe;
+
+/**
+ * Walking the tree to gather every body's acceleration. The tree is built once, and since nothing moves during
+ * this phase every invocation does the same work. The opening criterion, angle and quadrupole term only apply to
+ * the components kernel.
+ */
+public class ForceBenchmark extends UniverseState {
+
+	@Param({"COMPONENTS", "LEGACY"})
+	public GravityKernel kernel;
+
+	@Param({"BARNES_HUT", "MIN_DISTANCE", "RELATIVE_ERROR"})
+	public OpeningCriterion criterion;
+
+	@Param({"" + Config.GRAVITATIONAL_FUDGE_FACTOR})
+	public float theta;
+
+	@Param({"true", "false"})
+	public boolean quadrupole;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		createUniverses();
+		universe.setGravityKernel(kernel);
+		universe.setOpeningCriterion(criterion);
+		universe.setOpeningAngle(theta);
+		universe.setQuadrupole(quadrupole);
+		universe.buildTree();
+		// Gives the relative error criterion a previous acceleration to compare against
+		universe.computeForces();
+	}
+
+	@Benchmark
+	public Universe computeForces() {
+		universe.computeForces();
+		return universe;
+	}
+
+}
@@ -0,0 +1,44 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import app.DirectSolver;
+import app.FmmSolver;
+import app.Universe;
+
+/**
+ * All of the gravity between the bodies for one step, build and accelerations together, so that the Barnes-Hut
+ * tree walk and the FMM (which does its work in the build) can be compared. Nothing moves, so every invocation
+ * does the same work. Each solver runs at its own default opening angle. Direct summation is left out of the
+ * default sweep, since it takes hours at a million bodies; run it with -p solver=DIRECT -p bodies=1000,10000.
+ */
+public class GravitySolverBenchmark extends UniverseState {
+
+	@Param({"BARNES_HUT", "FMM"})
+	public String solver;
+
+	@Param({"" + FmmSolver.DEFAULT_ORDER})
+	public int order;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		createUniverses();
+		if (solver.equals("FMM")) {
+			universe.setGravitySolver(new FmmSolver(order));
+		}
+		else if (solver.equals("DIRECT")) {
+			universe.setGravitySolver(new DirectSolver());
+		}
+	}
+
+	@Benchmark
+	public Universe gravity() {
+		universe.buildTree();
+		universe.computeForces();
+		return universe;
+	}
+
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import app.Integrator;
+import app.Universe;
+
+/**
+ * A whole step: tree build, forces, integration and collisions. The bodies are put back to the starting
+ * conditions before each iteration, so an iteration measures the first steps of the same run every time.
+ * With the incremental tree most steps refit the last step's tree instead of building a new one. The integrator
+ * and its timestep levels default to the original Euler step; pass -p integrator=LEAPFROG -p levels=6 to measure
+ * block timesteps.
+ */
+public class StepBenchmark extends UniverseState {
+
+	@Param({"false", "true"})
+	public boolean incremental;
+
+	@Param({"EULER"})
+	public Integrator integrator;
+
+	@Param({"0"})
+	public int levels;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		createUniverses();
+		universe.setIncrementalTree(incremental);
+		universe.setIntegrator(integrator);
+		universe.setMaxTimestepLevel(levels);
+	}
+
+	@Setup(Level.Iteration)
+	public void resetBodies() {
+		reset();
+	}
+
+	@Benchmark
+	public Universe update() {
+		universe.update();
+		return universe;
+	}
+
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import app.BHTree;
+import app.BodyStore;
+import app.Parallel;
+
+/**
+ * Building the Barnes-Hut tree from scratch, both by inserting bodies one at a time and from Morton-sorted bodies.
+ * The bodies don't move, so every invocation builds the same tree.
+ */
+public class TreeBuildBenchmark extends UniverseState {
+
+	private BHTree tree;
+	private BodyStore store;
+	private Parallel parallel;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		createUniverses();
+		store = universe.getBodies();
+		tree = new BHTree();
+		parallel = new Parallel(universe.getParallelism());
+	}
+
+	@Benchmark
+	public BHTree insert() {
+		tree.build(store);
+		return tree;
+	}
+
+	@Benchmark
+	public BHTree sorted() {
+		tree.buildSorted(store, parallel);
+		return tree;
+	}
+
+	@Override
+	public void shutdown() {
+		parallel.shutdown();
+		super.shutdown();
+	}
+
+}
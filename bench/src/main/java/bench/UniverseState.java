@@ -0,0 +1,78 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.BodyNames;
+import app.Config;
+import app.InitialConditions;
+import app.Universe;
+
+/**
+ * Seeded starting conditions shared by the benchmarks, so every run of a benchmark starts from the same bodies.
+ *
+ * The bodies are generated once per trial into a template universe. Benchmarks that change the bodies copy the
+ * template back into their working universe with {@link #reset()} outside of the measured code.
+ *
+ * Every benchmark reports both throughput and sampled times, which give the latency percentiles. The forks add
+ * the Vector API module, so that direct summation runs vectorized.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "--add-modules=jdk.incubator.vector"})
+public class UniverseState {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int bodies;
+
+	@Param({"UNIFORM", "CLUSTERED", "DISK"})
+	public InitialConditions.Distribution distribution;
+
+	// 0 uses every available processor
+	@Param({"0"})
+	public int threads;
+
+	@Param({"1"})
+	public long seed;
+
+	protected Universe template;
+	protected Universe universe;
+
+	protected void createUniverses() {
+		BodyNames.init();
+		int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		template = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		InitialConditions.generate(template, distribution, bodies, seed);
+		universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, parallelism);
+		reset();
+	}
+
+	/**
+	 * Put the working universe back to the generated bodies.
+	 */
+	protected void reset() {
+		universe.getBodies().copyFrom(template.getBodies());
+		universe.setSun(template.getSun());
+	}
+
+	@TearDown(Level.Trial)
+	public void shutdown() {
+		universe.shutdown();
+		template.shutdown();
+	}
+
+}
@@ -1,296 +1,1762 @@
 package app;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-
-import org.newdawn.slick.Color;
-import org.newdawn.slick.Graphics;
-import org.newdawn.slick.geom.Circle;
-import org.newdawn.slick.geom.Point;
-import org.newdawn.slick.geom.Rectangle;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Barnes-Hut tree, recursively dividing space into quadrants.
- * 
- * See {@link https://en.wikipedia.org/wiki/Barnes%E2%80%93Hut_simulation} and 
+ *
+ * See {@link https://en.wikipedia.org/wiki/Barnes%E2%80%93Hut_simulation} and
  * {@link http://mathandcode.com/2016/02/16/quadtree.html}
+ *
+ * Nodes are kept in a pool of primitive arrays rather than as objects, and the pool is cleared and refilled by
+ * {@link #build} every step. Node 0 is the root, and a split node's four quadrants are stored next to each other
+ * starting at {@link #getFirstChild(int)}, in the order upper left, upper right, lower left, lower right. Children
+ * are always allocated after their parent, so walking the pool backwards visits every child before its parent.
+ * Once the pool has grown to fit the bodies, rebuilding it allocates nothing, and a build or refit spread over
+ * threads reuses the tasks of the one before. The root is the smallest square around every body, found again at
+ * each build, so bodies are never outside the tree and its depth follows how spread out the bodies actually are.
+ *
+ * There are two ways to fill the pool, which produce the same tree. {@link #build} inserts the bodies one at a
+ * time from the root. {@link #buildSorted} gives every body a Morton (Z-order) key describing the quadrant it
+ * falls in at every level, radix sorts the bodies by key so that every node's bodies sit next to each other,
+ * and then builds the nodes from the sorted ranges. Every step of the sorted build is spread over the threads.
+ *
+ * Between full builds the tree can instead be kept up to date with {@link #refit}. Bodies rarely move out of their
+ * leaf in one step, so only those that did are taken out and inserted again from the root, and then the moments
+ * are recomputed bottom-up. The tree this gives is still correct, but not the one a full build would give: nodes
+ * that bodies have left stay split, and a few bodies that have left the root may be left out until the next
+ * full build. Once it has too many nodes for the bodies it holds, refit asks for a full build instead.
+ *
+ * A leaf usually holds one body. Bodies that can't be separated, because they are at exactly the same position
+ * or share a quad that has reached the minimum size, share a leaf instead, in a list running through
+ * {@link #getNextInLeaf(int)}. Nothing is left out of the tree for being crowded; finding which bodies touch is
+ * left to the {@link Broadphase}.
+ *
+ * Besides its mass and center of mass every node keeps its quadrupole moment about the center of mass, built up
+ * from its quadrants with the parallel axis theorem. Adding the quadrupole term to the pull of an accepted node
+ * makes it accurate enough that a much larger opening angle can be used for the same error. Which nodes are
+ * accepted is decided by an {@link OpeningCriterion}, and the opening angle can be changed at any time.
  * @author chris
  *
  */
 public class BHTree {
 
-	private BHTree upperLeft;
-	private BHTree upperRight;
-	private BHTree lowerRight;
-	private BHTree lowerLeft;
-	
-	private int xs;
-	private int xl;
-	private int ys;
-	private int yl;
-	
-	private int centerX;
-	private int centerY;
-	
-	private int level;
-	
-	private Body containedBody;
-	
-	private float mass;
-	// Center of mass
-	private float cmx = 0;
-	private float cmy = 0;
-	
-	private Map<Body, Float> gravityHistory;
-	
-	
-	/**
-	 * 
-	 * @param xSmall	Left x
-	 * @param ySmall	Top y
-	 * @param xLarge	Right x
-	 * @param yLarge	Bottom y
+	public static final int UPPER_LEFT = 0;
+	public static final int UPPER_RIGHT = 1;
+	public static final int LOWER_LEFT = 2;
+	public static final int LOWER_RIGHT = 3;
+
+	private static final int INITIAL_CAPACITY = 256;
+	// Morton keys hold two bits per level in a long, with one bit left to mark bodies outside the root
+	private static final int MAX_KEY_LEVELS = 31;
+	// Ranges with fewer bodies than this are built on the current thread by the sorted build
+	private static final int BUILD_GRAIN = 1024;
+	// Margin added around the bodies on each side of the root unless set otherwise, as a fraction of its size
+	public static final float DEFAULT_ROOT_MARGIN = 1e-3f;
+	// Refit gives up when more than this fraction of the bodies would have to be inserted again
+	private static final float MAX_RELOCATED_FRACTION = 0.25f;
+	// Refit leaves up to this fraction of the bodies out of the tree when they have left the root
+	private static final float MAX_ESCAPED_FRACTION = 0.001f;
+	// Refit splits the moment pass into tasks down to this depth
+	private static final int REFIT_FORK_DEPTH = 4;
+
+	/**
+	 * Receives each node-body interaction found while walking the tree for a body.
 	 */
-	private BHTree(int level, int xSmall, int ySmall, int xLarge, int yLarge) {
-		centerX = (xSmall + xLarge) / 2;
-		centerY = (ySmall + yLarge) / 2;
-		xs = xSmall;
-		xl = xLarge;
-		ys = ySmall;
-		yl = yLarge;
-		this.level = level;
-		gravityHistory = new HashMap<Body, Float>();
-	}
-	
-	public static BHTree create(List<Body> bodies, int width, int height) {
-		BHTree tree = new BHTree(0, 0, 0, width, height);
-		for (Body body : bodies) {
-			tree.insert(body);
-		}
-		return tree;
-	}
-	
-	
-	public boolean insert(Body b) {
-		/*
-		 * Three possible states:
-		 * 1. Empty (no body, no subnodes)
-		 * 2. Subnodes (4), any of which may be empty (doesn't matter)
-		 * 3. Have a body (and no subnodes).
+	public interface InteractionVisitor {
+		/**
+		 * @param source	Store index of the pulling body when it was taken from a leaf on its own, otherwise -1
+		 * 					for the whole node
 		 */
-		if (upperLeft == null) {	// Hasn't been split yet (this may be a leaf node)
-			if (containedBody == null) {
-				containedBody = b;
-				// As a leaf the total mass is exactly the mass of the contained body.
-				mass = containedBody.getMass();
-				cmx = containedBody.getX() * mass;
-				cmy = containedBody.getY() * mass;
-				if (Float.isNaN(cmx) || Float.isNaN(cmy)) {
-					System.out.println("NaN");
-				}
-				// Return early so mass is not added twice.
-				return true;
-			}
-			else {	// State 3, need to move to state 2.
-				if (b.getX() == containedBody.getX() && b.getY() == containedBody.getY()) {
-					// Two points in exactly the same position - will infinitely recurse.
-					return false;
-				} 
-				if (xl - xs <= Config.QUAD_TREE_MIN_QUAD_SIZE || yl - ys <= 10) {
-					// We can't split this tree any further.
-					Universe.notifyCollision(containedBody, b);
-					return false;
+		void interaction(int node, int source, int body, float gravity);
+	}
+
+	// Bounds of each node: left, top, right, bottom
+	private float[] xs;
+	private float[] ys;
+	private float[] xl;
+	private float[] yl;
+
+	// Index of the first of the four children, or -1 if the node hasn't been split
+	private int[] firstChild;
+	// Index in the store of the first body held by a leaf, or -1 if there is none
+	private int[] containedBody;
+
+	private float[] mass;
+	// Center of mass
+	private float[] cmx;
+	private float[] cmy;
+	// Quadrupole moment about the center of mass, sum of m * (3 * r_i * r_j - r^2 * delta_ij). Zero for leaves
+	// with one body.
+	private float[] quadXX;
+	private float[] quadXY;
+	private float[] quadYY;
+	// How far the bodies held by each node may reach past its bounds: the largest radius plus step among them
+	private float[] extent;
+
+	private int nodeCount;
+
+	private GravityKernel kernel = GravityKernel.COMPONENTS;
+	private float gravityConstant = Config.GRAVITY_CONSTANT;
+	// Plummer softening length, squared
+	private float softening2 = 0;
+	private OpeningCriterion criterion = OpeningCriterion.BARNES_HUT;
+	private float openingAngle = Config.GRAVITATIONAL_FUDGE_FACTOR;
+	private float openingAngle2 = openingAngle * openingAngle;
+	private float errorTolerance = Config.GRAVITATIONAL_ERROR_TOLERANCE;
+	private boolean quadrupole = true;
+
+	private BodyStore bodies;
+
+	private float rootMargin = DEFAULT_ROOT_MARGIN;
+	// The leaf holding each store index, or -1 for bodies that aren't in the tree
+	private int[] leafOf = new int[0];
+	// The next body in the same leaf for each store index, or -1 for the last one
+	private int[] nextInLeaf = new int[0];
+	// Number of bodies in the store when the tree was last built or refitted
+	private int trackedCount;
+	// Nodes per body just after the last full build, which refit compares against
+	private float builtNodesPerBody;
+	private float rebuildThreshold = 0.5f;
+	private int fullBuilds;
+	private int refits;
+	// Depth of the deepest split since the last full build, the root being at 0
+	private final AtomicInteger maxDepth = new AtomicInteger();
+	// Nodes and bodies whose pull has been applied to a body, over every walk
+	private final LongAdder interactions = new LongAdder();
+	// Nodes found with a center of mass, or walks with a distance, that isn't a number
+	private final LongAdder nanCount = new LongAdder();
+
+	// Sorted build state: each body's Morton key, and the store indices in key order
+	private long[] keys = new long[0];
+	private int[] order = new int[0];
+	private int keyLevels;
+	// Number of sorted bodies inside the root, which come before all of the ones outside it
+	private int sortedCount;
+	private final RadixSort sorter = new RadixSort();
+	private final AtomicInteger nextNode = new AtomicInteger();
+	// Roots of the tasks of a parallel build and refit, whose quadrants' tasks are kept for the next one
+	private final BuildTask buildTask = new BuildTask();
+	private final RefitTask refitTask = new RefitTask();
+	// Per-chunk sums of the node bound, chunks as in chunkStart
+	private long[] chunkNodes = new long[0];
+	// Per-chunk bounding boxes of the bodies: min x, min y, max x, max y
+	private float[] chunkBounds = new float[0];
+	private int chunks;
+
+	private final Parallel.RangeAction measureBounds = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int chunk = from; chunk < to; chunk++) {
+				int end = chunkStart(chunk + 1, bodies.size());
+				float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+				float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+				for (int i = chunkStart(chunk, bodies.size()); i < end; i++) {
+					float x = bodies.x[i];
+					float y = bodies.y[i];
+					if (!Float.isFinite(x) || !Float.isFinite(y)) {
+						// Left out of the tree
+						continue;
+					}
+					minX = Math.min(minX, x);
+					minY = Math.min(minY, y);
+					maxX = Math.max(maxX, x);
+					maxY = Math.max(maxY, y);
 				}
-				// BHTree(xLeft, yTop, xRight, yBottom
-				upperLeft = new BHTree(level + 1, xs, ys, centerX, centerY);
-				upperRight = new BHTree(level + 1, centerX, ys, xl, centerY);
-				lowerLeft = new BHTree(level + 1, xs, centerY, centerX, yl);
-				lowerRight = new BHTree(level + 1, centerX, centerY, xl, yl);				
-				
-				Body originalBody = containedBody;
-				containedBody = null;
-				mass = 0;
-				cmx = 0;
-				cmy = 0;
-				// Now that subnodes have been created, we can fill them with recursion.
-				this.insert(originalBody);
-				this.insert(b);
+				chunkBounds[4 * chunk] = minX;
+				chunkBounds[4 * chunk + 1] = minY;
+				chunkBounds[4 * chunk + 2] = maxX;
+				chunkBounds[4 * chunk + 3] = maxY;
 			}
 		}
-		else {
-			// State 2. Place the body in the right subtree
-			if (b.getX() <= 0 || b.getX() >= xl || b.getY() <= 0 || b.getY() >= yl) {
-				// Body falls outside of visible screen.
-				// TODO: This needs to be resolved by fixing the co-ordinate system.
-				return false; 
+	};
+
+	private final Parallel.RangeAction computeKeys = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				keys[i] = mortonKey(bodies.x[i], bodies.y[i]);
+				order[i] = i;
 			}
-			else {
-				cmx += b.getX() * b.getMass();
-				cmy += b.getY() * b.getMass();
-				if (Float.isNaN(cmx) || Float.isNaN(cmy)) {
-					System.out.println("NaN");
+		}
+	};
+
+	// Mark every body that has left its leaf. Leaves are shared, so they are only changed afterwards, on one thread.
+	private final Parallel.RangeAction findMoved = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				int leaf = leafOf[i];
+				if (leaf < 0) {
+					continue;
 				}
-				mass += b.getMass();
-				if (b.getX() < centerX) {		// Left
-					if (b.getY() < centerY) {	// Upper left
-						upperLeft.insert(b);
-					}
-					else {						// Lower left
-						lowerLeft.insert(b);
-					}
+				float x = bodies.x[i];
+				float y = bodies.y[i];
+				// Same bounds as quadrantOf: a quadrant holds its left and top edges
+				if (!(x >= xs[leaf] && x < xl[leaf] && y >= ys[leaf] && y < yl[leaf])) {
+					leafOf[i] = movedFrom(leaf);
 				}
-				else {							// Right
-					if (b.getY() < centerY) {
-						upperRight.insert(b);	// Upper right
-					}
-					else {
-						lowerRight.insert(b);	// Lower right
-					} 
+			}
+		}
+	};
+
+	private final Parallel.RangeAction countInternalNodes = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int chunk = from; chunk < to; chunk++) {
+				int start = chunkStart(chunk, sortedCount - 1);
+				int end = chunkStart(chunk + 1, sortedCount - 1);
+				long count = 0;
+				int previous = start == 0 ? -1 : commonLevels(start - 1);
+				for (int i = start; i < end; i++) {
+					int common = commonLevels(i);
+					// Levels this pair is the first to share, i.e. nodes with two or more bodies starting here
+					count += Math.max(0, Math.min(common, keyLevels - 1) - previous);
+					previous = common;
 				}
+				chunkNodes[chunk] = count;
 			}
 		}
-		return true;
+	};
+
+	public BHTree() {
+		xs = new float[INITIAL_CAPACITY];
+		ys = new float[INITIAL_CAPACITY];
+		xl = new float[INITIAL_CAPACITY];
+		yl = new float[INITIAL_CAPACITY];
+		firstChild = new int[INITIAL_CAPACITY];
+		containedBody = new int[INITIAL_CAPACITY];
+		mass = new float[INITIAL_CAPACITY];
+		cmx = new float[INITIAL_CAPACITY];
+		cmy = new float[INITIAL_CAPACITY];
+		quadXX = new float[INITIAL_CAPACITY];
+		quadXY = new float[INITIAL_CAPACITY];
+		quadYY = new float[INITIAL_CAPACITY];
+		extent = new float[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Clear the pool and insert every body in the store, then aggregate the node masses.
+	 * Bodies with a position that isn't finite are left out.
+	 */
+	public void build(BodyStore bodies) {
+		this.bodies = bodies;
+		chunks = 1;
+		prepareChunks();
+		measureBounds.run(0, 1);
+		allocateRoot();
+		trackBodies();
+		for (int i = 0; i < bodies.size(); i++) {
+			insert(i);
+		}
+		computeMoments();
+		finishBuild();
 	}
-	
-	public float getMass() {
-		if (upperLeft == null) {
-			if (containedBody == null) {
-				// Empty quad
-				return 0f;
+
+	/**
+	 * Build the same tree as {@link #build} from the bodies sorted by Morton key. Bodies that share a leaf are
+	 * listed in store order, as insertion would list them.
+	 */
+	public void buildSorted(BodyStore bodies, Parallel parallel) {
+		this.bodies = bodies;
+		chunks = parallel.isSequential() ? 1 : parallel.getParallelism() * 4;
+		prepareChunks();
+		parallel.forRange(chunks, 1, measureBounds);
+		allocateRoot();
+		trackBodies();
+		int n = bodies.size();
+		if (n == 0) {
+			finishBuild();
+			return;
+		}
+		if (keys.length < n) {
+			int capacity = Math.max(n, keys.length * 2);
+			keys = new long[capacity];
+			order = new int[capacity];
+		}
+		keyLevels = 0;
+		float w = getWidth(0), h = getHeight(0);
+		while (keyLevels < MAX_KEY_LEVELS && w > Config.QUAD_TREE_MIN_QUAD_SIZE && h > Config.QUAD_TREE_MIN_QUAD_SIZE) {
+			w /= 2;
+			h /= 2;
+			keyLevels++;
+		}
+		// One spare level in case rounding in the halved bounds lets a quad split once more.
+		keyLevels = Math.min(keyLevels + 1, MAX_KEY_LEVELS);
+
+		parallel.forRange(n, computeKeys);
+		sorter.sort(keys, order, n, 2 * keyLevels + 1, parallel);
+		sortedCount = firstOutsideRoot(n);
+
+		// Size the pool up front so that nodes can be handed out to several threads without growing it.
+		long internal = 0;
+		if (sortedCount > 1) {
+			parallel.forRange(chunks, 1, countInternalNodes);
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				internal += chunkNodes[chunk];
 			}
-			// Quad with no children (but a body)
-			else return containedBody.getMass();
+		}
+		ensureCapacity((int) (1 + 4 * internal));
+		nextNode.set(1);
+		if (parallel.isSequential() || sortedCount <= BUILD_GRAIN) {
+			buildNode(0, 0, 0, sortedCount, null);
 		}
 		else {
-			return upperLeft.getMass() + upperRight.getMass() + lowerLeft.getMass() + lowerRight.getMass();
-		}
-	}
-	
-	public Point getCenterOfMass() {
-		if (containedBody != null) {
-			return new Point(containedBody.getX(), containedBody.getY());
-		}
-		return new Point(centerX, centerY);
-	}
-	
-	public void draw(Graphics g) {
-		if (upperLeft != null) {
-			upperLeft.draw(g);
-			upperRight.draw(g);
-			lowerLeft.draw(g);
-			lowerRight.draw(g);
-		}
-		// TODO: Some concerns about the accuracy of the current method of tracking mass...
-		//float retrievedMass = getMass();
-		//if (Math.abs(retrievedMass - mass) > 0.01f) {
-		//	System.out.println("something bad");
-		//}
-		if (mass > 0) {	
-			Color c = Color.green;
-			g.setColor(new Color(c.r, c.g, c.b, (float) mass * Config.QUAD_TREE_LINE_COLOR_MOD));
-			g.setLineWidth(mass * Config.QUAD_TREE_LINE_WIDTH_MOD);		
-			
-			g.draw(new Rectangle(xs, ys, xl - xs , yl - ys));
-			g.resetLineWidth();
+			parallel.invoke(buildTask.set(0, 0, 0, sortedCount));
 		}
-		/*
-		if (level > 0) {
-			Point centerOfMass = getCenterOfMass();
-			if (centerOfMass != null) {
-				Circle centerOfMassCircle = new Circle(centerOfMass.getX(), centerOfMass.getY(), 10);
-				g.setColor(Color.orange);
-				g.draw(centerOfMassCircle);
-				g.setColor(Color.green);
-			}
-		}
-		*/
-	}
-	
-	/**
-	 * Draw the previously calculated gravity of other bodies towards THIS node.
-	 * @param g
-	 */
-	public void drawGravity(Graphics g) {
-		if (upperLeft != null) {
-			upperLeft.drawGravity(g);
-			upperRight.drawGravity(g);
-			lowerLeft.drawGravity(g);
-			lowerRight.drawGravity(g);
-		}
-		g.setLineWidth(4);
-		// We only store the history of bodies that we enacted gravity upon at this level.
-		// So we can safely assume every item in this collection should be drawn.
-		for (Body body : gravityHistory.keySet()) {
-			float gravity = gravityHistory.get(body);
-			float alpha = gravity * 1000;
-			if (alpha > 0.01) {
-				Color newColor = new Color(Config.COLOR_BODY.r, Config.COLOR_BODY.g, Config.COLOR_BODY.b, alpha);
-				g.setColor(newColor);
-				if (containedBody != null) {
-					g.drawLine(body.getX(), body.getY(), containedBody.getX(), containedBody.getY());
+		nodeCount = nextNode.get();
+		finishBuild();
+	}
+
+	/**
+	 * Bring the tree built by the last full build, or refit, up to date with the bodies' new positions. Bodies
+	 * that have left their leaf are inserted again, as are bodies added to the store since, and bodies removed
+	 * from the end of the store are taken out.
+	 *
+	 * Bodies that have left the root can't be inserted again, and are left out of the tree (so they pull on
+	 * nothing) until the next full build. Gives up and returns false if the tree wasn't built from this store,
+	 * more than a small fraction of the bodies have left the root, too many bodies have left their leaves, or the
+	 * tree has grown too many nodes for its bodies (see {@link #setRebuildThreshold}). The tree must then be
+	 * built again before it is used.
+	 * @return true if the tree was refitted.
+	 */
+	public boolean refit(BodyStore bodies, Parallel parallel) {
+		int n = bodies.size();
+		if (bodies != this.bodies || nodeCount == 0 || n == 0) {
+			return false;
+		}
+		if (leafOf.length < n) {
+			int capacity = Math.max(n, leafOf.length * 2);
+			leafOf = Arrays.copyOf(leafOf, capacity);
+			nextInLeaf = Arrays.copyOf(nextInLeaf, capacity);
+		}
+		// Bodies removed since the last step: the store only ever shrinks from the end.
+		for (int i = n; i < trackedCount; i++) {
+			if (leafOf[i] >= 0) {
+				unlink(leafOf[i], i);
+			}
+			leafOf[i] = -1;
+		}
+		// Bodies added since the last step
+		for (int i = trackedCount; i < n; i++) {
+			leafOf[i] = -1;
+		}
+		trackedCount = n;
+
+		parallel.forRange(n, findMoved);
+		int relocated = 0, escaped = 0;
+		for (int i = 0; i < n; i++) {
+			if (leafOf[i] < -1) {
+				unlink(movedFrom(leafOf[i]), i);
+				leafOf[i] = -1;
+			}
+			if (leafOf[i] < 0) {
+				relocated++;
+				float x = bodies.x[i];
+				float y = bodies.y[i];
+				if (Float.isFinite(x) && Float.isFinite(y) && !(x > xs[0] && x < xl[0] && y > ys[0] && y < yl[0])) {
+					escaped++;
 				}
-				else 
-					g.drawLine(body.getX(), body.getY(), centerX, centerY);
 			}
 		}
-		g.resetLineWidth();
+		if (escaped > n * MAX_ESCAPED_FRACTION || relocated > n * MAX_RELOCATED_FRACTION || nodeCount > (1 + rebuildThreshold) * builtNodesPerBody * n) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if (leafOf[i] < 0) {
+				insert(i);
+			}
+		}
+
+		if (parallel.isSequential()) {
+			computeMoments();
+		}
+		else {
+			parallel.invoke(refitTask.set(0, 0));
+		}
+		refits++;
+		return true;
+	}
+
+	/**
+	 * Before a full build: no body is in the tree yet.
+	 */
+	private void trackBodies() {
+		int n = bodies.size();
+		if (leafOf.length < n) {
+			int capacity = Math.max(n, leafOf.length * 2);
+			leafOf = new int[capacity];
+			nextInLeaf = new int[capacity];
+		}
+		Arrays.fill(leafOf, 0, n, -1);
+	}
+
+	private void finishBuild() {
+		trackedCount = bodies.size();
+		builtNodesPerBody = (float) nodeCount / Math.max(trackedCount, 1);
+		fullBuilds++;
+	}
+
+	/**
+	 * Encodes the leaf a body has moved out of as a value below -1, and back again.
+	 */
+	private static int movedFrom(int leaf) {
+		return -2 - leaf;
+	}
+
+	/**
+	 * Take a body off its leaf's list, clearing the leaf if it was the last one.
+	 */
+	private void unlink(int leaf, int b) {
+		if (containedBody[leaf] == b) {
+			containedBody[leaf] = nextInLeaf[b];
+		}
+		else {
+			int previous = containedBody[leaf];
+			while (nextInLeaf[previous] != b) {
+				previous = nextInLeaf[previous];
+			}
+			nextInLeaf[previous] = nextInLeaf[b];
+		}
+		if (containedBody[leaf] < 0) {
+			mass[leaf] = 0;
+		}
 	}
 
-	public void updateGravity(Body body) {
-		if (mass == 0 || (body == containedBody)) { 
+	/**
+	 * Recompute the moments of a node's subtree from the bodies' current positions and masses, splitting the
+	 * top of the tree into tasks.
+	 * @param task	The task this node is computed by, or null to compute the subtree on this thread
+	 */
+	private void refitNode(int node, int depth, RefitTask task) {
+		int child = firstChild[node];
+		if (child < 0) {
+			if (containedBody[node] >= 0) {
+				setLeaf(node, containedBody[node]);
+			}
 			return;
 		}
-		float x, y, size;
-		if (containedBody != null) {
-			x = containedBody.getX();
-			y = containedBody.getY();
-			size = containedBody.getDiameter();
+		if (task != null && depth < REFIT_FORK_DEPTH) {
+			List<RefitTask> quadrants = task.quadrants();
+			for (int q = 0; q < 4; q++) {
+				quadrants.get(q).set(child + q, depth + 1);
+			}
+			RecursiveAction.invokeAll(quadrants);
 		}
 		else {
-			x = cmx / mass;
-			y = cmy / mass;
-			size = ((xl - xs) + (yl - ys)) / 2;
+			for (int q = child; q < child + 4; q++) {
+				refitNode(q, depth + 1, null);
+			}
 		}
-		float distance = distanceTo(body, x, y);
-		if (size / distance < Config.GRAVITATIONAL_FUDGE_FACTOR) {
-			// Close enough
-			updateBodyGravity(body, distance);
+		aggregate(node);
+	}
+
+	/**
+	 * Refits one node's subtree. Like {@link BuildTask}, each keeps the tasks of its quadrants for the next refit.
+	 */
+	private class RefitTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int node;
+		private int depth;
+		private List<RefitTask> quadrants;
+
+		RefitTask set(int node, int depth) {
+			reinitialize();
+			this.node = node;
+			this.depth = depth;
+			return this;
+		}
+
+		List<RefitTask> quadrants() {
+			if (quadrants == null) {
+				quadrants = Arrays.asList(new RefitTask(), new RefitTask(), new RefitTask(), new RefitTask());
+			}
+			return quadrants;
+		}
+
+		@Override
+		protected void compute() {
+			refitNode(node, depth, this);
+		}
+	}
+
+	private void prepareChunks() {
+		if (chunkNodes.length < chunks) {
+			chunkNodes = new long[chunks];
+			chunkBounds = new float[4 * chunks];
+		}
+	}
+
+	/**
+	 * Combine the per-chunk bounding boxes and start the pool with a square root around all of them.
+	 */
+	private void allocateRoot() {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			minX = Math.min(minX, chunkBounds[4 * chunk]);
+			minY = Math.min(minY, chunkBounds[4 * chunk + 1]);
+			maxX = Math.max(maxX, chunkBounds[4 * chunk + 2]);
+			maxY = Math.max(maxY, chunkBounds[4 * chunk + 3]);
+		}
+		nodeCount = 0;
+		maxDepth.set(0);
+		if (minX > maxX) {
+			// No bodies to hold
+			allocate(0, 0, 0, 0);
+			return;
+		}
+		float size = Math.max(Math.max(maxX - minX, maxY - minY), Config.QUAD_TREE_MIN_QUAD_SIZE);
+		// Bodies on the bounds would fall outside, since the edges belong to no quadrant of the root.
+		float largest = Math.max(Math.max(Math.abs(minX), Math.abs(maxX)), Math.max(Math.abs(minY), Math.abs(maxY)));
+		float margin = Math.max(size * rootMargin, 4 * Math.ulp(largest));
+		float left = (minX + maxX - size) / 2 - margin;
+		float top = (minY + maxY - size) / 2 - margin;
+		size += 2 * margin;
+		allocate(left, top, left + size, top + size);
+	}
+
+	/**
+	 * Descend from the root exactly as {@link #insert} would, recording the quadrant taken at each level.
+	 */
+	private long mortonKey(float x, float y) {
+		float left = xs[0], top = ys[0], right = xl[0], bottom = yl[0];
+		if (!(x > left && x < right && y > top && y < bottom)) {
+			// Outside the root (only possible for positions that aren't finite), sorted after everything inside it
+			return 1L << (2 * keyLevels);
+		}
+		long key = 0;
+		for (int level = 0; level < keyLevels; level++) {
+			float centerX = (left + right) / 2;
+			float centerY = (top + bottom) / 2;
+			int digit = 0;
+			if (x < centerX) {
+				right = centerX;
+			}
+			else {
+				left = centerX;
+				digit += UPPER_RIGHT;
+			}
+			if (y < centerY) {
+				bottom = centerY;
+			}
+			else {
+				top = centerY;
+				digit += LOWER_LEFT;
+			}
+			key = (key << 2) | digit;
+		}
+		return key;
+	}
+
+	private int firstOutsideRoot(int n) {
+		long outside = 1L << (2 * keyLevels);
+		int low = 0, high = n;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] < outside) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return The number of levels below the root that the bodies at sorted positions i and i + 1 share.
+	 */
+	private int commonLevels(int i) {
+		long difference = keys[i] ^ keys[i + 1];
+		if (difference == 0) {
+			return keyLevels;
+		}
+		return (Long.numberOfLeadingZeros(difference) - (64 - 2 * keyLevels)) / 2;
+	}
+
+	private int chunkStart(int chunk, int size) {
+		return (int) ((long) size * chunk / chunks);
+	}
+
+	/**
+	 * Fill in a node from the bodies at sorted positions lo (inclusive) to hi (exclusive), then aggregate its
+	 * moments once its quadrants are done.
+	 * @param task	The task this node is built by, or null to build the subtree on this thread
+	 */
+	private void buildNode(int node, int level, int lo, int hi, BuildTask task) {
+		int n = hi - lo;
+		if (n == 0) {
+			return;
+		}
+		if (n == 1) {
+			nextInLeaf[order[lo]] = -1;
+			setLeaf(node, order[lo]);
+			return;
+		}
+		boolean splittable = level < keyLevels
+				&& xl[node] - xs[node] > Config.QUAD_TREE_MIN_QUAD_SIZE && yl[node] - ys[node] > Config.QUAD_TREE_MIN_QUAD_SIZE;
+		if (!splittable || (keys[lo] == keys[hi - 1] && allAtSamePosition(lo, hi))) {
+			// The bodies share the leaf, listed in the order they would have been inserted.
+			Arrays.sort(order, lo, hi);
+			for (int p = lo; p < hi - 1; p++) {
+				nextInLeaf[order[p]] = order[p + 1];
+			}
+			nextInLeaf[order[hi - 1]] = -1;
+			setLeaf(node, order[lo]);
+			return;
+		}
+
+		float centerX = getCenterX(node);
+		float centerY = getCenterY(node);
+		int child = nextNode.getAndAdd(4);
+		if (child + 4 > firstChild.length) {
+			throw new IllegalStateException("Node pool sized for " + firstChild.length + " nodes was too small");
+		}
+		initNode(child + UPPER_LEFT, xs[node], ys[node], centerX, centerY);
+		initNode(child + UPPER_RIGHT, centerX, ys[node], xl[node], centerY);
+		initNode(child + LOWER_LEFT, xs[node], centerY, centerX, yl[node]);
+		initNode(child + LOWER_RIGHT, centerX, centerY, xl[node], yl[node]);
+		firstChild[node] = child;
+		recordDepth(level + 1);
+
+		int shift = 2 * (keyLevels - 1 - level);
+		int upperRight = firstWithDigit(lo, hi, shift, UPPER_RIGHT);
+		int lowerLeft = firstWithDigit(upperRight, hi, shift, LOWER_LEFT);
+		int lowerRight = firstWithDigit(lowerLeft, hi, shift, LOWER_RIGHT);
+		if (task != null && n > BUILD_GRAIN) {
+			List<BuildTask> quadrants = task.quadrants();
+			quadrants.get(UPPER_LEFT).set(child + UPPER_LEFT, level + 1, lo, upperRight);
+			quadrants.get(UPPER_RIGHT).set(child + UPPER_RIGHT, level + 1, upperRight, lowerLeft);
+			quadrants.get(LOWER_LEFT).set(child + LOWER_LEFT, level + 1, lowerLeft, lowerRight);
+			quadrants.get(LOWER_RIGHT).set(child + LOWER_RIGHT, level + 1, lowerRight, hi);
+			RecursiveAction.invokeAll(quadrants);
 		}
 		else {
-			if (upperLeft == null) {
-				// Could also calculate using the actual bodies (rather than the center of mass)
-				// ... may be worth looking into
-				updateBodyGravity(body, distance);
+			buildNode(child + UPPER_LEFT, level + 1, lo, upperRight, null);
+			buildNode(child + UPPER_RIGHT, level + 1, upperRight, lowerLeft, null);
+			buildNode(child + LOWER_LEFT, level + 1, lowerLeft, lowerRight, null);
+			buildNode(child + LOWER_RIGHT, level + 1, lowerRight, hi, null);
+		}
+		aggregate(node);
+	}
+
+	private boolean allAtSamePosition(int lo, int hi) {
+		int first = order[lo];
+		for (int p = lo + 1; p < hi; p++) {
+			if (bodies.x[order[p]] != bodies.x[first] || bodies.y[order[p]] != bodies.y[first]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The first sorted position in lo..hi whose quadrant digit at the given shift is at least digit.
+	 */
+	private int firstWithDigit(int lo, int hi, int shift, int digit) {
+		while (lo < hi) {
+			int middle = (lo + hi) >>> 1;
+			if (((keys[middle] >>> shift) & 3) < digit) {
+				lo = middle + 1;
 			}
 			else {
-				upperLeft.updateGravity(body);
-				upperRight.updateGravity(body);
-				lowerLeft.updateGravity(body);
-				lowerRight.updateGravity(body);
+				hi = middle;
 			}
 		}
+		return lo;
 	}
-	
-	private void updateBodyGravity(Body body, float distance) {
-		float gravity = (mass * Config.GRAVITY_CONSTANT) / (distance * distance);
-		float angle = (float) Math.atan2(centerY - body.getY(), centerX - body.getX());
-		//float angle = (float) Math.sqrt(Math.pow(centerX - body.getX(), 2) + Math.pow(centerY - body.getY(), 2));
-		if (Float.isNaN(gravity) || Float.isNaN(distance)) {
-			System.out.println("NaN");
-		} 
-		body.enactGravity(gravity, angle);
-		// Maintain a history of gravities, used for drawing later.
-		gravityHistory.put(body, gravity);
-	}
-	
-	private float distanceTo(Body body, float x, float y) {
+
+	/**
+	 * Builds one node's subtree. The tasks of its quadrants are made the first time it splits and kept, so once
+	 * the builds have split as deep as they go, a parallel build makes no new tasks.
+	 */
+	private class BuildTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int node;
+		private int level;
+		private int lo;
+		private int hi;
+		private List<BuildTask> quadrants;
+
+		BuildTask set(int node, int level, int lo, int hi) {
+			reinitialize();
+			this.node = node;
+			this.level = level;
+			this.lo = lo;
+			this.hi = hi;
+			return this;
+		}
+
+		List<BuildTask> quadrants() {
+			if (quadrants == null) {
+				quadrants = Arrays.asList(new BuildTask(), new BuildTask(), new BuildTask(), new BuildTask());
+			}
+			return quadrants;
+		}
+
+		@Override
+		protected void compute() {
+			buildNode(node, level, lo, hi, this);
+		}
+	}
+
+	/**
+	 * @param xSmall	Left x
+	 * @param ySmall	Top y
+	 * @param xLarge	Right x
+	 * @param yLarge	Bottom y
+	 * @return The index of the new node.
+	 */
+	private int allocate(float xSmall, float ySmall, float xLarge, float yLarge) {
+		if (nodeCount == firstChild.length) {
+			grow();
+		}
+		int node = nodeCount++;
+		initNode(node, xSmall, ySmall, xLarge, yLarge);
+		return node;
+	}
+
+	private void initNode(int node, float xSmall, float ySmall, float xLarge, float yLarge) {
+		xs[node] = xSmall;
+		ys[node] = ySmall;
+		xl[node] = xLarge;
+		yl[node] = yLarge;
+		firstChild[node] = -1;
+		containedBody[node] = -1;
+		mass[node] = 0;
+		cmx[node] = 0;
+		cmy[node] = 0;
+		quadXX[node] = 0;
+		quadXY[node] = 0;
+		quadYY[node] = 0;
+		extent[node] = 0;
+	}
+
+	private void grow() {
+		ensureCapacity(firstChild.length * 2);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= firstChild.length) {
+			return;
+		}
+		capacity = Math.max(capacity, firstChild.length * 2);
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		xl = Arrays.copyOf(xl, capacity);
+		yl = Arrays.copyOf(yl, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		containedBody = Arrays.copyOf(containedBody, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		cmx = Arrays.copyOf(cmx, capacity);
+		cmy = Arrays.copyOf(cmy, capacity);
+		quadXX = Arrays.copyOf(quadXX, capacity);
+		quadXY = Arrays.copyOf(quadXY, capacity);
+		quadYY = Arrays.copyOf(quadYY, capacity);
+		extent = Arrays.copyOf(extent, capacity);
+	}
+
+	private boolean insert(int b) {
+		float bx = bodies.x[b];
+		float by = bodies.y[b];
+		if (!(bx > xs[0] && bx < xl[0] && by > ys[0] && by < yl[0])) {
+			// The root holds every finite position, so this one is NaN or infinite.
+			return false;
+		}
+		/*
+		 * Three possible states:
+		 * 1. Empty (no body, no subnodes)
+		 * 2. Subnodes (4), any of which may be empty (doesn't matter)
+		 * 3. Have a body (and no subnodes).
+		 */
+		int node = 0;
+		int depth = 0;
+		while (true) {
+			if (firstChild[node] < 0) {	// Hasn't been split yet (this may be a leaf node)
+				int other = containedBody[node];
+				nextInLeaf[b] = -1;
+				if (other < 0) {
+					containedBody[node] = b;
+					return true;
+				}
+				// State 3, need to move to state 2.
+				if ((bx == bodies.x[other] && by == bodies.y[other])
+						|| xl[node] - xs[node] <= Config.QUAD_TREE_MIN_QUAD_SIZE || yl[node] - ys[node] <= Config.QUAD_TREE_MIN_QUAD_SIZE) {
+					// Splitting wouldn't separate them (exactly the same position would infinitely recurse),
+					// so they share the leaf.
+					while (nextInLeaf[other] >= 0) {
+						other = nextInLeaf[other];
+					}
+					nextInLeaf[other] = b;
+					return true;
+				}
+				split(node);
+				recordDepth(depth + 1);
+				// The new quadrants are empty, so the leaf's bodies move down together. A leaf that is larger than
+				// the minimum only holds several bodies if they are all at the same position.
+				containedBody[node] = -1;
+				containedBody[quadrantOf(node, bodies.x[other], bodies.y[other])] = other;
+			}
+			// State 2. Place the body in the right subtree
+			node = quadrantOf(node, bx, by);
+			depth++;
+		}
+	}
+
+	private void split(int node) {
+		float centerX = getCenterX(node);
+		float centerY = getCenterY(node);
+		// Allocate before reading the bounds again, as the arrays may be replaced when the pool grows.
+		int child = allocate(xs[node], ys[node], centerX, centerY);
+		allocate(centerX, ys[node], xl[node], centerY);
+		allocate(xs[node], centerY, centerX, yl[node]);
+		allocate(centerX, centerY, xl[node], yl[node]);
+		firstChild[node] = child;
+	}
+
+	private int quadrantOf(int node, float x, float y) {
+		int child = firstChild[node];
+		if (x < getCenterX(node)) {		// Left
+			return y < getCenterY(node) ? child + UPPER_LEFT : child + LOWER_LEFT;
+		}
+		else {							// Right
+			return y < getCenterY(node) ? child + UPPER_RIGHT : child + LOWER_RIGHT;
+		}
+	}
+
+	/**
+	 * Single bottom-up pass over the pool. Children always come after their parent, so by the time a node is
+	 * reached its quadrants already hold their totals.
+	 */
+	private void computeMoments() {
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			if (firstChild[node] < 0) {
+				if (containedBody[node] >= 0) {
+					setLeaf(node, containedBody[node]);
+				}
+			}
+			else {
+				aggregate(node);
+			}
+		}
+	}
+
+	private void setLeaf(int node, int b) {
+		containedBody[node] = b;
+		leafOf[b] = node;
+		if (nextInLeaf[b] < 0) {
+			// As a leaf the total mass is exactly the mass of the contained body.
+			mass[node] = bodies.mass[b];
+			cmx[node] = bodies.x[b];
+			cmy[node] = bodies.y[b];
+			// A single point has no quadrupole moment about itself.
+			quadXX[node] = 0;
+			quadXY[node] = 0;
+			quadYY[node] = 0;
+			extent[node] = reach(b);
+		}
+		else {
+			setSharedLeaf(node, b);
+		}
+		if (Float.isNaN(cmx[node]) || Float.isNaN(cmy[node])) {
+			nanCount.increment();
+		}
+	}
+
+	/**
+	 * Moments of a leaf holding a list of bodies, summed directly from the bodies.
+	 */
+	private void setSharedLeaf(int node, int first) {
+		float m = 0, mx = 0, my = 0, e = 0;
+		for (int b = first; b >= 0; b = nextInLeaf[b]) {
+			leafOf[b] = node;
+			m += bodies.mass[b];
+			mx += bodies.x[b] * bodies.mass[b];
+			my += bodies.y[b] * bodies.mass[b];
+			e = Math.max(e, reach(b));
+		}
+		mass[node] = m;
+		extent[node] = e;
+		if (m > 0) {
+			cmx[node] = mx / m;
+			cmy[node] = my / m;
+		}
+		float qxx = 0, qxy = 0, qyy = 0;
+		for (int b = first; b >= 0; b = nextInLeaf[b]) {
+			float sx = bodies.x[b] - cmx[node];
+			float sy = bodies.y[b] - cmy[node];
+			qxx += bodies.mass[b] * (2 * sx * sx - sy * sy);
+			qxy += bodies.mass[b] * 3 * sx * sy;
+			qyy += bodies.mass[b] * (2 * sy * sy - sx * sx);
+		}
+		quadXX[node] = qxx;
+		quadXY[node] = qxy;
+		quadYY[node] = qyy;
+	}
+
+	private void aggregate(int node) {
+		int child = firstChild[node];
+		float m = 0, mx = 0, my = 0;
+		for (int q = child; q < child + 4; q++) {
+			m += mass[q];
+			mx += cmx[q] * mass[q];
+			my += cmy[q] * mass[q];
+		}
+		mass[node] = m;
+		if (m > 0) {
+			cmx[node] = mx / m;
+			cmy[node] = my / m;
+		}
+		// Shift each quadrant's moment from its own center of mass to this node's (parallel axis theorem).
+		float qxx = 0, qxy = 0, qyy = 0, e = 0;
+		for (int q = child; q < child + 4; q++) {
+			// Quadrants emptied by a refit may keep a stale extent, which only makes this one larger
+			e = Math.max(e, extent[q]);
+			if (mass[q] == 0) {
+				continue;
+			}
+			float sx = cmx[q] - cmx[node];
+			float sy = cmy[q] - cmy[node];
+			qxx += quadXX[q] + mass[q] * (2 * sx * sx - sy * sy);
+			qxy += quadXY[q] + mass[q] * 3 * sx * sy;
+			qyy += quadYY[q] + mass[q] * (2 * sy * sy - sx * sx);
+		}
+		quadXX[node] = qxx;
+		quadXY[node] = qxy;
+		quadYY[node] = qyy;
+		extent[node] = e;
+		if (Float.isNaN(cmx[node]) || Float.isNaN(cmy[node])) {
+			nanCount.increment();
+		}
+	}
+
+	/**
+	 * @return How far past its position a body's circle reaches, plus how far it may move in a step. The step
+	 * is taken from the velocity and acceleration at the build, doubled in case the acceleration grows.
+	 */
+	private float reach(int b) {
+		float step = Math.abs(bodies.vx[b]) + Math.abs(bodies.vy[b]) + Math.abs(bodies.ax[b]) + Math.abs(bodies.ay[b]);
+		return bodies.radius[b] + 2 * step;
+	}
+
+	/**
+	 * Make this tree a copy of another one's nodes and walk settings, holding the same store indices in the given
+	 * store, e.g. a copy of the other tree's store taken at the same time. The copy is for walking and querying
+	 * only; it can't be refitted. Costs a few array copies.
+	 */
+	public void copyFrom(BHTree other, BodyStore bodies) {
+		int n = other.nodeCount;
+		if (xs.length < n) {
+			int capacity = Math.max(n, xs.length * 2);
+			xs = new float[capacity];
+			ys = new float[capacity];
+			xl = new float[capacity];
+			yl = new float[capacity];
+			firstChild = new int[capacity];
+			containedBody = new int[capacity];
+			mass = new float[capacity];
+			cmx = new float[capacity];
+			cmy = new float[capacity];
+			quadXX = new float[capacity];
+			quadXY = new float[capacity];
+			quadYY = new float[capacity];
+			extent = new float[capacity];
+		}
+		System.arraycopy(other.xs, 0, xs, 0, n);
+		System.arraycopy(other.ys, 0, ys, 0, n);
+		System.arraycopy(other.xl, 0, xl, 0, n);
+		System.arraycopy(other.yl, 0, yl, 0, n);
+		System.arraycopy(other.firstChild, 0, firstChild, 0, n);
+		System.arraycopy(other.containedBody, 0, containedBody, 0, n);
+		System.arraycopy(other.mass, 0, mass, 0, n);
+		System.arraycopy(other.cmx, 0, cmx, 0, n);
+		System.arraycopy(other.cmy, 0, cmy, 0, n);
+		System.arraycopy(other.quadXX, 0, quadXX, 0, n);
+		System.arraycopy(other.quadXY, 0, quadXY, 0, n);
+		System.arraycopy(other.quadYY, 0, quadYY, 0, n);
+		System.arraycopy(other.extent, 0, extent, 0, n);
+		nodeCount = n;
+		int tracked = other.trackedCount;
+		if (nextInLeaf.length < tracked) {
+			nextInLeaf = new int[Math.max(tracked, nextInLeaf.length * 2)];
+		}
+		System.arraycopy(other.nextInLeaf, 0, nextInLeaf, 0, tracked);
+		// Leaves aren't tracked, so that refit always gives up on the copy
+		trackedCount = 0;
+		kernel = other.kernel;
+		gravityConstant = other.gravityConstant;
+		softening2 = other.softening2;
+		criterion = other.criterion;
+		openingAngle = other.openingAngle;
+		openingAngle2 = other.openingAngle2;
+		errorTolerance = other.errorTolerance;
+		quadrupole = other.quadrupole;
+		this.bodies = bodies;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return The depth of the deepest node, the root being at 0. Nodes that refits have emptied still count
+	 * until the next full build.
+	 */
+	public int getMaxDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * @return The number of nodes and bodies whose pull has been applied to a body, over every walk since the tree
+	 * was created.
+	 */
+	public long getInteractionCount() {
+		return interactions.sum();
+	}
+
+	/**
+	 * @return The number of times a node's center of mass, or a distance in the legacy walk, came out as NaN since
+	 * the tree was created. Counted rather than reported, as it happens deep in loops over every body.
+	 */
+	public long getNanCount() {
+		return nanCount.sum();
+	}
+
+	/**
+	 * Only ever raises the maximum; nodes are split from several threads during the sorted build.
+	 */
+	private void recordDepth(int depth) {
+		if (depth > maxDepth.get()) {
+			maxDepth.accumulateAndGet(depth, Math::max);
+		}
+	}
+
+	/**
+	 * @return The index of the node's upper left quadrant, or -1 if the node hasn't been split.
+	 */
+	public int getFirstChild(int node) {
+		return firstChild[node];
+	}
+
+	public float getXSmall(int node) {
+		return xs[node];
+	}
+
+	public float getYSmall(int node) {
+		return ys[node];
+	}
+
+	public float getWidth(int node) {
+		return xl[node] - xs[node];
+	}
+
+	public float getHeight(int node) {
+		return yl[node] - ys[node];
+	}
+
+	public float getCenterX(int node) {
+		return (xs[node] + xl[node]) / 2;
+	}
+
+	public float getCenterY(int node) {
+		return (ys[node] + yl[node]) / 2;
+	}
+
+	public float getMass(int node) {
+		return mass[node];
+	}
+
+	public float getCenterOfMassX(int node) {
+		return cmx[node];
+	}
+
+	public float getCenterOfMassY(int node) {
+		return cmy[node];
+	}
+
+	/**
+	 * @return How far past the node's bounds the circles of its bodies may reach, as of the last build or refit:
+	 * the largest radius plus step among them, so that it still holds a step later.
+	 */
+	public float getExtent(int node) {
+		return extent[node];
+	}
+
+	/**
+	 * @return The store index of the first body held by this leaf, or -1 if there is none.
+	 */
+	public int getContainedBody(int node) {
+		return containedBody[node];
+	}
+
+	/**
+	 * @return The store index of the next body in the same leaf as the given one, or -1 if it is the last.
+	 */
+	public int getNextInLeaf(int body) {
+		return nextInLeaf[body];
+	}
+
+	/**
+	 * Set the space left around the bodies on each side of the root at a full build, as a fraction of the root's
+	 * size. A larger margin lets {@link #refit} keep going for longer as the outermost bodies drift outward.
+	 */
+	public void setRootMargin(float rootMargin) {
+		if (!(rootMargin >= 0)) {
+			throw new IllegalArgumentException("Root margin must not be negative: " + rootMargin);
+		}
+		this.rootMargin = rootMargin;
+	}
+
+	/**
+	 * Set how far the tree may degrade before {@link #refit} asks for a full build: the number of nodes per body
+	 * may grow by this fraction over what it was after the last full build.
+	 */
+	public void setRebuildThreshold(float rebuildThreshold) {
+		if (!(rebuildThreshold >= 0)) {
+			throw new IllegalArgumentException("Rebuild threshold must not be negative: " + rebuildThreshold);
+		}
+		this.rebuildThreshold = rebuildThreshold;
+	}
+
+	/**
+	 * @return The number of full builds, by either method, since the tree was created.
+	 */
+	public int getFullBuildCount() {
+		return fullBuilds;
+	}
+
+	/**
+	 * @return The number of successful refits since the tree was created.
+	 */
+	public int getRefitCount() {
+		return refits;
+	}
+
+	public void setKernel(GravityKernel kernel) {
+		this.kernel = kernel;
+	}
+
+	/**
+	 * Set the Plummer softening length used by the {@link GravityKernel#COMPONENTS} kernel.
+	 */
+	public void setSoftening(float softening) {
+		this.softening2 = softening * softening;
+	}
+
+	/**
+	 * Set the gravitational constant the pulls are scaled by.
+	 */
+	public void setGravityConstant(float gravityConstant) {
+		this.gravityConstant = gravityConstant;
+	}
+
+	public float getGravityConstant() {
+		return gravityConstant;
+	}
+
+	/**
+	 * Choose how the {@link GravityKernel#COMPONENTS} walk decides whether to open a node.
+	 */
+	public void setOpeningCriterion(OpeningCriterion criterion) {
+		this.criterion = criterion;
+	}
+
+	public OpeningCriterion getOpeningCriterion() {
+		return criterion;
+	}
+
+	/**
+	 * Set the opening angle theta: nodes whose size is less than theta times their distance are used whole.
+	 * Larger is faster and less accurate. Used by both kernels.
+	 */
+	public void setOpeningAngle(float openingAngle) {
+		if (!(openingAngle >= 0)) {
+			throw new IllegalArgumentException("Opening angle must not be negative: " + openingAngle);
+		}
+		this.openingAngle = openingAngle;
+		this.openingAngle2 = openingAngle * openingAngle;
+	}
+
+	public float getOpeningAngle() {
+		return openingAngle;
+	}
+
+	/**
+	 * Set the fraction of a body's previous acceleration that one accepted node may be wrong by, for
+	 * {@link OpeningCriterion#RELATIVE_ERROR}.
+	 */
+	public void setErrorTolerance(float errorTolerance) {
+		if (!(errorTolerance >= 0)) {
+			throw new IllegalArgumentException("Error tolerance must not be negative: " + errorTolerance);
+		}
+		this.errorTolerance = errorTolerance;
+	}
+
+	public float getErrorTolerance() {
+		return errorTolerance;
+	}
+
+	/**
+	 * Whether accepted nodes add their quadrupole term as well as their monopole, for
+	 * {@link GravityKernel#COMPONENTS}.
+	 */
+	public void setQuadrupole(boolean quadrupole) {
+		this.quadrupole = quadrupole;
+	}
+
+	public boolean isQuadrupole() {
+		return quadrupole;
+	}
+
+	/**
+	 * Add the pull of every part of the tree to the acceleration of the body at the given store index.
+	 * The tree itself is only read, so different bodies can be walked from different threads at once.
+	 */
+	public void updateGravity(int body) {
+		updateGravity(body, 0);
+	}
+
+	/**
+	 * @param previousAcceleration	Magnitude of the body's acceleration in the previous step, used by
+	 * 								{@link OpeningCriterion#RELATIVE_ERROR}. 0 if unknown.
+	 */
+	public void updateGravity(int body, float previousAcceleration) {
+		if (nodeCount == 0) {
+			return;
+		}
+		if (kernel == GravityKernel.LEGACY) {
+			interactions.add(updateGravity(0, body, null));
+		}
+		else {
+			// Compared against G * M * size^2 / d^4 for each node
+			float tolerance = criterion == OpeningCriterion.RELATIVE_ERROR ? errorTolerance * previousAcceleration : 0;
+			interactions.add(accelerate(0, body, bodies.x[body], bodies.y[body], tolerance));
+		}
+	}
+
+	/**
+	 * Walk the tree for a body exactly as {@link #updateGravity(int)} does, but report each interaction instead of
+	 * applying it. Used to draw the gravity lines without keeping a history in every node.
+	 */
+	public void visitInteractions(int body, InteractionVisitor visitor) {
+		if (nodeCount > 0) {
+			updateGravity(0, body, visitor);
+		}
+	}
+
+	/**
+	 * @return The potential at the body at the given store index due to every other body in the tree, from the
+	 * same walk as {@link #updateGravity(int, float)}: the monopole and, if it is on, the quadrupole term of each
+	 * accepted node, -G * (M / r + (d . Q * d) / (2 * r^5)), with the Plummer softening. Summed in double. Only
+	 * reads the tree, so different bodies can be walked from different threads at once.
+	 */
+	public double getPotential(int body) {
+		if (nodeCount == 0) {
+			return 0;
+		}
+		return -gravityConstant * potential(0, body, bodies.x[body], bodies.y[body]);
+	}
+
+	/**
+	 * Add to out the store index of every body in the tree whose center is within radius of (x, y), where the
+	 * body is now.
+	 *
+	 * Like the other queries, this looks for each body within its leaf widened by the leaf's extent, and tests it
+	 * at its current position. Indices past the end of the store are skipped. The tree can't know about bodies
+	 * added since it was built, or about a store index that now holds another body, so those have to be checked
+	 * separately (see {@link Universe#getChangedSinceBuild}).
+	 */
+	public void findWithin(float x, float y, float radius, IntList out) {
+		if (nodeCount > 0 && radius >= 0) {
+			findWithin(0, x, y, radius, out);
+		}
+	}
+
+	private void findWithin(int node, float x, float y, float radius, IntList out) {
+		if (boxDistance2(node, x, y) > radius * radius) {
+			return;
+		}
+		int child = firstChild[node];
+		if (child >= 0) {
+			for (int q = child; q < child + 4; q++) {
+				findWithin(q, x, y, radius, out);
+			}
+			return;
+		}
+		for (int b = containedBody[node]; b >= 0; b = nextInLeaf[b]) {
+			if (b < bodies.size()) {
+				float dx = bodies.x[b] - x;
+				float dy = bodies.y[b] - y;
+				if (dx * dx + dy * dy <= radius * radius) {
+					out.add(b);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add to out the store index of every body in the tree whose center is now inside the rectangle, edges
+	 * included. See {@link #findWithin} for which bodies are looked at.
+	 */
+	public void findInRectangle(float left, float top, float right, float bottom, IntList out) {
+		if (nodeCount > 0) {
+			findInRectangle(0, left, top, right, bottom, out);
+		}
+	}
+
+	private void findInRectangle(int node, float left, float top, float right, float bottom, IntList out) {
+		if (containedBody[node] < 0 && firstChild[node] < 0) {
+			return;
+		}
+		float e = extent[node];
+		if (xl[node] + e < left || xs[node] - e > right || yl[node] + e < top || ys[node] - e > bottom) {
+			return;
+		}
+		int child = firstChild[node];
+		if (child >= 0) {
+			for (int q = child; q < child + 4; q++) {
+				findInRectangle(q, left, top, right, bottom, out);
+			}
+			return;
+		}
+		for (int b = containedBody[node]; b >= 0; b = nextInLeaf[b]) {
+			if (b < bodies.size() && bodies.x[b] >= left && bodies.x[b] <= right && bodies.y[b] >= top && bodies.y[b] <= bottom) {
+				out.add(b);
+			}
+		}
+	}
+
+	/**
+	 * Find the body under a point, e.g. for picking with the mouse. See {@link #findWithin} for which bodies are
+	 * looked at.
+	 * @return The store index of the body whose circle holds the point and whose center is the closest to it,
+	 * or -1 if no circle does.
+	 */
+	public int findContaining(float x, float y) {
+		if (nodeCount == 0) {
+			return -1;
+		}
+		return (int) findContaining(0, x, y, Float.POSITIVE_INFINITY, -1);
+	}
+
+	/**
+	 * @return The best body so far packed with its squared distance: the distance's float bits in the high word,
+	 * and the store index (or -1) in the low word.
+	 */
+	private long findContaining(int node, float x, float y, float best2, int best) {
+		// The extent holds the radius, so a node whose widened box misses the point has no circle over it
+		if (boxDistance2(node, x, y) > 0) {
+			return pack(best2, best);
+		}
+		int child = firstChild[node];
+		if (child >= 0) {
+			for (int q = child; q < child + 4; q++) {
+				long found = findContaining(q, x, y, best2, best);
+				best2 = Float.intBitsToFloat((int) (found >>> 32));
+				best = (int) found;
+			}
+			return pack(best2, best);
+		}
+		for (int b = containedBody[node]; b >= 0; b = nextInLeaf[b]) {
+			if (b < bodies.size()) {
+				float dx = bodies.x[b] - x;
+				float dy = bodies.y[b] - y;
+				float distance2 = dx * dx + dy * dy;
+				if (distance2 <= bodies.radius[b] * bodies.radius[b] && (distance2 < best2 || (distance2 == best2 && b < best))) {
+					best2 = distance2;
+					best = b;
+				}
+			}
+		}
+		return pack(best2, best);
+	}
+
+	private static long pack(float distance2, int body) {
+		return ((long) Float.floatToRawIntBits(distance2) << 32) | (body & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Find the k bodies in the tree whose centers are the closest to a point now, by a best-first walk that
+	 * skips every node that can't hold anything closer than the k found so far. See {@link #findWithin} for
+	 * which bodies are looked at.
+	 * @param out	Receives their store indices, the closest first. Fewer than k if the tree holds fewer.
+	 */
+	public void findNearest(float x, float y, int k, IntList out) {
+		if (nodeCount == 0 || k <= 0) {
+			return;
+		}
+		NearestHeap heap = new NearestHeap(k);
+		findNearest(0, x, y, heap);
+		heap.drainInto(out);
+	}
+
+	private void findNearest(int node, float x, float y, NearestHeap heap) {
+		int child = firstChild[node];
+		if (child < 0) {
+			for (int b = containedBody[node]; b >= 0; b = nextInLeaf[b]) {
+				if (b < bodies.size()) {
+					float dx = bodies.x[b] - x;
+					float dy = bodies.y[b] - y;
+					heap.offer(dx * dx + dy * dy, b);
+				}
+			}
+			return;
+		}
+		// Closest quadrant first, so that the bound tightens as early as possible
+		float d0 = boxDistance2(child + UPPER_LEFT, x, y);
+		float d1 = boxDistance2(child + UPPER_RIGHT, x, y);
+		float d2 = boxDistance2(child + LOWER_LEFT, x, y);
+		float d3 = boxDistance2(child + LOWER_RIGHT, x, y);
+		for (int visited = 0; visited < 4; visited++) {
+			int q = -1;
+			float nearest = Float.POSITIVE_INFINITY;
+			if (d0 < nearest) {
+				q = UPPER_LEFT;
+				nearest = d0;
+			}
+			if (d1 < nearest) {
+				q = UPPER_RIGHT;
+				nearest = d1;
+			}
+			if (d2 < nearest) {
+				q = LOWER_LEFT;
+				nearest = d2;
+			}
+			if (d3 < nearest) {
+				q = LOWER_RIGHT;
+				nearest = d3;
+			}
+			if (q < 0 || !heap.accepts(nearest)) {
+				// The rest are farther still
+				return;
+			}
+			switch (q) {
+				case UPPER_LEFT:
+					d0 = Float.POSITIVE_INFINITY;
+					break;
+				case UPPER_RIGHT:
+					d1 = Float.POSITIVE_INFINITY;
+					break;
+				case LOWER_LEFT:
+					d2 = Float.POSITIVE_INFINITY;
+					break;
+				default:
+					d3 = Float.POSITIVE_INFINITY;
+			}
+			findNearest(child + q, x, y, heap);
+		}
+	}
+
+	/**
+	 * @return The squared distance from a point to the node's box widened by its extent, 0 if it is inside, or
+	 * infinity for a node without bodies.
+	 */
+	private float boxDistance2(int node, float x, float y) {
+		if (containedBody[node] < 0 && firstChild[node] < 0) {
+			return Float.POSITIVE_INFINITY;
+		}
+		float e = extent[node];
+		float dx = Math.max(Math.max(xs[node] - e - x, x - xl[node] - e), 0);
+		float dy = Math.max(Math.max(ys[node] - e - y, y - yl[node] - e), 0);
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * The k closest bodies found so far, as a max-heap on squared distance, then store index, so that ties go to
+	 * the lower index as in {@link SpatialQueries}. Bodies whose distance isn't a number are the farthest.
+	 */
+	private static class NearestHeap {
+
+		private final float[] distance2;
+		private final int[] body;
+		private int size;
+
+		NearestHeap(int k) {
+			distance2 = new float[k];
+			body = new int[k];
+		}
+
+		/**
+		 * @return true if something at this squared distance could still be among the k closest.
+		 */
+		boolean accepts(float d2) {
+			return size < body.length || d2 <= distance2[0] || Float.isNaN(distance2[0]);
+		}
+
+		void offer(float d2, int b) {
+			if (size < body.length) {
+				int i = size++;
+				// Sift up
+				while (i > 0 && farther(d2, b, distance2[(i - 1) / 2], body[(i - 1) / 2])) {
+					distance2[i] = distance2[(i - 1) / 2];
+					body[i] = body[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				distance2[i] = d2;
+				body[i] = b;
+			}
+			else if (farther(distance2[0], body[0], d2, b)) {
+				siftDown(d2, b, size);
+			}
+		}
+
+		/**
+		 * Put a new entry at the root and move it down to its place among the first n.
+		 */
+		private void siftDown(float d2, int b, int n) {
+			int i = 0;
+			while (true) {
+				int larger = 2 * i + 1;
+				if (larger >= n) {
+					break;
+				}
+				if (larger + 1 < n && farther(distance2[larger + 1], body[larger + 1], distance2[larger], body[larger])) {
+					larger++;
+				}
+				if (!farther(distance2[larger], body[larger], d2, b)) {
+					break;
+				}
+				distance2[i] = distance2[larger];
+				body[i] = body[larger];
+				i = larger;
+			}
+			distance2[i] = d2;
+			body[i] = b;
+		}
+
+		private static boolean farther(float d2, int b, float otherD2, int other) {
+			if (Float.isNaN(d2)) {
+				return !Float.isNaN(otherD2) || b > other;
+			}
+			return d2 > otherD2 || (d2 == otherD2 && b > other);
+		}
+
+		/**
+		 * Add the bodies to out, closest first, emptying the heap.
+		 */
+		void drainInto(IntList out) {
+			int start = out.size();
+			int count = size;
+			for (int k = 0; k < count; k++) {
+				out.add(0);
+			}
+			// Repeatedly take the farthest off the top, filling out from the back
+			while (size > 0) {
+				out.set(start + size - 1, body[0]);
+				size--;
+				if (size > 0) {
+					siftDown(distance2[size], body[size], size);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of nodes and bodies that pulled on the body.
+	 */
+	private int updateGravity(int node, int body, InteractionVisitor visitor) {
+		if (mass[node] == 0 || (body == containedBody[node] && nextInLeaf[body] < 0)) {
+			return 0;
+		}
+		int child = firstChild[node];
+		if (child < 0) {
+			// A leaf: each of its bodies pulls on its own
+			int pulled = 0;
+			for (int source = containedBody[node]; source >= 0; source = nextInLeaf[source]) {
+				float distance = distanceTo(body, bodies.x[source], bodies.y[source]);
+				if (source != body && distance > 0) {
+					updateBodyGravity(node, source, body, bodies.mass[source], distance, visitor);
+					pulled++;
+				}
+			}
+			return pulled;
+		}
+		float size = ((xl[node] - xs[node]) + (yl[node] - ys[node])) / 2;
+		float distance = distanceTo(body, cmx[node], cmy[node]);
+		if (size / distance < openingAngle) {
+			// Close enough
+			updateBodyGravity(node, -1, body, mass[node], distance, visitor);
+			return 1;
+		}
+		return updateGravity(child + UPPER_LEFT, body, visitor)
+				+ updateGravity(child + UPPER_RIGHT, body, visitor)
+				+ updateGravity(child + LOWER_LEFT, body, visitor)
+				+ updateGravity(child + LOWER_RIGHT, body, visitor);
+	}
+
+	/**
+	 * Same walk as the legacy path, but toward the center of mass, with the chosen opening criterion, and with
+	 * the quadrupole term of each accepted node. For a displacement d from the body to the center of mass:
+	 *
+	 * a = G * (M * d / r^3 - Q * d / r^5 + 5/2 * (d . Q * d) * d / r^7)
+	 * @return The number of nodes and bodies that pulled on the body.
+	 */
+	private int accelerate(int node, int body, float bx, float by, float tolerance) {
+		if (mass[node] == 0 || (body == containedBody[node] && nextInLeaf[body] < 0)) {
+			return 0;
+		}
+		int child = firstChild[node];
+		if (child < 0) {
+			// A leaf: each of its bodies pulls on its own
+			int pulled = 0;
+			for (int source = containedBody[node]; source >= 0; source = nextInLeaf[source]) {
+				if (source != body) {
+					pull(body, bx, by, bodies.x[source], bodies.y[source], bodies.mass[source]);
+					pulled++;
+				}
+			}
+			return pulled;
+		}
+		float dx = cmx[node] - bx;
+		float dy = cmy[node] - by;
+		float distance2 = dx * dx + dy * dy;
+		if (!accept(node, bx, by, distance2, tolerance)) {
+			// Too close to treat as one mass
+			return accelerate(child + UPPER_LEFT, body, bx, by, tolerance)
+					+ accelerate(child + UPPER_RIGHT, body, bx, by, tolerance)
+					+ accelerate(child + LOWER_LEFT, body, bx, by, tolerance)
+					+ accelerate(child + LOWER_RIGHT, body, bx, by, tolerance);
+		}
+		float softened = distance2 + softening2;
+		if (softened == 0) {
+			// Exactly on the center of mass, so there is no direction to pull in
+			return 0;
+		}
+		float inverse = 1 / (float) Math.sqrt(softened);
+		float inverse3 = inverse * inverse * inverse;
+		float gx = mass[node] * inverse3 * dx;
+		float gy = mass[node] * inverse3 * dy;
+		if (quadrupole) {
+			float qdx = quadXX[node] * dx + quadXY[node] * dy;
+			float qdy = quadXY[node] * dx + quadYY[node] * dy;
+			float inverse5 = inverse3 * inverse * inverse;
+			float radial = 2.5f * (dx * qdx + dy * qdy) * inverse5 * inverse * inverse;
+			gx += radial * dx - qdx * inverse5;
+			gy += radial * dy - qdy * inverse5;
+		}
+		bodies.ax[body] += gravityConstant * gx;
+		bodies.ay[body] += gravityConstant * gy;
+		return 1;
+	}
+
+	/**
+	 * @return The sum of M / r, plus the quadrupole term, over the nodes and bodies the walk takes for a body.
+	 */
+	private double potential(int node, int body, float bx, float by) {
+		if (mass[node] == 0 || (body == containedBody[node] && nextInLeaf[body] < 0)) {
+			return 0;
+		}
+		int child = firstChild[node];
+		if (child < 0) {
+			double sum = 0;
+			for (int source = containedBody[node]; source >= 0; source = nextInLeaf[source]) {
+				double dx = bodies.x[source] - bx;
+				double dy = bodies.y[source] - by;
+				double softened = dx * dx + dy * dy + softening2;
+				// Bodies exactly on top of each other without softening are left out, as they are by the pull
+				if (source != body && softened > 0) {
+					sum += bodies.mass[source] / Math.sqrt(softened);
+				}
+			}
+			return sum;
+		}
+		float dx = cmx[node] - bx;
+		float dy = cmy[node] - by;
+		float distance2 = dx * dx + dy * dy;
+		if (!accept(node, bx, by, distance2, 0)) {
+			return potential(child + UPPER_LEFT, body, bx, by)
+					+ potential(child + UPPER_RIGHT, body, bx, by)
+					+ potential(child + LOWER_LEFT, body, bx, by)
+					+ potential(child + LOWER_RIGHT, body, bx, by);
+		}
+		double softened = distance2 + softening2;
+		if (softened == 0) {
+			return 0;
+		}
+		double inverse = 1 / Math.sqrt(softened);
+		double sum = mass[node] * inverse;
+		if (quadrupole) {
+			double dqd = dx * (quadXX[node] * dx + quadXY[node] * dy) + dy * (quadXY[node] * dx + quadYY[node] * dy);
+			double inverse2 = inverse * inverse;
+			sum += 0.5 * dqd * inverse2 * inverse2 * inverse;
+		}
+		return sum;
+	}
+
+	/**
+	 * Add the pull of a single point mass to the body's acceleration.
+	 */
+	private void pull(int body, float bx, float by, float px, float py, float m) {
+		float dx = px - bx;
+		float dy = py - by;
+		float softened = dx * dx + dy * dy + softening2;
+		if (softened == 0) {
+			// Exactly on top of each other, so there is no direction to pull in
+			return;
+		}
+		float inverse = 1 / (float) Math.sqrt(softened);
+		float strength = gravityConstant * m * inverse * inverse * inverse;
+		bodies.ax[body] += strength * dx;
+		bodies.ay[body] += strength * dy;
+	}
+
+	/**
+	 * @param distance2	Squared distance from the body to the node's center of mass
+	 * @return true if the node is far enough away to be used whole.
+	 */
+	private boolean accept(int node, float bx, float by, float distance2, float tolerance) {
+		float size = ((xl[node] - xs[node]) + (yl[node] - ys[node])) / 2;
+		switch (criterion) {
+			case MIN_DISTANCE: {
+				float ex = Math.max(Math.max(xs[node] - bx, bx - xl[node]), 0);
+				float ey = Math.max(Math.max(ys[node] - by, by - yl[node]), 0);
+				return size * size < openingAngle2 * (ex * ex + ey * ey);
+			}
+			case RELATIVE_ERROR:
+				if (tolerance > 0) {
+					if (bx >= xs[node] && bx <= xl[node] && by >= ys[node] && by <= yl[node]) {
+						return false;
+					}
+					return gravityConstant * mass[node] * size * size < tolerance * distance2 * distance2;
+				}
+				// No previous acceleration to compare against yet
+				return size * size < openingAngle2 * distance2;
+			default:
+				return size * size < openingAngle2 * distance2;
+		}
+	}
+
+	/**
+	 * @param source	The pulling body, or -1 for the whole node
+	 */
+	private void updateBodyGravity(int node, int source, int body, float m, float distance, InteractionVisitor visitor) {
+		float gravity = (m * gravityConstant) / (distance * distance);
+		if (visitor != null) {
+			visitor.interaction(node, source, body, gravity);
+			return;
+		}
+		float angle = (float) Math.atan2(getCenterY(node) - bodies.y[body], getCenterX(node) - bodies.x[body]);
+		if (Float.isNaN(gravity) || Float.isNaN(distance)) {
+			nanCount.increment();
+		}
+		bodies.enactGravity(body, gravity, angle);
+	}
+
+	private float distanceTo(int body, float x, float y) {
 		float result = (float) Math.sqrt(
-				Math.pow(x - body.getX(), 2) + 
-				Math.pow(y - body.getY(), 2));
+				Math.pow(x - bodies.x[body], 2) +
+				Math.pow(y - bodies.y[body], 2));
 		if (Float.isNaN(result)) {
-			System.out.println("NaN");
+			nanCount.increment();
 		}
 		return result;
 	}
@@ -0,0 +1,82 @@
+package app;
+
+/**
+ * Gravity from a {@link BHTree}: each body walks the tree from the root, using whole any node that is far
+ * enough away. The tree is rebuilt at every build, or refitted if the incremental tree is on.
+ */
+public class BarnesHutSolver implements GravitySolver {
+
+	private final BHTree tree;
+	// Build the tree from Morton-sorted bodies (in parallel) rather than by inserting them one at a time
+	private boolean sortedBuild = true;
+	// Refit the last step's tree where possible instead of building it again
+	private boolean incremental = false;
+
+	public BarnesHutSolver(BHTree tree) {
+		this.tree = tree;
+	}
+
+	@Override
+	public void build(BodyStore bodies, Parallel parallel) {
+		if (incremental && tree.refit(bodies, parallel)) {
+			return;
+		}
+		if (sortedBuild) {
+			tree.buildSorted(bodies, parallel);
+		}
+		else {
+			tree.build(bodies);
+		}
+	}
+
+	@Override
+	public void accelerate(int body, float previousAcceleration) {
+		tree.updateGravity(body, previousAcceleration);
+	}
+
+	@Override
+	public void setSoftening(float softening) {
+		tree.setSoftening(softening);
+	}
+
+	@Override
+	public void setGravityConstant(float gravityConstant) {
+		tree.setGravityConstant(gravityConstant);
+	}
+
+	@Override
+	public long getInteractionCount() {
+		return tree.getInteractionCount();
+	}
+
+	@Override
+	public int getNodeCount() {
+		return tree.getNodeCount();
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return tree.getMaxDepth();
+	}
+
+	public BHTree getTree() {
+		return tree;
+	}
+
+	/**
+	 * Choose between the parallel Morton-sorted tree build and inserting bodies one at a time. Both produce the
+	 * same tree.
+	 */
+	public void setSortedBuild(boolean sortedBuild) {
+		this.sortedBuild = sortedBuild;
+	}
+
+	/**
+	 * Keep the tree between builds, only moving the bodies that have left their leaf, and build it again only
+	 * when it has degraded too far.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+}
@@ -1,181 +1,122 @@
 package app;
 
-import java.util.ArrayList;
-import java.util.List;
 
-import org.lwjgl.util.Point;
-import org.lwjgl.util.vector.Vector;
-import org.newdawn.slick.Color;
-import org.newdawn.slick.Graphics;
-import org.newdawn.slick.geom.Circle;
-import org.newdawn.slick.geom.Vector2f;
+/**
+ * A fixed body that sits outside of the {@link BodyStore}, such as the sun. It pulls on every body in the store
+ * but is not moved by them, and takes no part in collisions.
+ */
+public class Body {
 
+	private float x;
+	private float y;
+	private float radius;
 
-public class Body {
-	
-	private Circle circle;
-	
 	private float mass = 1f;
-	protected Vector2f position;
-	protected Vector2f velocity;
 	protected String name;
-	float age = 0.0f;
-	protected Color color;
-	List<Circle> trail;
 
-	
+
 	public String toString() {
 		return name + " [" + getX() + ", " + getY() + "]";
 	}
-	
-	protected float getX() {
-		return circle.getCenterX();
+
+	public float getX() {
+		return x;
 	}
-	
-	protected float getY() {
-		return circle.getCenterY();
+
+	public float getY() {
+		return y;
 	}
-	
-	protected float getMass() {
+
+	public float getMass() {
 		return mass;
 	}
 
-	public Body(String name, int x, int y, float speed, float direction) {
-		this(name, x, y, speed, direction, (float) (Math.random() * Config.NODE_INITIAL_MASS), Config.COLOR_BODY);
+	public float getRadius() {
+		return radius;
+	}
+
+	public String getName() {
+		return name;
 	}
-	
-	public Body(String name, int x, int y, float speed, float direction, float mass, Color color) {
-		circle = new Circle((float)x, (float)y, mass * Config.MASS_TO_SIZE_MULTIPLIER);
-		position = new Vector2f((float)x, (float)y);
-		this.velocity = new Vector2f();
-		this.setVectorLength(velocity, speed);
-		this.setVectorAngle(velocity, direction); // Up
+
+	public Body(String name, float x, float y, float mass, float radius) {
+		this.x = x;
+		this.y = y;
+		this.radius = radius;
 		this.mass = mass;
 		this.name = name;
-		this.color = color;
-		trail = new ArrayList<Circle>();
 	}
-	
-	public Body(String name, int x, int y, float speed, float direction, float mass, float sizeOverride, Color color) {
-		this(name, x, y, speed, direction, mass, color);
-		circle = new Circle(circle.getCenterX(), circle.getCenterY(), sizeOverride);
+
+	/**
+	 * Take another body's position, size and name.
+	 */
+	void copyFrom(Body other) {
+		x = other.x;
+		y = other.y;
+		radius = other.radius;
+		mass = other.mass;
+		name = other.name;
 	}
 
 	private void updateMass(float diff) {
-		circle = new Circle(circle.getCenterX(), circle.getCenterY(), circle.radius + diff * Config.MASS_TO_SIZE_MULTIPLIER);
+		radius += diff * Config.MASS_TO_SIZE_MULTIPLIER;
 		mass += diff;
 	}
-	
+
 	public void increaseMass() {
 		updateMass(Config.NODE_MASS_CHANGE_RATE);
 	}
-	
+
 	public void decreaseMass() {
 		updateMass(-Config.NODE_MASS_CHANGE_RATE);
 	}
 
-	public void draw(Graphics g) {
-		g.setColor(color);
-		if (mass > Config.NODE_MIN_DRAW_MASS) {
-			g.setAntiAlias(true);
-			g.fill(circle);
-			if (Config.DRAW_TRAIL) {
-				// Draw trail
-				if (!trail.isEmpty()) {
-					float alphaSplit = 1.0f / (trail.size() / 2);
-					Color trailColor = color;
-					for (int i = trail.size() - 1; i >= 0; i -= 1) {
-						Circle trailCircle = trail.get(i);
-						trailColor = new Color(trailColor.r, trailColor.g, trailColor.b, trailColor.a - alphaSplit);
-						g.setColor(trailColor);
-						g.fill(trailCircle);
-					}
-				}
-			}
-		}
-		g.drawString(name, getX() + circle.radius, getY() + circle.radius / 2);
-		
-		// Draw velocity
-		Vector2f projectedPosition = new Vector2f(getX(), getY());
-		projectedPosition = projectedPosition.add(velocity);
-		//setVectorLength(projectedPosition, 1);
-		g.drawLine(getX(), getY(), projectedPosition.getX(), projectedPosition.getY());
-	}
-	
-	public void update() {
-		if (Config.DRAW_TRAIL) {
-			trail.add(new Circle(getX(), getY(), circle.radius));
-			if (trail.size() > 50) {
-				trail.remove(0);
-			}
-		}
- 		position.add(velocity);
-		circle.setCenterX(position.x);
-		circle.setCenterY(position.y);
-		age += 0.01;
+	public boolean containsPoint(float px, float py) {
+		float dx = px - x;
+		float dy = py - y;
+		return dx * dx + dy * dy <= radius * radius;
 	}
 
-	public boolean containsPoint(int x, int y) {
-		return circle.contains((float)x, (float)y);
+	/**
+	 * Pull the body at the given index of the store toward this one.
+	 */
+	public void attract(BodyStore bodies, int index, float gravityConstant) {
+		float distance = distanceTo(bodies.x[index], bodies.y[index]);
+		float gravity = (mass * gravityConstant) / (distance * distance);
+		float angle = (float) Math.atan2(y - bodies.y[index], x - bodies.x[index]);
+		bodies.enactGravity(index, gravity, angle);
 	}
-	
 
-	public void gravitateToward(Body other) {
-		Vector2f gravity = new Vector2f(0, 0);		
-		setVectorLength(gravity, getGravityMagnitudeTowardBody(other));
-		setVectorAngle(gravity, this.angleTo(other));
-		velocity.add(gravity);
-	}
-	
-	public void enactGravity(float gravityMagnitude, float angle) {
-		if (Float.isNaN(gravityMagnitude) || Float.isNaN(angle)) {
-			System.out.println("NaN");
-		}
-		Vector2f g = new Vector2f(0, 0);		
-		setVectorLength(g, gravityMagnitude);
-		setVectorAngle(g, angle);
-		velocity.add(g);
-	}
-	
-	public float getGravityMagnitudeTowardBody(Body other) {
- 		float distance = distanceTo(other);
-		return (other.mass * Config.GRAVITY_CONSTANT) / (distance * distance);
-	}
-	
-
-	public void absorbBody(Body other) {
-		if (Universe.random.nextInt() % 3 == 0) {	// 1:3 chance
-			System.out.println(name + " absorbed " + other.name + " and gained " + other.getMass() + " mass!");
-			updateMass(other.getMass());
+	/**
+	 * Trig-free version of {@link #attract}, adding G * m * (dx, dy) / (r^2 + eps^2)^(3/2) to the acceleration.
+	 * @param softening2	Square of the Plummer softening length
+	 */
+	public void accelerate(BodyStore bodies, int index, float gravityConstant, float softening2) {
+		float dx = x - bodies.x[index];
+		float dy = y - bodies.y[index];
+		float softened = dx * dx + dy * dy + softening2;
+		if (softened == 0) {
+			return;
 		}
+		float inverse = 1 / (float) Math.sqrt(softened);
+		float strength = gravityConstant * mass * inverse * inverse * inverse;
+		bodies.ax[index] += strength * dx;
+		bodies.ay[index] += strength * dy;
 	}
-	
-	private float angleTo(Body other) {
-		//float sqrt = (float) Math.sqrt(Math.pow(other.getX() - getX(), 2) + Math.pow(other.getY() - getY(), 2));
-		float atan = (float) Math.atan2(other.getY() - this.getY(), other.getX() - this.getX());
-		return atan;
+
+	public float getGravityMagnitudeToward(float px, float py, float gravityConstant) {
+ 		float distance = distanceTo(px, py);
+		return (mass * gravityConstant) / (distance * distance);
 	}
-	
-	public float distanceTo(Body other) {
-		float dx = other.getX() - this.getX();
-		float dy = other.getY() - this.getY();
+
+	public float distanceTo(float px, float py) {
+		float dx = x - px;
+		float dy = y - py;
 		return (float) Math.sqrt(dx * dx + dy * dy);
 	}
-	
-	private void setVectorAngle(Vector2f vector, float angle) {
-		float length = vector.length();
-		vector.x = (float) (Math.cos(angle) * length);
-		vector.y = (float) (Math.sin(angle) * length);
-	}
-	
-	private void setVectorLength(Vector2f vector, float length) {
-		float angle = (float) Math.atan2(vector.y, vector.x);
-		vector.x = (float) (Math.cos(angle) * length);
-		vector.y = (float) (Math.sin(angle) * length);
-	}
 
 	public float getDiameter() {
-		return circle.getRadius() * 2;
+		return radius * 2;
 	}
 
 
@@ -12,8 +12,10 @@ public class BodyNames {
 	
 	private static List<String> names;
 	private static Iterator<String> it;
+	// Used to number bodies when the names file couldn't be read
+	private static int unnamed;
 
-	public static void init() {
+	public static synchronized void init() {
 		names = readPlanetNames("res/planet-names.txt");
 		shuffle();
 	}
@@ -23,7 +25,14 @@ public class BodyNames {
 		it = names.iterator();
 	}
 	
-	public static String getName() {
+	// Synchronized so that universes stepped on different threads can make bodies at the same time
+	public static synchronized String getName() {
+		if (names == null) {
+			init();
+		}
+		if (names.isEmpty()) {
+			return "Body " + (++unnamed);
+		}
 		if (!it.hasNext()) {
 			shuffle();
 		}
@@ -37,8 +46,8 @@ public class BodyNames {
 		try {
 			input = new Scanner(file);
 		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			System.err.println("Couldn't read body names from " + file.getAbsolutePath() + ", numbering bodies instead");
+			return results;
 		}
 		while (input.hasNextLine()) {
 			results.add(input.nextLine());
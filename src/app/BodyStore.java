@@ -0,0 +1,414 @@
+package app;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Structure-of-arrays storage for every body in the simulation.
+ *
+ * Bodies live at dense indices 0..size()-1 so that the physics loops walk plain primitive arrays. Indices are
+ * only valid until the next removal, because removal swaps the last body into the freed slot. Anything that
+ * needs to refer to a body across steps should hold its id instead, which stays the same for the body's whole
+ * life and can be turned back into an index in constant time with {@link #indexOf(int)}.
+ */
+public class BodyStore {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	float[] x;
+	float[] y;
+	float[] vx;
+	float[] vy;
+	// Acceleration gathered for the current step, applied to the velocity by update()
+	float[] ax;
+	float[] ay;
+	float[] mass;
+	float[] radius;
+	String[] name;
+	// Block timestep level, used by Integrator.LEAPFROG: the body's step is 1 / 2^level of a universe step
+	byte[] level;
+	// Previous positions, sampled by Universe when trails are on
+	final TrailBuffer trails = new TrailBuffer();
+
+	// Index -> id and id -> index (-1 for ids not in use)
+	private int[] idOf;
+	private int[] indexOfId;
+	// Ids released by removals, reused before new ones are handed out
+	private int[] freeIds;
+	private int freeCount;
+	private int nextId;
+
+	private int size;
+	// Pulls applied by enactGravity whose strength or direction wasn't a number
+	private final LongAdder nanCount = new LongAdder();
+
+	public BodyStore() {
+		x = new float[INITIAL_CAPACITY];
+		y = new float[INITIAL_CAPACITY];
+		vx = new float[INITIAL_CAPACITY];
+		vy = new float[INITIAL_CAPACITY];
+		ax = new float[INITIAL_CAPACITY];
+		ay = new float[INITIAL_CAPACITY];
+		mass = new float[INITIAL_CAPACITY];
+		radius = new float[INITIAL_CAPACITY];
+		name = new String[INITIAL_CAPACITY];
+		level = new byte[INITIAL_CAPACITY];
+		idOf = new int[INITIAL_CAPACITY];
+		indexOfId = new int[INITIAL_CAPACITY];
+		Arrays.fill(indexOfId, -1);
+		freeIds = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Add a body to the end of the store.
+	 * @return The id of the new body.
+	 */
+	public int add(String name, float x, float y, float vx, float vy, float mass) {
+		if (size == this.x.length) {
+			grow();
+		}
+		int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+		int index = size++;
+		this.x[index] = x;
+		this.y[index] = y;
+		this.vx[index] = vx;
+		this.vy[index] = vy;
+		this.ax[index] = 0;
+		this.ay[index] = 0;
+		this.mass[index] = mass;
+		this.radius[index] = mass * Config.MASS_TO_SIZE_MULTIPLIER;
+		this.name[index] = name;
+		this.level[index] = 0;
+		trails.reset(index);
+		idOf[index] = id;
+		indexOfId[id] = index;
+		return id;
+	}
+
+	/**
+	 * Remove the body with the given id by moving the last body into its slot.
+	 * @return false if no body has that id (e.g. it has already been removed).
+	 */
+	public boolean remove(int id) {
+		if (id < 0 || id >= indexOfId.length) {
+			return false;
+		}
+		int index = indexOfId[id];
+		if (index < 0) {
+			return false;
+		}
+		int last = --size;
+		if (index != last) {
+			move(last, index);
+		}
+		name[last] = null;
+		indexOfId[id] = -1;
+		freeIds[freeCount++] = id;
+		return true;
+	}
+
+	/**
+	 * Remove many bodies at once. Each hole is filled from the end of the store, by the last body that isn't
+	 * itself being removed, so every surviving body is moved at most once.
+	 * @param indices	Distinct store indices of the bodies to remove. Sorted ascending in place.
+	 */
+	public void removeAll(IntList indices) {
+		int count = indices.size();
+		if (count == 0) {
+			return;
+		}
+		indices.sort();
+		for (int k = 0; k < count; k++) {
+			int index = indices.get(k);
+			int id = idOf[index];
+			indexOfId[id] = -1;
+			freeIds[freeCount++] = id;
+		}
+		int newSize = size - count;
+		int last = size - 1;
+		// Removed indices at the end of the store, walked down alongside last
+		int tail = count - 1;
+		for (int k = 0; k < count && indices.get(k) < newSize; k++) {
+			while (tail >= 0 && indices.get(tail) == last) {
+				tail--;
+				last--;
+			}
+			move(last--, indices.get(k));
+		}
+		Arrays.fill(name, newSize, size, null);
+		size = newSize;
+	}
+
+	/**
+	 * Make this store an exact copy of another one, ids and trails included.
+	 */
+	public void copyFrom(BodyStore other) {
+		copyBodiesFrom(other);
+		trails.copyFrom(other.trails);
+	}
+
+	/**
+	 * Copy another store's bodies and ids, but leave the trails as they are, so that the copy is only fit to be
+	 * read, e.g. by a background checkpoint. Costs a few array copies.
+	 */
+	void copyBodiesFrom(BodyStore other) {
+		ensureCapacity(other.x.length);
+		int n = other.size;
+		System.arraycopy(other.x, 0, x, 0, n);
+		System.arraycopy(other.y, 0, y, 0, n);
+		System.arraycopy(other.vx, 0, vx, 0, n);
+		System.arraycopy(other.vy, 0, vy, 0, n);
+		System.arraycopy(other.ax, 0, ax, 0, n);
+		System.arraycopy(other.ay, 0, ay, 0, n);
+		System.arraycopy(other.mass, 0, mass, 0, n);
+		System.arraycopy(other.radius, 0, radius, 0, n);
+		System.arraycopy(other.name, 0, name, 0, n);
+		System.arraycopy(other.level, 0, level, 0, n);
+		Arrays.fill(name, n, Math.max(n, size), null);
+		System.arraycopy(other.idOf, 0, idOf, 0, n);
+		System.arraycopy(other.indexOfId, 0, indexOfId, 0, other.indexOfId.length);
+		Arrays.fill(indexOfId, other.indexOfId.length, indexOfId.length, -1);
+		System.arraycopy(other.freeIds, 0, freeIds, 0, other.freeCount);
+		freeCount = other.freeCount;
+		nextId = other.nextId;
+		size = n;
+	}
+
+	/**
+	 * Replace every body with n bodies whose positions, velocities, accelerations, masses, radii, names and
+	 * levels have already been written into the first n slots of the arrays, e.g. from a checkpoint. Make room
+	 * for them first with {@link #ensureCapacity}.
+	 * @param ids		Id of each of the n bodies
+	 * @param nextId	Id handed out after every id in use and every free one
+	 * @param freeIds	Ids released by removals, the next to be reused last
+	 * @throws IllegalArgumentException	If the ids are out of range or used twice.
+	 */
+	void restore(int n, int[] ids, int nextId, int[] freeIds, int freeCount) {
+		if (n < 0 || n > x.length || nextId > indexOfId.length || freeCount < 0 || n + freeCount > nextId) {
+			throw new IllegalArgumentException("Inconsistent body and id counts");
+		}
+		Arrays.fill(indexOfId, -1);
+		for (int i = 0; i < n; i++) {
+			int id = ids[i];
+			if (id < 0 || id >= nextId || indexOfId[id] >= 0) {
+				throw new IllegalArgumentException("Bad or repeated id " + id + " at index " + i);
+			}
+			idOf[i] = id;
+			indexOfId[id] = i;
+		}
+		for (int k = 0; k < freeCount; k++) {
+			int id = freeIds[k];
+			if (id < 0 || id >= nextId || indexOfId[id] >= 0) {
+				throw new IllegalArgumentException("Free id " + id + " is out of range or in use");
+			}
+			this.freeIds[k] = id;
+		}
+		Arrays.fill(name, n, Math.max(n, size), null);
+		this.freeCount = freeCount;
+		this.nextId = nextId;
+		size = n;
+		trails.clear();
+	}
+
+	/**
+	 * Grow the arrays, if needed, to hold at least capacity bodies and ids.
+	 */
+	void ensureCapacity(int capacity) {
+		if (x.length < capacity) {
+			grow(Math.max(capacity, x.length * 2));
+		}
+	}
+
+	/**
+	 * @return The id that will be handed out once the free ids run out.
+	 */
+	int getNextId() {
+		return nextId;
+	}
+
+	/**
+	 * @return The number of ids released by removals and not yet reused.
+	 */
+	int getFreeIdCount() {
+		return freeCount;
+	}
+
+	/**
+	 * @return A released id, in the order they are kept: the last is the next to be reused.
+	 */
+	int getFreeId(int k) {
+		return freeIds[k];
+	}
+
+	public void clear() {
+		while (size > 0) {
+			remove(idOf[size - 1]);
+		}
+	}
+
+	/**
+	 * @return The current index of the body with the given id, or -1 if there is no such body.
+	 */
+	public int indexOf(int id) {
+		if (id < 0 || id >= indexOfId.length) {
+			return -1;
+		}
+		return indexOfId[id];
+	}
+
+	public int idAt(int index) {
+		return idOf[index];
+	}
+
+	/**
+	 * @return The number of pulls given to {@link #enactGravity} whose strength or angle was NaN, since the
+	 * store was created.
+	 */
+	public long getNanCount() {
+		return nanCount.sum();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Change the mass of a body, growing or shrinking its radius to match.
+	 */
+	public void updateMass(int index, float diff) {
+		radius[index] += diff * Config.MASS_TO_SIZE_MULTIPLIER;
+		mass[index] += diff;
+	}
+
+	/**
+	 * Add to the acceleration of a body for this step. Only touches that body's slot, so different bodies can be
+	 * updated from different threads.
+	 */
+	public void enactGravity(int index, float gravityMagnitude, float angle) {
+		if (Float.isNaN(gravityMagnitude) || Float.isNaN(angle)) {
+			nanCount.increment();
+		}
+		ax[index] += (float) (Math.cos(angle) * gravityMagnitude);
+		ay[index] += (float) (Math.sin(angle) * gravityMagnitude);
+	}
+
+	/**
+	 * Apply the acceleration gathered this step to a body's velocity, then move it along its velocity.
+	 */
+	public void update(int index) {
+		vx[index] += ax[index];
+		vy[index] += ay[index];
+		x[index] += vx[index];
+		y[index] += vy[index];
+	}
+
+	/**
+	 * Add the acceleration over a time dt to a body's velocity.
+	 */
+	public void kick(int index, float dt) {
+		vx[index] += ax[index] * dt;
+		vy[index] += ay[index] * dt;
+	}
+
+	/**
+	 * Move a body along its velocity for a time dt.
+	 */
+	public void drift(int index, float dt) {
+		x[index] += vx[index] * dt;
+		y[index] += vy[index] * dt;
+	}
+
+	public boolean containsPoint(int index, float px, float py) {
+		float dx = px - x[index];
+		float dy = py - y[index];
+		return dx * dx + dy * dy <= radius[index] * radius[index];
+	}
+
+	public float getX(int index) {
+		return x[index];
+	}
+
+	public float getY(int index) {
+		return y[index];
+	}
+
+	public float getVelocityX(int index) {
+		return vx[index];
+	}
+
+	public float getVelocityY(int index) {
+		return vy[index];
+	}
+
+	public float getMass(int index) {
+		return mass[index];
+	}
+
+	public float getRadius(int index) {
+		return radius[index];
+	}
+
+	public String getName(int index) {
+		return name[index];
+	}
+
+	public int getTimestepLevel(int index) {
+		return level[index];
+	}
+
+	public TrailBuffer getTrails() {
+		return trails;
+	}
+
+	/**
+	 * Keep the given number of previous positions of every body, dropping any kept so far. 0 keeps none.
+	 */
+	void setTrailLength(int length) {
+		trails.setLength(length, x.length);
+	}
+
+	/**
+	 * Move the body at one index into another, whose body is being removed. The two trails are swapped, so the
+	 * removed body's samples are never copied.
+	 */
+	private void move(int from, int to) {
+		x[to] = x[from];
+		y[to] = y[from];
+		vx[to] = vx[from];
+		vy[to] = vy[from];
+		ax[to] = ax[from];
+		ay[to] = ay[from];
+		mass[to] = mass[from];
+		radius[to] = radius[from];
+		name[to] = name[from];
+		level[to] = level[from];
+		trails.move(from, to);
+		int movedId = idOf[from];
+		idOf[to] = movedId;
+		indexOfId[movedId] = to;
+	}
+
+	private void grow() {
+		grow(x.length * 2);
+	}
+
+	private void grow(int capacity) {
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		ax = Arrays.copyOf(ax, capacity);
+		ay = Arrays.copyOf(ay, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		radius = Arrays.copyOf(radius, capacity);
+		name = Arrays.copyOf(name, capacity);
+		level = Arrays.copyOf(level, capacity);
+		idOf = Arrays.copyOf(idOf, capacity);
+		freeIds = Arrays.copyOf(freeIds, capacity);
+		int oldIds = indexOfId.length;
+		indexOfId = Arrays.copyOf(indexOfId, capacity);
+		Arrays.fill(indexOfId, oldIds, capacity, -1);
+		trails.ensureCapacity(capacity);
+	}
+
+}
@@ -0,0 +1,219 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Finds every pair of bodies whose circles overlap, independently of the Barnes-Hut tree.
+ *
+ * Space is divided into square cells, and every body is filed under the cell holding its center in a hash table
+ * keyed on the cell coordinates. The table is rebuilt each step by radix sorting the bodies by bucket, so a
+ * bucket's bodies sit next to each other. Each body then looks through the cells within twice its own radius
+ * and tests the bodies filed there that are no larger than itself. Any overlapping pair is found from the larger
+ * of the two bodies, so it is reported once, and bodies no wider than a cell only need the 3 x 3 cells around
+ * their own. Both the sort and the search are spread over the threads, and the pairs come out in the
+ * same order for any number of threads.
+ */
+public class Broadphase {
+
+	// Chunks per worker thread, so that uneven chunks can still be balanced by stealing
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final float cellSize;
+
+	// Bucket of each body, then sorted; bodies whose position isn't finite get tableSize and are sorted last
+	private long[] keys = new long[0];
+	// Store indices in bucket order
+	private int[] order = new int[0];
+	// Cell of each body, by store index
+	private long[] cellX = new long[0];
+	private long[] cellY = new long[0];
+	// First sorted position of each bucket, or -1 if it's empty
+	private int[] bucketStart = new int[0];
+	private int tableBits;
+	// Number of bodies with a finite position, which come first in the sorted order
+	private int filed;
+	private IntList[] chunkPairs = new IntList[0];
+	private int chunks;
+	private final RadixSort sorter = new RadixSort();
+
+	private BodyStore bodies;
+
+	private final Parallel.RangeAction computeCells = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				order[i] = i;
+				float x = bodies.x[i];
+				float y = bodies.y[i];
+				if (!Float.isFinite(x) || !Float.isFinite(y)) {
+					keys[i] = 1L << tableBits;
+					continue;
+				}
+				cellX[i] = (long) Math.floor(x / cellSize);
+				cellY[i] = (long) Math.floor(y / cellSize);
+				keys[i] = bucket(cellX[i], cellY[i]);
+			}
+		}
+	};
+
+	private final Parallel.RangeAction markBuckets = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int p = from; p < to; p++) {
+				if (p == 0 || keys[p] != keys[p - 1]) {
+					bucketStart[(int) keys[p]] = p;
+				}
+			}
+		}
+	};
+
+	private final Parallel.RangeAction findPairs = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int chunk = from; chunk < to; chunk++) {
+				IntList pairs = chunkPairs[chunk];
+				pairs.clear();
+				int end = chunkStart(chunk + 1);
+				for (int p = chunkStart(chunk); p < end; p++) {
+					findPairs(order[p], pairs);
+				}
+			}
+		}
+	};
+
+	/**
+	 * @param cellSize	Width and height of a cell. Best kept at or above the diameter of a typical body.
+	 */
+	public Broadphase(float cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Find every pair of bodies in the store whose circles overlap or touch.
+	 * @param pairs	Receives the store indices of each pair, the larger body first
+	 */
+	public void findCollisions(BodyStore bodies, IntList pairs, Parallel parallel) {
+		this.bodies = bodies;
+		int n = bodies.size();
+		if (n < 2) {
+			return;
+		}
+		if (keys.length < n) {
+			int capacity = Math.max(n, keys.length * 2);
+			keys = new long[capacity];
+			order = new int[capacity];
+			cellX = new long[capacity];
+			cellY = new long[capacity];
+		}
+		// At least twice as many buckets as bodies keeps most buckets to a single cell.
+		tableBits = Math.max(4, 64 - Long.numberOfLeadingZeros(2L * n - 1));
+		int tableSize = 1 << tableBits;
+		if (bucketStart.length < tableSize) {
+			bucketStart = new int[tableSize];
+		}
+
+		parallel.forRange(n, computeCells);
+		sorter.sort(keys, order, n, tableBits + 1, parallel);
+		filed = firstUnfiled(n, tableSize);
+		Arrays.fill(bucketStart, 0, tableSize, -1);
+		parallel.forRange(filed, markBuckets);
+
+		chunks = parallel.isSequential() ? 1 : parallel.getParallelism() * CHUNKS_PER_THREAD;
+		if (chunkPairs.length < chunks) {
+			IntList[] grown = Arrays.copyOf(chunkPairs, chunks);
+			for (int chunk = chunkPairs.length; chunk < chunks; chunk++) {
+				grown[chunk] = new IntList();
+			}
+			chunkPairs = grown;
+		}
+		parallel.forRange(chunks, 1, findPairs);
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			IntList found = chunkPairs[chunk];
+			for (int k = 0; k < found.size(); k++) {
+				pairs.add(found.get(k));
+			}
+		}
+		this.bodies = null;
+	}
+
+	/**
+	 * Test body i against every body filed within twice its radius that is smaller than it, or the same size
+	 * with a higher index.
+	 */
+	private void findPairs(int i, IntList pairs) {
+		float x = bodies.x[i];
+		float y = bodies.y[i];
+		float radius = bodies.radius[i];
+		float reach = 2 * radius;
+		long left = (long) Math.floor((x - reach) / cellSize);
+		long right = (long) Math.floor((x + reach) / cellSize);
+		long top = (long) Math.floor((y - reach) / cellSize);
+		long bottom = (long) Math.floor((y + reach) / cellSize);
+		if ((right - left + 1) * (bottom - top + 1) > filed) {
+			// A body bigger than the whole spread of cells: cheaper to test everything once
+			for (int p = 0; p < filed; p++) {
+				test(i, order[p], x, y, radius, pairs);
+			}
+			return;
+		}
+		for (long cy = top; cy <= bottom; cy++) {
+			for (long cx = left; cx <= right; cx++) {
+				int b = bucket(cx, cy);
+				int start = bucketStart[b];
+				if (start < 0) {
+					continue;
+				}
+				for (int p = start; p < filed && keys[p] == b; p++) {
+					int j = order[p];
+					// Other cells can share the bucket
+					if (cellX[j] == cx && cellY[j] == cy) {
+						test(i, j, x, y, radius, pairs);
+					}
+				}
+			}
+		}
+	}
+
+	private void test(int i, int j, float x, float y, float radius, IntList pairs) {
+		float other = bodies.radius[j];
+		if (j == i || other > radius || (other == radius && j < i)) {
+			// Found from the other body instead
+			return;
+		}
+		float dx = bodies.x[j] - x;
+		float dy = bodies.y[j] - y;
+		float reach = radius + other;
+		if (dx * dx + dy * dy <= reach * reach) {
+			pairs.add(i);
+			pairs.add(j);
+		}
+	}
+
+	private int bucket(long cx, long cy) {
+		long h = cx * 0x9E3779B97F4A7C15L + cy * 0xC2B2AE3D27D4EB4FL;
+		h ^= h >>> 29;
+		return (int) ((h * 0xBF58476D1CE4E5B9L) >>> (64 - tableBits));
+	}
+
+	private int firstUnfiled(int n, int tableSize) {
+		int low = 0, high = n;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] < tableSize) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int chunkStart(int chunk) {
+		return (int) ((long) filed * chunk / chunks);
+	}
+
+}
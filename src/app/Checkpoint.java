@@ -0,0 +1,363 @@
+package app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves a {@link Universe} to a binary file and restores it, so that a long run can be picked up again after the
+ * process stops.
+ *
+ * The file is little-endian: a fixed header, then one section per body array, in store order.
+ * <pre>
+ * header        HEADER_SIZE bytes: magic, version, counts, integrator state, the sun and the gravitational constant
+ * x, y          float[n] each
+ * vx, vy        float[n] each
+ * ax, ay        float[n] each, the accelerations that leapfrog and Verlet carry on from
+ * mass, radius  float[n] each
+ * ids           int[n], the id of the body at each index
+ * free ids      int[free], ids released by removals, the next to be reused last
+ * name lengths  int[n], in UTF-8 bytes, -1 for no name
+ * levels        byte[n], the leapfrog timestep levels
+ * names         the UTF-8 bytes of every name, one after the other
+ * </pre>
+ * Each section is mapped and copied in bulk, so the cost is that of the disk rather than of encoding each
+ * value: ten million bodies take a few seconds either way. A checkpoint is written to a temporary file next to
+ * the target and renamed over it once complete, so the target always holds a whole checkpoint. The settings
+ * of the tree walk and the gravity solver are not saved; a restored universe keeps its own.
+ */
+public class Checkpoint {
+
+	private static final byte[] MAGIC = "GRAVCKPT".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 128;
+	// Largest part of the names section mapped at once
+	private static final int NAME_WINDOW = 64 << 20;
+
+	// Header fields, by offset
+	private static final int VERSION_AT = 8;
+	private static final int COUNT_AT = 12;
+	private static final int NEXT_ID_AT = 16;
+	private static final int FREE_COUNT_AT = 20;
+	private static final int STEPS_AT = 24;
+	private static final int FORCE_EVALUATIONS_AT = 32;
+	private static final int NAME_BYTES_AT = 40;
+	private static final int INTEGRATOR_AT = 48;
+	private static final int MAX_LEVEL_AT = 52;
+	private static final int KERNEL_AT = 56;
+	private static final int SOFTENING_AT = 60;
+	private static final int ACCELERATIONS_CURRENT_AT = 64;
+	private static final int SUN_X_AT = 68;
+	private static final int SUN_Y_AT = 72;
+	private static final int SUN_MASS_AT = 76;
+	private static final int SUN_RADIUS_AT = 80;
+	// 0 in checkpoints written before it was saved, whose universe keeps its own
+	private static final int GRAVITY_CONSTANT_AT = 84;
+
+	/**
+	 * Everything a checkpoint holds, taken from a universe on the thread that steps it, so that it can be written
+	 * on another.
+	 */
+	static class Snapshot {
+		BodyStore bodies;
+		long steps;
+		long forceEvaluations;
+		Integrator integrator;
+		int maxTimestepLevel;
+		GravityKernel kernel;
+		float softening;
+		float gravityConstant;
+		boolean accelerationsCurrent;
+		float sunX;
+		float sunY;
+		float sunMass;
+		float sunRadius;
+
+		/**
+		 * @param copy	Store to copy the bodies into, or null to refer to the universe's own store, which must then
+		 * 				not change until the snapshot has been written
+		 */
+		void capture(Universe universe, BodyStore copy) {
+			if (copy != null) {
+				copy.copyBodiesFrom(universe.getBodies());
+				bodies = copy;
+			}
+			else {
+				bodies = universe.getBodies();
+			}
+			steps = universe.getSteps();
+			forceEvaluations = universe.getForceEvaluations();
+			integrator = universe.getIntegrator();
+			maxTimestepLevel = universe.getMaxTimestepLevel();
+			kernel = universe.getGravityKernel();
+			softening = universe.getSoftening();
+			gravityConstant = universe.getGravityConstant();
+			accelerationsCurrent = universe.isAccelerationsCurrent();
+			Body sun = universe.getSun();
+			sunX = sun.getX();
+			sunY = sun.getY();
+			sunMass = sun.getMass();
+			sunRadius = sun.getRadius();
+		}
+	}
+
+	/**
+	 * Save a universe, from the thread that steps it, between updates.
+	 */
+	public static void save(Universe universe, Path path) throws IOException {
+		Snapshot snapshot = new Snapshot();
+		snapshot.capture(universe, null);
+		write(snapshot, path);
+	}
+
+	/**
+	 * Replace a universe's bodies, sun, integrator and step count with those of a checkpoint. Leapfrog and Verlet
+	 * carry on from the saved accelerations, so the run continues as the saved one would have, as long as the
+	 * tree settings are the same.
+	 *
+	 * The whole checkpoint is read into a store of its own and checked before anything is changed, so if it
+	 * can't be read, the universe is left as it was. This takes as much memory again as the bodies while it runs.
+	 * @throws IOException	If the file can't be read, or isn't a whole and consistent checkpoint.
+	 */
+	public static void restore(Universe universe, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE) {
+				throw new IOException(path + ": too short to be a checkpoint");
+			}
+			ByteBuffer header = map(channel, MapMode.READ_ONLY, 0, HEADER_SIZE);
+			for (int k = 0; k < MAGIC.length; k++) {
+				if (header.get(k) != MAGIC[k]) {
+					throw new IOException(path + ": not a checkpoint");
+				}
+			}
+			int version = header.getInt(VERSION_AT);
+			if (version != VERSION) {
+				throw new IOException(path + ": unsupported checkpoint version " + version);
+			}
+			int n = header.getInt(COUNT_AT);
+			int nextId = header.getInt(NEXT_ID_AT);
+			int freeCount = header.getInt(FREE_COUNT_AT);
+			long nameBytes = header.getLong(NAME_BYTES_AT);
+			int integrator = header.getInt(INTEGRATOR_AT);
+			int kernel = header.getInt(KERNEL_AT);
+			int maxLevel = header.getInt(MAX_LEVEL_AT);
+			if (n < 0 || freeCount < 0 || nextId < 0 || n + (long) freeCount > nextId || nameBytes < 0
+					|| integrator < 0 || integrator >= Integrator.values().length
+					|| kernel < 0 || kernel >= GravityKernel.values().length || maxLevel < 0 || maxLevel > 30) {
+				throw new IOException(path + ": corrupt checkpoint header");
+			}
+			long namesAt = namesOffset(n, freeCount);
+			if (fileSize != namesAt + nameBytes) {
+				throw new IOException(path + ": checkpoint is " + fileSize + " bytes, expected " + (namesAt + nameBytes));
+			}
+
+			// Read and check every body before touching the universe, so that a bad file leaves it as it was
+			BodyStore staged = new BodyStore();
+			staged.ensureCapacity(Math.max(n, nextId));
+			long at = HEADER_SIZE;
+			float[][] columns = { staged.x, staged.y, staged.vx, staged.vy, staged.ax, staged.ay, staged.mass, staged.radius };
+			for (float[] column : columns) {
+				map(channel, MapMode.READ_ONLY, at, 4L * n).asFloatBuffer().get(column, 0, n);
+				at += 4L * n;
+			}
+			int[] ids = new int[n];
+			map(channel, MapMode.READ_ONLY, at, 4L * n).asIntBuffer().get(ids);
+			at += 4L * n;
+			int[] freeIds = new int[freeCount];
+			map(channel, MapMode.READ_ONLY, at, 4L * freeCount).asIntBuffer().get(freeIds);
+			at += 4L * freeCount;
+			int[] nameLengths = new int[n];
+			map(channel, MapMode.READ_ONLY, at, 4L * n).asIntBuffer().get(nameLengths);
+			at += 4L * n;
+			map(channel, MapMode.READ_ONLY, at, n).get(staged.level, 0, n);
+			readNames(channel, namesAt, nameBytes, nameLengths, staged.name, path);
+			try {
+				staged.restore(n, ids, nextId, freeIds, freeCount);
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException(path + ": " + e.getMessage(), e);
+			}
+
+			universe.setIntegrator(Integrator.values()[integrator]);
+			universe.setMaxTimestepLevel(maxLevel);
+			universe.setGravityKernel(GravityKernel.values()[kernel]);
+			universe.setSoftening(header.getFloat(SOFTENING_AT));
+			float gravityConstant = header.getFloat(GRAVITY_CONSTANT_AT);
+			if (gravityConstant != 0) {
+				universe.setGravityConstant(gravityConstant);
+			}
+			universe.setSun(new Body(universe.getSun().getName(), header.getFloat(SUN_X_AT), header.getFloat(SUN_Y_AT),
+					header.getFloat(SUN_MASS_AT), header.getFloat(SUN_RADIUS_AT)));
+			BodyStore bodies = universe.getBodies();
+			bodies.copyBodiesFrom(staged);
+			bodies.trails.clear();
+			universe.restored(header.getLong(STEPS_AT), header.getLong(FORCE_EVALUATIONS_AT),
+					header.get(ACCELERATIONS_CURRENT_AT) != 0);
+		}
+	}
+
+	/**
+	 * Write a snapshot to a temporary file, flush it to the disk, and rename it over the target.
+	 */
+	static void write(Snapshot snapshot, Path path) throws IOException {
+		BodyStore bodies = snapshot.bodies;
+		int n = bodies.size();
+		int freeCount = bodies.getFreeIdCount();
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long at = HEADER_SIZE;
+			float[][] columns = { bodies.x, bodies.y, bodies.vx, bodies.vy, bodies.ax, bodies.ay, bodies.mass, bodies.radius };
+			for (float[] column : columns) {
+				MappedByteBuffer section = map(channel, MapMode.READ_WRITE, at, 4L * n);
+				section.asFloatBuffer().put(column, 0, n);
+				section.force();
+				at += 4L * n;
+			}
+			MappedByteBuffer section = map(channel, MapMode.READ_WRITE, at, 4L * n);
+			for (int i = 0; i < n; i++) {
+				section.putInt(bodies.idAt(i));
+			}
+			section.force();
+			at += 4L * n;
+			section = map(channel, MapMode.READ_WRITE, at, 4L * freeCount);
+			for (int k = 0; k < freeCount; k++) {
+				section.putInt(bodies.getFreeId(k));
+			}
+			section.force();
+			at += 4L * freeCount;
+			section = map(channel, MapMode.READ_WRITE, at, 4L * n);
+			long nameBytes = 0;
+			for (int i = 0; i < n; i++) {
+				int length = utf8Length(bodies.name[i]);
+				section.putInt(length);
+				nameBytes += Math.max(0, length);
+			}
+			section.force();
+			at += 4L * n;
+			section = map(channel, MapMode.READ_WRITE, at, n);
+			section.put(bodies.level, 0, n);
+			section.force();
+			writeNames(channel, namesOffset(n, freeCount), nameBytes, bodies);
+
+			// The header goes last, so that a file cut short by a crash is never taken for a checkpoint
+			MappedByteBuffer header = map(channel, MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.put(MAGIC);
+			header.putInt(VERSION_AT, VERSION);
+			header.putInt(COUNT_AT, n);
+			header.putInt(NEXT_ID_AT, bodies.getNextId());
+			header.putInt(FREE_COUNT_AT, freeCount);
+			header.putLong(STEPS_AT, snapshot.steps);
+			header.putLong(FORCE_EVALUATIONS_AT, snapshot.forceEvaluations);
+			header.putLong(NAME_BYTES_AT, nameBytes);
+			header.putInt(INTEGRATOR_AT, snapshot.integrator.ordinal());
+			header.putInt(MAX_LEVEL_AT, snapshot.maxTimestepLevel);
+			header.putInt(KERNEL_AT, snapshot.kernel.ordinal());
+			header.putFloat(SOFTENING_AT, snapshot.softening);
+			header.put(ACCELERATIONS_CURRENT_AT, (byte) (snapshot.accelerationsCurrent ? 1 : 0));
+			header.putFloat(SUN_X_AT, snapshot.sunX);
+			header.putFloat(SUN_Y_AT, snapshot.sunY);
+			header.putFloat(SUN_MASS_AT, snapshot.sunMass);
+			header.putFloat(SUN_RADIUS_AT, snapshot.sunRadius);
+			header.putFloat(GRAVITY_CONSTANT_AT, snapshot.gravityConstant);
+			header.force();
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long namesOffset(int n, int freeCount) {
+		// Eight float columns, ids, name lengths and levels per body
+		return HEADER_SIZE + 41L * n + 4L * freeCount;
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, MapMode mode, long at, long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(mode, at, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * Write every name in turn, mapping the names section a window at a time. Plain ASCII names, which is what
+	 * {@link BodyNames} gives, are written a char at a time without making a byte array.
+	 */
+	private static void writeNames(FileChannel channel, long at, long nameBytes, BodyStore bodies) throws IOException {
+		long end = at + nameBytes;
+		MappedByteBuffer window = null;
+		for (int i = 0; i < bodies.size(); i++) {
+			String name = bodies.name[i];
+			if (name == null || name.isEmpty()) {
+				continue;
+			}
+			int length = utf8Length(name);
+			if (window == null || window.remaining() < length) {
+				if (window != null) {
+					window.force();
+				}
+				window = map(channel, MapMode.READ_WRITE, at, Math.max(length, Math.min(NAME_WINDOW, end - at)));
+			}
+			if (length == name.length()) {
+				for (int c = 0; c < length; c++) {
+					window.put((byte) name.charAt(c));
+				}
+			}
+			else {
+				window.put(name.getBytes(StandardCharsets.UTF_8));
+			}
+			at += length;
+		}
+		if (window != null) {
+			window.force();
+		}
+	}
+
+	private static void readNames(FileChannel channel, long at, long nameBytes, int[] lengths, String[] names, Path path)
+			throws IOException {
+		long end = at + nameBytes;
+		MappedByteBuffer window = null;
+		byte[] bytes = new byte[64];
+		for (int i = 0; i < lengths.length; i++) {
+			int length = lengths[i];
+			if (length < 0) {
+				names[i] = null;
+				continue;
+			}
+			if (length > end - at) {
+				throw new IOException(path + ": name of body " + i + " runs past the end of the checkpoint");
+			}
+			if (window == null || window.remaining() < length) {
+				window = map(channel, MapMode.READ_ONLY, at, Math.max(length, Math.min(NAME_WINDOW, end - at)));
+			}
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			window.get(bytes, 0, length);
+			names[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+			at += length;
+		}
+	}
+
+	/**
+	 * @return The length of a name in UTF-8, or -1 for no name.
+	 */
+	private static int utf8Length(String name) {
+		if (name == null) {
+			return -1;
+		}
+		for (int c = 0; c < name.length(); c++) {
+			if (name.charAt(c) >= 0x80) {
+				return name.getBytes(StandardCharsets.UTF_8).length;
+			}
+		}
+		return name.length();
+	}
+
+}
@@ -0,0 +1,129 @@
+package app;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes a {@link Checkpoint} of a universe every so many steps, on a thread of its own. Give it to
+ * {@link Universe#setCheckpointer}.
+ *
+ * The stepping thread only copies the body arrays into a spare store, which costs a few array copies, and the
+ * writing happens while the universe carries on. If a checkpoint is still being written when the next one is
+ * due, that one is skipped rather than making the step wait, so a slow disk makes checkpoints rarer, never
+ * steps slower.
+ */
+public class Checkpointer {
+
+	private final Path path;
+	private final int interval;
+	private final ExecutorService writer;
+	// Only touched by the stepping thread while no write is running, and by the writer while one is
+	private final Checkpoint.Snapshot snapshot = new Checkpoint.Snapshot();
+	private final BodyStore copy = new BodyStore();
+	private final AtomicBoolean writing = new AtomicBoolean();
+
+	private volatile long written;
+	private volatile long skipped;
+	private volatile long lastWrittenStep = -1;
+	private volatile double lastWriteMillis;
+	private volatile IOException lastError;
+
+	/**
+	 * @param interval	Number of steps between checkpoints
+	 */
+	public Checkpointer(Path path, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Checkpoint interval must be at least 1 step: " + interval);
+		}
+		this.path = path;
+		this.interval = interval;
+		writer = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "checkpoint-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Called by the universe at the end of every update.
+	 */
+	void stepped(Universe universe) {
+		if (universe.getSteps() % interval != 0) {
+			return;
+		}
+		if (!writing.compareAndSet(false, true)) {
+			skipped++;
+			return;
+		}
+		snapshot.capture(universe, copy);
+		writer.execute(this::write);
+	}
+
+	private void write() {
+		long start = System.nanoTime();
+		try {
+			Checkpoint.write(snapshot, path);
+			lastWriteMillis = (System.nanoTime() - start) / 1e6;
+			lastWrittenStep = snapshot.steps;
+			written++;
+		}
+		catch (IOException e) {
+			lastError = e;
+		}
+		finally {
+			writing.set(false);
+		}
+	}
+
+	/**
+	 * Wait for the checkpoint being written, if there is one, and stop the writer thread.
+	 */
+	public void shutdown() throws InterruptedException {
+		writer.shutdown();
+		writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The number of checkpoints written.
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * @return The number of checkpoints skipped because the one before was still being written.
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return The step of the universe the last written checkpoint holds, or -1 if none has been written yet.
+	 */
+	public long getLastWrittenStep() {
+		return lastWrittenStep;
+	}
+
+	/**
+	 * @return How long writing the last checkpoint took, in milliseconds.
+	 */
+	public double getLastWriteMillis() {
+		return lastWriteMillis;
+	}
+
+	/**
+	 * @return What went wrong with the last checkpoint that failed, or null if none has.
+	 */
+	public IOException getLastError() {
+		return lastError;
+	}
+
+}
@@ -0,0 +1,133 @@
+package app;
+
+/**
+ * Merges the bodies that collided in one step.
+ *
+ * The colliding pairs are joined into groups with a {@link UnionFind}, so that a chain of collisions, a hitting b
+ * hitting c, becomes one group however the pairs were reported. Each group is then merged in one go into its
+ * heaviest body, which takes the group's total mass, its center of mass as its position and its total momentum
+ * divided by the total mass as its velocity. Mass and momentum are conserved exactly (up to rounding). It also
+ * takes the mass-weighted average of the group's accelerations, so that an integrator reusing the last
+ * accelerations sees the same total force, and the shortest timestep of the group. All of the work is
+ * proportional to the number of pairs, not the number of bodies.
+ */
+public class CollisionResolver {
+
+	private final UnionFind groups = new UnionFind();
+	// Every body in at least one pair, in the order first seen
+	private final IntList members = new IntList();
+	// Group number of each representative, by store index
+	private int[] groupOf = new int[0];
+	// Per group: the surviving body, then the totals, in double so small bodies aren't lost against large ones
+	private int[] survivor = new int[0];
+	private double[] groupMass = new double[0];
+	private double[] momentumX = new double[0];
+	private double[] momentumY = new double[0];
+	private double[] weightedX = new double[0];
+	private double[] weightedY = new double[0];
+	private double[] forceX = new double[0];
+	private double[] forceY = new double[0];
+	private byte[] level = new byte[0];
+
+	/**
+	 * Merge every group of colliding bodies. The bodies are only changed, not removed.
+	 * @param pairs		Store indices of the colliding pairs
+	 * @param merged	Receives the store index of every body merged into another one, each once, for removal
+	 */
+	public void resolve(BodyStore bodies, IntList pairs, IntList merged) {
+		if (pairs.isEmpty()) {
+			return;
+		}
+		groups.reset(bodies.size());
+		members.clear();
+		for (int k = 0; k < pairs.size(); k += 2) {
+			int a = pairs.get(k);
+			int b = pairs.get(k + 1);
+			if (groups.add(a)) {
+				members.add(a);
+			}
+			if (groups.add(b)) {
+				members.add(b);
+			}
+			groups.union(a, b);
+		}
+
+		// Number the groups, and find the heaviest body of each; the lower index wins a tie.
+		if (groupOf.length < bodies.size()) {
+			groupOf = new int[Math.max(bodies.size(), groupOf.length * 2)];
+		}
+		ensureGroups(members.size());
+		int groupCount = 0;
+		for (int k = 0; k < members.size(); k++) {
+			int body = members.get(k);
+			if (groups.find(body) == body) {
+				groupOf[body] = groupCount;
+				survivor[groupCount] = body;
+				groupMass[groupCount] = 0;
+				momentumX[groupCount] = 0;
+				momentumY[groupCount] = 0;
+				weightedX[groupCount] = 0;
+				weightedY[groupCount] = 0;
+				forceX[groupCount] = 0;
+				forceY[groupCount] = 0;
+				level[groupCount] = 0;
+				groupCount++;
+			}
+		}
+		for (int k = 0; k < members.size(); k++) {
+			int body = members.get(k);
+			int group = groupOf[groups.find(body)];
+			double m = bodies.mass[body];
+			groupMass[group] += m;
+			momentumX[group] += m * bodies.vx[body];
+			momentumY[group] += m * bodies.vy[body];
+			weightedX[group] += m * bodies.x[body];
+			weightedY[group] += m * bodies.y[body];
+			forceX[group] += m * bodies.ax[body];
+			forceY[group] += m * bodies.ay[body];
+			level[group] = (byte) Math.max(level[group], bodies.level[body]);
+			int heaviest = survivor[group];
+			if (bodies.mass[body] > bodies.mass[heaviest] || (bodies.mass[body] == bodies.mass[heaviest] && body < heaviest)) {
+				survivor[group] = body;
+			}
+		}
+
+		for (int group = 0; group < groupCount; group++) {
+			int body = survivor[group];
+			double m = groupMass[group];
+			if (m > 0) {
+				bodies.x[body] = (float) (weightedX[group] / m);
+				bodies.y[body] = (float) (weightedY[group] / m);
+				bodies.vx[body] = (float) (momentumX[group] / m);
+				bodies.vy[body] = (float) (momentumY[group] / m);
+				bodies.ax[body] = (float) (forceX[group] / m);
+				bodies.ay[body] = (float) (forceY[group] / m);
+			}
+			bodies.level[body] = level[group];
+			bodies.updateMass(body, (float) m - bodies.mass[body]);
+		}
+		for (int k = 0; k < members.size(); k++) {
+			int body = members.get(k);
+			if (survivor[groupOf[groups.find(body)]] != body) {
+				merged.add(body);
+			}
+		}
+	}
+
+	private void ensureGroups(int count) {
+		if (survivor.length >= count) {
+			return;
+		}
+		int capacity = Math.max(count, survivor.length * 2);
+		survivor = new int[capacity];
+		groupMass = new double[capacity];
+		momentumX = new double[capacity];
+		momentumY = new double[capacity];
+		weightedX = new double[capacity];
+		weightedY = new double[capacity];
+		forceX = new double[capacity];
+		forceY = new double[capacity];
+		level = new byte[capacity];
+	}
+
+}
@@ -1,7 +1,9 @@
 package app;
 
-import org.newdawn.slick.Color;
-
+/**
+ * Physics and simulation tuning. Rendering options live in {@link render.RenderConfig} so that
+ * this class can be loaded without Slick on the classpath.
+ */
 public class Config {
 	
 	/**
@@ -36,32 +38,35 @@ public class Config {
 	public static final float NODE_MASS_CHANGE_RATE = 0.5f;
 	// Too slow and new bodies will move directly into the sun, too fast and they will outrun gravity and escape
 	public static final float NODE_DEFAULT_VELOCITY = 4.2f;
-	// Bodies with mass less than this won't have their circles drawn (but labels still will be)
-	public static final float NODE_MIN_DRAW_MASS = 50;
 	
-	// Determines when to 'give up' on searching through a quad tree when calculating gravity.
+	// Determines when to 'give up' on searching through a quad tree when calculating gravity (the opening angle theta).
 	// Higher -> less accurate gravity, but should be less computationally expensive (will accept a rougher approximation)
+	// This is only the starting value, it can be changed while running with Universe.setOpeningAngle.
 	public static final float GRAVITATIONAL_FUDGE_FACTOR = 1f;
+	// Fraction of a body's acceleration that one accepted node may be wrong by, for OpeningCriterion.RELATIVE_ERROR
+	public static final float GRAVITATIONAL_ERROR_TOLERANCE = 0.001f;
 	
+	// Accuracy of the per-body timesteps of Integrator.LEAPFROG: a body's step is kept below
+	// sqrt(2 * TIMESTEP_ACCURACY * length / acceleration), with its radius (or the softening length) as the length.
+	// Lower -> more substeps for bodies that are pulled hard, e.g. close to the sun.
+	public static final float TIMESTEP_ACCURACY = 0.025f;
+
 	//public static final float MAX_DISTANCE_FROM_SUN = 15000;
 	public static final float MAX_NUMBER_BODIES = 100;
 	
-	public static final Color COLOR_BODY = new Color(210, 235, 240); 
-	public static final Color COLOR_SUN = new Color(220, 150, 70);
-	public static final Color COLOR_TEXT = Color.white;
-	public static final Color COLOR_BACKGROUND = new Color(0, 24, 43);
-	
-	public static final float QUAD_TREE_LINE_WIDTH_MOD = 0.0005f;
-	public static final float QUAD_TREE_LINE_COLOR_MOD = 2f;
-	
 	// Could probably just be one variable, depends if we will ever have non-square universes
+	// This is where new bodies are placed; bodies can leave it, as the tree is sized to wherever they are each step.
 	public static final int UNIVERSE_WIDTH = 60000;
 	public static final int UNIVERSE_HEIGHT = 60000;
-	// When a quad tree is divided down to minimum size, and new bodies entering the quad will cause a collision, and the smallest
-	// of the two bodies will be consumed by the largest. Increasing this should also improve performance.
+	// Smallest quad the tree divides. Bodies that meet in a quad of this size share its leaf instead of splitting it
+	// further, which bounds the depth of the tree; collisions are found by the Broadphase, not here. Increasing this
+	// makes the tree shallower and cheaper to build, at the cost of accuracy for crowded bodies.
 	public static final int QUAD_TREE_MIN_QUAD_SIZE = 20;
 	
-	public static final Color COLOR_WHITE = new Color(255, 255, 255);
+	// Whether a new universe keeps trails; the game toggles them with L
 	public static final boolean DRAW_TRAIL = false;
+	// Positions kept for each body's trail, and the updates between them
+	public static final int TRAIL_LENGTH = 50;
+	public static final int TRAIL_STRIDE = 2;
 	
 }
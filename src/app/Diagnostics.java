@@ -0,0 +1,302 @@
+package app;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the energy, linear momentum and angular momentum of a universe every so many steps, on a thread of its
+ * own, and how far they have drifted from the first measurement. A run whose settings trade accuracy for speed
+ * (a larger opening angle, longer timesteps) shows it here as drift long before it shows on screen. Give it to
+ * {@link Universe#setDiagnostics}.
+ *
+ * The stepping thread only copies the bodies and the sun. The measurement builds a Barnes-Hut tree over the copy
+ * and walks it once per body for the potential, so it costs O(N log N) rather than the O(N^2) of summing every
+ * pair. The tree has an opening angle of its own, so that the potential stays as accurate as it was however far
+ * the universe's own is pushed. If a measurement is still running when the next one is due, that one is skipped
+ * rather than making the step wait.
+ *
+ * The sun is fixed in place, so it is an outside potential to the bodies: with it, the total energy and the
+ * angular momentum about the sun are conserved, but linear momentum is not. Collisions merge bodies inelastically
+ * and take some kinetic energy with them, so energy drifts down by that much even with exact forces.
+ */
+public class Diagnostics {
+
+	// Opening angle of the tree the potential is measured with, unless set otherwise
+	public static final float DEFAULT_OPENING_ANGLE = 0.5f;
+
+	/**
+	 * The conserved quantities of a universe at one step.
+	 */
+	public static class Sample {
+
+		private final long step;
+		private final int bodies;
+		private final double mass;
+		private final double kineticEnergy;
+		private final double potentialEnergy;
+		private final double momentumX;
+		private final double momentumY;
+		private final double angularMomentum;
+		// Sum of the bodies' m * |v|, the scale that momentum drift is measured against
+		private final double momentumScale;
+
+		Sample(long step, int bodies, double mass, double kineticEnergy, double potentialEnergy, double momentumX,
+				double momentumY, double angularMomentum, double momentumScale) {
+			this.step = step;
+			this.bodies = bodies;
+			this.mass = mass;
+			this.kineticEnergy = kineticEnergy;
+			this.potentialEnergy = potentialEnergy;
+			this.momentumX = momentumX;
+			this.momentumY = momentumY;
+			this.angularMomentum = angularMomentum;
+			this.momentumScale = momentumScale;
+		}
+
+		public long getStep() {
+			return step;
+		}
+
+		public int getBodies() {
+			return bodies;
+		}
+
+		public double getMass() {
+			return mass;
+		}
+
+		public double getKineticEnergy() {
+			return kineticEnergy;
+		}
+
+		/**
+		 * @return The potential energy of the bodies with each other, from the tree, and with the sun.
+		 */
+		public double getPotentialEnergy() {
+			return potentialEnergy;
+		}
+
+		public double getEnergy() {
+			return kineticEnergy + potentialEnergy;
+		}
+
+		public double getMomentumX() {
+			return momentumX;
+		}
+
+		public double getMomentumY() {
+			return momentumY;
+		}
+
+		/**
+		 * @return The angular momentum of the bodies about the sun, positive for bodies going clockwise on
+		 * screen, where y points down.
+		 */
+		public double getAngularMomentum() {
+			return angularMomentum;
+		}
+
+		/**
+		 * @return The change in total energy since another sample, as a fraction of that sample's.
+		 */
+		public double getEnergyDrift(Sample start) {
+			return relative(getEnergy() - start.getEnergy(), start.getEnergy());
+		}
+
+		/**
+		 * @return The size of the change in linear momentum since another sample, as a fraction of the sum of the
+		 * bodies' m * |v| then.
+		 */
+		public double getMomentumDrift(Sample start) {
+			return relative(Math.hypot(momentumX - start.momentumX, momentumY - start.momentumY), start.momentumScale);
+		}
+
+		/**
+		 * @return The change in angular momentum since another sample, as a fraction of that sample's.
+		 */
+		public double getAngularMomentumDrift(Sample start) {
+			return relative(angularMomentum - start.angularMomentum, start.angularMomentum);
+		}
+
+		private static double relative(double change, double scale) {
+			return scale != 0 ? change / Math.abs(scale) : change == 0 ? 0 : Double.NaN;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("step %d, %d bodies, energy %.6g (kinetic %.6g, potential %.6g), momentum (%.6g, %.6g),"
+					+ " angular momentum %.6g", step, bodies, getEnergy(), kineticEnergy, potentialEnergy, momentumX,
+					momentumY, angularMomentum);
+		}
+	}
+
+	private final int interval;
+	private final ExecutorService worker;
+	// Held while a measurement is copied or running
+	private final Semaphore busy = new Semaphore(1);
+	// Only touched by the stepping thread while no measurement is running, and by the worker while one is
+	private final BodyStore copy = new BodyStore();
+	private final Body sun = new Body("Sol", 0, 0, 0, 0);
+	private final BHTree tree = new BHTree();
+	private final Parallel parallel = new Parallel(1);
+	private long step;
+	private float softening;
+
+	private volatile Sample first;
+	private volatile Sample latest;
+	private volatile double maxEnergyDrift;
+	private volatile long taken;
+	private volatile long skipped;
+	private volatile double lastMillis;
+
+	/**
+	 * @param interval	Number of steps between measurements
+	 */
+	public Diagnostics(int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Diagnostics interval must be at least 1 step: " + interval);
+		}
+		this.interval = interval;
+		tree.setOpeningAngle(DEFAULT_OPENING_ANGLE);
+		worker = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "diagnostics");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Set the opening angle of the tree the potential energy is measured with. Starts at
+	 * {@link #DEFAULT_OPENING_ANGLE}, with the quadrupole term on.
+	 */
+	public void setOpeningAngle(float openingAngle) {
+		tree.setOpeningAngle(openingAngle);
+	}
+
+	/**
+	 * Called by the universe at the end of every update.
+	 */
+	void stepped(Universe universe) {
+		if (universe.getSteps() % interval != 0) {
+			return;
+		}
+		if (!busy.tryAcquire()) {
+			skipped++;
+			return;
+		}
+		start(universe);
+	}
+
+	/**
+	 * Measure the universe as it is now, e.g. before the first step so that drift is measured from there. Waits
+	 * for the measurement before, if one is running, but not for this one.
+	 */
+	public void sample(Universe universe) throws InterruptedException {
+		busy.acquire();
+		start(universe);
+	}
+
+	private void start(Universe universe) {
+		copy.copyBodiesFrom(universe.getBodies());
+		sun.copyFrom(universe.getSun());
+		step = universe.getSteps();
+		tree.setGravityConstant(universe.getGravityConstant());
+		softening = universe.getSoftening();
+		tree.setSoftening(softening);
+		worker.execute(this::measure);
+	}
+
+	private void measure() {
+		long start = System.nanoTime();
+		try {
+			tree.buildSorted(copy, parallel);
+			float gravityConstant = tree.getGravityConstant();
+			double mass = 0, kinetic = 0, potential = 0, momentumX = 0, momentumY = 0, angular = 0, scale = 0;
+			for (int i = 0; i < copy.size(); i++) {
+				double m = copy.mass[i];
+				double vx = copy.vx[i];
+				double vy = copy.vy[i];
+				double dx = copy.x[i] - sun.getX();
+				double dy = copy.y[i] - sun.getY();
+				double speed2 = vx * vx + vy * vy;
+				mass += m;
+				kinetic += 0.5 * m * speed2;
+				// Each pair is counted from both ends, so each body gets half of its share
+				potential += 0.5 * m * tree.getPotential(i);
+				potential -= gravityConstant * sun.getMass() * m / Math.sqrt(dx * dx + dy * dy + softening * softening);
+				momentumX += m * vx;
+				momentumY += m * vy;
+				angular += m * (dx * vy - dy * vx);
+				scale += m * Math.sqrt(speed2);
+			}
+			Sample sample = new Sample(step, copy.size(), mass, kinetic, potential, momentumX, momentumY, angular, scale);
+			if (first == null) {
+				first = sample;
+			}
+			double drift = Math.abs(sample.getEnergyDrift(first));
+			if (drift > maxEnergyDrift || Double.isNaN(drift)) {
+				maxEnergyDrift = drift;
+			}
+			latest = sample;
+			taken++;
+			lastMillis = (System.nanoTime() - start) / 1e6;
+		}
+		finally {
+			busy.release();
+		}
+	}
+
+	/**
+	 * Wait for the measurement being taken, if there is one, and stop the worker thread.
+	 */
+	public void shutdown() throws InterruptedException {
+		worker.shutdown();
+		worker.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return The first measurement, which drift is measured from, or null if none has been taken yet.
+	 */
+	public Sample getFirst() {
+		return first;
+	}
+
+	/**
+	 * @return The last measurement, or null if none has been taken yet.
+	 */
+	public Sample getLatest() {
+		return latest;
+	}
+
+	/**
+	 * @return The largest size of energy drift measured so far, as a fraction of the first energy. NaN once any
+	 * measurement has been NaN.
+	 */
+	public double getMaxEnergyDrift() {
+		return maxEnergyDrift;
+	}
+
+	/**
+	 * @return The number of measurements taken.
+	 */
+	public long getTaken() {
+		return taken;
+	}
+
+	/**
+	 * @return The number of measurements skipped because the one before was still running.
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return How long the last measurement took, in milliseconds.
+	 */
+	public double getLastMillis() {
+		return lastMillis;
+	}
+
+}
@@ -0,0 +1,20 @@
+package app;
+
+/**
+ * The inner loop of {@link DirectSolver}: the pull of a run of sources on a run of targets, summed directly.
+ */
+interface DirectKernel {
+
+	/**
+	 * @return The number of sources handled at once. Source runs must be a whole number of these.
+	 */
+	int lanes();
+
+	/**
+	 * Add the pull of the sources [sourceFrom, sourceTo) on each target [targetFrom, targetTo) to ax and ay,
+	 * without the gravitational constant. A source exactly on a target pulls it nowhere.
+	 */
+	void accumulate(float[] x, float[] y, float[] m, int targetFrom, int targetTo, int sourceFrom, int sourceTo,
+			float softening2, float[] ax, float[] ay);
+
+}
@@ -0,0 +1,237 @@
+package app;
+
+/**
+ * Gravity by summing the pull of every body on every other body directly. Exact up to float rounding, so it is
+ * the reference the other solvers are checked against, and with no tree to build it is also the fastest
+ * solver for up to a few thousand bodies. All of the work is done by {@link #build}, after which
+ * {@link #accelerate} only looks up the result.
+ *
+ * The bodies are copied into plain arrays, padded to a whole number of SIMD lanes with massless bodies. The
+ * targets are split over the threads, and each thread runs through the sources a tile at a time, small enough
+ * to stay in the first level cache while it is used for every one of its targets. The inner loop uses the
+ * Vector API if the JVM was started with --add-modules jdk.incubator.vector, and plain loops otherwise.
+ */
+public class DirectSolver implements GravitySolver {
+
+	// Sources per tile: three floats each, so 24KB
+	private static final int SOURCE_TILE = 2048;
+	// Targets per task once the threads stop splitting
+	private static final int TARGET_GRAIN = 64;
+	private static final String VECTOR_KERNEL = "app.VectorDirectKernel";
+
+	private final DirectKernel kernel;
+	private float softening2 = 0;
+	private float gravityConstant = Config.GRAVITY_CONSTANT;
+
+	private BodyStore bodies;
+	private int n;
+	// Bodies by store index, then the padding
+	private float[] x = new float[0];
+	private float[] y = new float[0];
+	private float[] m = new float[0];
+	private int padded;
+	private long interactions;
+	// Sums without the gravitational constant, by store index
+	private float[] sumX = new float[0];
+	private float[] sumY = new float[0];
+
+	private final Parallel.RangeAction gatherBodies = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				float bx = bodies.x[i];
+				float by = bodies.y[i];
+				if (Float.isFinite(bx) && Float.isFinite(by)) {
+					x[i] = bx;
+					y[i] = by;
+					m[i] = bodies.mass[i];
+				}
+				else {
+					// Would turn every other body's sum into NaN
+					x[i] = 0;
+					y[i] = 0;
+					m[i] = 0;
+				}
+				sumX[i] = 0;
+				sumY[i] = 0;
+			}
+		}
+	};
+
+	private final Parallel.RangeAction sumAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int tile = 0; tile < padded; tile += SOURCE_TILE) {
+				kernel.accumulate(x, y, m, from, to, tile, Math.min(tile + SOURCE_TILE, padded), softening2, sumX, sumY);
+			}
+		}
+	};
+
+	public DirectSolver() {
+		this(true);
+	}
+
+	/**
+	 * @param vectorize	Use the Vector API if it is available. With false the plain loops are always used.
+	 */
+	public DirectSolver(boolean vectorize) {
+		DirectKernel vector = vectorize ? loadVectorKernel() : null;
+		kernel = vector != null ? vector : new ScalarKernel();
+	}
+
+	/**
+	 * @return true if the inner loop runs on the Vector API.
+	 */
+	public boolean isVectorized() {
+		return !(kernel instanceof ScalarKernel);
+	}
+
+	/**
+	 * @return The number of sources handled at once by the inner loop.
+	 */
+	public int getLanes() {
+		return kernel.lanes();
+	}
+
+	@Override
+	public void setSoftening(float softening) {
+		softening2 = softening * softening;
+	}
+
+	@Override
+	public void setGravityConstant(float gravityConstant) {
+		this.gravityConstant = gravityConstant;
+	}
+
+	@Override
+	public void build(BodyStore bodies, Parallel parallel) {
+		this.bodies = bodies;
+		n = bodies.size();
+		int lanes = kernel.lanes();
+		padded = (n + lanes - 1) / lanes * lanes;
+		if (x.length < padded) {
+			int capacity = Math.max(padded, x.length * 2);
+			x = new float[capacity];
+			y = new float[capacity];
+			m = new float[capacity];
+			sumX = new float[capacity];
+			sumY = new float[capacity];
+		}
+		parallel.forRange(n, gatherBodies);
+		for (int i = n; i < padded; i++) {
+			x[i] = 0;
+			y[i] = 0;
+			m[i] = 0;
+		}
+		parallel.forRange(n, TARGET_GRAIN, sumAction);
+		interactions += (long) n * (n - 1);
+	}
+
+	@Override
+	public void accelerate(int body, float previousAcceleration) {
+		bodies.ax[body] += gravityConstant * sumX[body];
+		bodies.ay[body] += gravityConstant * sumY[body];
+	}
+
+	@Override
+	public long getInteractionCount() {
+		return interactions;
+	}
+
+	@Override
+	public int getNodeCount() {
+		return 0;
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return 0;
+	}
+
+	private static DirectKernel loadVectorKernel() {
+		try {
+			return (DirectKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			// The module isn't there
+			return null;
+		}
+	}
+
+	/**
+	 * {@link DirectKernel} in plain Java, four targets at a time so that every source loaded is used four times.
+	 */
+	private static final class ScalarKernel implements DirectKernel {
+
+		@Override
+		public int lanes() {
+			return 1;
+		}
+
+		@Override
+		public void accumulate(float[] x, float[] y, float[] m, int targetFrom, int targetTo, int sourceFrom,
+				int sourceTo, float softening2, float[] ax, float[] ay) {
+			int t = targetFrom;
+			for (; t + 4 <= targetTo; t += 4) {
+				float x0 = x[t], x1 = x[t + 1], x2 = x[t + 2], x3 = x[t + 3];
+				float y0 = y[t], y1 = y[t + 1], y2 = y[t + 2], y3 = y[t + 3];
+				float ax0 = 0, ay0 = 0, ax1 = 0, ay1 = 0, ax2 = 0, ay2 = 0, ax3 = 0, ay3 = 0;
+				for (int s = sourceFrom; s < sourceTo; s++) {
+					float sx = x[s], sy = y[s], sm = m[s];
+
+					float dx = sx - x0, dy = sy - y0;
+					float f = strength(dx, dy, sm, softening2);
+					ax0 += f * dx;
+					ay0 += f * dy;
+
+					dx = sx - x1;
+					dy = sy - y1;
+					f = strength(dx, dy, sm, softening2);
+					ax1 += f * dx;
+					ay1 += f * dy;
+
+					dx = sx - x2;
+					dy = sy - y2;
+					f = strength(dx, dy, sm, softening2);
+					ax2 += f * dx;
+					ay2 += f * dy;
+
+					dx = sx - x3;
+					dy = sy - y3;
+					f = strength(dx, dy, sm, softening2);
+					ax3 += f * dx;
+					ay3 += f * dy;
+				}
+				ax[t] += ax0;
+				ay[t] += ay0;
+				ax[t + 1] += ax1;
+				ay[t + 1] += ay1;
+				ax[t + 2] += ax2;
+				ay[t + 2] += ay2;
+				ax[t + 3] += ax3;
+				ay[t + 3] += ay3;
+			}
+			for (; t < targetTo; t++) {
+				float sumX = 0, sumY = 0;
+				for (int s = sourceFrom; s < sourceTo; s++) {
+					float dx = x[s] - x[t], dy = y[s] - y[t];
+					float f = strength(dx, dy, m[s], softening2);
+					sumX += f * dx;
+					sumY += f * dy;
+				}
+				ax[t] += sumX;
+				ay[t] += sumY;
+			}
+		}
+
+		private static float strength(float dx, float dy, float m, float softening2) {
+			float softened = dx * dx + dy * dy + softening2;
+			if (softened == 0) {
+				return 0;
+			}
+			float inverse = 1 / (float) Math.sqrt(softened);
+			return m * inverse * inverse * inverse;
+		}
+	}
+
+}
@@ -0,0 +1,362 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps one universe split over several worker processes on this machine, so that a run can use more memory and
+ * cores than one JVM has. Each {@link DomainWorker} holds the bodies of one range of space-filling curve keys,
+ * and gets the pull of the others' bodies from the locally essential trees they send it each step. This process
+ * is the coordinator: it starts the workers, fits the key frame and cuts the key ranges every --rebalance-every
+ * steps from what the bodies cost to walk, and prints the totals the workers send after each step.
+ *
+ * Usage: DistributedRunner [--workers n] [--random count] [--distribution uniform|clustered|disk] [--seed seed]
+ *                          [--steps steps] [--threads n] [--theta angle] [--monopole] [--softening length]
+ *                          [--gravity constant] [--integrator euler|leapfrog|velocity_verlet] [--levels n]
+ *                          [--rebalance-every steps] [--report-every steps] [--worker-heap size] [--port port]
+ *                          [--no-spawn]
+ *
+ * Everything goes over loopback sockets. --threads is per worker, by default the cores shared out between them.
+ * With --no-spawn the workers aren't started, and are waited for on --port instead, e.g. to start them by hand
+ * with a debugger. Collisions are only found between bodies of the same domain, and the pull of the other
+ * domains is taken from where their bodies were at the start of each step, so a run is close to, but not the
+ * same as, a run in one process.
+ */
+public class DistributedRunner {
+
+	/**
+	 * What every worker needs to know to make and step its part of the universe.
+	 */
+	static class Settings {
+		int count = 1000;
+		InitialConditions.Distribution distribution = InitialConditions.Distribution.UNIFORM;
+		long seed = 1;
+		int steps = 100;
+		int threads = 1;
+		float openingAngle = Config.GRAVITATIONAL_FUDGE_FACTOR;
+		boolean quadrupole = true;
+		float softening = 0;
+		float gravityConstant = Config.GRAVITY_CONSTANT;
+		Integrator integrator = Integrator.EULER;
+		int levels = 0;
+		int rebalanceEvery = 10;
+
+		void write(DomainMessage message) {
+			message.putInt(count).putInt(distribution.ordinal()).putLong(seed).putInt(steps).putInt(threads)
+					.putFloat(openingAngle).putInt(quadrupole ? 1 : 0).putFloat(softening).putFloat(gravityConstant)
+					.putInt(integrator.ordinal()).putInt(levels).putInt(rebalanceEvery);
+		}
+
+		static Settings read(ByteBuffer message) {
+			Settings settings = new Settings();
+			settings.count = message.getInt();
+			settings.distribution = InitialConditions.Distribution.values()[message.getInt()];
+			settings.seed = message.getLong();
+			settings.steps = message.getInt();
+			settings.threads = message.getInt();
+			settings.openingAngle = message.getFloat();
+			settings.quadrupole = message.getInt() != 0;
+			settings.softening = message.getFloat();
+			settings.gravityConstant = message.getFloat();
+			settings.integrator = Integrator.values()[message.getInt()];
+			settings.levels = message.getInt();
+			settings.rebalanceEvery = message.getInt();
+			return settings;
+		}
+	}
+
+	/**
+	 * The totals of every worker after one step.
+	 */
+	private static class Totals {
+		int bodies;
+		int migrated;
+		long imports;
+		double mass;
+		double px;
+		double py;
+		double kinetic;
+		long maxStepNanos;
+		long totalStepNanos;
+		long bytes;
+		long nans;
+	}
+
+	public static void main(String[] args) {
+		Settings settings = new Settings();
+		int workers = 2;
+		Integer threads = null;
+		int reportEvery = 10;
+		String heap = null;
+		int port = 0;
+		boolean spawn = true;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--workers")) {
+					workers = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--random")) {
+					settings.count = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--distribution")) {
+					settings.distribution = InitialConditions.Distribution.valueOf(args[++i].toUpperCase());
+				}
+				else if (arg.equals("--seed")) {
+					settings.seed = Long.parseLong(args[++i]);
+				}
+				else if (arg.equals("--steps")) {
+					settings.steps = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--threads")) {
+					threads = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--theta")) {
+					settings.openingAngle = Float.parseFloat(args[++i]);
+				}
+				else if (arg.equals("--monopole")) {
+					settings.quadrupole = false;
+				}
+				else if (arg.equals("--softening")) {
+					settings.softening = Float.parseFloat(args[++i]);
+				}
+				else if (arg.equals("--gravity")) {
+					settings.gravityConstant = Float.parseFloat(args[++i]);
+				}
+				else if (arg.equals("--integrator")) {
+					settings.integrator = Integrator.valueOf(args[++i].toUpperCase());
+				}
+				else if (arg.equals("--levels")) {
+					settings.levels = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--rebalance-every")) {
+					settings.rebalanceEvery = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--report-every")) {
+					reportEvery = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--worker-heap")) {
+					heap = args[++i];
+				}
+				else if (arg.equals("--port")) {
+					port = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--no-spawn")) {
+					spawn = false;
+				}
+				else {
+					usage("Unknown argument " + arg);
+					return;
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			usage("Missing value for " + args[args.length - 1]);
+			return;
+		}
+		catch (IllegalArgumentException e) {
+			usage(e.getMessage());
+			return;
+		}
+		if (workers < 1 || settings.steps < 0 || settings.rebalanceEvery < 1 || reportEvery < 1) {
+			usage("--workers, --rebalance-every and --report-every must be at least 1, and --steps not negative");
+			return;
+		}
+		settings.threads = threads != null ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+
+		List<Process> processes = new ArrayList<Process>();
+		int exitCode = 0;
+		try (ServerSocket server = new ServerSocket(port, workers, InetAddress.getLoopbackAddress())) {
+			List<String> command = new ArrayList<String>();
+			command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+			if (heap != null) {
+				command.add("-Xmx" + heap);
+			}
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(DomainWorker.class.getName());
+			command.add(String.valueOf(server.getLocalPort()));
+			if (spawn) {
+				for (int k = 0; k < workers; k++) {
+					processes.add(new ProcessBuilder(command).inheritIO().start());
+				}
+			}
+			else {
+				System.out.println("Waiting for " + workers + " workers: " + String.join(" ", command));
+			}
+			run(server, workers, settings, reportEvery);
+			for (Process process : processes) {
+				if (process.waitFor() != 0) {
+					exitCode = 1;
+				}
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Distributed run failed: " + e.getMessage());
+			exitCode = 1;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			exitCode = 1;
+		}
+		finally {
+			for (Process process : processes) {
+				process.destroy();
+			}
+		}
+		System.exit(exitCode);
+	}
+
+	/**
+	 * Wait for the workers to connect to the server, tell each its rank, the others' ports and the settings, and
+	 * coordinate them until the run is over.
+	 */
+	static void run(ServerSocket server, int workers, Settings settings, int reportEvery) throws IOException {
+		DomainLink[] links = new DomainLink[workers];
+		try {
+			int[] ports = new int[workers];
+			for (int rank = 0; rank < workers; rank++) {
+				links[rank] = new DomainLink(server.accept(), "coordinator-to-" + rank);
+				ports[rank] = links[rank].receive(DomainMessage.HELLO).getInt();
+			}
+			for (int rank = 0; rank < workers; rank++) {
+				DomainMessage setup = new DomainMessage(DomainMessage.SETUP).putInt(rank).putInt(workers);
+				for (int p : ports) {
+					setup.putInt(p);
+				}
+				settings.write(setup);
+				links[rank].send(setup);
+			}
+			System.out.println(String.format("Bodies: %d, workers: %d, threads each: %d", settings.count, workers,
+					settings.threads));
+			coordinate(links, settings, reportEvery);
+		}
+		finally {
+			for (DomainLink link : links) {
+				if (link != null) {
+					try {
+						link.close();
+					}
+					catch (IOException e) {
+						// Gone already
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Answer the workers' rebalances and gather their totals until the run is over.
+	 */
+	private static void coordinate(DomainLink[] links, Settings settings, int reportEvery) throws IOException {
+		int workers = links.length;
+		DomainDecomposition decomposition = new DomainDecomposition(workers);
+		Totals first = null;
+		Totals last = null;
+		long start = System.nanoTime();
+		long intervalStart = start;
+		long intervalStepNanos = 0;
+		long intervalMaxNanos = 0;
+		for (int step = 0; step < settings.steps; step++) {
+			if (step % settings.rebalanceEvery == 0) {
+				rebalance(links, decomposition);
+			}
+			Totals totals = new Totals();
+			for (DomainLink link : links) {
+				ByteBuffer report = link.receive(DomainMessage.REPORT);
+				totals.bodies += report.getInt();
+				totals.migrated += report.getInt();
+				totals.imports += report.getInt();
+				totals.mass += report.getDouble();
+				totals.px += report.getDouble();
+				totals.py += report.getDouble();
+				totals.kinetic += report.getDouble();
+				long stepNanos = report.getLong();
+				totals.maxStepNanos = Math.max(totals.maxStepNanos, stepNanos);
+				totals.totalStepNanos += stepNanos;
+				totals.bytes += report.getLong();
+				totals.nans += report.getLong();
+			}
+			if (first == null) {
+				first = totals;
+			}
+			last = totals;
+			intervalStepNanos += totals.totalStepNanos;
+			intervalMaxNanos += totals.maxStepNanos;
+			if ((step + 1) % reportEvery == 0 || step + 1 == settings.steps) {
+				long now = System.nanoTime();
+				int steps = step % reportEvery + 1;
+				System.out.println(String.format("Step %d: bodies %d, migrated %d, imported %d, %.1f steps/s, "
+						+ "imbalance %.2f, kinetic %.6g, momentum (%.6g, %.6g)", step + 1, totals.bodies, totals.migrated,
+						totals.imports, steps / ((now - intervalStart) / 1e9),
+						intervalMaxNanos / (intervalStepNanos / (double) workers), totals.kinetic, totals.px, totals.py));
+				intervalStart = now;
+				intervalStepNanos = 0;
+				intervalMaxNanos = 0;
+			}
+		}
+		if (last == null) {
+			return;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Steps: %d in %.3fs, %.1f steps/s", settings.steps, seconds, settings.steps / seconds));
+		System.out.println(String.format("Bodies: %d after the first step, %d remaining", first.bodies, last.bodies));
+		System.out.println(String.format("Mass: %.6g to %.6g, momentum: (%.6g, %.6g) to (%.6g, %.6g)", first.mass,
+				last.mass, first.px, first.py, last.px, last.py));
+		System.out.println(String.format("Sent: %.1f MB, %.1f KB/step, NaNs: %d", last.bytes / 1e6,
+				last.bytes / 1e3 / settings.steps, last.nans));
+	}
+
+	/**
+	 * Fit the key frame around every worker's bodies, and cut the key ranges from what their bodies cost.
+	 */
+	private static void rebalance(DomainLink[] links, DomainDecomposition decomposition) throws IOException {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		for (DomainLink link : links) {
+			ByteBuffer bounds = link.receive(DomainMessage.BOUNDS);
+			minX = Math.min(minX, bounds.getFloat());
+			minY = Math.min(minY, bounds.getFloat());
+			maxX = Math.max(maxX, bounds.getFloat());
+			maxY = Math.max(maxY, bounds.getFloat());
+		}
+		decomposition.fitFrame(minX, minY, maxX, maxY);
+		for (DomainLink link : links) {
+			link.send(new DomainMessage(DomainMessage.FRAME).putFloat(decomposition.getLeft())
+					.putFloat(decomposition.getTop()).putFloat(decomposition.getSize()));
+		}
+		long[] histogram = new long[DomainDecomposition.BINS];
+		for (DomainLink link : links) {
+			ByteBuffer message = link.receive(DomainMessage.HISTOGRAM);
+			int used = message.getInt();
+			for (int k = 0; k < used; k++) {
+				int bin = message.getInt();
+				histogram[bin] += message.getLong();
+			}
+		}
+		decomposition.split(histogram);
+		long[] splitters = decomposition.getSplitters();
+		for (DomainLink link : links) {
+			DomainMessage message = new DomainMessage(DomainMessage.SPLITTERS);
+			for (long splitter : splitters) {
+				message.putLong(splitter);
+			}
+			link.send(message);
+		}
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println("Usage: DistributedRunner [--workers n] [--random count] [--distribution uniform|clustered|disk]"
+				+ " [--seed seed] [--steps steps] [--threads n] [--theta angle] [--monopole] [--softening length]"
+				+ " [--gravity constant] [--integrator euler|leapfrog|velocity_verlet] [--levels n]"
+				+ " [--rebalance-every steps] [--report-every steps] [--worker-heap size] [--port port] [--no-spawn]");
+		System.exit(1);
+	}
+
+}
@@ -0,0 +1,192 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Gravity for the bodies of one domain of a distributed run (see {@link DomainWorker}). Each process only holds
+ * its own bodies, so before each step it sends every other domain the part of its tree that domain needs, its
+ * locally essential tree: every node that a walk from anywhere in that domain would take whole, as a point
+ * mass at its center of mass, and the bodies of the leaves such a walk would open. The solver then builds one
+ * Barnes-Hut tree over its own bodies and everything imported from the others, and walks it for its own bodies
+ * only, so each body is pulled by every other body in the run, at about the accuracy of a single tree.
+ *
+ * Imported nodes keep their mass but not their quadrupole moment, and stay where they were at the start of the
+ * step, however many times the integrator builds the tree during it.
+ *
+ * The time each body's walk takes is added up by body id, for balancing the domains by cost.
+ */
+class DistributedSolver implements GravitySolver {
+
+	// Tree over this domain's bodies alone, that the exports are cut from
+	private final BHTree localTree = new BHTree();
+	// Tree over this domain's bodies followed by the imported ones, that the forces come from
+	private final BHTree tree = new BHTree();
+	private final BodyStore combined = new BodyStore();
+	private BodyStore bodies;
+	// Imported point masses, as (x, y, mass)
+	private final FloatList imports = new FloatList();
+	private float openingAngle = Config.GRAVITATIONAL_FUDGE_FACTOR;
+	// Nanoseconds spent on each body's walks, by id
+	private long[] costs = new long[0];
+	private final IntList stack = new IntList();
+
+	DistributedSolver() {
+		// Every walk of the combined tree uses the plain opening angle, which the exports are cut to match
+		tree.setOpeningCriterion(OpeningCriterion.BARNES_HUT);
+	}
+
+	/**
+	 * Build the tree of this domain's own bodies, to cut exports from with {@link #export}.
+	 */
+	void buildLocal(BodyStore bodies, Parallel parallel) {
+		this.bodies = bodies;
+		localTree.buildSorted(bodies, parallel);
+	}
+
+	/**
+	 * Add to out, as (x, y, mass), what a domain whose bodies lie within the given bounds needs of this one's:
+	 * each node of the local tree that is far enough from every point of the bounds to be taken whole, and
+	 * the bodies of the leaves that aren't.
+	 */
+	void export(float minX, float minY, float maxX, float maxY, FloatList out) {
+		if (localTree.getNodeCount() == 0 || !(minX <= maxX) || !(minY <= maxY)) {
+			return;
+		}
+		stack.clear();
+		stack.add(0);
+		while (!stack.isEmpty()) {
+			int node = stack.removeLast();
+			float m = localTree.getMass(node);
+			if (!(m > 0)) {
+				continue;
+			}
+			float cx = localTree.getCenterOfMassX(node);
+			float cy = localTree.getCenterOfMassY(node);
+			// Distance from the center of mass to the nearest point of the bounds, the closest any walk there starts
+			float dx = Math.max(Math.max(minX - cx, cx - maxX), 0);
+			float dy = Math.max(Math.max(minY - cy, cy - maxY), 0);
+			float size = (localTree.getWidth(node) + localTree.getHeight(node)) / 2;
+			if (size * size < openingAngle * openingAngle * (dx * dx + dy * dy)) {
+				out.add(cx);
+				out.add(cy);
+				out.add(m);
+				continue;
+			}
+			int child = localTree.getFirstChild(node);
+			if (child >= 0) {
+				for (int k = 0; k < 4; k++) {
+					stack.add(child + k);
+				}
+				continue;
+			}
+			for (int b = localTree.getContainedBody(node); b >= 0; b = localTree.getNextInLeaf(b)) {
+				if (b < bodies.size()) {
+					out.add(bodies.x[b]);
+					out.add(bodies.y[b]);
+					out.add(bodies.mass[b]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget the nodes imported for the last step.
+	 */
+	void clearImports() {
+		imports.clear();
+	}
+
+	void addImport(float x, float y, float mass) {
+		imports.add(x);
+		imports.add(y);
+		imports.add(mass);
+	}
+
+	int getImportCount() {
+		return imports.size() / 3;
+	}
+
+	@Override
+	public void build(BodyStore bodies, Parallel parallel) {
+		this.bodies = bodies;
+		combined.copyBodiesFrom(bodies);
+		for (int k = 0; k < imports.size(); k += 3) {
+			combined.add(null, imports.get(k), imports.get(k + 1), 0, 0, imports.get(k + 2));
+		}
+		tree.buildSorted(combined, parallel);
+		if (costs.length < bodies.getNextId()) {
+			costs = Arrays.copyOf(costs, Math.max(bodies.getNextId(), costs.length * 2));
+		}
+	}
+
+	@Override
+	public void accelerate(int body, float previousAcceleration) {
+		long start = System.nanoTime();
+		combined.ax[body] = 0;
+		combined.ay[body] = 0;
+		tree.updateGravity(body, previousAcceleration);
+		bodies.ax[body] += combined.ax[body];
+		bodies.ay[body] += combined.ay[body];
+		costs[bodies.idAt(body)] += System.nanoTime() - start;
+	}
+
+	/**
+	 * @return Nanoseconds spent on the walks of the body with the given id since {@link #clearCosts}.
+	 */
+	long getCost(int id) {
+		return id < costs.length ? costs[id] : 0;
+	}
+
+	/**
+	 * Set what a body has cost so far, e.g. for one that has just arrived from another domain.
+	 */
+	void setCost(int id, long cost) {
+		if (id >= costs.length) {
+			costs = Arrays.copyOf(costs, Math.max(id + 1, costs.length * 2));
+		}
+		costs[id] = cost;
+	}
+
+	void clearCosts() {
+		Arrays.fill(costs, 0);
+	}
+
+	/**
+	 * Set the opening angle of the walks, and of the cut of the exports to match.
+	 */
+	void setOpeningAngle(float openingAngle) {
+		this.openingAngle = openingAngle;
+		tree.setOpeningAngle(openingAngle);
+		localTree.setOpeningAngle(openingAngle);
+	}
+
+	void setQuadrupole(boolean quadrupole) {
+		tree.setQuadrupole(quadrupole);
+	}
+
+	@Override
+	public void setSoftening(float softening) {
+		tree.setSoftening(softening);
+	}
+
+	@Override
+	public void setGravityConstant(float gravityConstant) {
+		tree.setGravityConstant(gravityConstant);
+	}
+
+	@Override
+	public long getInteractionCount() {
+		return tree.getInteractionCount();
+	}
+
+	@Override
+	public int getNodeCount() {
+		return tree.getNodeCount();
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return tree.getMaxDepth();
+	}
+
+}
@@ -0,0 +1,181 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Splits space between the domains of a distributed run along a space-filling curve. Positions inside a square
+ * frame get a Morton (Z-order) key, and each domain owns a contiguous range of keys, which is a compact patch of
+ * space wherever the ranges are cut. The ranges are cut so that each domain gets an equal share of the work,
+ * from a histogram of what the bodies cost by key.
+ *
+ * The coordinator and every worker keep a copy, and are all given the same frame and splitters, so that they
+ * agree on the domain that owns any position without asking each other. Positions outside the frame are
+ * clamped to its edge, so they are still owned by someone until the next frame takes them in.
+ */
+class DomainDecomposition {
+
+	// Bits of each coordinate in a key
+	static final int KEY_BITS = 21;
+	// Bits of each coordinate kept by the histogram, whose bins are the finest the ranges are cut at
+	static final int BIN_BITS = 8;
+	static final int BINS = 1 << (2 * BIN_BITS);
+	static final long KEYS = 1L << (2 * KEY_BITS);
+	// Space left around the bodies on each side of the frame, as a fraction of their extent
+	private static final float FRAME_MARGIN = 0.25f;
+
+	private final int domains;
+	private float left;
+	private float top;
+	private float size = 1;
+	// Cells per unit of distance
+	private float scale = (1 << KEY_BITS);
+	// Domain d owns the keys from splitters[d] (inclusive) to splitters[d + 1] (exclusive)
+	private final long[] splitters;
+
+	DomainDecomposition(int domains) {
+		if (domains < 1) {
+			throw new IllegalArgumentException("Need at least one domain: " + domains);
+		}
+		this.domains = domains;
+		splitters = new long[domains + 1];
+		// Until the first split the first domain owns everything
+		Arrays.fill(splitters, 1, domains + 1, KEYS);
+	}
+
+	/**
+	 * Set the square that keys are given in.
+	 */
+	void setFrame(float left, float top, float size) {
+		if (!(size > 0) || !Float.isFinite(size)) {
+			throw new IllegalArgumentException("Frame size must be positive: " + size);
+		}
+		this.left = left;
+		this.top = top;
+		this.size = size;
+		scale = (1 << KEY_BITS) / size;
+	}
+
+	/**
+	 * Set a square frame around the given bounds, with room for the bodies to spread out before the next one.
+	 */
+	void fitFrame(float minX, float minY, float maxX, float maxY) {
+		if (!(minX <= maxX) || !(minY <= maxY)) {
+			// No bodies anywhere
+			setFrame(0, 0, 1);
+			return;
+		}
+		float extent = Math.max(Math.max(maxX - minX, maxY - minY), Config.QUAD_TREE_MIN_QUAD_SIZE);
+		float size = extent * (1 + 2 * FRAME_MARGIN);
+		setFrame((minX + maxX - size) / 2, (minY + maxY - size) / 2, size);
+	}
+
+	float getLeft() {
+		return left;
+	}
+
+	float getTop() {
+		return top;
+	}
+
+	float getSize() {
+		return size;
+	}
+
+	/**
+	 * Cut the key range into one range per domain, each with as near an equal share of the histogram as the bins
+	 * allow.
+	 * @param histogram	Cost of the bodies in each bin, see {@link #bin}
+	 */
+	void split(long[] histogram) {
+		double total = 0;
+		for (long cost : histogram) {
+			total += cost;
+		}
+		int shift = 2 * (KEY_BITS - BIN_BITS);
+		double cumulative = 0;
+		int bin = 0;
+		for (int d = 1; d < domains; d++) {
+			double target = total * d / domains;
+			while (bin < BINS && cumulative + histogram[bin] / 2.0 < target) {
+				cumulative += histogram[bin];
+				bin++;
+			}
+			splitters[d] = (long) bin << shift;
+		}
+		splitters[0] = 0;
+		splitters[domains] = KEYS;
+	}
+
+	void setSplitters(long[] splitters) {
+		if (splitters.length != domains + 1 || splitters[0] != 0 || splitters[domains] != KEYS) {
+			throw new IllegalArgumentException("Splitters don't cover the keys of " + domains + " domains");
+		}
+		for (int d = 0; d < domains; d++) {
+			if (splitters[d] > splitters[d + 1]) {
+				throw new IllegalArgumentException("Splitters out of order at domain " + d);
+			}
+		}
+		System.arraycopy(splitters, 0, this.splitters, 0, domains + 1);
+	}
+
+	long[] getSplitters() {
+		return splitters.clone();
+	}
+
+	/**
+	 * @return The key of a position, clamped into the frame. Positions that aren't numbers get key 0.
+	 */
+	long key(float x, float y) {
+		return spread(cell(x - left)) | (spread(cell(y - top)) << 1);
+	}
+
+	private long cell(float offset) {
+		float cell = offset * scale;
+		if (!(cell > 0)) {
+			return 0;
+		}
+		return Math.min((long) cell, (1L << KEY_BITS) - 1);
+	}
+
+	/**
+	 * Spread the low 21 bits of v out to the even bits.
+	 */
+	private static long spread(long v) {
+		v &= 0x1FFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	/**
+	 * @return The histogram bin of a key.
+	 */
+	static int bin(long key) {
+		return (int) (key >>> (2 * (KEY_BITS - BIN_BITS)));
+	}
+
+	/**
+	 * @return The domain that owns a key. Where ranges are empty, the last domain starting at the key owns it.
+	 */
+	int owner(long key) {
+		int low = 0, high = domains - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (splitters[middle] <= key) {
+				low = middle;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	int getDomains() {
+		return domains;
+	}
+
+}
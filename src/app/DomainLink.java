@@ -0,0 +1,118 @@
+package app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One end of a socket between two processes of a distributed run. Messages are sent in order on a thread of the
+ * link's own, so a process can send to every other before reading what they sent it, without any of them
+ * blocking on a full socket buffer. Each message goes over the socket as its length and its bytes.
+ */
+class DomainLink implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final ExecutorService sender;
+	private volatile IOException sendError;
+	private volatile long bytesSent;
+	private long bytesReceived;
+
+	DomainLink(Socket socket, String name) throws IOException {
+		this.socket = socket;
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+		sender = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queue a message to be sent after those queued before it. The message must not be changed afterwards.
+	 * @throws IOException	If an earlier message couldn't be sent.
+	 */
+	void send(DomainMessage message) throws IOException {
+		checkSent();
+		sender.execute(() -> {
+			if (sendError != null) {
+				return;
+			}
+			try {
+				out.writeInt(message.getLength());
+				out.write(message.getBytes(), 0, message.getLength());
+				out.flush();
+				bytesSent += 4 + message.getLength();
+			}
+			catch (IOException e) {
+				sendError = e;
+			}
+		});
+	}
+
+	/**
+	 * Wait for the next message, which must have the given tag.
+	 * @return The message, positioned after its tag.
+	 * @throws IOException	If the other end has gone, or sent something else.
+	 */
+	ByteBuffer receive(int tag) throws IOException {
+		checkSent();
+		int length = in.readInt();
+		if (length < 4) {
+			throw new IOException("Bad message length " + length + " from " + socket.getRemoteSocketAddress());
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		bytesReceived += 4 + length;
+		ByteBuffer message = ByteBuffer.wrap(bytes);
+		int received = message.getInt();
+		if (received != tag) {
+			throw new IOException("Expected message " + tag + " from " + socket.getRemoteSocketAddress() + ", got " + received);
+		}
+		return message;
+	}
+
+	private void checkSent() throws IOException {
+		if (sendError != null) {
+			throw sendError;
+		}
+	}
+
+	long getBytesSent() {
+		return bytesSent;
+	}
+
+	long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Send whatever is still queued, then close the socket.
+	 */
+	@Override
+	public void close() throws IOException {
+		sender.shutdown();
+		try {
+			sender.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		socket.close();
+		checkSent();
+	}
+
+}
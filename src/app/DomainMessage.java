@@ -0,0 +1,116 @@
+package app;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message between the processes of a distributed run, written into a growable buffer so that it can be handed
+ * to a {@link DomainLink} and sent in the background. Starts with a tag saying what it is, which the reader
+ * checks, so that two processes that have fallen out of step fail at once rather than misreading each other.
+ */
+class DomainMessage {
+
+	// Worker to coordinator on connecting: the port its peers reach it on
+	static final int HELLO = 1;
+	// Coordinator to worker: its rank, every worker's port and the settings of the run
+	static final int SETUP = 2;
+	// Worker to worker on connecting: the rank of the one connecting
+	static final int PEER = 3;
+	// Worker to coordinator: the bounds of its bodies, and back: the frame of the keys
+	static final int BOUNDS = 4;
+	static final int FRAME = 5;
+	// Worker to coordinator: the cost of its bodies by key, and back: the new key ranges
+	static final int HISTOGRAM = 6;
+	static final int SPLITTERS = 7;
+	// Worker to worker: the bodies that have moved into the other's domain
+	static final int MIGRATE = 8;
+	// Worker to worker: the bounds of its bodies, then the locally essential tree the other needs
+	static final int DOMAIN = 9;
+	static final int EXPORT = 10;
+	// Worker to coordinator at the end of each step: its totals
+	static final int REPORT = 11;
+
+	private ByteBuffer buffer;
+
+	DomainMessage(int tag) {
+		this(tag, 64);
+	}
+
+	/**
+	 * @param capacity	Bytes to make room for at first
+	 */
+	DomainMessage(int tag, int capacity) {
+		buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+		buffer.putInt(tag);
+	}
+
+	private void ensure(int bytes) {
+		if (buffer.remaining() < bytes) {
+			long capacity = Math.max((long) buffer.position() + bytes, buffer.capacity() * 2L);
+			if (capacity > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Message too large: " + capacity + " bytes");
+			}
+			ByteBuffer grown = ByteBuffer.allocate((int) capacity);
+			buffer.flip();
+			grown.put(buffer);
+			buffer = grown;
+		}
+	}
+
+	DomainMessage putInt(int value) {
+		ensure(4);
+		buffer.putInt(value);
+		return this;
+	}
+
+	DomainMessage putLong(long value) {
+		ensure(8);
+		buffer.putLong(value);
+		return this;
+	}
+
+	DomainMessage putFloat(float value) {
+		ensure(4);
+		buffer.putFloat(value);
+		return this;
+	}
+
+	DomainMessage putDouble(double value) {
+		ensure(8);
+		buffer.putDouble(value);
+		return this;
+	}
+
+	/**
+	 * Write a string as its length in UTF-8 bytes and the bytes, or -1 for null. Read back with {@link #getString}.
+	 */
+	DomainMessage putString(String value) {
+		if (value == null) {
+			return putInt(-1);
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		ensure(bytes.length);
+		buffer.put(bytes);
+		return this;
+	}
+
+	static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+
+	byte[] getBytes() {
+		return buffer.array();
+	}
+
+	int getLength() {
+		return buffer.position();
+	}
+
+}
@@ -0,0 +1,344 @@
+package app;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * One process of a distributed run, started by {@link DistributedRunner}. It holds the bodies of one domain, a
+ * range of space-filling curve keys (see {@link DomainDecomposition}), in a {@link Universe} of its own, and
+ * steps them together with the other workers:
+ * <ol>
+ * <li>Every so many steps, the coordinator fits a new key frame around all of the bodies and cuts the key
+ * ranges again from what each worker's bodies cost to walk on the steps before.</li>
+ * <li>Bodies that have moved out of the domain are sent to the worker whose domain they are now in.</li>
+ * <li>Each worker sends every other the bounds of its bodies, and gets back the locally essential tree it needs
+ * from each of them (see {@link DistributedSolver}).</li>
+ * <li>The universe takes its step, its bodies pulled by its own and the imported ones, and the worker sends its
+ * totals to the coordinator.</li>
+ * </ol>
+ * The workers talk to each other directly over loopback sockets, and to the coordinator for the frame, the key
+ * ranges and the totals. Collisions are only found between bodies of the same domain.
+ *
+ * Usage: DomainWorker port, where port is that of the coordinator on this machine.
+ */
+public class DomainWorker {
+
+	private final DistributedRunner.Settings settings;
+	private final int rank;
+	private final int domains;
+	private final DomainLink coordinator;
+	// Links to the other workers by rank, null at this worker's own
+	private final DomainLink[] peers;
+	private final Universe universe;
+	private final DistributedSolver solver = new DistributedSolver();
+	private final DomainDecomposition decomposition;
+
+	private final IntList leaving = new IntList();
+	private final FloatList exported = new FloatList();
+	private int migrated;
+
+	DomainWorker(DomainLink coordinator, DomainLink[] peers, int rank, DistributedRunner.Settings settings) {
+		this.coordinator = coordinator;
+		this.peers = peers;
+		this.rank = rank;
+		this.settings = settings;
+		domains = peers.length;
+		decomposition = new DomainDecomposition(domains);
+		universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, settings.threads);
+		universe.setGravitySolver(solver);
+		universe.setGravityConstant(settings.gravityConstant);
+		universe.setSoftening(settings.softening);
+		universe.setIntegrator(settings.integrator);
+		universe.setMaxTimestepLevel(settings.levels);
+		solver.setOpeningAngle(settings.openingAngle);
+		solver.setQuadrupole(settings.quadrupole);
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.err.println("Usage: DomainWorker port");
+			System.exit(1);
+		}
+		try {
+			join(Integer.parseInt(args[0]));
+		}
+		catch (IOException | RuntimeException e) {
+			System.err.println("Worker failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Connect to the coordinator on the given port of this machine and to the other workers, and take part in the
+	 * run until it's over.
+	 * @return The worker, with its bodies as they were after the last step.
+	 */
+	static DomainWorker join(int port) throws IOException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		DomainLink coordinator = null;
+		DomainLink[] peers = null;
+		try (ServerSocket listener = new ServerSocket(0, 64, loopback)) {
+			coordinator = new DomainLink(new Socket(loopback, port), "worker-to-coordinator");
+			coordinator.send(new DomainMessage(DomainMessage.HELLO).putInt(listener.getLocalPort()));
+			ByteBuffer setup = coordinator.receive(DomainMessage.SETUP);
+			int rank = setup.getInt();
+			int domains = setup.getInt();
+			int[] ports = new int[domains];
+			for (int d = 0; d < domains; d++) {
+				ports[d] = setup.getInt();
+			}
+			DistributedRunner.Settings settings = DistributedRunner.Settings.read(setup);
+
+			// Connect to the workers before this one, which are waiting for it, then wait for those after it
+			peers = new DomainLink[domains];
+			for (int d = 0; d < rank; d++) {
+				peers[d] = new DomainLink(new Socket(loopback, ports[d]), "worker-" + rank + "-to-" + d);
+				peers[d].send(new DomainMessage(DomainMessage.PEER).putInt(rank));
+			}
+			for (int k = rank + 1; k < domains; k++) {
+				Socket socket = listener.accept();
+				DomainLink link = new DomainLink(socket, "worker-" + rank + "-to-peer");
+				int peer = link.receive(DomainMessage.PEER).getInt();
+				if (peer <= rank || peer >= domains || peers[peer] != null) {
+					throw new IOException("Unexpected connection from worker " + peer);
+				}
+				peers[peer] = link;
+			}
+
+			DomainWorker worker = new DomainWorker(coordinator, peers, rank, settings);
+			worker.run();
+			return worker;
+		}
+		finally {
+			close(coordinator);
+			if (peers != null) {
+				for (DomainLink peer : peers) {
+					close(peer);
+				}
+			}
+		}
+	}
+
+	private static void close(DomainLink link) {
+		if (link != null) {
+			try {
+				link.close();
+			}
+			catch (IOException e) {
+				// Gone already
+			}
+		}
+	}
+
+	void run() throws IOException {
+		BodyNames.init();
+		InitialConditions.generate(universe, settings.distribution, settings.count, settings.seed, rank, domains);
+		try {
+			for (int step = 0; step < settings.steps; step++) {
+				if (step % settings.rebalanceEvery == 0) {
+					rebalance(step == 0);
+					// Time the walks from here to the next rebalance
+					solver.clearCosts();
+				}
+				migrate();
+				exchange();
+				long start = System.nanoTime();
+				universe.update();
+				report(System.nanoTime() - start);
+			}
+		}
+		finally {
+			universe.shutdown();
+		}
+	}
+
+	/**
+	 * Send the coordinator the bounds of the bodies and what they cost by key, and take the frame and key ranges
+	 * it works out from every worker's.
+	 * @param first	Whether nothing has been timed yet, so that every body should count the same. Otherwise each
+	 * 				body counts what its walks have taken since the last rebalance.
+	 */
+	private void rebalance(boolean first) throws IOException {
+		BodyStore bodies = universe.getBodies();
+		float[] bounds = bounds(bodies);
+		coordinator.send(new DomainMessage(DomainMessage.BOUNDS)
+				.putFloat(bounds[0]).putFloat(bounds[1]).putFloat(bounds[2]).putFloat(bounds[3]));
+		ByteBuffer frame = coordinator.receive(DomainMessage.FRAME);
+		decomposition.setFrame(frame.getFloat(), frame.getFloat(), frame.getFloat());
+
+		long[] histogram = new long[DomainDecomposition.BINS];
+		for (int i = 0; i < bodies.size(); i++) {
+			long cost = first ? 1 : Math.max(1, solver.getCost(bodies.idAt(i)));
+			histogram[DomainDecomposition.bin(decomposition.key(bodies.x[i], bodies.y[i]))] += cost;
+		}
+		// Only the bins with bodies in them
+		DomainMessage message = new DomainMessage(DomainMessage.HISTOGRAM);
+		int used = 0;
+		for (long cost : histogram) {
+			if (cost > 0) {
+				used++;
+			}
+		}
+		message.putInt(used);
+		for (int bin = 0; bin < histogram.length; bin++) {
+			if (histogram[bin] > 0) {
+				message.putInt(bin).putLong(histogram[bin]);
+			}
+		}
+		coordinator.send(message);
+		ByteBuffer splitters = coordinator.receive(DomainMessage.SPLITTERS);
+		long[] values = new long[domains + 1];
+		for (int d = 0; d <= domains; d++) {
+			values[d] = splitters.getLong();
+		}
+		decomposition.setSplitters(values);
+	}
+
+	/**
+	 * Hand the bodies that are now in another domain to its worker, and take those that are now in this one.
+	 */
+	private void migrate() throws IOException {
+		BodyStore bodies = universe.getBodies();
+		DomainMessage[] messages = new DomainMessage[domains];
+		int[] counts = new int[domains];
+		leaving.clear();
+		for (int i = 0; i < bodies.size(); i++) {
+			int owner = decomposition.owner(decomposition.key(bodies.x[i], bodies.y[i]));
+			if (owner == rank) {
+				continue;
+			}
+			if (messages[owner] == null) {
+				messages[owner] = new DomainMessage(DomainMessage.MIGRATE);
+			}
+			messages[owner].putString(bodies.getName(i)).putFloat(bodies.x[i]).putFloat(bodies.y[i])
+					.putFloat(bodies.vx[i]).putFloat(bodies.vy[i]).putFloat(bodies.mass[i])
+					.putLong(solver.getCost(bodies.idAt(i)));
+			counts[owner]++;
+			leaving.add(bodies.idAt(i));
+		}
+		for (int d = 0; d < domains; d++) {
+			if (d != rank) {
+				// The count goes last, as the bodies were written before it was known
+				DomainMessage message = messages[d] != null ? messages[d] : new DomainMessage(DomainMessage.MIGRATE);
+				peers[d].send(message.putInt(counts[d]));
+			}
+		}
+		for (int k = 0; k < leaving.size(); k++) {
+			universe.deleteBody(leaving.get(k));
+		}
+		migrated = leaving.size();
+		for (int d = 0; d < domains; d++) {
+			if (d == rank) {
+				continue;
+			}
+			ByteBuffer message = peers[d].receive(DomainMessage.MIGRATE);
+			int count = message.getInt(message.limit() - 4);
+			for (int k = 0; k < count; k++) {
+				String name = DomainMessage.getString(message);
+				float x = message.getFloat();
+				float y = message.getFloat();
+				float vx = message.getFloat();
+				float vy = message.getFloat();
+				float mass = message.getFloat();
+				long cost = message.getLong();
+				solver.setCost(universe.addBody(name, x, y, vx, vy, mass), cost);
+			}
+		}
+	}
+
+	/**
+	 * Swap locally essential trees with every other worker, for this step's forces.
+	 */
+	private void exchange() throws IOException {
+		BodyStore bodies = universe.getBodies();
+		float[] bounds = bounds(bodies);
+		for (int d = 0; d < domains; d++) {
+			if (d != rank) {
+				peers[d].send(new DomainMessage(DomainMessage.DOMAIN)
+						.putFloat(bounds[0]).putFloat(bounds[1]).putFloat(bounds[2]).putFloat(bounds[3]));
+			}
+		}
+		solver.buildLocal(bodies, universe.getParallel());
+		for (int d = 0; d < domains; d++) {
+			if (d == rank) {
+				continue;
+			}
+			ByteBuffer domain = peers[d].receive(DomainMessage.DOMAIN);
+			exported.clear();
+			solver.export(domain.getFloat(), domain.getFloat(), domain.getFloat(), domain.getFloat(), exported);
+			DomainMessage message = new DomainMessage(DomainMessage.EXPORT, 8 + 4 * exported.size());
+			message.putInt(exported.size() / 3);
+			for (int k = 0; k < exported.size(); k++) {
+				message.putFloat(exported.get(k));
+			}
+			peers[d].send(message);
+		}
+		solver.clearImports();
+		for (int d = 0; d < domains; d++) {
+			if (d == rank) {
+				continue;
+			}
+			ByteBuffer message = peers[d].receive(DomainMessage.EXPORT);
+			int count = message.getInt();
+			for (int k = 0; k < count; k++) {
+				solver.addImport(message.getFloat(), message.getFloat(), message.getFloat());
+			}
+		}
+	}
+
+	/**
+	 * Send the coordinator this step's totals: bodies, mass, momentum, kinetic energy and timings.
+	 */
+	private void report(long stepNanos) throws IOException {
+		BodyStore bodies = universe.getBodies();
+		double mass = 0, px = 0, py = 0, kinetic = 0;
+		for (int i = 0; i < bodies.size(); i++) {
+			double m = bodies.mass[i];
+			mass += m;
+			px += m * bodies.vx[i];
+			py += m * bodies.vy[i];
+			kinetic += 0.5 * m * (bodies.vx[i] * bodies.vx[i] + bodies.vy[i] * bodies.vy[i]);
+		}
+		long bytes = coordinator.getBytesSent();
+		for (DomainLink peer : peers) {
+			if (peer != null) {
+				bytes += peer.getBytesSent();
+			}
+		}
+		coordinator.send(new DomainMessage(DomainMessage.REPORT)
+				.putInt(bodies.size()).putInt(migrated).putInt(solver.getImportCount())
+				.putDouble(mass).putDouble(px).putDouble(py).putDouble(kinetic)
+				.putLong(stepNanos).putLong(bytes).putLong(universe.getMetrics().getNanCount()));
+	}
+
+	/**
+	 * @return The universe of this worker's domain, which is shut down once the run is over.
+	 */
+	Universe getUniverse() {
+		return universe;
+	}
+
+	/**
+	 * @return The bounds of the bodies whose positions are numbers, as min x, min y, max x, max y. The minimums are
+	 * above the maximums if there are none.
+	 */
+	static float[] bounds(BodyStore bodies) {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < bodies.size(); i++) {
+			float x = bodies.x[i];
+			float y = bodies.y[i];
+			if (Float.isFinite(x) && Float.isFinite(y)) {
+				minX = Math.min(minX, x);
+				minY = Math.min(minY, y);
+				maxX = Math.max(maxX, x);
+				maxY = Math.max(maxY, y);
+			}
+		}
+		return new float[] { minX, minY, maxX, maxY };
+	}
+
+}
@@ -0,0 +1,45 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive floats. Clearing keeps the backing array, so a list that is reused every step stops
+ * allocating once it has reached its working size.
+ */
+public class FloatList {
+
+	private float[] values;
+	private int size;
+
+	public FloatList() {
+		this(16);
+	}
+
+	public FloatList(int capacity) {
+		values = new float[Math.max(capacity, 1)];
+	}
+
+	public void add(float value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	public float get(int i) {
+		return values[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+}
@@ -0,0 +1,788 @@
+package app;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gravity from the fast multipole method, in time proportional to the number of bodies.
+ *
+ * The bodies are sorted by Morton key and a quadtree is built over the sorted order, splitting each cell until it
+ * holds no more than the leaf size. Every cell gets a multipole expansion of its bodies about its center of mass,
+ * built up from its children. Then each pair of cells is looked at once, top down, in a dual tree walk: when two
+ * cells are far enough apart for their sizes, the source's multipole is turned into a local expansion about the
+ * target's center, and otherwise the larger of the two is opened. Leaves that end up next to each other are
+ * summed directly. Finally the local expansions are passed down the tree and evaluated at every body. All of
+ * the work is done by {@link #build}, after which {@link #accelerate} only looks up the result.
+ *
+ * Bodies pull each other with the softened 1 / r^2 law of the rest of the simulation, whose potential is
+ * 1 / sqrt(x^2 + y^2 + eps^2). That potential isn't harmonic in the plane, so the complex expansions of the
+ * two-dimensional FMM (which are for a 1 / r force) don't apply. The expansions here are Cartesian Taylor series
+ * in x and y instead, cut off at a given total order, with the derivatives of the potential coming from a
+ * recurrence. The expansion error shrinks like the opening angle to the power of the order.
+ *
+ * The walk is spread over the threads by target cell, so each thread only ever writes to the expansions and
+ * bodies of its own cells. The legacy kernel isn't supported: every pull uses the components form.
+ */
+public class FmmSolver implements GravitySolver {
+
+	public static final int DEFAULT_ORDER = 4;
+	public static final float DEFAULT_OPENING_ANGLE = 0.5f;
+	public static final int DEFAULT_LEAF_SIZE = 32;
+	// Highest expansion order, past which the Taylor coefficients get too large for doubles over wide cells
+	public static final int MAX_ORDER = 12;
+
+	// Bits of each coordinate in a Morton key, one level of the tree per bit
+	private static final int KEY_LEVELS = 31;
+	// Key of bodies whose position isn't finite, sorted after every other body and left out
+	private static final long INVALID_KEY = 1L << (2 * KEY_LEVELS);
+	// Depth down to which the upward and downward passes fork a task per child
+	private static final int FORK_DEPTH = 4;
+	// Depth of the target cells the walk hands out to the threads
+	private static final int TARGET_DEPTH = 5;
+	private static final int INITIAL_CAPACITY = 256;
+
+	private int order;
+	// Number of coefficients in an expansion: one per power x^a y^b with a + b <= order
+	private int coefficients;
+	// Powers of each coefficient index
+	private int[] powerX;
+	private int[] powerY;
+	// The operators as flat lists of terms: out[t] += factor[t] * in[input[t]] * (shift or derivative)[power[t]]
+	private Operator multipoleToMultipole;
+	private Operator multipoleToLocal;
+	private Operator localToLocal;
+
+	private float openingAngle2 = DEFAULT_OPENING_ANGLE * DEFAULT_OPENING_ANGLE;
+	private int leafSize = DEFAULT_LEAF_SIZE;
+	private float softening2 = 0;
+	private float gravityConstant = Config.GRAVITY_CONSTANT;
+
+	// Bodies in key order: store index, position and mass, and the pull gathered by direct summation
+	private long[] keys = new long[0];
+	private int[] sorted = new int[0];
+	private float[] px = new float[0];
+	private float[] py = new float[0];
+	private float[] pm = new float[0];
+	private float[] nearX = new float[0];
+	private float[] nearY = new float[0];
+	// Bodies with a finite position, which come first in key order
+	private int count;
+	// Finished accelerations by store index
+	private float[] accelerationX = new float[0];
+	private float[] accelerationY = new float[0];
+
+	// Cells: the range of sorted bodies they hold, their children (consecutive, -1 for a leaf), and the center
+	// and radius of the expansions
+	private int nodeCount;
+	private int[] begin = new int[INITIAL_CAPACITY];
+	private int[] end = new int[INITIAL_CAPACITY];
+	private int[] firstChild = new int[INITIAL_CAPACITY];
+	private int[] childCount = new int[INITIAL_CAPACITY];
+	private int[] depth = new int[INITIAL_CAPACITY];
+	private double[] centerX = new double[INITIAL_CAPACITY];
+	private double[] centerY = new double[INITIAL_CAPACITY];
+	private double[] mass = new double[INITIAL_CAPACITY];
+	private double[] radius = new double[INITIAL_CAPACITY];
+	// Expansions, coefficients per cell
+	private double[] multipole = new double[0];
+	private double[] local = new double[0];
+	private final IntList targets = new IntList();
+	private int maxDepth;
+	// Pulls applied to bodies over every build: a cell's expansion or another body, on one body
+	private final LongAdder interactions = new LongAdder();
+
+	private BodyStore bodies;
+	private float left;
+	private float top;
+	private float scale;
+	private int chunks;
+	// Per-chunk bounding boxes of the bodies: min x, min y, max x, max y
+	private float[] chunkBounds = new float[0];
+	private final RadixSort sorter = new RadixSort();
+
+	private final Parallel.RangeAction measureBounds = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int chunk = from; chunk < to; chunk++) {
+				int n = bodies.size();
+				int last = (int) ((long) n * (chunk + 1) / chunks);
+				float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+				float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+				for (int i = (int) ((long) n * chunk / chunks); i < last; i++) {
+					float x = bodies.x[i];
+					float y = bodies.y[i];
+					if (!Float.isFinite(x) || !Float.isFinite(y)) {
+						continue;
+					}
+					minX = Math.min(minX, x);
+					minY = Math.min(minY, y);
+					maxX = Math.max(maxX, x);
+					maxY = Math.max(maxY, y);
+				}
+				chunkBounds[4 * chunk] = minX;
+				chunkBounds[4 * chunk + 1] = minY;
+				chunkBounds[4 * chunk + 2] = maxX;
+				chunkBounds[4 * chunk + 3] = maxY;
+			}
+		}
+	};
+
+	private final Parallel.RangeAction computeKeys = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				keys[i] = mortonKey(bodies.x[i], bodies.y[i]);
+				sorted[i] = i;
+			}
+		}
+	};
+
+	private final Parallel.RangeAction gatherBodies = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int p = from; p < to; p++) {
+				int i = sorted[p];
+				px[p] = bodies.x[i];
+				py[p] = bodies.y[i];
+				pm[p] = bodies.mass[i];
+				nearX[p] = 0;
+				nearY[p] = 0;
+				if (p >= count) {
+					accelerationX[i] = 0;
+					accelerationY[i] = 0;
+				}
+			}
+		}
+	};
+
+	private final Parallel.RangeAction interactAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			double[] scratch = new double[coefficients];
+			long pulls = 0;
+			for (int k = from; k < to; k++) {
+				pulls += interact(targets.get(k), 0, scratch);
+			}
+			interactions.add(pulls);
+		}
+	};
+
+	public FmmSolver() {
+		this(DEFAULT_ORDER);
+	}
+
+	/**
+	 * @param order	Highest total power of x and y kept in the expansions, from 1 to {@link #MAX_ORDER}
+	 */
+	public FmmSolver(int order) {
+		setOrder(order);
+	}
+
+	/**
+	 * Set the highest total power kept in the expansions. Higher is more accurate and slower.
+	 */
+	public void setOrder(int order) {
+		if (order < 1 || order > MAX_ORDER) {
+			throw new IllegalArgumentException("Order must be between 1 and " + MAX_ORDER + ": " + order);
+		}
+		this.order = order;
+		coefficients = (order + 1) * (order + 2) / 2;
+		powerX = new int[coefficients];
+		powerY = new int[coefficients];
+		for (int a = 0; a <= order; a++) {
+			for (int b = 0; a + b <= order; b++) {
+				powerX[index(a, b)] = a;
+				powerY[index(a, b)] = b;
+			}
+		}
+
+		// Shifting a multipole from a child's center to its parent's: Q'(n) = sum over j <= n of C(n, j) d^(n - j) Q(j)
+		multipoleToMultipole = new Operator();
+		// Turning a multipole into a local expansion: L(k) = sum over n of C(k + n, n) Q(n) T(k + n)
+		multipoleToLocal = new Operator();
+		// Shifting a local expansion to a child's center: L'(j) = sum over k >= j of C(k, j) d^(k - j) L(k)
+		localToLocal = new Operator();
+		for (int out = 0; out < coefficients; out++) {
+			int oa = powerX[out], ob = powerY[out];
+			for (int in = 0; in < coefficients; in++) {
+				int ia = powerX[in], ib = powerY[in];
+				if (ia <= oa && ib <= ob) {
+					multipoleToMultipole.add(out, in, index(oa - ia, ob - ib), binomial(oa, ia) * binomial(ob, ib));
+				}
+				if (oa + ob + ia + ib <= order) {
+					multipoleToLocal.add(out, in, index(oa + ia, ob + ib), binomial(oa + ia, ia) * binomial(ob + ib, ib));
+				}
+				if (ia >= oa && ib >= ob) {
+					localToLocal.add(out, in, index(ia - oa, ib - ob), binomial(ia, oa) * binomial(ib, ob));
+				}
+			}
+		}
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	/**
+	 * Set how far apart two cells must be for their interaction to go through the expansions: the sum of their
+	 * radii divided by the distance between their centers must be below this. Smaller is more accurate and slower.
+	 */
+	public void setOpeningAngle(float openingAngle) {
+		if (!(openingAngle > 0) || openingAngle >= 1) {
+			throw new IllegalArgumentException("Opening angle must be between 0 and 1: " + openingAngle);
+		}
+		openingAngle2 = openingAngle * openingAngle;
+	}
+
+	public float getOpeningAngle() {
+		return (float) Math.sqrt(openingAngle2);
+	}
+
+	/**
+	 * Set the most bodies a cell can hold before it is split. Larger leaves do more direct summation and less
+	 * work with the expansions.
+	 */
+	public void setLeafSize(int leafSize) {
+		if (leafSize < 1) {
+			throw new IllegalArgumentException("Leaf size must be positive: " + leafSize);
+		}
+		this.leafSize = leafSize;
+	}
+
+	@Override
+	public void setSoftening(float softening) {
+		softening2 = softening * softening;
+	}
+
+	@Override
+	public void setGravityConstant(float gravityConstant) {
+		this.gravityConstant = gravityConstant;
+	}
+
+	/**
+	 * @return The number of cells in the tree built by the last build.
+	 */
+	@Override
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	@Override
+	public long getInteractionCount() {
+		return interactions.sum();
+	}
+
+	@Override
+	public void build(BodyStore bodies, Parallel parallel) {
+		this.bodies = bodies;
+		int n = bodies.size();
+		if (keys.length < n) {
+			int capacity = Math.max(n, keys.length * 2);
+			keys = new long[capacity];
+			sorted = new int[capacity];
+			px = new float[capacity];
+			py = new float[capacity];
+			pm = new float[capacity];
+			nearX = new float[capacity];
+			nearY = new float[capacity];
+			accelerationX = new float[capacity];
+			accelerationY = new float[capacity];
+		}
+		nodeCount = 0;
+		maxDepth = 0;
+		if (n == 0) {
+			return;
+		}
+
+		chunks = parallel.isSequential() ? 1 : parallel.getParallelism() * 4;
+		if (chunkBounds.length < 4 * chunks) {
+			chunkBounds = new float[4 * chunks];
+		}
+		parallel.forRange(chunks, 1, measureBounds);
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			minX = Math.min(minX, chunkBounds[4 * chunk]);
+			minY = Math.min(minY, chunkBounds[4 * chunk + 1]);
+			maxX = Math.max(maxX, chunkBounds[4 * chunk + 2]);
+			maxY = Math.max(maxY, chunkBounds[4 * chunk + 3]);
+		}
+		if (minX > maxX) {
+			count = 0;
+			parallel.forRange(n, gatherBodies);
+			return;
+		}
+		left = minX;
+		top = minY;
+		float size = Math.max(maxX - minX, maxY - minY);
+		// Just under 2^31 cells across, so that the far edge still rounds into the last cell
+		scale = size > 0 ? (float) ((1L << KEY_LEVELS) - 1) / size / (1 + 1e-6f) : 0;
+
+		parallel.forRange(n, computeKeys);
+		sorter.sort(keys, sorted, n, 2 * KEY_LEVELS + 1, parallel);
+		count = firstInvalid(n);
+		parallel.forRange(n, gatherBodies);
+
+		nodeCount = 1;
+		begin[0] = 0;
+		end[0] = count;
+		depth[0] = 0;
+		split(0, 0);
+		if (multipole.length < nodeCount * coefficients) {
+			int capacity = Math.max(nodeCount * coefficients, multipole.length * 2);
+			multipole = new double[capacity];
+			local = new double[capacity];
+		}
+		Arrays.fill(local, 0, nodeCount * coefficients, 0);
+		targets.clear();
+		collectTargets(0);
+
+		if (parallel.isSequential()) {
+			double[] scratch = new double[coefficients];
+			upward(0, false, scratch);
+			interactAction.run(0, targets.size());
+			downward(0, false, scratch);
+		}
+		else {
+			parallel.invoke(new UpwardTask(0));
+			parallel.forRange(targets.size(), 1, interactAction);
+			parallel.invoke(new DownwardTask(0));
+		}
+	}
+
+	@Override
+	public void accelerate(int body, float previousAcceleration) {
+		bodies.ax[body] += accelerationX[body];
+		bodies.ay[body] += accelerationY[body];
+	}
+
+	/**
+	 * Interleave the bits of the body's cell coordinates, x in the low bit of each pair.
+	 */
+	private long mortonKey(float x, float y) {
+		if (!Float.isFinite(x) || !Float.isFinite(y)) {
+			return INVALID_KEY;
+		}
+		long cx = Math.min((long) ((x - left) * scale), (1L << KEY_LEVELS) - 1);
+		long cy = Math.min((long) ((y - top) * scale), (1L << KEY_LEVELS) - 1);
+		return spread(cx) | (spread(cy) << 1);
+	}
+
+	/**
+	 * Spread the low 31 bits of v out to the even bits.
+	 */
+	private static long spread(long v) {
+		v &= 0x7FFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	private int firstInvalid(int n) {
+		int low = 0, high = n;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] < INVALID_KEY) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Split a cell into the quadrants its bodies fall in at the given level, and those in turn, until they are
+	 * small enough. The quadrant of every body at a level is the pair of key bits for that level, and the bodies
+	 * are sorted by key, so each quadrant is a run of the cell's range.
+	 */
+	private void split(int node, int level) {
+		firstChild[node] = -1;
+		childCount[node] = 0;
+		if (end[node] - begin[node] <= leafSize || level == KEY_LEVELS) {
+			return;
+		}
+		int shift = 2 * (KEY_LEVELS - 1 - level);
+		int first = nodeCount;
+		int from = begin[node];
+		while (from < end[node]) {
+			long quadrant = (keys[from] >>> shift) & 3;
+			// First body past this quadrant
+			int low = from + 1, high = end[node];
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (((keys[middle] >>> shift) & 3) == quadrant) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			ensureCapacity(nodeCount + 1);
+			begin[nodeCount] = from;
+			end[nodeCount] = low;
+			depth[nodeCount] = depth[node] + 1;
+			maxDepth = Math.max(maxDepth, depth[nodeCount]);
+			nodeCount++;
+			from = low;
+		}
+		if (nodeCount - first == 1) {
+			// Everything in one quadrant: skip the level rather than add a cell that is the same as this one
+			nodeCount = first;
+			split(node, level + 1);
+			return;
+		}
+		firstChild[node] = first;
+		childCount[node] = nodeCount - first;
+		for (int child = first; child < first + childCount[node]; child++) {
+			split(child, level + 1);
+		}
+	}
+
+	private void collectTargets(int node) {
+		if (firstChild[node] < 0 || depth[node] >= TARGET_DEPTH) {
+			targets.add(node);
+			return;
+		}
+		for (int child = firstChild[node]; child < firstChild[node] + childCount[node]; child++) {
+			collectTargets(child);
+		}
+	}
+
+	/**
+	 * Compute a cell's center, radius and multipole, from its bodies for a leaf or from its children otherwise.
+	 */
+	private void upward(int node, boolean fork, double[] scratch) {
+		int child = firstChild[node];
+		int base = node * coefficients;
+		Arrays.fill(multipole, base, base + coefficients, 0);
+		if (child < 0) {
+			double m = 0, mx = 0, my = 0, sx = 0, sy = 0;
+			for (int p = begin[node]; p < end[node]; p++) {
+				m += pm[p];
+				mx += pm[p] * px[p];
+				my += pm[p] * py[p];
+				sx += px[p];
+				sy += py[p];
+			}
+			int bodyCount = end[node] - begin[node];
+			setCenter(node, m, mx, my, sx / bodyCount, sy / bodyCount);
+			double[] powers = scratch;
+			double r2 = 0;
+			for (int p = begin[node]; p < end[node]; p++) {
+				double dx = centerX[node] - px[p];
+				double dy = centerY[node] - py[p];
+				r2 = Math.max(r2, dx * dx + dy * dy);
+				powers(dx, dy, powers);
+				for (int c = 0; c < coefficients; c++) {
+					multipole[base + c] += pm[p] * powers[c];
+				}
+			}
+			radius[node] = Math.sqrt(r2);
+			return;
+		}
+
+		int children = childCount[node];
+		if (fork && depth[node] < FORK_DEPTH) {
+			UpwardTask[] tasks = new UpwardTask[children];
+			for (int c = 0; c < children; c++) {
+				tasks[c] = new UpwardTask(child + c);
+			}
+			RecursiveAction.invokeAll(tasks);
+		}
+		else {
+			for (int c = child; c < child + children; c++) {
+				upward(c, false, scratch);
+			}
+		}
+		double m = 0, mx = 0, my = 0, sx = 0, sy = 0;
+		for (int c = child; c < child + children; c++) {
+			m += mass[c];
+			mx += mass[c] * centerX[c];
+			my += mass[c] * centerY[c];
+			sx += centerX[c];
+			sy += centerY[c];
+		}
+		setCenter(node, m, mx, my, sx / children, sy / children);
+		double[] shift = scratch;
+		double r = 0;
+		for (int c = child; c < child + children; c++) {
+			double dx = centerX[node] - centerX[c];
+			double dy = centerY[node] - centerY[c];
+			r = Math.max(r, Math.sqrt(dx * dx + dy * dy) + radius[c]);
+			powers(dx, dy, shift);
+			multipoleToMultipole.apply(multipole, c * coefficients, shift, multipole, base);
+		}
+		radius[node] = r;
+	}
+
+	/**
+	 * Expand about the center of mass, or about the plain average if the masses cancel out.
+	 */
+	private void setCenter(int node, double m, double mx, double my, double averageX, double averageY) {
+		mass[node] = m;
+		if (m > 0) {
+			centerX[node] = mx / m;
+			centerY[node] = my / m;
+		}
+		else {
+			centerX[node] = averageX;
+			centerY[node] = averageY;
+		}
+	}
+
+	/**
+	 * Gather the pull of a source cell on a target cell, through the expansions if they are far enough apart
+	 * and otherwise by opening the larger of the two.
+	 * @return The number of pulls on single bodies this stands for: one per target body for each expansion, and
+	 * one per pair of bodies summed directly.
+	 */
+	private long interact(int target, int source, double[] scratch) {
+		double dx = centerX[target] - centerX[source];
+		double dy = centerY[target] - centerY[source];
+		double reach = radius[target] + radius[source];
+		if (reach * reach < openingAngle2 * (dx * dx + dy * dy)) {
+			derivatives(dx, dy, scratch);
+			multipoleToLocal.apply(multipole, source * coefficients, scratch, local, target * coefficients);
+			return end[target] - begin[target];
+		}
+		boolean targetLeaf = firstChild[target] < 0;
+		boolean sourceLeaf = firstChild[source] < 0;
+		long pulls = 0;
+		if (targetLeaf && sourceLeaf) {
+			direct(target, source);
+			int targetBodies = end[target] - begin[target];
+			pulls = (long) targetBodies * (end[source] - begin[source]) - (target == source ? targetBodies : 0);
+		}
+		else if (targetLeaf || (!sourceLeaf && radius[source] > radius[target])) {
+			for (int child = firstChild[source]; child < firstChild[source] + childCount[source]; child++) {
+				pulls += interact(target, child, scratch);
+			}
+		}
+		else {
+			for (int child = firstChild[target]; child < firstChild[target] + childCount[target]; child++) {
+				pulls += interact(child, source, scratch);
+			}
+		}
+		return pulls;
+	}
+
+	/**
+	 * Add the pull of every body of the source leaf to every body of the target leaf.
+	 */
+	private void direct(int target, int source) {
+		for (int t = begin[target]; t < end[target]; t++) {
+			float x = px[t];
+			float y = py[t];
+			float sumX = 0, sumY = 0;
+			for (int s = begin[source]; s < end[source]; s++) {
+				float dx = px[s] - x;
+				float dy = py[s] - y;
+				float softened = dx * dx + dy * dy + softening2;
+				if (softened == 0) {
+					continue;
+				}
+				float inverse = 1 / (float) Math.sqrt(softened);
+				float strength = pm[s] * inverse * inverse * inverse;
+				sumX += strength * dx;
+				sumY += strength * dy;
+			}
+			nearX[t] += sumX;
+			nearY[t] += sumY;
+		}
+	}
+
+	/**
+	 * Pass a cell's local expansion down to its children, and at a leaf evaluate it at every body.
+	 */
+	private void downward(int node, boolean fork, double[] scratch) {
+		int child = firstChild[node];
+		int base = node * coefficients;
+		if (child < 0) {
+			double[] powers = scratch;
+			for (int p = begin[node]; p < end[node]; p++) {
+				powers(px[p] - centerX[node], py[p] - centerY[node], powers);
+				// The gradient of sum L(k) t^k
+				double farX = 0, farY = 0;
+				for (int c = 1; c < coefficients; c++) {
+					int a = powerX[c], b = powerY[c];
+					if (a > 0) {
+						farX += a * local[base + c] * powers[index(a - 1, b)];
+					}
+					if (b > 0) {
+						farY += b * local[base + c] * powers[index(a, b - 1)];
+					}
+				}
+				int i = sorted[p];
+				accelerationX[i] = (float) (gravityConstant * (nearX[p] + farX));
+				accelerationY[i] = (float) (gravityConstant * (nearY[p] + farY));
+			}
+			return;
+		}
+
+		int children = childCount[node];
+		double[] shift = scratch;
+		for (int c = child; c < child + children; c++) {
+			powers(centerX[c] - centerX[node], centerY[c] - centerY[node], shift);
+			localToLocal.apply(local, base, shift, local, c * coefficients);
+		}
+		if (fork && depth[node] < FORK_DEPTH) {
+			DownwardTask[] tasks = new DownwardTask[children];
+			for (int c = 0; c < children; c++) {
+				tasks[c] = new DownwardTask(child + c);
+			}
+			RecursiveAction.invokeAll(tasks);
+		}
+		else {
+			for (int c = child; c < child + children; c++) {
+				downward(c, false, scratch);
+			}
+		}
+	}
+
+	/**
+	 * Fill powers with dx^a dy^b for every coefficient.
+	 */
+	private void powers(double dx, double dy, double[] powers) {
+		powers[0] = 1;
+		for (int c = 1; c < coefficients; c++) {
+			int a = powerX[c], b = powerY[c];
+			powers[c] = a > 0 ? powers[index(a - 1, b)] * dx : powers[index(a, b - 1)] * dy;
+		}
+	}
+
+	/**
+	 * Fill derivatives with the Taylor coefficients of 1 / sqrt(x^2 + y^2 + eps^2) at (dx, dy): the (a, b)th
+	 * derivative divided by a! b!. They follow from the coefficients of lower order by
+	 * n r^2 T(n) = -(2n - 1) (x T(n - ex) + y T(n - ey)) - (n - 1) (T(n - 2ex) + T(n - 2ey)), with n = a + b.
+	 */
+	private void derivatives(double dx, double dy, double[] derivatives) {
+		double r2 = dx * dx + dy * dy + softening2;
+		derivatives[0] = 1 / Math.sqrt(r2);
+		for (int c = 1; c < coefficients; c++) {
+			int a = powerX[c], b = powerY[c];
+			int n = a + b;
+			double first = 0, second = 0;
+			if (a > 0) {
+				first += dx * derivatives[index(a - 1, b)];
+			}
+			if (b > 0) {
+				first += dy * derivatives[index(a, b - 1)];
+			}
+			if (a > 1) {
+				second += derivatives[index(a - 2, b)];
+			}
+			if (b > 1) {
+				second += derivatives[index(a, b - 2)];
+			}
+			derivatives[c] = -((2 * n - 1) * first + (n - 1) * second) / (n * r2);
+		}
+	}
+
+	/**
+	 * Coefficients are ordered by total power, then by the power of y.
+	 */
+	private static int index(int a, int b) {
+		int n = a + b;
+		return n * (n + 1) / 2 + b;
+	}
+
+	private static double binomial(int n, int k) {
+		double result = 1;
+		for (int i = 1; i <= k; i++) {
+			result = result * (n - k + i) / i;
+		}
+		return result;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= begin.length) {
+			return;
+		}
+		int grown = Math.max(capacity, begin.length * 2);
+		begin = Arrays.copyOf(begin, grown);
+		end = Arrays.copyOf(end, grown);
+		firstChild = Arrays.copyOf(firstChild, grown);
+		childCount = Arrays.copyOf(childCount, grown);
+		depth = Arrays.copyOf(depth, grown);
+		centerX = Arrays.copyOf(centerX, grown);
+		centerY = Arrays.copyOf(centerY, grown);
+		mass = Arrays.copyOf(mass, grown);
+		radius = Arrays.copyOf(radius, grown);
+	}
+
+	/**
+	 * A linear map between expansions, as a list of terms out[o] += factor * in[i] * with[w].
+	 */
+	private static class Operator {
+
+		private int size;
+		private int[] output = new int[16];
+		private int[] input = new int[16];
+		private int[] with = new int[16];
+		private double[] factor = new double[16];
+
+		void add(int out, int in, int w, double f) {
+			if (size == output.length) {
+				output = Arrays.copyOf(output, size * 2);
+				input = Arrays.copyOf(input, size * 2);
+				with = Arrays.copyOf(with, size * 2);
+				factor = Arrays.copyOf(factor, size * 2);
+			}
+			output[size] = out;
+			input[size] = in;
+			with[size] = w;
+			factor[size] = f;
+			size++;
+		}
+
+		void apply(double[] in, int inBase, double[] by, double[] out, int outBase) {
+			for (int t = 0; t < size; t++) {
+				out[outBase + output[t]] += factor[t] * in[inBase + input[t]] * by[with[t]];
+			}
+		}
+	}
+
+	private class UpwardTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int node;
+
+		UpwardTask(int node) {
+			this.node = node;
+		}
+
+		@Override
+		protected void compute() {
+			upward(node, true, new double[coefficients]);
+		}
+	}
+
+	private class DownwardTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int node;
+
+		DownwardTask(int node) {
+			this.node = node;
+		}
+
+		@Override
+		protected void compute() {
+			downward(node, true, new double[coefficients]);
+		}
+	}
+
+}
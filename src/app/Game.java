@@ -1,8 +1,12 @@
 package app;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+
 import org.newdawn.slick.AppGameContainer;
 import org.newdawn.slick.BasicGame;
 import org.newdawn.slick.GameContainer;
@@ -10,13 +14,27 @@ import org.newdawn.slick.Graphics;
 import org.newdawn.slick.Input;
 import org.newdawn.slick.SlickException;
 
+import render.RenderConfig;
+import render.UniverseRenderer;
+
 public class Game extends BasicGame {
 
 	private static int screenWidth = 1280;
 	private static int screenHeight = 900;
 	private Universe world;
+	// Steps the world on its own thread; everything done to the world from here goes through it
+	private Simulation simulation;
+	// Steps a second, which keeps small universes watchable now that stepping doesn't follow the frame rate
+	private static final int GAME_STEPS_PER_SECOND = 100;
+	private UniverseRenderer renderer = new UniverseRenderer();
 	private boolean pause = true;
 	private float zoomLevel = 1;
+	// Substep levels for the leapfrog integrator, so bodies swinging close to the sun don't sling-shot
+	private static final int GAME_TIMESTEP_LEVELS = 6;
+	// Per-step costs in the top left corner, toggled with M
+	private boolean drawMetrics = false;
+	// Saved to with F5 and restored from with F9
+	private static final String CHECKPOINT_FILE = "universe.ckpt";
 	
 	public Game(String title) {
 		super(title);
@@ -25,36 +43,77 @@ public class Game extends BasicGame {
 	@Override
 	public void render(GameContainer gc, Graphics g) throws SlickException {
 		//bg.draw(0, 0, screenWidth, screenHeight);
-		g.setBackground(Config.COLOR_BACKGROUND);
+		g.setBackground(RenderConfig.COLOR_BACKGROUND);
 		// This does not function well with input (mouse co-ords not translated)
 		//g.translate(screenWidth / zoomLevel / 2, 
 		//		screenHeight / zoomLevel / 2);
-		g.translate((screenWidth / 2) - (Config.UNIVERSE_WIDTH / 2) * zoomLevel, (screenHeight / 2) - (Config.UNIVERSE_HEIGHT / 2) * zoomLevel);
+		float offsetX = (screenWidth / 2) - (Config.UNIVERSE_WIDTH / 2) * zoomLevel;
+		float offsetY = (screenHeight / 2) - (Config.UNIVERSE_HEIGHT / 2) * zoomLevel;
+		g.translate(offsetX, offsetY);
 		g.scale(zoomLevel, zoomLevel);
-		world.draw(g);
+		renderer.setViewport(-offsetX / zoomLevel, -offsetY / zoomLevel,
+				(screenWidth - offsetX) / zoomLevel, (screenHeight - offsetY) / zoomLevel, 1 / zoomLevel);
+		simulation.acquire();
+		UniverseSnapshot snapshot = simulation.getLatest();
+		renderer.draw(g, snapshot, simulation.getPrevious(), simulation.getInterpolation());
 		g.resetTransform();
-		g.setColor(Config.COLOR_WHITE);
-		g.drawString("Bodies: " + world.getNumberOfBodies(), 10, screenHeight - 20);
+		g.setColor(RenderConfig.COLOR_WHITE);
+		g.drawString("Bodies: " + snapshot.getNumberOfBodies(), 10, screenHeight - 20);
 		g.drawString("Zoom: " + (int)(zoomLevel * 100) + "%", 10, screenHeight - 35);
+		g.drawString("Theta: " + String.format("%.1f", snapshot.getOpeningAngle()) + " (" + snapshot.getOpeningCriterion() + ")", 10, screenHeight - 50);
+		g.drawString("Integrator: " + snapshot.getIntegrator(), 10, screenHeight - 65);
+		if (drawMetrics) {
+			drawMetrics(g, world.getMetrics());
+		}
+	}
+
+	private void drawMetrics(Graphics g, StepMetrics metrics) {
+		g.drawString(String.format("Step: %.2f ms", metrics.getStepMillis()), 10, 30);
+		g.drawString(String.format("  Tree: %.2f  Forces: %.2f  Collisions: %.2f  Integration: %.2f",
+				metrics.getTreeBuildMillis(), metrics.getForceMillis(), metrics.getCollisionMillis(), metrics.getIntegrationMillis()), 10, 45);
+		g.drawString("Nodes: " + metrics.getNodeCount() + "  Max depth: " + metrics.getMaxDepth()
+				+ String.format("  Interactions/body: %.1f", metrics.getInteractionsPerBody()), 10, 60);
+		g.drawString("Collisions: " + metrics.getCollisions() + "  Merged: " + metrics.getMergedBodies(), 10, 75);
+		g.drawString("Allocated: " + metrics.getAllocatedBytes() / 1024 + " KB  NaNs: " + metrics.getNanCount(), 10, 90);
 	}
 
 	@Override
 	public void init(GameContainer gc) throws SlickException {
 		BodyNames.init();
 		world = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT);
+		world.setMaxTimestepLevel(GAME_TIMESTEP_LEVELS);
+		try {
+			world.getMetrics().register(StepMetrics.DEFAULT_NAME);
+		}
+		catch (JMException ex) {
+			Logger.getLogger(Game.class.getName()).log(Level.WARNING, "Failed to register the step metrics.", ex);
+		}
+		simulation = new Simulation(world);
+		simulation.setStepsPerSecond(GAME_STEPS_PER_SECOND);
+		simulation.setPaused(pause);
+		simulation.start();
 		gc.setTargetFrameRate(100);
 		gc.setAlwaysRender(true);
 	}
 
 	@Override
 	public void update(GameContainer gc, int delta) throws SlickException {
+		if (simulation.getFailure() != null) {
+			throw new SlickException("The simulation stopped.", simulation.getFailure());
+		}
 		processInput(gc, delta);
-		if (!pause)
-			stepUpdate(gc, delta);
 	}
-	
-	private void stepUpdate(GameContainer gc, int delta) {
-		world.update();
+
+	@Override
+	public boolean closeRequested() {
+		try {
+			simulation.stop();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		world.shutdown();
+		return true;
 	}
 	
 	private int getMouseX(Input input) {
@@ -71,42 +130,49 @@ public class Game extends BasicGame {
 	
 	private void processInput(GameContainer gc, int delta) {
 		Input input = gc.getInput();
-		Body node = world.getBodyAt(getMouseX(input), getMouseY(input));
+		// Picked in the snapshot on screen, and only when something is going to be done with it
+		UniverseSnapshot snapshot = simulation.getLatest();
+		boolean picking = input.isMouseButtonDown(Input.MOUSE_LEFT_BUTTON) || input.isMouseButtonDown(Input.MOUSE_RIGHT_BUTTON)
+				|| input.isKeyDown(Input.KEY_D);
+		int mouseX = getMouseX(input);
+		int mouseY = getMouseY(input);
+		int node = picking && snapshot != null ? snapshot.getBodyAt(mouseX, mouseY) : Universe.NO_BODY;
 		
 		// Mouse clicks
 		if (input.isMouseButtonDown(Input.MOUSE_LEFT_BUTTON)) {
-			if (node == null) {
-				world.createBody(getMouseX(input), getMouseY(input));
+			if (node == Universe.NO_BODY) {
+				simulation.submit(universe -> universe.createBody(mouseX, mouseY));
 			}
-			else node.increaseMass();
+			else simulation.submit(universe -> universe.increaseMass(node));
 		}
 		if (input.isMouseButtonDown(Input.MOUSE_RIGHT_BUTTON)) {
-			if (node != null) {
-				node.decreaseMass();
+			if (node != Universe.NO_BODY) {
+				simulation.submit(universe -> universe.decreaseMass(node));
 			}
 		}
 		// Body manipulation
 		if (input.isKeyDown(Input.KEY_D)) {
-			if (node != null) {
-				world.deleteBody(node);
+			if (node != Universe.NO_BODY) {
+				simulation.submit(universe -> universe.deleteBody(node));
 			}
 		}
 		if (input.isKeyDown(Input.KEY_C)) {
-			world.clearAllBodies();
+			simulation.submit(universe -> universe.clearAllBodies());
 		}
 		if (input.isKeyPressed(Input.KEY_R)) {
-			world.createRandomBody();
+			simulation.submit(universe -> universe.createRandomBody());
 		}
 		if (input.isKeyDown(Input.KEY_T)) {
-			world.createRandomBody();
+			simulation.submit(universe -> universe.createRandomBody());
 		}
 		
 		// UI manipulation
 		if (input.isKeyPressed(Input.KEY_SPACE)) {
 			pause = !pause;
+			simulation.setPaused(pause);
 		}
 		if (pause && input.isKeyDown(Input.KEY_RIGHT)) {
-			stepUpdate(gc, delta);
+			simulation.step();
 		}
 		// Zoom events
 		if (input.isKeyDown(Input.KEY_DOWN) && zoomLevel > 0.015) {
@@ -122,7 +188,54 @@ public class Game extends BasicGame {
 			System.out.println("New zoom level: " + zoomLevel);
 		}
 		if (input.isKeyPressed(Input.KEY_Q)) {
-			world.toggleDrawQuadTree();
+			renderer.toggleDrawQuadTree();
+		}
+		if (input.isKeyPressed(Input.KEY_M)) {
+			drawMetrics = !drawMetrics;
+		}
+		// Checkpoints, taken between steps
+		if (input.isKeyPressed(Input.KEY_F5)) {
+			simulation.submit(universe -> {
+				try {
+					Checkpoint.save(universe, Paths.get(CHECKPOINT_FILE));
+				}
+				catch (IOException ex) {
+					Logger.getLogger(Game.class.getName()).log(Level.WARNING, "Failed to save a checkpoint.", ex);
+				}
+			});
+		}
+		if (input.isKeyPressed(Input.KEY_F9)) {
+			simulation.submit(universe -> {
+				try {
+					Checkpoint.restore(universe, Paths.get(CHECKPOINT_FILE));
+				}
+				catch (IOException ex) {
+					Logger.getLogger(Game.class.getName()).log(Level.WARNING, "Failed to restore a checkpoint.", ex);
+				}
+			});
+		}
+		// Gravity accuracy
+		if (input.isKeyPressed(Input.KEY_LBRACKET)) {
+			simulation.submit(universe -> {
+				if (universe.getOpeningAngle() >= 0.1f) {
+					universe.setOpeningAngle(universe.getOpeningAngle() - 0.1f);
+				}
+			});
+		}
+		if (input.isKeyPressed(Input.KEY_RBRACKET)) {
+			simulation.submit(universe -> universe.setOpeningAngle(universe.getOpeningAngle() + 0.1f));
+		}
+		if (input.isKeyPressed(Input.KEY_O)) {
+			OpeningCriterion[] criteria = OpeningCriterion.values();
+			simulation.submit(universe -> universe.setOpeningCriterion(criteria[(universe.getOpeningCriterion().ordinal() + 1) % criteria.length]));
+		}
+		if (input.isKeyPressed(Input.KEY_L)) {
+			simulation.submit(universe -> universe.setTrails(universe.getTrailLength() > 0 ? 0 : Config.TRAIL_LENGTH,
+					Config.TRAIL_STRIDE));
+		}
+		if (input.isKeyPressed(Input.KEY_I)) {
+			Integrator[] integrators = Integrator.values();
+			simulation.submit(universe -> universe.setIntegrator(integrators[(universe.getIntegrator().ordinal() + 1) % integrators.length]));
 		}
 	}
 
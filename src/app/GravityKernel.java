@@ -0,0 +1,20 @@
+package app;
+
+/**
+ * How the pull of one mass on a body is turned into an acceleration.
+ */
+public enum GravityKernel {
+
+	/**
+	 * The original calculation: a magnitude from the distance, and a direction from atan2, turned back into
+	 * components with cos and sin. Kept so that results can be compared against it.
+	 */
+	LEGACY,
+
+	/**
+	 * Adds G * m * (dx, dy) / (r^2 + eps^2)^(3/2) straight onto the acceleration, with optional Plummer softening
+	 * eps. Needs one square root per interaction and no trigonometry.
+	 */
+	COMPONENTS
+
+}
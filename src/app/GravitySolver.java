@@ -0,0 +1,50 @@
+package app;
+
+/**
+ * Works out how the bodies in a {@link BodyStore} pull on each other. Each step the universe first calls
+ * {@link #build} once the bodies have moved, then {@link #accelerate} for the bodies it needs accelerations for,
+ * from any number of threads at once. Fixed bodies outside the store, such as the sun, are left to the universe.
+ */
+public interface GravitySolver {
+
+	/**
+	 * Get ready to give accelerations for the bodies where they are now.
+	 */
+	void build(BodyStore bodies, Parallel parallel);
+
+	/**
+	 * Add the pull of every other body in the store, as it was at the last build, to a body's acceleration.
+	 * Only changes that body's slot.
+	 * @param previousAcceleration	Magnitude of the body's acceleration in the previous step, for solvers that
+	 * 								adapt their accuracy to it. 0 if unknown.
+	 */
+	void accelerate(int body, float previousAcceleration);
+
+	/**
+	 * Set the Plummer softening length, which keeps close encounters from producing huge accelerations.
+	 */
+	void setSoftening(float softening);
+
+	/**
+	 * Set the gravitational constant the pulls are scaled by.
+	 */
+	void setGravityConstant(float gravityConstant);
+
+	/**
+	 * @return The number of pulls applied to bodies since the solver was created, each the pull of one node,
+	 * cell or body on one body. A measure of how much work the steps took rather than of their accuracy.
+	 */
+	long getInteractionCount();
+
+	/**
+	 * @return The number of nodes in the tree made by the last build, or 0 for a solver without a tree.
+	 */
+	int getNodeCount();
+
+	/**
+	 * @return The depth of the deepest node of the tree made by the last build, the root being at 0, or 0 for a
+	 * solver without a tree.
+	 */
+	int getMaxDepth();
+
+}
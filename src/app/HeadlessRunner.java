@@ -0,0 +1,339 @@
+package app;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Steps a {@link Universe} without opening a window, as fast as the CPU allows, and reports the throughput.
+ *
+ * Usage: HeadlessRunner [--input file | --random count] [--distribution uniform|clustered|disk] [--seed seed]
+ *                      [--steps steps] [--warmup steps] [--threads n] [--kernel legacy|components] [--softening length]
+ *                      [--criterion barnes_hut|min_distance|relative_error] [--theta angle] [--tolerance fraction]
+ *                      [--monopole] [--incremental] [--integrator euler|leapfrog|velocity_verlet] [--levels n]
+ *                      [--solver barnes_hut|fmm|direct] [--order p] [--leaf-size n]
+ *                      [--restore file] [--checkpoint file] [--checkpoint-every steps]
+ *                      [--record file] [--record-every steps] [--record-no-delta] [--record-quantum position velocity]
+ *                      [--trails length stride] [--diagnostics steps]
+ *
+ * --theta sets the opening angle of whichever solver is chosen, and defaults to that solver's own default.
+ * Direct summation is only vectorized if the JVM is started with --add-modules jdk.incubator.vector.
+ * --restore starts from a checkpoint instead of --input or --random, with the checkpoint's integrator, kernel,
+ * softening and timestep levels. --checkpoint saves one at the end of the run, and also every
+ * --checkpoint-every steps in the background if that is given. --record writes a trajectory of the timed steps
+ * (see {@link TrajectoryRecorder}), delta coded, every --record-every steps (default 10). --trails keeps trails
+ * as the game draws them, to time what they cost. --diagnostics measures energy and momentum before the timed
+ * steps and every so many steps in the background (see {@link Diagnostics}), and reports how far they drifted.
+ */
+public class HeadlessRunner {
+
+	public static void main(String[] args) {
+		String input = null;
+		int randomBodies = 1000;
+		InitialConditions.Distribution distribution = InitialConditions.Distribution.UNIFORM;
+		long seed = 1;
+		int steps = 1000;
+		int warmup = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		GravityKernel kernel = GravityKernel.COMPONENTS;
+		float softening = 0;
+		OpeningCriterion criterion = OpeningCriterion.BARNES_HUT;
+		Float theta = null;
+		float tolerance = Config.GRAVITATIONAL_ERROR_TOLERANCE;
+		boolean quadrupole = true;
+		boolean incremental = false;
+		Integrator integrator = Integrator.EULER;
+		int levels = 0;
+		String solverName = "barnes_hut";
+		int order = FmmSolver.DEFAULT_ORDER;
+		int leafSize = FmmSolver.DEFAULT_LEAF_SIZE;
+		Path restore = null;
+		Path checkpoint = null;
+		int checkpointEvery = 0;
+		Path record = null;
+		int recordEvery = 10;
+		boolean recordDelta = true;
+		float positionQuantum = 0;
+		float velocityQuantum = 0;
+		int trailLength = 0;
+		int trailStride = 1;
+		int diagnosticsEvery = 0;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--input")) {
+					input = args[++i];
+				}
+				else if (arg.equals("--random")) {
+					randomBodies = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--distribution")) {
+					distribution = InitialConditions.Distribution.valueOf(args[++i].toUpperCase());
+				}
+				else if (arg.equals("--seed")) {
+					seed = Long.parseLong(args[++i]);
+				}
+				else if (arg.equals("--steps")) {
+					steps = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--warmup")) {
+					warmup = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--threads")) {
+					threads = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--kernel")) {
+					kernel = GravityKernel.valueOf(args[++i].toUpperCase());
+				}
+				else if (arg.equals("--softening")) {
+					softening = Float.parseFloat(args[++i]);
+				}
+				else if (arg.equals("--criterion")) {
+					criterion = OpeningCriterion.valueOf(args[++i].toUpperCase());
+				}
+				else if (arg.equals("--theta")) {
+					theta = Float.parseFloat(args[++i]);
+				}
+				else if (arg.equals("--tolerance")) {
+					tolerance = Float.parseFloat(args[++i]);
+				}
+				else if (arg.equals("--monopole")) {
+					quadrupole = false;
+				}
+				else if (arg.equals("--incremental")) {
+					incremental = true;
+				}
+				else if (arg.equals("--integrator")) {
+					integrator = Integrator.valueOf(args[++i].toUpperCase());
+				}
+				else if (arg.equals("--levels")) {
+					levels = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--solver")) {
+					solverName = args[++i].toLowerCase();
+					if (!solverName.equals("fmm") && !solverName.equals("barnes_hut") && !solverName.equals("direct")) {
+						usage("Unknown solver " + solverName);
+						return;
+					}
+				}
+				else if (arg.equals("--order")) {
+					order = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--leaf-size")) {
+					leafSize = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--restore")) {
+					restore = Paths.get(args[++i]);
+				}
+				else if (arg.equals("--checkpoint")) {
+					checkpoint = Paths.get(args[++i]);
+				}
+				else if (arg.equals("--checkpoint-every")) {
+					checkpointEvery = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--record")) {
+					record = Paths.get(args[++i]);
+				}
+				else if (arg.equals("--record-every")) {
+					recordEvery = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--record-no-delta")) {
+					recordDelta = false;
+				}
+				else if (arg.equals("--record-quantum")) {
+					positionQuantum = Float.parseFloat(args[++i]);
+					velocityQuantum = Float.parseFloat(args[++i]);
+				}
+				else if (arg.equals("--trails")) {
+					trailLength = Integer.parseInt(args[++i]);
+					trailStride = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--diagnostics")) {
+					diagnosticsEvery = Integer.parseInt(args[++i]);
+				}
+				else {
+					usage("Unknown argument " + arg);
+					return;
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			usage("Missing value for " + args[args.length - 1]);
+			return;
+		}
+		catch (IllegalArgumentException e) {
+			usage(e.getMessage());
+			return;
+		}
+
+		BodyNames.init();
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, threads);
+		universe.setGravityKernel(kernel);
+		universe.setSoftening(softening);
+		universe.setOpeningCriterion(criterion);
+		if (solverName.equals("fmm")) {
+			FmmSolver solver = new FmmSolver(order);
+			solver.setLeafSize(leafSize);
+			if (theta != null) {
+				solver.setOpeningAngle(theta);
+			}
+			universe.setGravitySolver(solver);
+		}
+		else if (solverName.equals("direct")) {
+			DirectSolver solver = new DirectSolver();
+			System.out.println("Direct summation: " + (solver.isVectorized() ? solver.getLanes() + " lanes" : "scalar"));
+			universe.setGravitySolver(solver);
+		}
+		else if (theta != null) {
+			universe.setOpeningAngle(theta);
+		}
+		universe.setErrorTolerance(tolerance);
+		universe.setQuadrupole(quadrupole);
+		universe.setIncrementalTree(incremental);
+		universe.setIntegrator(integrator);
+		universe.setMaxTimestepLevel(levels);
+		universe.setTrails(trailLength, trailStride);
+		if (restore != null) {
+			try {
+				long start = System.nanoTime();
+				Checkpoint.restore(universe, restore);
+				System.out.println(String.format("Restored step %d from %s in %.3fs", universe.getSteps(), restore,
+						(System.nanoTime() - start) / 1e9));
+			} catch (IOException e) {
+				System.err.println("Failed to restore checkpoint: " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		else if (input != null) {
+			try {
+				InitialConditions.load(universe, input);
+			} catch (IOException e) {
+				System.err.println("Failed to load initial conditions: " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		else {
+			InitialConditions.generate(universe, distribution, randomBodies, seed);
+		}
+
+		Checkpointer checkpointer = null;
+		if (checkpoint != null && checkpointEvery > 0) {
+			checkpointer = new Checkpointer(checkpoint, checkpointEvery);
+			universe.setCheckpointer(checkpointer);
+		}
+
+		System.out.println("Bodies: " + universe.getNumberOfBodies() + ", threads: " + universe.getParallelism());
+		for (int i = 0; i < warmup; i++) {
+			universe.update();
+		}
+		long evaluations = universe.getForceEvaluations();
+		StepMetrics metrics = universe.getMetrics();
+		metrics.reset();
+		TrajectoryRecorder recorder = null;
+		if (record != null) {
+			recorder = new TrajectoryRecorder(record, recordEvery);
+			recorder.setDelta(recordDelta);
+			recorder.setQuantization(positionQuantum, velocityQuantum);
+			universe.setRecorder(recorder);
+		}
+		Diagnostics diagnostics = null;
+		if (diagnosticsEvery > 0) {
+			diagnostics = new Diagnostics(diagnosticsEvery);
+			try {
+				diagnostics.sample(universe);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			universe.setDiagnostics(diagnostics);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < steps; i++) {
+			universe.update();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (recorder != null) {
+			universe.setRecorder(null);
+			try {
+				recorder.close();
+				System.out.println(String.format("Recorded %d frames to %s, %.1f MB, step thread waited %.1f ms",
+						recorder.getFramesWritten(), record, recorder.getBytesWritten() / 1e6, recorder.getBlockedMillis()));
+			} catch (IOException e) {
+				System.err.println("Failed to record trajectory: " + e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		double seconds = elapsed / 1e9;
+		System.out.println("Steps: " + steps + " in " + String.format("%.3f", seconds) + "s");
+		System.out.println("Steps/sec: " + String.format("%.1f", steps / seconds));
+		System.out.println("Bodies remaining: " + universe.getNumberOfBodies());
+		System.out.println("Force evaluations/step: " + (universe.getForceEvaluations() - evaluations) / steps);
+		System.out.println(String.format("Per step: tree %.3f ms, forces %.3f ms, collisions %.3f ms, integration %.3f ms",
+				metrics.getAverageTreeBuildMillis(), metrics.getAverageForceMillis(),
+				metrics.getAverageCollisionMillis(), metrics.getAverageIntegrationMillis()));
+		System.out.println(String.format("Interactions/body: %.1f, collisions/step: %.2f, allocated/step: %.0f bytes",
+				metrics.getAverageInteractionsPerBody(), metrics.getAverageCollisions(), metrics.getAverageAllocatedBytes()));
+		System.out.println("Nodes: " + metrics.getNodeCount() + ", max depth: " + metrics.getMaxDepth() + ", NaNs: " + metrics.getNanCount());
+		if (incremental && universe.getTree() != null) {
+			BHTree tree = universe.getTree();
+			System.out.println("Tree refits: " + tree.getRefitCount() + ", full builds: " + tree.getFullBuildCount());
+		}
+		if (diagnostics != null) {
+			universe.setDiagnostics(null);
+			try {
+				diagnostics.sample(universe);
+				diagnostics.shutdown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			Diagnostics.Sample first = diagnostics.getFirst();
+			Diagnostics.Sample last = diagnostics.getLatest();
+			System.out.println("Diagnostics at " + first);
+			System.out.println("Diagnostics at " + last);
+			System.out.println(String.format("Drift: energy %.3e (largest %.3e), momentum %.3e, angular momentum %.3e;"
+					+ " %d measurements, %d skipped, last took %.1f ms",
+					last.getEnergyDrift(first), diagnostics.getMaxEnergyDrift(), last.getMomentumDrift(first),
+					last.getAngularMomentumDrift(first), diagnostics.getTaken(), diagnostics.getSkipped(),
+					diagnostics.getLastMillis()));
+		}
+		if (checkpointer != null) {
+			universe.setCheckpointer(null);
+			try {
+				checkpointer.shutdown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			System.out.println(String.format("Background checkpoints: %d written, %d skipped, last took %.3fs",
+					checkpointer.getWritten(), checkpointer.getSkipped(), checkpointer.getLastWriteMillis() / 1e3));
+			if (checkpointer.getLastError() != null) {
+				System.err.println("Background checkpoint failed: " + checkpointer.getLastError().getMessage());
+			}
+		}
+		if (checkpoint != null) {
+			try {
+				long saveStart = System.nanoTime();
+				Checkpoint.save(universe, checkpoint);
+				System.out.println(String.format("Saved step %d to %s in %.3fs", universe.getSteps(), checkpoint,
+						(System.nanoTime() - saveStart) / 1e9));
+			} catch (IOException e) {
+				System.err.println("Failed to save checkpoint: " + e.getMessage());
+			}
+		}
+		universe.shutdown();
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println("Usage: HeadlessRunner [--input file | --random count] [--distribution uniform|clustered|disk] [--seed seed]"
+				+ " [--steps steps] [--warmup steps] [--threads n] [--kernel legacy|components] [--softening length]"
+				+ " [--criterion barnes_hut|min_distance|relative_error] [--theta angle] [--tolerance fraction] [--monopole]"
+				+ " [--incremental] [--integrator euler|leapfrog|velocity_verlet] [--levels n]"
+				+ " [--solver barnes_hut|fmm|direct] [--order p] [--leaf-size n]"
+				+ " [--restore file] [--checkpoint file] [--checkpoint-every steps]"
+				+ " [--record file] [--record-every steps] [--record-no-delta] [--record-quantum position velocity]"
+				+ " [--trails length stride] [--diagnostics steps]");
+		System.exit(1);
+	}
+
+}
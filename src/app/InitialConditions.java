@@ -0,0 +1,184 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Loads or generates the starting state of a {@link Universe}.
+ *
+ * Initial conditions files are plain text, one entry per line. Blank lines and lines starting with '#' are ignored.
+ * <pre>
+ * sun  &lt;x&gt; &lt;y&gt; &lt;mass&gt; &lt;radius&gt;
+ * body &lt;name&gt; &lt;x&gt; &lt;y&gt; &lt;vx&gt; &lt;vy&gt; &lt;mass&gt;
+ * </pre>
+ * If no sun line is given the universe keeps its default sun.
+ */
+public class InitialConditions {
+
+	/**
+	 * Seeded starting layouts, used for repeatable runs and benchmarks.
+	 */
+	public enum Distribution {
+		// Spread evenly over the whole universe
+		UNIFORM,
+		// Gaussian clumps, which give deep, uneven trees and lots of collisions
+		CLUSTERED,
+		// Circular orbits around the sun
+		DISK
+	}
+
+	private static final int CLUSTERS = 16;
+	private static final float CLUSTER_SPREAD = 1500;
+	private static final float DISK_INNER_RADIUS = 500;
+
+	public static void load(Universe universe, String path) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split("\\s+");
+				try {
+					if (parts[0].equals("sun") && parts.length == 5) {
+						universe.setSun(new Body("Sol", parseFloat(parts[1]), parseFloat(parts[2]),
+								parseFloat(parts[3]), parseFloat(parts[4])));
+					}
+					else if (parts[0].equals("body") && parts.length == 7) {
+						universe.addBody(parts[1], parseFloat(parts[2]), parseFloat(parts[3]),
+								parseFloat(parts[4]), parseFloat(parts[5]), parseFloat(parts[6]));
+					}
+					else {
+						throw new IOException(path + ":" + lineNumber + ": unrecognised line '" + line + "'");
+					}
+				}
+				catch (NumberFormatException e) {
+					throw new IOException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Scatter bodies uniformly over the universe in the same way as {@link Universe#createBody(int, int)}, but
+	 * from a seeded generator so that runs can be repeated.
+	 */
+	public static void random(Universe universe, int count, long seed) {
+		random(universe, count, seed, 0, 1);
+	}
+
+	private static void random(Universe universe, int count, long seed, int part, int parts) {
+		Random random = new Random(seed);
+		for (int i = 0; i < count; i++) {
+			float x = random.nextFloat() * universe.getWidth();
+			float y = random.nextFloat() * universe.getHeight();
+			float direction = random.nextFloat() * 6;
+			float mass = random.nextFloat() * universe.getNewBodyMass();
+			float vx = (float) (Math.cos(direction) * universe.getNewBodyVelocity());
+			float vy = (float) (Math.sin(direction) * universe.getNewBodyVelocity());
+			if (i % parts == part) {
+				universe.addBody(BodyNames.getName(), x, y, vx, vy, mass);
+			}
+		}
+	}
+
+	public static void generate(Universe universe, Distribution distribution, int count, long seed) {
+		generate(universe, distribution, count, seed, 0, 1);
+	}
+
+	/**
+	 * Add one part of a layout, e.g. to the universe of one of several processes: every body whose number
+	 * leaves the given remainder when divided by the number of parts. The parts together hold exactly the
+	 * bodies that {@link #generate(Universe, Distribution, int, long)} adds, and each takes as long to make.
+	 */
+	public static void generate(Universe universe, Distribution distribution, int count, long seed, int part, int parts) {
+		if (part < 0 || part >= parts) {
+			throw new IllegalArgumentException("Part " + part + " of " + parts);
+		}
+		switch (distribution) {
+		case UNIFORM:
+			random(universe, count, seed, part, parts);
+			break;
+		case CLUSTERED:
+			clustered(universe, count, seed, part, parts);
+			break;
+		case DISK:
+			disk(universe, count, seed, part, parts);
+			break;
+		}
+	}
+
+	/**
+	 * Bodies gathered in a handful of Gaussian clusters, each drifting with its own velocity.
+	 */
+	public static void clustered(Universe universe, int count, long seed) {
+		clustered(universe, count, seed, 0, 1);
+	}
+
+	private static void clustered(Universe universe, int count, long seed, int part, int parts) {
+		Random random = new Random(seed);
+		float width = universe.getWidth();
+		float height = universe.getHeight();
+		float[] centers = new float[CLUSTERS * 4];
+		for (int c = 0; c < CLUSTERS; c++) {
+			centers[c * 4] = width * (0.1f + 0.8f * random.nextFloat());
+			centers[c * 4 + 1] = height * (0.1f + 0.8f * random.nextFloat());
+			float direction = random.nextFloat() * 6;
+			centers[c * 4 + 2] = (float) (Math.cos(direction) * universe.getNewBodyVelocity());
+			centers[c * 4 + 3] = (float) (Math.sin(direction) * universe.getNewBodyVelocity());
+		}
+		for (int i = 0; i < count; i++) {
+			int c = random.nextInt(CLUSTERS) * 4;
+			float x = clamp(centers[c] + (float) random.nextGaussian() * CLUSTER_SPREAD, width);
+			float y = clamp(centers[c + 1] + (float) random.nextGaussian() * CLUSTER_SPREAD, height);
+			float mass = random.nextFloat() * universe.getNewBodyMass();
+			if (i % parts == part) {
+				universe.addBody(BodyNames.getName(), x, y, centers[c + 2], centers[c + 3], mass);
+			}
+		}
+	}
+
+	/**
+	 * Bodies spread evenly over a disk around the sun, each on a circular orbit.
+	 */
+	public static void disk(Universe universe, int count, long seed) {
+		disk(universe, count, seed, 0, 1);
+	}
+
+	private static void disk(Universe universe, int count, long seed, int part, int parts) {
+		Random random = new Random(seed);
+		Body sun = universe.getSun();
+		float outerRadius = Math.min(universe.getWidth(), universe.getHeight()) * 0.45f;
+		for (int i = 0; i < count; i++) {
+			// Square root so that the bodies are even over the area rather than bunched toward the middle
+			float r = (float) Math.sqrt(DISK_INNER_RADIUS * DISK_INNER_RADIUS
+					+ random.nextFloat() * (outerRadius * outerRadius - DISK_INNER_RADIUS * DISK_INNER_RADIUS));
+			float angle = (float) (random.nextFloat() * Math.PI * 2);
+			float cos = (float) Math.cos(angle);
+			float sin = (float) Math.sin(angle);
+			float speed = (float) Math.sqrt(universe.getGravityConstant() * sun.getMass() / r);
+			float mass = random.nextFloat() * universe.getNewBodyMass();
+			if (i % parts == part) {
+				universe.addBody(BodyNames.getName(), sun.getX() + r * cos, sun.getY() + r * sin, -sin * speed, cos * speed, mass);
+			}
+		}
+	}
+
+	private static float clamp(float value, float limit) {
+		return Math.max(1, Math.min(limit - 1, value));
+	}
+
+	private static float parseFloat(String value) {
+		return Float.parseFloat(value);
+	}
+
+}
@@ -0,0 +1,69 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints. Clearing keeps the backing array, so a list that is reused every step stops
+ * allocating once it has reached its working size.
+ */
+public class IntList {
+
+	private int[] values;
+	private int size;
+
+	public IntList() {
+		this(16);
+	}
+
+	public IntList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	public void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	public int get(int i) {
+		return values[i];
+	}
+
+	public void set(int i, int value) {
+		if (i >= size) {
+			throw new IndexOutOfBoundsException("Index " + i + " of a list of " + size);
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * Remove the last value, e.g. to use the list as a stack.
+	 */
+	public int removeLast() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException("Removing from an empty list");
+		}
+		return values[--size];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Sort the values into ascending order.
+	 */
+	public void sort() {
+		Arrays.sort(values, 0, size);
+	}
+
+}
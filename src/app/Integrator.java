@@ -0,0 +1,31 @@
+package app;
+
+/**
+ * How the bodies are moved through one step of the universe, given their accelerations. One step is one unit
+ * of time, so velocities are in distance per step.
+ */
+public enum Integrator {
+
+	/**
+	 * The original update: add the acceleration to the velocity, then move along the new velocity. Only first
+	 * order, and every body takes the same step.
+	 */
+	EULER,
+
+	/**
+	 * Kick-drift-kick leapfrog: half of the acceleration is added to the velocity, the body moves along it, the
+	 * accelerations are computed at the new positions and the other half is added. Second order and symplectic,
+	 * so orbits don't slowly gain or lose energy. The accelerations of the end of a step are reused at the start
+	 * of the next one, so it costs one force evaluation per step like {@link #EULER}. The only integrator that
+	 * supports per-body timesteps, see {@link Universe#setMaxTimestepLevel}.
+	 */
+	LEAPFROG,
+
+	/**
+	 * Velocity Verlet: the body moves by v dt + a dt^2 / 2, then the velocity is advanced by the average of the
+	 * old and new accelerations. Follows the same trajectory as {@link #LEAPFROG} up to rounding, but keeps the
+	 * old accelerations until the velocities are updated.
+	 */
+	VELOCITY_VERLET
+
+}
@@ -0,0 +1,30 @@
+package app;
+
+/**
+ * Decides whether a node of the tree is far enough from a body for its mass to be used as a whole, or whether
+ * the walk has to open it and look at its quadrants. Used by {@link GravityKernel#COMPONENTS}.
+ */
+public enum OpeningCriterion {
+
+	/**
+	 * The classic test: accept the node when its size divided by the distance to its center of mass is below
+	 * the opening angle theta.
+	 */
+	BARNES_HUT,
+
+	/**
+	 * Like {@link #BARNES_HUT}, but measured to the nearest point of the node's bounds instead of its center of
+	 * mass. A body can't be close to a node's edge while being accepted, which guards against the large errors
+	 * the classic test gives when the center of mass sits at the far side of a big node.
+	 */
+	MIN_DISTANCE,
+
+	/**
+	 * Accept the node when the size of the error its expansion is expected to make, G * M * size^2 / d^4, is
+	 * below a fraction of the body's acceleration from the previous step. Far away nodes are accepted sooner
+	 * for bodies that are already being pulled hard, e.g. close to the sun. Nodes that contain the body are
+	 * always opened, and a body with no previous acceleration falls back to {@link #BARNES_HUT}.
+	 */
+	RELATIVE_ERROR
+
+}
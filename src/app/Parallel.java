@@ -0,0 +1,156 @@
+package app;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs loops over body ranges on a fork/join pool. Ranges are split in half until they are no bigger than the
+ * grain size, so idle workers can steal the unstarted halves from busy ones. With a parallelism of 1 every
+ * loop runs on the calling thread in index order.
+ *
+ * The tasks that split a loop are kept for the next one, so a step's loops make no new task objects once the
+ * first steps have made enough. The pool still allocates a few hundred bytes a step of its own, e.g. when a
+ * thread waits for a task that was stolen from it.
+ */
+public class Parallel {
+
+	// Default number of bodies handled by one task once splitting stops
+	public static final int DEFAULT_GRAIN = 256;
+
+	/**
+	 * The body of a loop, applied to the indices from (inclusive) to to (exclusive).
+	 */
+	public interface RangeAction {
+		void run(int from, int to);
+	}
+
+	private final int parallelism;
+	private ForkJoinPool pool;
+	// Worker threads the pool has started. Stopped ones are dropped when the next one starts.
+	private final List<Thread> workers = new CopyOnWriteArrayList<Thread>();
+	private final List<Thread> workersView = Collections.unmodifiableList(workers);
+	// Tasks of forRange, kept from one loop to the next so that a loop allocates none once they have been made
+	private final RangeTask rangeTasks = new RangeTask();
+	// Whether the kept tasks are running a loop, in which case a loop started inside it gets tasks of its own
+	private final AtomicBoolean rangeTasksBusy = new AtomicBoolean();
+
+	public Parallel(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+		pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism, this::newWorker, null, false) : null;
+	}
+
+	private ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+		ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		workers.removeIf(thread -> !thread.isAlive());
+		workers.add(worker);
+		return worker;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public boolean isSequential() {
+		return pool == null;
+	}
+
+	/**
+	 * @return The worker threads that run loops besides the calling thread. Workers that sit idle for long
+	 * enough stop and are replaced by new ones, so a stopped thread may still be listed.
+	 */
+	public List<Thread> getWorkers() {
+		return workersView;
+	}
+
+	public void forRange(int count, RangeAction action) {
+		forRange(count, DEFAULT_GRAIN, action);
+	}
+
+	/**
+	 * Apply an action to the indices from 0 to count, in ranges of at most grain indices. The tasks that split
+	 * the ranges are kept and reused by the next loop, so a loop only allocates when it needs more tasks than any
+	 * before it, or when it is started while another is running.
+	 */
+	public void forRange(int count, int grain, RangeAction action) {
+		if (pool == null || count <= grain) {
+			action.run(0, count);
+		}
+		else if (rangeTasksBusy.compareAndSet(false, true)) {
+			try {
+				pool.invoke(rangeTasks.set(action, 0, count, grain));
+			}
+			finally {
+				rangeTasksBusy.set(false);
+			}
+		}
+		else {
+			pool.invoke(new RangeTask().set(action, 0, count, grain));
+		}
+	}
+
+	/**
+	 * Run a recursive task, which may fork further tasks of its own, and wait for it to finish.
+	 */
+	public void invoke(ForkJoinTask<?> task) {
+		if (pool == null) {
+			task.invoke();
+		}
+		else {
+			pool.invoke(task);
+		}
+	}
+
+	/**
+	 * Stop the worker threads. Loops still run afterwards, but only on the calling thread.
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	private static class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private RangeAction action;
+		private int from;
+		private int to;
+		private int grain;
+		// The two halves, made the first time this task splits and reused after
+		private RangeTask lower;
+		private RangeTask upper;
+
+		RangeTask set(RangeAction action, int from, int to, int grain) {
+			reinitialize();
+			this.action = action;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			return this;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				action.run(from, to);
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				if (lower == null) {
+					lower = new RangeTask();
+					upper = new RangeTask();
+				}
+				invokeAll(lower.set(action, from, middle, grain), upper.set(action, middle, to, grain));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Stable least-significant-digit radix sort of long keys carrying int values, eight bits per pass.
+ *
+ * Each pass splits the input into one chunk per task: every chunk counts its digits, the counts are turned into
+ * write offsets, and then every chunk scatters its own elements in order, so equal keys keep their input order.
+ * Passes where every key has the same digit are skipped. The scratch buffers are kept between calls.
+ */
+public class RadixSort {
+
+	private static final int DIGIT_BITS = 8;
+	private static final int RADIX = 1 << DIGIT_BITS;
+	// Chunks per worker thread, so that uneven chunks can still be balanced by stealing
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private long[] keyBuffer = new long[0];
+	private int[] valueBuffer = new int[0];
+	// Digit counts per chunk, turned into write offsets in place
+	private int[] histograms = new int[0];
+	private int[] totals = new int[RADIX];
+
+	// State of the pass in progress, read by the range actions
+	private long[] sourceKeys;
+	private int[] sourceValues;
+	private long[] targetKeys;
+	private int[] targetValues;
+	private int size;
+	private int chunks;
+	private int shift;
+
+	private final Parallel.RangeAction count = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int chunk = from; chunk < to; chunk++) {
+				int base = chunk * RADIX;
+				Arrays.fill(histograms, base, base + RADIX, 0);
+				int end = chunkEnd(chunk);
+				for (int i = chunkStart(chunk); i < end; i++) {
+					histograms[base + (int) ((sourceKeys[i] >>> shift) & (RADIX - 1))]++;
+				}
+			}
+		}
+	};
+
+	private final Parallel.RangeAction scatter = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int chunk = from; chunk < to; chunk++) {
+				int base = chunk * RADIX;
+				int end = chunkEnd(chunk);
+				for (int i = chunkStart(chunk); i < end; i++) {
+					int position = histograms[base + (int) ((sourceKeys[i] >>> shift) & (RADIX - 1))]++;
+					targetKeys[position] = sourceKeys[i];
+					targetValues[position] = sourceValues[i];
+				}
+			}
+		}
+	};
+
+	/**
+	 * Sort the first n keys, and the values alongside them, by their lowest bits.
+	 * @param bits	Number of low bits that can differ between keys; higher bits are ignored
+	 */
+	public void sort(long[] keys, int[] values, int n, int bits, Parallel parallel) {
+		if (keyBuffer.length < n) {
+			keyBuffer = new long[keys.length];
+			valueBuffer = new int[keys.length];
+		}
+		chunks = parallel.isSequential() ? 1 : parallel.getParallelism() * CHUNKS_PER_THREAD;
+		if (histograms.length < chunks * RADIX) {
+			histograms = new int[chunks * RADIX];
+		}
+		size = n;
+		sourceKeys = keys;
+		sourceValues = values;
+		targetKeys = keyBuffer;
+		targetValues = valueBuffer;
+		for (shift = 0; shift < bits; shift += DIGIT_BITS) {
+			parallel.forRange(chunks, 1, count);
+			if (!toOffsets()) {
+				// Every key has the same digit, so this pass wouldn't move anything.
+				continue;
+			}
+			parallel.forRange(chunks, 1, scatter);
+			long[] swapKeys = sourceKeys;
+			sourceKeys = targetKeys;
+			targetKeys = swapKeys;
+			int[] swapValues = sourceValues;
+			sourceValues = targetValues;
+			targetValues = swapValues;
+		}
+		if (sourceKeys != keys) {
+			System.arraycopy(sourceKeys, 0, keys, 0, n);
+			System.arraycopy(sourceValues, 0, values, 0, n);
+		}
+		sourceKeys = targetKeys = null;
+		sourceValues = targetValues = null;
+	}
+
+	/**
+	 * Turn the digit counts into the position each chunk writes its first key with each digit to.
+	 * @return false if all of the keys share one digit.
+	 */
+	private boolean toOffsets() {
+		Arrays.fill(totals, 0);
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			int base = chunk * RADIX;
+			for (int digit = 0; digit < RADIX; digit++) {
+				totals[digit] += histograms[base + digit];
+			}
+		}
+		int offset = 0;
+		for (int digit = 0; digit < RADIX; digit++) {
+			if (totals[digit] == size) {
+				return false;
+			}
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				int index = chunk * RADIX + digit;
+				int counted = histograms[index];
+				histograms[index] = offset;
+				offset += counted;
+			}
+		}
+		return true;
+	}
+
+	private int chunkStart(int chunk) {
+		return (int) ((long) size * chunk / chunks);
+	}
+
+	private int chunkEnd(int chunk) {
+		return (int) ((long) size * (chunk + 1) / chunks);
+	}
+
+}
@@ -0,0 +1,251 @@
+package app;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps a {@link Universe} on a thread of its own, so that drawing and stepping don't wait for each other.
+ *
+ * After every step the simulation thread copies the universe into a {@link UniverseSnapshot} and publishes it.
+ * The thread drawing takes the latest two published snapshots with {@link #acquire}, and keeps them until its
+ * next call, so it can draw between them with {@link #getInterpolation}. There are enough snapshots that the
+ * simulation thread always has a free one to fill: publishing never waits for a frame to be drawn, and the
+ * lock only guards swapping references, never a copy.
+ *
+ * Anything that changes the universe, e.g. adding or deleting bodies from the input, is submitted as a
+ * {@link Command} and run on the simulation thread between two steps, in the order submitted. The universe
+ * must not be touched from any other thread while the simulation is running.
+ */
+public class Simulation {
+
+	/**
+	 * A change to the universe, run on the simulation thread between steps.
+	 */
+	public interface Command {
+		void apply(Universe universe);
+	}
+
+	// The two published, the two being drawn, and one being filled
+	private static final int SNAPSHOTS = 5;
+	// Submitted by stop(), after every command submitted before it, to end the simulation thread
+	private static final Command STOP = universe -> { };
+
+	private final Universe universe;
+	private final LinkedBlockingQueue<Command> commands = new LinkedBlockingQueue<Command>();
+	private final UniverseSnapshot[] snapshots = new UniverseSnapshot[SNAPSHOTS];
+	// Guarded by this: the latest published snapshot and the one before it
+	private UniverseSnapshot latest;
+	private UniverseSnapshot previous;
+	// Guarded by this, and only changed by the drawing thread: the snapshots acquired for drawing
+	private UniverseSnapshot drawnLatest;
+	private UniverseSnapshot drawnPrevious;
+	private long acquiredNanos;
+
+	// Only touched by the simulation thread
+	private boolean paused;
+	private int stepsRequested;
+
+	private volatile boolean pausedRequested;
+	private volatile long stepIntervalNanos;
+	private volatile RuntimeException failure;
+	private Thread thread;
+
+	public Simulation(Universe universe) {
+		this.universe = universe;
+		for (int k = 0; k < SNAPSHOTS; k++) {
+			snapshots[k] = new UniverseSnapshot();
+		}
+	}
+
+	/**
+	 * Publish the universe as it is and start stepping it.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			throw new IllegalStateException("The simulation has already started");
+		}
+		publish();
+		thread = new Thread(this::run, "simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop stepping once the current step and the commands already submitted are done, and wait for it.
+	 */
+	public void stop() throws InterruptedException {
+		Thread stopping;
+		synchronized (this) {
+			stopping = thread;
+		}
+		if (stopping != null) {
+			// Also wakes the thread up if it is waiting for a command
+			commands.add(STOP);
+			stopping.join();
+		}
+	}
+
+	private void run() {
+		try {
+			long nextStep = System.nanoTime();
+			boolean unpublished = false;
+			while (true) {
+				Command command;
+				while ((command = commands.poll()) != null) {
+					if (command == STOP) {
+						return;
+					}
+					command.apply(universe);
+					unpublished = true;
+				}
+				long wait = paused && stepsRequested == 0 ? Long.MAX_VALUE : nextStep - System.nanoTime();
+				if (wait > 0) {
+					// Show what the commands did while waiting for the next step
+					if (unpublished) {
+						publish();
+						unpublished = false;
+					}
+					command = commands.poll(Math.min(wait, TimeUnit.SECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+					if (command == STOP) {
+						return;
+					}
+					if (command != null) {
+						command.apply(universe);
+						unpublished = true;
+					}
+					continue;
+				}
+				if (paused) {
+					stepsRequested--;
+				}
+				universe.update();
+				publish();
+				unpublished = false;
+				// Catch up on a late step, but not on more than one
+				nextStep = Math.max(nextStep + stepIntervalNanos, System.nanoTime() - stepIntervalNanos);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (RuntimeException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Copy the universe into a snapshot no one is using, and make it the latest.
+	 */
+	private void publish() {
+		UniverseSnapshot free;
+		synchronized (this) {
+			free = null;
+			for (UniverseSnapshot snapshot : snapshots) {
+				if (snapshot != latest && snapshot != previous && snapshot != drawnLatest && snapshot != drawnPrevious) {
+					free = snapshot;
+					break;
+				}
+			}
+		}
+		free.capture(universe);
+		synchronized (this) {
+			previous = latest;
+			latest = free;
+		}
+	}
+
+	/**
+	 * Take the latest two snapshots for drawing, releasing the ones taken by the last call. Only to be called
+	 * from the one thread that draws.
+	 */
+	public synchronized void acquire() {
+		drawnLatest = latest;
+		drawnPrevious = previous;
+		acquiredNanos = System.nanoTime();
+	}
+
+	/**
+	 * @return The latest snapshot taken by {@link #acquire}, or null before it has been called.
+	 */
+	public synchronized UniverseSnapshot getLatest() {
+		return drawnLatest;
+	}
+
+	/**
+	 * @return The snapshot published before the latest one taken by {@link #acquire}, or null if there is none.
+	 */
+	public synchronized UniverseSnapshot getPrevious() {
+		return drawnPrevious;
+	}
+
+	/**
+	 * How far to draw the bodies between the previous snapshot (0) and the latest (1), so that they move smoothly
+	 * whatever the step and frame rates are. Drawing runs up to a step behind: at the moment the latest was
+	 * taken the bodies are drawn where they were in the previous one, and they reach the latest after as long
+	 * again as there was between the two.
+	 */
+	public synchronized float getInterpolation() {
+		if (drawnLatest == null || drawnPrevious == null) {
+			return 1;
+		}
+		long between = drawnLatest.getCapturedNanos() - drawnPrevious.getCapturedNanos();
+		if (between <= 0) {
+			return 1;
+		}
+		float interpolation = (float) (acquiredNanos - drawnLatest.getCapturedNanos()) / between;
+		return Math.max(0, Math.min(1, interpolation));
+	}
+
+	/**
+	 * Run a command on the simulation thread before the next step.
+	 */
+	public void submit(Command command) {
+		commands.add(command);
+	}
+
+	/**
+	 * Stop or resume stepping, after the commands submitted before. Commands still run while paused.
+	 */
+	public void setPaused(boolean paused) {
+		pausedRequested = paused;
+		submit(universe -> {
+			this.paused = paused;
+			stepsRequested = 0;
+		});
+	}
+
+	public boolean isPaused() {
+		return pausedRequested;
+	}
+
+	/**
+	 * Take one more step while paused. Does nothing while running.
+	 */
+	public void step() {
+		submit(universe -> {
+			if (paused) {
+				stepsRequested++;
+			}
+		});
+	}
+
+	/**
+	 * Limit how fast the universe is stepped, e.g. to keep it watchable when it is small.
+	 * @param stepsPerSecond	Most steps to take a second, or 0 for as many as possible
+	 */
+	public void setStepsPerSecond(double stepsPerSecond) {
+		stepIntervalNanos = stepsPerSecond > 0 ? (long) (1e9 / stepsPerSecond) : 0;
+	}
+
+	public Universe getUniverse() {
+		return universe;
+	}
+
+	/**
+	 * @return What stopped the simulation thread, or null if nothing has.
+	 */
+	public RuntimeException getFailure() {
+		return failure;
+	}
+
+}
@@ -0,0 +1,186 @@
+package app;
+
+/**
+ * Answers the universe's spatial queries exactly, for the bodies where they are now, in time that follows the
+ * number of bodies near the query rather than the number of bodies. The Barnes-Hut tree from the last build does
+ * most of the work. The bodies changed since that build, which the tree can't place, are tested one by one, as
+ * is every body when there is no tree to use (before the first update, or with another gravity solver).
+ */
+class SpatialQueries {
+
+	private final IntList found = new IntList();
+	// Query in which each store index was last reported, so that no body is reported twice
+	private int[] reported = new int[0];
+	private int query;
+	// Candidates for the nearest bodies, with their squared distances
+	private final IntList candidates = new IntList();
+	private float[] candidateDistance2 = new float[0];
+
+	/**
+	 * @param tree		The tree to search, or null to test every body
+	 * @param changed	Store indices changed since the tree was built
+	 * @param out		Receives the store index of every body whose center is within radius of (x, y)
+	 */
+	void findWithin(BodyStore bodies, BHTree tree, IntList changed, float x, float y, float radius, IntList out) {
+		if (tree == null) {
+			for (int i = 0; i < bodies.size(); i++) {
+				if (distance2(bodies, i, x, y) <= radius * radius) {
+					out.add(i);
+				}
+			}
+			return;
+		}
+		found.clear();
+		tree.findWithin(x, y, radius, found);
+		startReporting(bodies);
+		report(found, out);
+		for (int k = 0; k < changed.size(); k++) {
+			int i = changed.get(k);
+			if (i < bodies.size() && distance2(bodies, i, x, y) <= radius * radius) {
+				report(i, out);
+			}
+		}
+	}
+
+	/**
+	 * @param out	Receives the store index of every body whose center is inside the rectangle, edges included
+	 */
+	void findInRectangle(BodyStore bodies, BHTree tree, IntList changed, float left, float top, float right, float bottom,
+			IntList out) {
+		if (tree == null) {
+			for (int i = 0; i < bodies.size(); i++) {
+				if (inRectangle(bodies, i, left, top, right, bottom)) {
+					out.add(i);
+				}
+			}
+			return;
+		}
+		found.clear();
+		tree.findInRectangle(left, top, right, bottom, found);
+		startReporting(bodies);
+		report(found, out);
+		for (int k = 0; k < changed.size(); k++) {
+			int i = changed.get(k);
+			if (i < bodies.size() && inRectangle(bodies, i, left, top, right, bottom)) {
+				report(i, out);
+			}
+		}
+	}
+
+	/**
+	 * @return The store index of the body whose circle holds the point and whose center is the closest to it,
+	 * the lower index on a tie, or -1 if no circle does.
+	 */
+	int findContaining(BodyStore bodies, BHTree tree, IntList changed, float x, float y) {
+		int best = tree != null ? tree.findContaining(x, y) : -1;
+		float best2 = best >= 0 ? distance2(bodies, best, x, y) : Float.POSITIVE_INFINITY;
+		int count = tree != null ? changed.size() : bodies.size();
+		for (int k = 0; k < count; k++) {
+			int i = tree != null ? changed.get(k) : k;
+			if (i >= bodies.size() || !bodies.containsPoint(i, x, y)) {
+				continue;
+			}
+			float d2 = distance2(bodies, i, x, y);
+			if (d2 < best2 || (d2 == best2 && i < best)) {
+				best2 = d2;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param out	Receives the store indices of the k bodies whose centers are the closest to the point, the
+	 * 				closest first, the lower index on a tie
+	 */
+	void findNearest(BodyStore bodies, BHTree tree, IntList changed, float x, float y, int k, IntList out) {
+		if (k <= 0) {
+			return;
+		}
+		candidates.clear();
+		startReporting(bodies);
+		if (tree == null) {
+			for (int i = 0; i < bodies.size(); i++) {
+				candidates.add(i);
+			}
+		}
+		else {
+			// The k closest of the bodies the tree can place, and every body it can't
+			found.clear();
+			tree.findNearest(x, y, k, found);
+			report(found, candidates);
+			for (int c = 0; c < changed.size(); c++) {
+				int i = changed.get(c);
+				if (i < bodies.size()) {
+					report(i, candidates);
+				}
+			}
+		}
+		int n = candidates.size();
+		if (candidateDistance2.length < n) {
+			candidateDistance2 = new float[Math.max(n, candidateDistance2.length * 2)];
+		}
+		for (int c = 0; c < n; c++) {
+			candidateDistance2[c] = distance2(bodies, candidates.get(c), x, y);
+		}
+		// Partial selection sort: only the first k places are needed
+		int wanted = Math.min(k, n);
+		for (int place = 0; place < wanted; place++) {
+			int closest = place;
+			for (int c = place + 1; c < n; c++) {
+				if (closer(candidateDistance2[c], candidates.get(c), candidateDistance2[closest], candidates.get(closest))) {
+					closest = c;
+				}
+			}
+			if (closest != place) {
+				float d2 = candidateDistance2[place];
+				candidateDistance2[place] = candidateDistance2[closest];
+				candidateDistance2[closest] = d2;
+				int i = candidates.get(place);
+				candidates.set(place, candidates.get(closest));
+				candidates.set(closest, i);
+			}
+			out.add(candidates.get(place));
+		}
+	}
+
+	private static boolean closer(float d2, int i, float otherD2, int other) {
+		// NaN positions go last
+		if (Float.isNaN(otherD2)) {
+			return !Float.isNaN(d2) || i < other;
+		}
+		return d2 < otherD2 || (d2 == otherD2 && i < other);
+	}
+
+	private void startReporting(BodyStore bodies) {
+		query++;
+		if (reported.length < bodies.size() || query == Integer.MAX_VALUE) {
+			reported = new int[Math.max(bodies.size(), reported.length)];
+			query = 1;
+		}
+	}
+
+	private void report(IntList indices, IntList out) {
+		for (int k = 0; k < indices.size(); k++) {
+			report(indices.get(k), out);
+		}
+	}
+
+	private void report(int i, IntList out) {
+		if (reported[i] != query) {
+			reported[i] = query;
+			out.add(i);
+		}
+	}
+
+	private static float distance2(BodyStore bodies, int i, float x, float y) {
+		float dx = bodies.x[i] - x;
+		float dy = bodies.y[i] - y;
+		return dx * dx + dy * dy;
+	}
+
+	private static boolean inRectangle(BodyStore bodies, int i, float left, float top, float right, float bottom) {
+		return bodies.x[i] >= left && bodies.x[i] <= right && bodies.y[i] >= top && bodies.y[i] <= bottom;
+	}
+
+}
@@ -0,0 +1,355 @@
+package app;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * What each step of a {@link Universe} cost: the time spent in each phase, the size of the gravity solver's tree,
+ * how many pulls each body took, how many bodies collided, and how much memory the stepping threads allocated.
+ *
+ * The universe fills these in from the thread that steps it, and publishes them at the end of each step, so
+ * they can be read from any other thread, e.g. the render thread or JMX once {@link #register} has been called.
+ * A reader may see a mix of two steps while one is being published. Collecting them allocates nothing and costs a
+ * few clock reads per phase, so it is always on.
+ */
+public class StepMetrics implements StepMetricsMXBean {
+
+	public static final String DEFAULT_NAME = "app:type=StepMetrics";
+
+	/**
+	 * The phases a step's time is divided into. Leapfrog kicks are counted with the forces they follow.
+	 */
+	public enum Phase {
+		TREE_BUILD, FORCES, COLLISIONS, INTEGRATION
+	}
+
+	private static final int PHASES = Phase.values().length;
+	// Per-thread allocation counters, or null if the JVM doesn't keep them
+	private static final com.sun.management.ThreadMXBean ALLOCATION = allocationBean();
+
+	// Time of each phase so far in the step being taken, only touched by the stepping thread
+	private final long[] running = new long[PHASES];
+	private long stepStart;
+	private long allocationStart;
+	private long interactionStart;
+	private int runningCollisions;
+	private int runningMerged;
+
+	// The last step, by phase, and the sums over every step since the last reset
+	private final AtomicLongArray lastPhase = new AtomicLongArray(PHASES);
+	private final AtomicLongArray totalPhase = new AtomicLongArray(PHASES);
+	private volatile long steps;
+	private volatile long stepNanos;
+	private volatile int bodies;
+	private volatile int nodeCount;
+	private volatile int maxDepth;
+	private volatile double interactionsPerBody;
+	private volatile int collisions;
+	private volatile int merged;
+	private volatile long allocatedBytes = -1;
+	private volatile long nanCount;
+
+	private volatile long averagedSteps;
+	private volatile long totalStepNanos;
+	private volatile long totalInteractions;
+	private volatile long totalEvaluations;
+	private volatile long totalCollisions;
+	private volatile long totalAllocatedBytes;
+	private volatile boolean resetRequested;
+
+	private ObjectName registeredName;
+
+	/**
+	 * Register with the platform MBean server under the given name, e.g. {@link #DEFAULT_NAME}.
+	 */
+	public synchronized void register(String name) throws JMException {
+		ObjectName objectName = new ObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		registeredName = objectName;
+	}
+
+	/**
+	 * Remove the registration made by {@link #register}, if there is one.
+	 */
+	public synchronized void unregister() throws JMException {
+		if (registeredName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+			registeredName = null;
+		}
+	}
+
+	/**
+	 * Called by the universe at the start of a step.
+	 */
+	void beginStep(Parallel parallel, GravitySolver solver) {
+		for (int phase = 0; phase < PHASES; phase++) {
+			running[phase] = 0;
+		}
+		runningCollisions = 0;
+		runningMerged = 0;
+		interactionStart = solver.getInteractionCount();
+		allocationStart = allocatedBytes(parallel);
+		stepStart = System.nanoTime();
+	}
+
+	/**
+	 * Add the time since start, from {@link System#nanoTime}, to a phase of the current step.
+	 */
+	void record(Phase phase, long start) {
+		running[phase.ordinal()] += System.nanoTime() - start;
+	}
+
+	void recordCollisions(int pairs, int mergedBodies) {
+		runningCollisions += pairs;
+		runningMerged += mergedBodies;
+	}
+
+	/**
+	 * Called by the universe at the end of a step, to publish it.
+	 * @param evaluations	Accelerations computed during the step
+	 * @param nans			NaNs counted so far, over every step
+	 */
+	void endStep(Parallel parallel, GravitySolver solver, int bodyCount, long evaluations, long nans) {
+		long elapsed = System.nanoTime() - stepStart;
+		long allocationEnd = allocatedBytes(parallel);
+		// A worker that stopped during the step takes its count with it
+		long allocated = allocationStart < 0 ? -1 : Math.max(0, allocationEnd - allocationStart);
+		long interactions = solver.getInteractionCount() - interactionStart;
+
+		if (resetRequested) {
+			resetRequested = false;
+			for (int phase = 0; phase < PHASES; phase++) {
+				totalPhase.set(phase, 0);
+			}
+			averagedSteps = 0;
+			totalStepNanos = 0;
+			totalInteractions = 0;
+			totalEvaluations = 0;
+			totalCollisions = 0;
+			totalAllocatedBytes = 0;
+		}
+		for (int phase = 0; phase < PHASES; phase++) {
+			lastPhase.set(phase, running[phase]);
+			totalPhase.set(phase, totalPhase.get(phase) + running[phase]);
+		}
+		stepNanos = elapsed;
+		bodies = bodyCount;
+		nodeCount = solver.getNodeCount();
+		maxDepth = solver.getMaxDepth();
+		interactionsPerBody = evaluations > 0 ? (double) interactions / evaluations : 0;
+		collisions = runningCollisions;
+		merged = runningMerged;
+		allocatedBytes = allocated;
+		nanCount = nans;
+
+		averagedSteps = averagedSteps + 1;
+		totalStepNanos = totalStepNanos + elapsed;
+		totalInteractions = totalInteractions + interactions;
+		totalEvaluations = totalEvaluations + evaluations;
+		totalCollisions = totalCollisions + runningCollisions;
+		totalAllocatedBytes = allocated < 0 ? -1 : totalAllocatedBytes + allocated;
+		steps = steps + 1;
+	}
+
+	/**
+	 * @return Bytes allocated so far by the calling thread and the workers, or -1 if the JVM can't tell.
+	 */
+	private static long allocatedBytes(Parallel parallel) {
+		if (ALLOCATION == null) {
+			return -1;
+		}
+		long bytes = ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+		for (Thread worker : parallel.getWorkers()) {
+			// -1 once the worker has stopped
+			bytes += Math.max(0, ALLOCATION.getThreadAllocatedBytes(worker.getId()));
+		}
+		return bytes;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+		if (!bean.isThreadAllocatedMemorySupported()) {
+			return null;
+		}
+		bean.setThreadAllocatedMemoryEnabled(true);
+		return bean;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private double average(double total) {
+		long n = averagedSteps;
+		return n > 0 ? total / n : 0;
+	}
+
+	/**
+	 * @return The time spent in a phase during the last step, in milliseconds.
+	 */
+	public double getMillis(Phase phase) {
+		return millis(lastPhase.get(phase.ordinal()));
+	}
+
+	/**
+	 * @return The average time spent in a phase per step since the last reset, in milliseconds.
+	 */
+	public double getAverageMillis(Phase phase) {
+		return average(millis(totalPhase.get(phase.ordinal())));
+	}
+
+	@Override
+	public long getSteps() {
+		return steps;
+	}
+
+	@Override
+	public double getStepMillis() {
+		return millis(stepNanos);
+	}
+
+	@Override
+	public double getTreeBuildMillis() {
+		return getMillis(Phase.TREE_BUILD);
+	}
+
+	@Override
+	public double getForceMillis() {
+		return getMillis(Phase.FORCES);
+	}
+
+	@Override
+	public double getCollisionMillis() {
+		return getMillis(Phase.COLLISIONS);
+	}
+
+	@Override
+	public double getIntegrationMillis() {
+		return getMillis(Phase.INTEGRATION);
+	}
+
+	/**
+	 * @return The number of bodies left at the end of the last step.
+	 */
+	@Override
+	public int getBodies() {
+		return bodies;
+	}
+
+	/**
+	 * @return The number of nodes in the gravity solver's tree at the end of the last step.
+	 */
+	@Override
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return The number of nodes, cells or bodies that pulled on each body whose acceleration was computed in
+	 * the last step, on average.
+	 */
+	@Override
+	public double getInteractionsPerBody() {
+		return interactionsPerBody;
+	}
+
+	/**
+	 * @return The number of overlapping pairs found in the last step.
+	 */
+	@Override
+	public int getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * @return The number of bodies merged into others and removed in the last step.
+	 */
+	@Override
+	public int getMergedBodies() {
+		return merged;
+	}
+
+	/**
+	 * @return Bytes allocated by the stepping thread and the workers during the last step, or -1 if the JVM
+	 * doesn't count them.
+	 */
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return The number of NaNs met in the tree and the bodies' pulls so far, over every step.
+	 */
+	@Override
+	public long getNanCount() {
+		return nanCount;
+	}
+
+	@Override
+	public double getAverageStepMillis() {
+		return average(millis(totalStepNanos));
+	}
+
+	@Override
+	public double getAverageTreeBuildMillis() {
+		return getAverageMillis(Phase.TREE_BUILD);
+	}
+
+	@Override
+	public double getAverageForceMillis() {
+		return getAverageMillis(Phase.FORCES);
+	}
+
+	@Override
+	public double getAverageCollisionMillis() {
+		return getAverageMillis(Phase.COLLISIONS);
+	}
+
+	@Override
+	public double getAverageIntegrationMillis() {
+		return getAverageMillis(Phase.INTEGRATION);
+	}
+
+	@Override
+	public double getAverageInteractionsPerBody() {
+		long evaluations = totalEvaluations;
+		return evaluations > 0 ? (double) totalInteractions / evaluations : 0;
+	}
+
+	@Override
+	public double getAverageCollisions() {
+		return average(totalCollisions);
+	}
+
+	/**
+	 * @return The average of {@link #getAllocatedBytes}, or -1 if the JVM doesn't count allocations.
+	 */
+	@Override
+	public double getAverageAllocatedBytes() {
+		long total = totalAllocatedBytes;
+		return total < 0 ? -1 : average(total);
+	}
+
+	/**
+	 * Start the averages again. Takes effect at the end of the next step, so it can be called from any thread.
+	 */
+	@Override
+	public void reset() {
+		resetRequested = true;
+	}
+
+}
@@ -0,0 +1,59 @@
+package app;
+
+/**
+ * Management interface of {@link StepMetrics}, as seen through JMX (e.g. in JConsole or VisualVM). Times are in
+ * milliseconds. The plain values are those of the last step, and the averages run over every step since the
+ * last {@link #reset}.
+ */
+public interface StepMetricsMXBean {
+
+	long getSteps();
+
+	double getStepMillis();
+
+	double getTreeBuildMillis();
+
+	double getForceMillis();
+
+	double getCollisionMillis();
+
+	double getIntegrationMillis();
+
+	int getBodies();
+
+	int getNodeCount();
+
+	int getMaxDepth();
+
+	double getInteractionsPerBody();
+
+	int getCollisions();
+
+	int getMergedBodies();
+
+	long getAllocatedBytes();
+
+	long getNanCount();
+
+	double getAverageStepMillis();
+
+	double getAverageTreeBuildMillis();
+
+	double getAverageForceMillis();
+
+	double getAverageCollisionMillis();
+
+	double getAverageIntegrationMillis();
+
+	double getAverageInteractionsPerBody();
+
+	double getAverageCollisions();
+
+	double getAverageAllocatedBytes();
+
+	/**
+	 * Start the averages again from the next step.
+	 */
+	void reset();
+
+}
@@ -0,0 +1,371 @@
+package app;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs many independent headless universes at once, one for every combination of the physics settings given,
+ * and reports how each run went, so that a setting can be tuned in one process rather than one process a run.
+ *
+ * Usage: SweepRunner [--sun-mass values] [--gravity values] [--velocity values] [--theta values] [--seeds n]
+ *                    [--random count] [--distribution uniform|clustered|disk] [--steps budget]
+ *                    [--integrator euler|leapfrog|velocity_verlet] [--softening length] [--concurrency n]
+ *                    [--output file.csv]
+ *
+ * Each list of values is comma separated, e.g. --gravity 0.05,0.07,0.1, and defaults to the value in
+ * {@link Config}. Every combination of the values is run once for each seed from 1 to --seeds. The runs share a
+ * fixed pool of --concurrency threads (by default one per core), and each steps its universe on the thread it
+ * runs on, so only that many universes are in memory at once however many runs there are. A run stops after
+ * --steps updates, or as soon as its bodies are all gone or a NaN appears.
+ *
+ * One line per run is written as it finishes, as CSV, to --output or the standard output, followed by the
+ * mean and spread over the seeds of each combination.
+ */
+public class SweepRunner {
+
+	private static final String COLUMNS = "sun_mass,gravity,velocity,theta,seed,steps,seconds,steps_per_second,"
+			+ "bodies,remaining,merged,bound,escaped,nans,error";
+
+	/**
+	 * The settings of one run.
+	 */
+	static class Run {
+		final float sunMass;
+		final float gravityConstant;
+		final float velocity;
+		final float openingAngle;
+		final long seed;
+
+		Run(float sunMass, float gravityConstant, float velocity, float openingAngle, long seed) {
+			this.sunMass = sunMass;
+			this.gravityConstant = gravityConstant;
+			this.velocity = velocity;
+			this.openingAngle = openingAngle;
+			this.seed = seed;
+		}
+
+		boolean sameSettings(Run other) {
+			return sunMass == other.sunMass && gravityConstant == other.gravityConstant && velocity == other.velocity
+					&& openingAngle == other.openingAngle;
+		}
+	}
+
+	/**
+	 * How a run went.
+	 */
+	static class Result {
+		final Run run;
+		long steps;
+		double seconds;
+		int bodies;
+		int remaining;
+		// Bodies in orbit around the sun at the end, and bodies outside the universe's area
+		int bound;
+		int escaped;
+		long nans;
+		String error;
+
+		Result(Run run) {
+			this.run = run;
+		}
+
+		double getStepsPerSecond() {
+			return seconds > 0 ? steps / seconds : 0;
+		}
+
+		/**
+		 * @return Fraction of the bodies still there at the end that are in orbit around the sun.
+		 */
+		double getBoundFraction() {
+			return remaining > 0 ? (double) bound / remaining : 0;
+		}
+
+		String toCsv() {
+			return String.format(Locale.ROOT, "%s,%s,%s,%s,%d,%d,%.3f,%.1f,%d,%d,%d,%d,%d,%d,%s",
+					run.sunMass, run.gravityConstant, run.velocity, run.openingAngle, run.seed, steps, seconds,
+					getStepsPerSecond(), bodies, remaining, bodies - remaining, bound, escaped, nans,
+					error != null ? error.replace(',', ';') : "");
+		}
+	}
+
+	public static void main(String[] args) {
+		float[] sunMasses = { Config.SUN_MASS };
+		float[] gravityConstants = { Config.GRAVITY_CONSTANT };
+		float[] velocities = { Config.NODE_DEFAULT_VELOCITY };
+		float[] openingAngles = { Config.GRAVITATIONAL_FUDGE_FACTOR };
+		int seeds = 1;
+		int count = 1000;
+		InitialConditions.Distribution distribution = InitialConditions.Distribution.UNIFORM;
+		int steps = 1000;
+		Integrator integrator = Integrator.EULER;
+		float softening = 0;
+		int concurrency = Runtime.getRuntime().availableProcessors();
+		String output = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--sun-mass")) {
+					sunMasses = parseValues(args[++i]);
+				}
+				else if (arg.equals("--gravity")) {
+					gravityConstants = parseValues(args[++i]);
+				}
+				else if (arg.equals("--velocity")) {
+					velocities = parseValues(args[++i]);
+				}
+				else if (arg.equals("--theta")) {
+					openingAngles = parseValues(args[++i]);
+				}
+				else if (arg.equals("--seeds")) {
+					seeds = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--random")) {
+					count = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--distribution")) {
+					distribution = InitialConditions.Distribution.valueOf(args[++i].toUpperCase());
+				}
+				else if (arg.equals("--steps")) {
+					steps = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--integrator")) {
+					integrator = Integrator.valueOf(args[++i].toUpperCase());
+				}
+				else if (arg.equals("--softening")) {
+					softening = Float.parseFloat(args[++i]);
+				}
+				else if (arg.equals("--concurrency")) {
+					concurrency = Integer.parseInt(args[++i]);
+				}
+				else if (arg.equals("--output")) {
+					output = args[++i];
+				}
+				else {
+					usage("Unknown argument " + arg);
+					return;
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			usage("Missing value for " + args[args.length - 1]);
+			return;
+		}
+		catch (IllegalArgumentException e) {
+			usage(e.getMessage());
+			return;
+		}
+		if (seeds < 1 || steps < 0 || concurrency < 1) {
+			usage("--seeds and --concurrency must be at least 1, and --steps not negative");
+			return;
+		}
+
+		List<Run> runs = new ArrayList<Run>();
+		for (float sunMass : sunMasses) {
+			for (float gravityConstant : gravityConstants) {
+				for (float velocity : velocities) {
+					for (float openingAngle : openingAngles) {
+						for (long seed = 1; seed <= seeds; seed++) {
+							runs.add(new Run(sunMass, gravityConstant, velocity, openingAngle, seed));
+						}
+					}
+				}
+			}
+		}
+
+		PrintWriter out;
+		try {
+			out = output != null ? new PrintWriter(Files.newBufferedWriter(Paths.get(output))) : new PrintWriter(System.out);
+		} catch (IOException e) {
+			System.err.println("Failed to open " + output + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		System.err.println(String.format("%d runs of up to %d steps, %d bodies each, %d at a time", runs.size(), steps,
+				count, concurrency));
+
+		BodyNames.init();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		CompletionService<Result> completion = new ExecutorCompletionService<Result>(executor);
+		for (Run run : runs) {
+			final int bodies = count;
+			final InitialConditions.Distribution layout = distribution;
+			final int budget = steps;
+			final Integrator chosen = integrator;
+			final float length = softening;
+			completion.submit(() -> run(run, layout, bodies, budget, chosen, length));
+		}
+		Result[] results = new Result[runs.size()];
+		long start = System.nanoTime();
+		out.println(COLUMNS);
+		try {
+			for (int k = 0; k < runs.size(); k++) {
+				Result result = completion.take().get();
+				results[runs.indexOf(result.run)] = result;
+				out.println(result.toCsv());
+				out.flush();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+			return;
+		}
+		catch (ExecutionException e) {
+			// run catches everything a universe can throw, so this is a bug in the runner
+			throw new IllegalStateException(e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+		out.println();
+		summarize(results, out);
+		out.close();
+		System.err.println(String.format("Done in %.1fs", (System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * Make and step one universe, on the calling thread.
+	 */
+	static Result run(Run run, InitialConditions.Distribution distribution, int count, int steps, Integrator integrator,
+			float softening) {
+		Result result = new Result(run);
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		try {
+			Body sun = universe.getSun();
+			universe.setSun(new Body(sun.getName(), sun.getX(), sun.getY(), run.sunMass, sun.getRadius()));
+			universe.setGravityConstant(run.gravityConstant);
+			universe.setNewBodyVelocity(run.velocity);
+			universe.setOpeningAngle(run.openingAngle);
+			universe.setIntegrator(integrator);
+			universe.setSoftening(softening);
+			universe.setRandomSeed(run.seed);
+			InitialConditions.generate(universe, distribution, count, run.seed);
+			result.bodies = universe.getNumberOfBodies();
+
+			long start = System.nanoTime();
+			while (universe.getSteps() < steps && universe.getNumberOfBodies() > 0
+					&& universe.getMetrics().getNanCount() == 0) {
+				universe.update();
+			}
+			result.seconds = (System.nanoTime() - start) / 1e9;
+		}
+		catch (RuntimeException e) {
+			result.error = e.toString();
+		}
+		finally {
+			universe.shutdown();
+		}
+		result.steps = universe.getSteps();
+		result.nans = universe.getMetrics().getNanCount();
+		result.remaining = universe.getNumberOfBodies();
+		countOrbits(universe, result);
+		return result;
+	}
+
+	/**
+	 * Count the bodies whose speed is below the sun's escape speed where they are, and those that have left the
+	 * area the bodies were placed in.
+	 */
+	private static void countOrbits(Universe universe, Result result) {
+		BodyStore bodies = universe.getBodies();
+		Body sun = universe.getSun();
+		float gm = universe.getGravityConstant() * sun.getMass();
+		for (int i = 0; i < bodies.size(); i++) {
+			float x = bodies.x[i];
+			float y = bodies.y[i];
+			float speed2 = bodies.vx[i] * bodies.vx[i] + bodies.vy[i] * bodies.vy[i];
+			if (speed2 < 2 * gm / sun.distanceTo(x, y)) {
+				result.bound++;
+			}
+			if (!(x >= 0 && x <= universe.getWidth() && y >= 0 && y <= universe.getHeight())) {
+				result.escaped++;
+			}
+		}
+	}
+
+	/**
+	 * Print the mean and standard deviation over the seeds of each combination of settings.
+	 */
+	private static void summarize(Result[] results, PrintWriter out) {
+		out.println("sun_mass,gravity,velocity,theta,runs,failed,steps_per_second,sd,remaining,sd,bound_fraction,sd,nan_runs");
+		int from = 0;
+		while (from < results.length) {
+			int to = from + 1;
+			while (to < results.length && results[to].run.sameSettings(results[from].run)) {
+				to++;
+			}
+			double[] rate = new double[to - from];
+			double[] remaining = new double[to - from];
+			double[] bound = new double[to - from];
+			int failed = 0;
+			int nanRuns = 0;
+			for (int k = from; k < to; k++) {
+				Result result = results[k];
+				rate[k - from] = result.getStepsPerSecond();
+				remaining[k - from] = result.remaining;
+				bound[k - from] = result.getBoundFraction();
+				if (result.error != null) {
+					failed++;
+				}
+				if (result.nans > 0) {
+					nanRuns++;
+				}
+			}
+			Run run = results[from].run;
+			out.println(String.format(Locale.ROOT, "%s,%s,%s,%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.3f,%.3f,%d",
+					run.sunMass, run.gravityConstant, run.velocity, run.openingAngle, to - from, failed,
+					mean(rate), deviation(rate), mean(remaining), deviation(remaining), mean(bound), deviation(bound),
+					nanRuns));
+			from = to;
+		}
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	private static double deviation(double[] values) {
+		if (values.length < 2) {
+			return 0;
+		}
+		double mean = mean(values);
+		double sum = 0;
+		for (double value : values) {
+			sum += (value - mean) * (value - mean);
+		}
+		return Math.sqrt(sum / (values.length - 1));
+	}
+
+	private static float[] parseValues(String list) {
+		String[] parts = list.split(",");
+		float[] values = new float[parts.length];
+		for (int k = 0; k < parts.length; k++) {
+			values[k] = Float.parseFloat(parts[k].trim());
+		}
+		return values;
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println("Usage: SweepRunner [--sun-mass values] [--gravity values] [--velocity values] [--theta values]"
+				+ " [--seeds n] [--random count] [--distribution uniform|clustered|disk] [--steps budget]"
+				+ " [--integrator euler|leapfrog|velocity_verlet] [--softening length] [--concurrency n]"
+				+ " [--output file.csv]");
+		System.exit(1);
+	}
+
+}
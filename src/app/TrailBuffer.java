@@ -0,0 +1,170 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * The last few positions of every body in a {@link BodyStore}, for drawing trails. Every body's samples are kept
+ * in one float array, a ring of length slots that each hold an (x, y) pair for every body, and all bodies are
+ * sampled at once, so one head serves every body and recording a sample is a sweep through one slot. Each store
+ * index is mapped to its row of the slots rather than owning a fixed one, so that when the store moves a body into
+ * another index the two rows are swapped instead of copied.
+ *
+ * With a length of 0 nothing is kept and nothing is allocated.
+ */
+public class TrailBuffer {
+
+	// Samples kept for each body
+	private int length;
+	// Slot s holds the (x, y) pair of row r at (s * capacity + r) * 2
+	private float[] points = new float[0];
+	// Rows in each slot
+	private int capacity;
+	// Row of each store index
+	private int[] rowOf = new int[0];
+	// Samples recorded for each store index, up to length
+	private int[] count = new int[0];
+	// Slot the next sample goes into, the same in every row
+	private int head;
+
+	/**
+	 * Set the number of samples kept for each body, dropping every trail.
+	 * @param capacity	Bodies to make room for
+	 */
+	void setLength(int length, int capacity) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Trail length must not be negative: " + length);
+		}
+		this.length = length;
+		points = new float[0];
+		rowOf = new int[0];
+		count = new int[0];
+		this.capacity = 0;
+		head = 0;
+		ensureCapacity(capacity);
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Make room for the trails of at least capacity bodies.
+	 */
+	void ensureCapacity(int capacity) {
+		if (length == 0 || this.capacity >= capacity) {
+			return;
+		}
+		int old = this.capacity;
+		float[] grown = new float[capacity * length * 2];
+		for (int slot = 0; slot < length; slot++) {
+			System.arraycopy(points, slot * old * 2, grown, slot * capacity * 2, old * 2);
+		}
+		points = grown;
+		rowOf = Arrays.copyOf(rowOf, capacity);
+		count = Arrays.copyOf(count, capacity);
+		for (int i = old; i < capacity; i++) {
+			rowOf[i] = i;
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Forget the trail of the body at an index, e.g. one just added.
+	 */
+	void reset(int index) {
+		if (length > 0) {
+			count[index] = 0;
+		}
+	}
+
+	/**
+	 * Forget every trail.
+	 */
+	void clear() {
+		Arrays.fill(count, 0);
+	}
+
+	/**
+	 * Give the trail of the body at one index to another index, whose body is being removed, by swapping their
+	 * rows.
+	 */
+	void move(int from, int to) {
+		if (length == 0) {
+			return;
+		}
+		int row = rowOf[to];
+		rowOf[to] = rowOf[from];
+		rowOf[from] = row;
+		count[to] = count[from];
+		count[from] = 0;
+	}
+
+	/**
+	 * Write the current position of the bodies from one index up to another into the head slot. Different ranges
+	 * can be recorded from different threads; call {@link #advance} once they are all done.
+	 */
+	void record(BodyStore bodies, int from, int to) {
+		int start = head * capacity;
+		for (int i = from; i < to; i++) {
+			int p = (start + rowOf[i]) * 2;
+			points[p] = bodies.x[i];
+			points[p + 1] = bodies.y[i];
+			if (count[i] < length) {
+				count[i]++;
+			}
+		}
+	}
+
+	/**
+	 * Move on to the next slot, after a sample has been recorded for every body.
+	 */
+	void advance() {
+		if (length > 0) {
+			head = head + 1 == length ? 0 : head + 1;
+		}
+	}
+
+	/**
+	 * Make this buffer a copy of another, e.g. for a snapshot. Costs three array copies.
+	 */
+	void copyFrom(TrailBuffer other) {
+		if (length != other.length || capacity != other.capacity) {
+			length = other.length;
+			capacity = other.capacity;
+			points = new float[other.points.length];
+			rowOf = new int[other.rowOf.length];
+			count = new int[other.count.length];
+		}
+		System.arraycopy(other.points, 0, points, 0, points.length);
+		System.arraycopy(other.rowOf, 0, rowOf, 0, rowOf.length);
+		System.arraycopy(other.count, 0, count, 0, count.length);
+		head = other.head;
+	}
+
+	/**
+	 * @return The number of samples in the trail of the body at an index.
+	 */
+	public int getCount(int index) {
+		return length == 0 ? 0 : count[index];
+	}
+
+	/**
+	 * @param k	Age of the sample, 0 for the newest up to {@link #getCount} - 1 for the oldest
+	 */
+	public float getX(int index, int k) {
+		return points[slot(index, k)];
+	}
+
+	public float getY(int index, int k) {
+		return points[slot(index, k) + 1];
+	}
+
+	private int slot(int index, int k) {
+		int slot = head - 1 - k;
+		if (slot < 0) {
+			slot += length;
+		}
+		return (slot * capacity + rowOf[index]) * 2;
+	}
+
+}
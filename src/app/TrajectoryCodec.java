@@ -0,0 +1,263 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Turns trajectory frames into the bytes of a {@link TrajectoryRecorder} file and back. The recorder and the
+ * reader each keep one, which remembers the last frame it coded, so that the next can be stored as the change
+ * from it.
+ *
+ * A frame is stored column by column: the ids, then x, y, vx, vy and mass. Each value is turned into a word:
+ * its float bits, or, for a quantized column, the nearest multiple of the column's quantum. With delta coding,
+ * a body that was in the frame before is stored as the change in its word since then (the difference of the
+ * quantized words, or the exclusive or of the float bits), which is small for bodies that moved little, and
+ * each id as the difference from the id at the same index before. Words are written as variable-length
+ * integers, seven bits a byte, so a small change takes a byte or two. Lossless columns without delta coding
+ * are written as plain floats. A key frame, the first of each chunk, is coded on its own, so that any frame
+ * can be decoded starting from the key frame before it.
+ */
+class TrajectoryCodec {
+
+	static final int COLUMNS = 5;
+	// Most bytes a value can take: a 64 bit word, seven bits a byte
+	private static final int MAX_VALUE_BYTES = 10;
+
+	private final boolean delta;
+	// Quantum of each column, 0 for lossless
+	private final float[] quantum;
+
+	// Number of the frame coded last, and the word of each column for each id in it
+	private int lastFrame = -1;
+	private long[][] previous = new long[COLUMNS][0];
+	// One more than the number of the last frame each id was in
+	private int[] seenIn = new int[0];
+	private int[] previousIds = new int[0];
+	private int previousSize;
+
+	// Encoded bytes of the last frame encoded
+	private byte[] bytes = new byte[0];
+	private int length;
+	private int position;
+
+	TrajectoryCodec(boolean delta, float positionQuantum, float velocityQuantum) {
+		this.delta = delta;
+		quantum = new float[] { positionQuantum, positionQuantum, velocityQuantum, velocityQuantum, 0 };
+	}
+
+	/**
+	 * Encode a frame into {@link #getBytes}.
+	 * @param key	Whether to code the frame on its own. Otherwise the frame before must be the last one coded.
+	 */
+	void encode(TrajectoryFrame frame, int number, boolean key) {
+		boolean relative = start(number, key);
+		int n = frame.size;
+		ensureBytes(n * (1 + COLUMNS) * MAX_VALUE_BYTES);
+		length = 0;
+		for (int i = 0; i < n; i++) {
+			int id = frame.ids[i];
+			if (relative && i < previousSize) {
+				putVarint(zigzag((long) id - previousIds[i]));
+			}
+			else {
+				putVarint(id);
+			}
+		}
+		growIds(frame.ids, n);
+		for (int c = 0; c < COLUMNS; c++) {
+			float[] values = column(frame, c);
+			long[] words = previous[c];
+			float q = quantum[c];
+			for (int i = 0; i < n; i++) {
+				int id = frame.ids[i];
+				long word = q > 0 ? Math.round((double) values[i] / q) : Float.floatToRawIntBits(values[i]) & 0xffffffffL;
+				if (relative && seenIn[id] == number) {
+					putVarint(q > 0 ? zigzag(word - words[id]) : word ^ words[id]);
+				}
+				else if (q > 0) {
+					putVarint(zigzag(word));
+				}
+				else if (delta) {
+					putVarint(word);
+				}
+				else {
+					putFloat(values[i]);
+				}
+				words[id] = word;
+			}
+		}
+		finish(frame, number);
+	}
+
+	/**
+	 * Decode a frame from bytes[0..length).
+	 * @param key	Whether the frame was coded on its own. Otherwise the frame before must be the last one decoded.
+	 * @throws IllegalArgumentException	If the bytes don't hold a frame of that many bodies.
+	 */
+	void decode(byte[] bytes, int length, int number, boolean key, TrajectoryFrame frame) {
+		boolean relative = start(number, key);
+		this.bytes = bytes;
+		this.length = length;
+		position = 0;
+		int n = frame.size;
+		for (int i = 0; i < n; i++) {
+			long id = relative && i < previousSize ? previousIds[i] + unzigzag(getVarint()) : getVarint();
+			if (id < 0 || id > Integer.MAX_VALUE - 1) {
+				throw new IllegalArgumentException("Bad id " + id + " at index " + i);
+			}
+			frame.ids[i] = (int) id;
+		}
+		growIds(frame.ids, n);
+		for (int c = 0; c < COLUMNS; c++) {
+			float[] values = column(frame, c);
+			long[] words = previous[c];
+			float q = quantum[c];
+			for (int i = 0; i < n; i++) {
+				int id = frame.ids[i];
+				long word;
+				if (relative && seenIn[id] == number) {
+					word = q > 0 ? words[id] + unzigzag(getVarint()) : words[id] ^ getVarint();
+				}
+				else if (q > 0) {
+					word = unzigzag(getVarint());
+				}
+				else if (delta) {
+					word = getVarint();
+				}
+				else {
+					word = Float.floatToRawIntBits(getFloat()) & 0xffffffffL;
+				}
+				values[i] = q > 0 ? (float) (word * (double) q) : Float.intBitsToFloat((int) word);
+				words[id] = word;
+			}
+		}
+		if (position != length) {
+			throw new IllegalArgumentException("Frame holds " + length + " bytes, decoded " + position);
+		}
+		finish(frame, number);
+	}
+
+	/**
+	 * @return Whether the frame is coded against the one before.
+	 */
+	private boolean start(int number, boolean key) {
+		if (!delta || key) {
+			return false;
+		}
+		if (lastFrame != number - 1) {
+			throw new IllegalStateException("Frame " + number + " follows frame " + lastFrame);
+		}
+		return true;
+	}
+
+	private void finish(TrajectoryFrame frame, int number) {
+		int n = frame.size;
+		for (int i = 0; i < n; i++) {
+			seenIn[frame.ids[i]] = number + 1;
+		}
+		if (previousIds.length < n) {
+			previousIds = new int[Math.max(n, previousIds.length * 2)];
+		}
+		System.arraycopy(frame.ids, 0, previousIds, 0, n);
+		previousSize = n;
+		lastFrame = number;
+	}
+
+	/**
+	 * Make room in the per-id arrays for every id of a frame.
+	 */
+	private void growIds(int[] ids, int n) {
+		int largest = -1;
+		for (int i = 0; i < n; i++) {
+			largest = Math.max(largest, ids[i]);
+		}
+		if (largest >= seenIn.length) {
+			int capacity = Math.max(largest + 1, seenIn.length * 2);
+			seenIn = Arrays.copyOf(seenIn, capacity);
+			for (int c = 0; c < COLUMNS; c++) {
+				previous[c] = Arrays.copyOf(previous[c], capacity);
+			}
+		}
+	}
+
+	private static float[] column(TrajectoryFrame frame, int c) {
+		switch (c) {
+		case 0:
+			return frame.x;
+		case 1:
+			return frame.y;
+		case 2:
+			return frame.vx;
+		case 3:
+			return frame.vy;
+		default:
+			return frame.mass;
+		}
+	}
+
+	byte[] getBytes() {
+		return bytes;
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	private void ensureBytes(long capacity) {
+		if (capacity > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Frame too large to encode: " + capacity + " bytes");
+		}
+		if (bytes.length < capacity) {
+			bytes = new byte[(int) Math.max(capacity, Math.min(Integer.MAX_VALUE - 8, bytes.length * 2L))];
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private void putVarint(long value) {
+		while ((value & ~0x7fL) != 0) {
+			bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[length++] = (byte) value;
+	}
+
+	private void putFloat(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		bytes[length++] = (byte) bits;
+		bytes[length++] = (byte) (bits >> 8);
+		bytes[length++] = (byte) (bits >> 16);
+		bytes[length++] = (byte) (bits >> 24);
+	}
+
+	private long getVarint() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (position >= length) {
+				throw new IllegalArgumentException("Frame ends inside a value");
+			}
+			byte b = bytes[position++];
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Value longer than 64 bits");
+	}
+
+	private float getFloat() {
+		if (position + 4 > length) {
+			throw new IllegalArgumentException("Frame ends inside a value");
+		}
+		int bits = (bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8 | (bytes[position + 2] & 0xff) << 16
+				| (bytes[position + 3] & 0xff) << 24;
+		position += 4;
+		return Float.intBitsToFloat(bits);
+	}
+
+}
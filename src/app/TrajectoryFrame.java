@@ -0,0 +1,99 @@
+package app;
+
+/**
+ * The bodies of one recorded step: the id, position, velocity and mass of each, in store order. Filled in by
+ * {@link TrajectoryReader#readFrame}, and reused by {@link TrajectoryRecorder} to carry a step to its writer.
+ */
+public class TrajectoryFrame {
+
+	long step;
+	int size;
+	int[] ids = new int[0];
+	float[] x = new float[0];
+	float[] y = new float[0];
+	float[] vx = new float[0];
+	float[] vy = new float[0];
+	float[] mass = new float[0];
+
+	/**
+	 * Grow the arrays, if needed, to hold at least capacity bodies. What is held is lost.
+	 */
+	void ensureCapacity(int capacity) {
+		if (ids.length < capacity) {
+			capacity = Math.max(capacity, ids.length + ids.length / 2);
+			ids = new int[capacity];
+			x = new float[capacity];
+			y = new float[capacity];
+			vx = new float[capacity];
+			vy = new float[capacity];
+			mass = new float[capacity];
+		}
+	}
+
+	/**
+	 * Take the bodies of a store as they are at a step. Costs a few array copies.
+	 */
+	void copyFrom(BodyStore bodies, long step) {
+		int n = bodies.size();
+		ensureCapacity(n);
+		for (int i = 0; i < n; i++) {
+			ids[i] = bodies.idAt(i);
+		}
+		System.arraycopy(bodies.x, 0, x, 0, n);
+		System.arraycopy(bodies.y, 0, y, 0, n);
+		System.arraycopy(bodies.vx, 0, vx, 0, n);
+		System.arraycopy(bodies.vy, 0, vy, 0, n);
+		System.arraycopy(bodies.mass, 0, mass, 0, n);
+		this.step = step;
+		size = n;
+	}
+
+	/**
+	 * @return The step of the universe the frame was recorded at, as counted by {@link Universe#getSteps}.
+	 */
+	public long getStep() {
+		return step;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getId(int index) {
+		return ids[index];
+	}
+
+	public float getX(int index) {
+		return x[index];
+	}
+
+	public float getY(int index) {
+		return y[index];
+	}
+
+	public float getVelocityX(int index) {
+		return vx[index];
+	}
+
+	public float getVelocityY(int index) {
+		return vy[index];
+	}
+
+	public float getMass(int index) {
+		return mass[index];
+	}
+
+	/**
+	 * @return The index in this frame of the body with the given id, or -1 if it isn't in the frame. Takes time in
+	 * proportion to the size of the frame.
+	 */
+	public int indexOf(int id) {
+		for (int i = 0; i < size; i++) {
+			if (ids[i] == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
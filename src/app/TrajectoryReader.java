@@ -0,0 +1,254 @@
+package app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a file written by {@link TrajectoryRecorder}, in any order. The index at the end of the
+ * file gives where each frame starts, so reaching a frame costs decoding the frames from the key frame at the
+ * start of its chunk, or from the last frame read if that is earlier in the same chunk, as when reading in order.
+ * A file without an index, e.g. because the run died, is indexed once on opening by walking its frame headers.
+ * Not safe for use from several threads at once.
+ */
+public class TrajectoryReader implements Closeable {
+
+	private final Path path;
+	private final FileChannel channel;
+	private final int interval;
+	private final int framesPerChunk;
+	private final boolean delta;
+	private final float positionQuantum;
+	private final float velocityQuantum;
+	// The offset and step of each frame
+	private long[] offsets;
+	private long[] steps;
+	private int frameCount;
+	private final boolean indexed;
+
+	private final TrajectoryCodec codec;
+	// The frame decoded last, which the codec can carry on from
+	private int lastDecoded = -1;
+	private final ByteBuffer frameHeader = ByteBuffer.allocate(TrajectoryRecorder.FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private byte[] bytes = new byte[0];
+	// Holds the frames decoded on the way to the one asked for
+	private final TrajectoryFrame scratch = new TrajectoryFrame();
+
+	public TrajectoryReader(Path path) throws IOException {
+		this.path = path;
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(TrajectoryRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(header, 0);
+			header.flip();
+			byte[] magic = new byte[TrajectoryRecorder.MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, TrajectoryRecorder.MAGIC)) {
+				throw new IOException(path + ": not a trajectory file");
+			}
+			int version = header.getInt();
+			if (version != TrajectoryRecorder.VERSION) {
+				throw new IOException(path + ": unsupported trajectory version " + version);
+			}
+			interval = header.getInt();
+			framesPerChunk = header.getInt();
+			delta = header.getInt() != 0;
+			positionQuantum = header.getFloat();
+			velocityQuantum = header.getFloat();
+			if (framesPerChunk < 1) {
+				throw new IOException(path + ": corrupt trajectory header");
+			}
+			codec = new TrajectoryCodec(delta, positionQuantum, velocityQuantum);
+			indexed = readIndex();
+			if (!indexed) {
+				walkFrames();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the index written when the recorder closed.
+	 * @return false if there is none.
+	 */
+	private boolean readIndex() throws IOException {
+		long size = channel.size();
+		if (size < TrajectoryRecorder.HEADER_SIZE + TrajectoryRecorder.FOOTER_SIZE) {
+			return false;
+		}
+		ByteBuffer footer = ByteBuffer.allocate(TrajectoryRecorder.FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(footer, size - TrajectoryRecorder.FOOTER_SIZE);
+		footer.flip();
+		long indexAt = footer.getLong();
+		int count = footer.getInt();
+		byte[] magic = new byte[TrajectoryRecorder.END_MAGIC.length];
+		footer.get(magic);
+		if (!Arrays.equals(magic, TrajectoryRecorder.END_MAGIC) || count < 0
+				|| indexAt + 16L * count + TrajectoryRecorder.FOOTER_SIZE != size) {
+			return false;
+		}
+		ByteBuffer index = ByteBuffer.allocate(16 * count).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(index, indexAt);
+		index.flip();
+		offsets = new long[count];
+		steps = new long[count];
+		for (int k = 0; k < count; k++) {
+			offsets[k] = index.getLong();
+			steps[k] = index.getLong();
+		}
+		frameCount = count;
+		return true;
+	}
+
+	/**
+	 * Index the frames by reading each frame header in turn, up to the first one that is cut short.
+	 */
+	private void walkFrames() throws IOException {
+		long size = channel.size();
+		offsets = new long[64];
+		steps = new long[64];
+		long at = TrajectoryRecorder.HEADER_SIZE;
+		while (at + TrajectoryRecorder.FRAME_HEADER_SIZE <= size) {
+			frameHeader.clear();
+			readFully(frameHeader, at);
+			long step = frameHeader.getLong(0);
+			int length = frameHeader.getInt(16);
+			if (length < 0 || at + TrajectoryRecorder.FRAME_HEADER_SIZE + length > size) {
+				break;
+			}
+			if (frameCount == offsets.length) {
+				offsets = Arrays.copyOf(offsets, frameCount * 2);
+				steps = Arrays.copyOf(steps, frameCount * 2);
+			}
+			offsets[frameCount] = at;
+			steps[frameCount] = step;
+			frameCount++;
+			at += TrajectoryRecorder.FRAME_HEADER_SIZE + length;
+		}
+	}
+
+	/**
+	 * Decode a frame.
+	 * @param frame	Receives the frame's bodies, growing as needed, so that it can be reused from one call to the next
+	 * @throws IOException	If the frame, or one it is coded against, is corrupt.
+	 */
+	public void readFrame(int number, TrajectoryFrame frame) throws IOException {
+		if (number < 0 || number >= frameCount) {
+			throw new IndexOutOfBoundsException("Frame " + number + " of " + frameCount);
+		}
+		int key = delta ? number - number % framesPerChunk : number;
+		int from = lastDecoded >= key && lastDecoded < number ? lastDecoded + 1 : key;
+		for (int k = from; k < number; k++) {
+			decode(k, scratch);
+		}
+		decode(number, frame);
+	}
+
+	private void decode(int number, TrajectoryFrame frame) throws IOException {
+		// Forget what the codec carries over until this frame is through
+		lastDecoded = -1;
+		long at = offsets[number];
+		frameHeader.clear();
+		readFully(frameHeader, at);
+		long step = frameHeader.getLong(0);
+		int size = frameHeader.getInt(8);
+		boolean key = frameHeader.getInt(12) != 0;
+		int length = frameHeader.getInt(16);
+		if (size < 0 || length < 0 || key != (number % framesPerChunk == 0)) {
+			throw new IOException(path + ": corrupt header of frame " + number);
+		}
+		if (bytes.length < length) {
+			bytes = new byte[Math.max(length, bytes.length + bytes.length / 2)];
+		}
+		readFully(ByteBuffer.wrap(bytes, 0, length), at + TrajectoryRecorder.FRAME_HEADER_SIZE);
+		frame.ensureCapacity(size);
+		frame.size = size;
+		frame.step = step;
+		try {
+			codec.decode(bytes, length, number, key, frame);
+		}
+		catch (IllegalArgumentException | IllegalStateException e) {
+			throw new IOException(path + ": frame " + number + ": " + e.getMessage(), e);
+		}
+		lastDecoded = number;
+	}
+
+	/**
+	 * @return The number of the last frame recorded at or before a step, or -1 if there is none.
+	 */
+	public int findFrame(long step) {
+		int found = Arrays.binarySearch(steps, 0, frameCount, step);
+		return found >= 0 ? found : -found - 2;
+	}
+
+	private void readFully(ByteBuffer buffer, long at) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, at);
+			if (read < 0) {
+				throw new IOException(path + ": ends early");
+			}
+			at += read;
+		}
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return The step of the universe a frame was recorded at.
+	 */
+	public long getStep(int number) {
+		return steps[number];
+	}
+
+	/**
+	 * @return The number of steps between frames the recorder was set to.
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	public int getFramesPerChunk() {
+		return framesPerChunk;
+	}
+
+	public boolean isDelta() {
+		return delta;
+	}
+
+	/**
+	 * @return The quantum positions were rounded to, or 0 if they are exact.
+	 */
+	public float getPositionQuantum() {
+		return positionQuantum;
+	}
+
+	/**
+	 * @return The quantum velocities were rounded to, or 0 if they are exact.
+	 */
+	public float getVelocityQuantum() {
+		return velocityQuantum;
+	}
+
+	/**
+	 * @return false if the file had no index and its frames were walked instead, e.g. because the run died.
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
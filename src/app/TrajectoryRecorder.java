@@ -0,0 +1,324 @@
+package app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records the positions, velocities and masses of every body every so many steps, for analysis after the run.
+ * Give it to {@link Universe#setRecorder}, and read the file back with {@link TrajectoryReader}.
+ *
+ * The stepping thread only copies the bodies into a spare frame and queues it. A writer thread encodes the
+ * frames (see {@link TrajectoryCodec}) and appends them to the file. There is a fixed number of spare frames, so
+ * if the writer falls behind, the stepping thread waits for one to be written rather than using more and more
+ * memory; {@link #getBlockedMillis} tells how long it waited.
+ *
+ * The file is little-endian:
+ * <pre>
+ * header   HEADER_SIZE bytes: magic, version, interval, frames per chunk, delta coding and the quanta
+ * frames   for each: step (long), body count, key frame (1) or not (0), encoded length (int each), encoded bytes
+ * index    for each frame: its offset and step (long each)
+ * footer   the index's offset (long), the number of frames (int), end magic
+ * </pre>
+ * Frames come in chunks, each starting with a key frame coded on its own, so a frame is decoded from the key
+ * frame at the start of its chunk at most. The index is written by {@link #close}; a file whose recorder didn't
+ * close can still be read, by walking its frames.
+ */
+public class TrajectoryRecorder {
+
+	static final byte[] MAGIC = "GRAVTRAJ".getBytes(StandardCharsets.US_ASCII);
+	static final byte[] END_MAGIC = "GRAVTEND".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int FRAME_HEADER_SIZE = 20;
+	static final int FOOTER_SIZE = 20;
+
+	private static final int DEFAULT_FRAMES_PER_CHUNK = 16;
+	private static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+	private final Path path;
+	private final int interval;
+	private boolean delta = true;
+	private float positionQuantum = 0;
+	private float velocityQuantum = 0;
+	private int framesPerChunk = DEFAULT_FRAMES_PER_CHUNK;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+	// Frames waiting to be written, and frames free to be filled. Created when the first frame is recorded.
+	private BlockingQueue<TrajectoryFrame> queued;
+	private BlockingQueue<TrajectoryFrame> free;
+	// Queued to stop the writer
+	private final TrajectoryFrame end = new TrajectoryFrame();
+	private Thread writer;
+	private FileChannel channel;
+	private boolean closed;
+
+	// Only touched by the writer thread
+	private TrajectoryCodec codec;
+	// The offset and step of each frame written, for the index
+	private long[] index = new long[64];
+	private int frameCount;
+	private ByteBuffer frameHeader;
+	private long position;
+
+	private volatile long framesWritten;
+	private volatile long bytesWritten;
+	private volatile long blockedNanos;
+	private volatile IOException lastError;
+
+	/**
+	 * @param interval	Number of steps between recorded frames
+	 */
+	public TrajectoryRecorder(Path path, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Recording interval must be at least 1 step: " + interval);
+		}
+		this.path = path;
+		this.interval = interval;
+	}
+
+	/**
+	 * Store each frame as the change from the one before, which is much smaller when the bodies move little
+	 * between frames. On by default.
+	 */
+	public void setDelta(boolean delta) {
+		checkNotStarted();
+		this.delta = delta;
+	}
+
+	/**
+	 * Store positions and velocities rounded to multiples of the given quanta, which is lossy but makes them far
+	 * smaller, especially with delta coding. Masses are always stored exactly.
+	 * @param positionQuantum	In universe units, or 0 to store positions exactly (the default)
+	 * @param velocityQuantum	In universe units per step, or 0 to store velocities exactly (the default)
+	 */
+	public void setQuantization(float positionQuantum, float velocityQuantum) {
+		checkNotStarted();
+		if (!(positionQuantum >= 0) || !(velocityQuantum >= 0)) {
+			throw new IllegalArgumentException("Quanta can't be negative");
+		}
+		this.positionQuantum = positionQuantum;
+		this.velocityQuantum = velocityQuantum;
+	}
+
+	/**
+	 * Set how many frames there are from one key frame to the next. Longer chunks compress better with delta
+	 * coding, and take longer to reach a frame in.
+	 */
+	public void setFramesPerChunk(int framesPerChunk) {
+		checkNotStarted();
+		if (framesPerChunk < 1) {
+			throw new IllegalArgumentException("A chunk needs at least one frame: " + framesPerChunk);
+		}
+		this.framesPerChunk = framesPerChunk;
+	}
+
+	/**
+	 * Set how many frames may wait to be written before the stepping thread has to wait. Each holds a copy of
+	 * the bodies.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		checkNotStarted();
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("The queue needs room for at least one frame: " + queueCapacity);
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	private void checkNotStarted() {
+		if (queued != null) {
+			throw new IllegalStateException("The recorder has already started");
+		}
+	}
+
+	/**
+	 * Called by the universe at the end of every update.
+	 */
+	void stepped(Universe universe) {
+		if (universe.getSteps() % interval == 0) {
+			record(universe);
+		}
+	}
+
+	/**
+	 * Queue a frame of the universe as it is now, waiting for a free frame if the writer is behind. Does nothing
+	 * once the recorder is closed or has failed.
+	 */
+	public void record(Universe universe) {
+		if (closed || lastError != null) {
+			return;
+		}
+		try {
+			if (queued == null) {
+				start();
+			}
+			TrajectoryFrame frame = free.poll();
+			if (frame == null) {
+				long start = System.nanoTime();
+				frame = free.take();
+				blockedNanos += System.nanoTime() - start;
+			}
+			frame.copyFrom(universe.getBodies(), universe.getSteps());
+			queued.put(frame);
+		}
+		catch (IOException e) {
+			lastError = e;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void start() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(interval);
+		header.putInt(framesPerChunk);
+		header.putInt(delta ? 1 : 0);
+		header.putFloat(positionQuantum);
+		header.putFloat(velocityQuantum);
+		header.clear();
+		writeFully(header, 0);
+		position = HEADER_SIZE;
+		codec = new TrajectoryCodec(delta, positionQuantum, velocityQuantum);
+		frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		queued = new ArrayBlockingQueue<TrajectoryFrame>(queueCapacity + 1);
+		free = new ArrayBlockingQueue<TrajectoryFrame>(queueCapacity);
+		for (int k = 0; k < queueCapacity; k++) {
+			free.add(new TrajectoryFrame());
+		}
+		writer = new Thread(this::writeFrames, "trajectory-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private void writeFrames() {
+		try {
+			while (true) {
+				TrajectoryFrame frame = queued.take();
+				if (frame == end) {
+					return;
+				}
+				if (lastError == null) {
+					try {
+						writeFrame(frame);
+					}
+					catch (IOException | IllegalArgumentException e) {
+						lastError = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+					}
+				}
+				free.put(frame);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeFrame(TrajectoryFrame frame) throws IOException {
+		int number = frameCount;
+		boolean key = number % framesPerChunk == 0;
+		codec.encode(frame, number, key);
+		frameHeader.clear();
+		frameHeader.putLong(frame.step);
+		frameHeader.putInt(frame.size);
+		frameHeader.putInt(key ? 1 : 0);
+		frameHeader.putInt(codec.getLength());
+		frameHeader.flip();
+		if (2 * frameCount == index.length) {
+			index = Arrays.copyOf(index, index.length * 2);
+		}
+		index[2 * frameCount] = position;
+		index[2 * frameCount + 1] = frame.step;
+		writeFully(frameHeader, position);
+		writeFully(ByteBuffer.wrap(codec.getBytes(), 0, codec.getLength()), position + FRAME_HEADER_SIZE);
+		position += FRAME_HEADER_SIZE + codec.getLength();
+		bytesWritten = position;
+		frameCount++;
+		framesWritten = frameCount;
+	}
+
+	private void writeFully(ByteBuffer buffer, long at) throws IOException {
+		while (buffer.hasRemaining()) {
+			at += channel.write(buffer, at);
+		}
+	}
+
+	/**
+	 * Write the frames still queued, then the index, and close the file. The universe must not be stepped with
+	 * this recorder any more.
+	 * @throws IOException	If a frame or the index couldn't be written.
+	 */
+	public void close() throws IOException, InterruptedException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (queued == null) {
+			return;
+		}
+		queued.put(end);
+		writer.join();
+		try {
+			if (lastError != null) {
+				throw lastError;
+			}
+			ByteBuffer footer = ByteBuffer.allocate(16 * frameCount + FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			footer.asLongBuffer().put(index, 0, 2 * frameCount);
+			footer.position(16 * frameCount);
+			footer.putLong(position);
+			footer.putInt(frameCount);
+			footer.put(END_MAGIC);
+			footer.flip();
+			writeFully(footer, position);
+			channel.force(false);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The number of frames written to the file so far.
+	 */
+	public long getFramesWritten() {
+		return framesWritten;
+	}
+
+	/**
+	 * @return The size of the file so far, not counting the index.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return How long the stepping thread has waited for the writer to catch up, in milliseconds.
+	 */
+	public double getBlockedMillis() {
+		return blockedNanos / 1e6;
+	}
+
+	/**
+	 * @return What stopped the recording, or null if nothing has. Frames are no longer recorded once this is set.
+	 */
+	public IOException getLastError() {
+		return lastError;
+	}
+
+}
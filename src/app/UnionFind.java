@@ -0,0 +1,82 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint sets of store indices, joined by union by size with path halving.
+ *
+ * Only the indices that are added are touched. Each index carries the stamp of the round it was added in, and an
+ * index with an old stamp isn't in any set, so starting a new round costs nothing however many bodies there are.
+ */
+public class UnionFind {
+
+	private int[] parent = new int[0];
+	private int[] size = new int[0];
+	private int[] stamp = new int[0];
+	private int round;
+
+	/**
+	 * Forget every set, and make room for indices up to n - 1.
+	 */
+	public void reset(int n) {
+		if (parent.length < n) {
+			int capacity = Math.max(n, parent.length * 2);
+			parent = Arrays.copyOf(parent, capacity);
+			size = Arrays.copyOf(size, capacity);
+			stamp = Arrays.copyOf(stamp, capacity);
+		}
+		if (++round == 0) {
+			// Wrapped around: old stamps could match again.
+			Arrays.fill(stamp, 0);
+			round = 1;
+		}
+	}
+
+	/**
+	 * Put i in a set of its own if it isn't in one yet.
+	 * @return true if it wasn't.
+	 */
+	public boolean add(int i) {
+		if (stamp[i] == round) {
+			return false;
+		}
+		stamp[i] = round;
+		parent[i] = i;
+		size[i] = 1;
+		return true;
+	}
+
+	/**
+	 * @return The representative of the set holding i, which must have been added.
+	 */
+	public int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Join the sets holding a and b, adding either of them if needed.
+	 * @return The representative of the joined set.
+	 */
+	public int union(int a, int b) {
+		add(a);
+		add(b);
+		a = find(a);
+		b = find(b);
+		if (a == b) {
+			return a;
+		}
+		if (size[a] < size[b]) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		parent[b] = a;
+		size[a] += size[b];
+		return a;
+	}
+
+}
@@ -1,189 +1,944 @@
 package app;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Random;
 
-import org.newdawn.slick.Color;
-import org.newdawn.slick.Graphics;
-
 public class Universe {
-	
+
+	// Cell size of the collision broadphase
 	public static final int CELL_SIZE = 32;
+	// Returned by getBodyAt when there is nothing under the point, or when the point is on the sun.
+	public static final int NO_BODY = -1;
+	public static final int SUN = -2;
+	// Root margin used with the incremental tree, so that bodies drifting outward don't force a full build each step
+	private static final float INCREMENTAL_ROOT_MARGIN = 0.05f;
+
+	// Area that new bodies are placed in. Bodies are free to leave it; the tree grows to follow them.
 	private int width;
 	private int height;
-	
-	private static List<Body> bodies;
-	private static List<Body> destroyedBodies;
-	private static Map<Body, Body> collisions;
+
+	private BodyStore bodies;
+	// Store indices of the bodies merged into others this step, removed together at the end of it
+	private IntList destroyedBodies;
+	// Pairs of store indices found to be colliding by the broadphase
+	private IntList collisions;
+	// Store indices whose body has been merged, added, resized or replaced since the tree was last built
+	private final IntList changedSinceBuild = new IntList();
+	// Whether the tree was built by the last build, rather than left over from before another solver was chosen
+	private boolean treeCurrent = false;
+	private final SpatialQueries queries = new SpatialQueries();
+	private final IntList queryResult = new IntList();
 	private Body sun;
-	private Body selectedBody;
-	
-	protected static Random random = new Random();
-	
+	private int selectedBody = NO_BODY;
+
+	// Places and sizes the bodies made by createBody and createRandomBody
+	private final Random random = new Random();
+
+	// Physics settings, starting from those in Config
+	private float gravityConstant = Config.GRAVITY_CONSTANT;
+	private float newBodyMass = Config.NODE_INITIAL_MASS;
+	private float newBodyVelocity = Config.NODE_DEFAULT_VELOCITY;
+	private float timestepAccuracy = Config.TIMESTEP_ACCURACY;
+	// Updates between the samples of the trails, which are kept while bodies.trails has a length
+	private int trailStride = Config.TRAIL_STRIDE;
+
 	private BHTree tree;
-	private boolean drawQuadTree = true;
-	
+	private BarnesHutSolver barnesHut;
+	private GravitySolver solver;
+	private Broadphase broadphase;
+	private CollisionResolver collisionResolver;
+	private Parallel parallel;
+	private GravityKernel kernel = GravityKernel.COMPONENTS;
+	// Plummer softening length, and its square
+	private float softening = 0;
+	private float softening2 = 0;
+	private Integrator integrator = Integrator.EULER;
+	// Deepest block timestep level of Integrator.LEAPFROG, whose bodies take 2^maxTimestepLevel steps per update
+	private int maxTimestepLevel = 0;
+	// Whether ax and ay hold the accelerations at the bodies' current positions, which leapfrog and Verlet start from
+	private boolean accelerationsCurrent = false;
+	private long forceEvaluations;
+	// Updates taken since the universe was created or restored from a checkpoint
+	private long steps;
+	private final StepMetrics metrics = new StepMetrics();
+	// Writes a checkpoint every so many steps, or null
+	private Checkpointer checkpointer;
+	// Records a frame every so many steps, or null
+	private TrajectoryRecorder recorder;
+	// Measures energy and momentum every so many steps, or null
+	private Diagnostics diagnostics;
+	// Leapfrog bookkeeping: the store indices at each timestep level, the bodies whose step ends on the current
+	// substep, the substep reached, and how far the bodies move on the next drift
+	private IntList[] bodiesByLevel = new IntList[0];
+	private final IntList synced = new IntList();
+	private int substep;
+	private float driftTime;
+	// Accelerations from the start of a velocity Verlet step
+	private float[] previousAx = new float[0];
+	private float[] previousAy = new float[0];
+	// Created once so that stepping doesn't allocate a new closure each time
+	private final Parallel.RangeAction forceAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				computeForce(i);
+			}
+		}
+	};
+	private final Parallel.RangeAction levelAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				bodies.level[i] = (byte) wantedLevel(i);
+			}
+		}
+	};
+	// Leapfrog: first half kick of every body at the start of an update
+	private final Parallel.RangeAction openAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				bodies.kick(i, 0.5f * timestep(bodies.level[i]));
+			}
+		}
+	};
+	private final Parallel.RangeAction driftAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				bodies.drift(i, driftTime);
+			}
+		}
+	};
+	// Leapfrog: for each body whose step ends on this substep, the new acceleration, the second half kick, the
+	// level of its next step, and that step's first half kick. Only the body's own velocity changes, so the
+	// forces on the others aren't affected.
+	private final Parallel.RangeAction syncAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			boolean last = substep == 1 << maxTimestepLevel;
+			for (int k = from; k < to; k++) {
+				int i = synced.get(k);
+				computeForce(i);
+				bodies.kick(i, 0.5f * timestep(bodies.level[i]));
+				int level = nextLevel(i);
+				bodies.level[i] = (byte) level;
+				if (!last) {
+					bodies.kick(i, 0.5f * timestep(level));
+				}
+			}
+		}
+	};
+	private final Parallel.RangeAction verletDriftAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				previousAx[i] = bodies.ax[i];
+				previousAy[i] = bodies.ay[i];
+				bodies.x[i] += bodies.vx[i] + 0.5f * bodies.ax[i];
+				bodies.y[i] += bodies.vy[i] + 0.5f * bodies.ay[i];
+			}
+		}
+	};
+	private final Parallel.RangeAction verletKickAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				bodies.vx[i] += 0.5f * (previousAx[i] + bodies.ax[i]);
+				bodies.vy[i] += 0.5f * (previousAy[i] + bodies.ay[i]);
+			}
+		}
+	};
+	private final Parallel.RangeAction trailAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			bodies.trails.record(bodies, from, to);
+		}
+	};
+	private final Parallel.RangeAction integrateAction = new Parallel.RangeAction() {
+		@Override
+		public void run(int from, int to) {
+			for (int i = from; i < to; i++) {
+				bodies.update(i);
+			}
+		}
+	};
+
 	public Universe(int width, int height) {
+		this(width, height, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param parallelism	Number of threads used to step the universe. With 1 every step runs on the calling
+	 * 						thread, and gives exactly the same result as any other parallelism.
+	 */
+	public Universe(int width, int height, int parallelism) {
 		this.width = width;
 		this.height = height;
-		bodies = new ArrayList<Body>();
-		destroyedBodies = new ArrayList<Body>();
-		sun = new Body("Sol", width / 2, height / 2, 0, 0, Config.SUN_MASS, 10, Config.COLOR_SUN);
-		collisions = new HashMap<Body, Body>();
+		bodies = new BodyStore();
+		destroyedBodies = new IntList();
+		sun = new Body("Sol", width / 2, height / 2, Config.SUN_MASS, 10);
+		collisions = new IntList();
+		tree = new BHTree();
+		barnesHut = new BarnesHutSolver(tree);
+		solver = barnesHut;
+		broadphase = new Broadphase(CELL_SIZE);
+		collisionResolver = new CollisionResolver();
+		parallel = new Parallel(parallelism);
+		setMaxTimestepLevel(0);
+		if (Config.DRAW_TRAIL) {
+			bodies.setTrailLength(Config.TRAIL_LENGTH);
+		}
 	}
 
-	public Body createRandomBody() {
-		Body body = createBody((int) (Math.random() * width), (int) (Math.random()  * height));
+	public int createRandomBody() {
+		int id = createBody((int) (random.nextFloat() * width), (int) (random.nextFloat() * height));
 		int amount = random.nextInt(400);
 		while (amount-- > 0 )
-			body.increaseMass();
-		return body;
+			increaseMass(id);
+		return id;
 	}
-	
-	public Body createBody(int x, int y) {
-		Body body = new Body(BodyNames.getName(), x, y, Config.NODE_DEFAULT_VELOCITY, getRandomDirection());
-		bodies.add(body);
-		return body;
+
+	/**
+	 * @return The id of the new body.
+	 */
+	public int createBody(int x, int y) {
+		float direction = getRandomDirection();
+		float speed = newBodyVelocity;
+		float mass = random.nextFloat() * newBodyMass;
+		return addBody(BodyNames.getName(), x, y, (float) (Math.cos(direction) * speed), (float) (Math.sin(direction) * speed), mass);
+	}
+
+	/**
+	 * @return The id of the new body.
+	 */
+	public int addBody(String name, float x, float y, float vx, float vy, float mass) {
+		accelerationsCurrent = false;
+		int id = bodies.add(name, x, y, vx, vy, mass);
+		changedSinceBuild.add(bodies.indexOf(id));
+		return id;
 	}
-	
+
+	/**
+	 * Replace the sun, e.g. with one read from an initial conditions file.
+	 */
+	public void setSun(Body sun) {
+		this.sun = sun;
+		accelerationsCurrent = false;
+	}
+
 	private float getRandomDirection() {
 		return random.nextFloat() * 6;
 	}
-	
-	public Body getBodyAt(int x, int y) {
+
+	/**
+	 * Find what is under a point, e.g. for picking with the mouse. Where bodies overlap, the one whose center
+	 * is closest to the point is picked.
+	 * @return The id of the body under the point, {@link #SUN} or {@link #NO_BODY}.
+	 */
+	public int getBodyAt(int x, int y) {
 		if (sun.containsPoint(x, y))
-			return sun;
-		for (Body b : bodies) {
-			if (b.containsPoint(x, y)) {
-				selectedBody = b;
-				return b;
-			}
+			return SUN;
+		int index = queries.findContaining(bodies, queryTree(), changedSinceBuild, x, y);
+		if (index >= 0) {
+			selectedBody = bodies.idAt(index);
+			return selectedBody;
 		}
-		return null;
+		return NO_BODY;
 	}
 
-	public void draw(Graphics g) {
-		for(Body b1 : bodies) {
-			b1.draw(g);
-			/*
-			for (Body b2 : bodies) {
-				if (b1 != b2) {
-					drawGravityLineBetweenBodies(g, b1, b2);
-				}
-			}
-			*/
-			if (drawQuadTree)
-				drawGravityLineBetweenBodies(g, b1, sun);
-		}
-		sun.draw(g);
-		g.setColor(Config.COLOR_TEXT);
-		//g.drawString("Sun mass: " + sun.getMass(), 10, height - 35);
-		/*
-		if (selectedBody != null) {
-			g.drawString(selectedBody.name, 10, height - 115);
-			g.drawString("Age: " + selectedBody.age, 10, height - 100);
-			g.drawString("Mass: " + selectedBody.getMass(), 10, height - 85);
-			g.drawString("Position: " + (int)selectedBody.getX() + "," + (int)selectedBody.getY(), 10, height - 70);
-			g.drawString("Velocity:" + (float)selectedBody.velocity.x + "," + selectedBody.velocity.y, 10, height - 55);
-		}
-		*/
-		if (drawQuadTree && tree != null) {
-			tree.draw(g);
-			tree.drawGravity(g);
-		}
-	}
-
-	private void drawGravityLineBetweenBodies(Graphics g, Body b1, Body b2) {
-		// Really only useful for the sun...
-		float gravity = b1.getGravityMagnitudeTowardBody(b2);
-		float alpha = gravity * 100;
-		if (alpha > 0.01) {
-			Color newColor = new Color(Config.COLOR_BODY.r, Config.COLOR_BODY.g, Config.COLOR_BODY.b, alpha);
-			g.setColor(newColor);
-			g.setLineWidth(4);
-			
-			g.drawLine(b1.getX(), b1.getY(), b2.getX(), b2.getY());
-			g.resetLineWidth();
-		}
-	}
-	
-	
+	/**
+	 * Find every body whose center is within a distance of a point. Like the other queries, this uses the tree
+	 * from the last update, so it takes time in proportion to the bodies around the point rather than all of
+	 * them, but answers for where the bodies are now.
+	 * @param ids	Receives the ids of the bodies found
+	 */
+	public void findBodiesWithin(float x, float y, float radius, IntList ids) {
+		queryResult.clear();
+		queries.findWithin(bodies, queryTree(), changedSinceBuild, x, y, radius, queryResult);
+		addIds(ids);
+	}
+
+	/**
+	 * Find every body whose center is inside a rectangle, edges included, e.g. for selecting with a box.
+	 * @param ids	Receives the ids of the bodies found
+	 */
+	public void findBodiesInRectangle(float left, float top, float right, float bottom, IntList ids) {
+		queryResult.clear();
+		queries.findInRectangle(bodies, queryTree(), changedSinceBuild, left, top, right, bottom, queryResult);
+		addIds(ids);
+	}
+
+	/**
+	 * Find the k bodies whose centers are closest to a point.
+	 * @param ids	Receives the ids of the bodies found, the closest first. Fewer than k if there are fewer bodies.
+	 */
+	public void findNearestBodies(float x, float y, int k, IntList ids) {
+		queryResult.clear();
+		queries.findNearest(bodies, queryTree(), changedSinceBuild, x, y, k, queryResult);
+		addIds(ids);
+	}
+
+	/**
+	 * @return The tree to answer queries from, or null if every body has to be tested.
+	 */
+	private BHTree queryTree() {
+		return treeCurrent && tree.getNodeCount() > 0 ? tree : null;
+	}
+
+	private void addIds(IntList ids) {
+		for (int k = 0; k < queryResult.size(); k++) {
+			ids.add(bodies.idAt(queryResult.get(k)));
+		}
+	}
+
+	/**
+	 * Advance the universe by one step with the chosen {@link Integrator}. Every acceleration is computed
+	 * against the tree before any body moves, and every phase is spread over the worker threads.
+	 */
 	public void update() {
-		/*
-		for (Body b1 : bodies) {
-			for (Body b2 : bodies) {
-				if (b1 != b2) {
-					b1.gravitateToward(b2);
-				}
+		long evaluations = forceEvaluations;
+		metrics.beginStep(parallel, solver);
+		switch (integrator) {
+		case LEAPFROG:
+			stepLeapfrog();
+			break;
+		case VELOCITY_VERLET:
+			stepVerlet();
+			break;
+		default:
+			buildTree();
+			findCollisions();
+			computeForces();
+			integrate();
+			processCollisions();
+		}
+		if (bodies.trails.getLength() > 0 && (steps + 1) % trailStride == 0) {
+			recordTrails();
+		}
+		metrics.endStep(parallel, solver, bodies.size(), forceEvaluations - evaluations, tree.getNanCount() + bodies.getNanCount());
+		steps++;
+		if (checkpointer != null) {
+			checkpointer.stepped(this);
+		}
+		if (recorder != null) {
+			recorder.stepped(this);
+		}
+		if (diagnostics != null) {
+			diagnostics.stepped(this);
+		}
+	}
+
+	/**
+	 * Add every body's position to its trail, overwriting its oldest sample once the trail is full.
+	 */
+	private void recordTrails() {
+		long start = System.nanoTime();
+		parallel.forRange(bodies.size(), trailAction);
+		bodies.trails.advance();
+		metrics.record(StepMetrics.Phase.INTEGRATION, start);
+	}
+
+	/**
+	 * One update of kick-drift-kick leapfrog with block timesteps. A body at level k takes 2^k steps of
+	 * 1 / 2^k, and the steps of all levels line up, so after each drift only the bodies whose step has ended
+	 * need new accelerations. Every body still drifts to each of those substeps, and the tree is built again
+	 * for each, so that the forces on the bodies that are due see every body where it is.
+	 */
+	private void stepLeapfrog() {
+		int n = bodies.size();
+		if (n == 0) {
+			return;
+		}
+		prepareAccelerations();
+		int substeps = 1 << maxTimestepLevel;
+		for (int level = 0; level <= maxTimestepLevel; level++) {
+			bodiesByLevel[level].clear();
+		}
+		for (int i = 0; i < n; i++) {
+			bodiesByLevel[bodies.level[i]].add(i);
+		}
+		long start = System.nanoTime();
+		parallel.forRange(n, openAction);
+		metrics.record(StepMetrics.Phase.INTEGRATION, start);
+
+		substep = 0;
+		while (substep < substeps) {
+			int deepest = maxTimestepLevel;
+			while (bodiesByLevel[deepest].isEmpty()) {
+				deepest--;
 			}
-			b1.gravitateToward(sun);
-			if (b1.distanceTo(sun) > Config.MAX_DISTANCE_FROM_SUN) {
-				destroyedBodies.add(b1);
+			int stride = 1 << (maxTimestepLevel - deepest);
+			int next = (substep / stride + 1) * stride;
+			driftTime = (float) (next - substep) / substeps;
+			start = System.nanoTime();
+			parallel.forRange(n, driftAction);
+			metrics.record(StepMetrics.Phase.INTEGRATION, start);
+			substep = next;
+
+			// Every level whose step divides the substep is due, and stays at that level or deeper.
+			int shallowest = substep == substeps ? 0 : maxTimestepLevel - Integer.numberOfTrailingZeros(substep);
+			synced.clear();
+			for (int level = shallowest; level <= maxTimestepLevel; level++) {
+				IntList due = bodiesByLevel[level];
+				for (int k = 0; k < due.size(); k++) {
+					synced.add(due.get(k));
+				}
+				due.clear();
 			}
-			b1.update();
-		}
-		*/
-		tree = BHTree.create(bodies, width, height);
-		for (Body body : bodies) {
-			if (body.getX() <= 0 || body.getX() >= width ||
-					body.getY() <= 0 || body.getY() >= height) {
-				destroyedBodies.add(body);
-				break;
+			buildTree();
+			start = System.nanoTime();
+			parallel.forRange(synced.size(), syncAction);
+			metrics.record(StepMetrics.Phase.FORCES, start);
+			forceEvaluations += synced.size();
+			for (int k = 0; k < synced.size(); k++) {
+				int i = synced.get(k);
+				bodiesByLevel[bodies.level[i]].add(i);
 			}
-			tree.updateGravity(body);
-			body.gravitateToward(sun);
-			body.update();
 		}
-		
+		findCollisions();
+		processCollisions();
+	}
+
+	/**
+	 * One update of velocity Verlet, with the same step for every body.
+	 */
+	private void stepVerlet() {
+		int n = bodies.size();
+		prepareAccelerations();
+		if (previousAx.length < n) {
+			int capacity = Math.max(n, previousAx.length * 2);
+			previousAx = new float[capacity];
+			previousAy = new float[capacity];
+		}
+		long start = System.nanoTime();
+		parallel.forRange(n, verletDriftAction);
+		metrics.record(StepMetrics.Phase.INTEGRATION, start);
+		buildTree();
+		computeForces();
+		start = System.nanoTime();
+		parallel.forRange(n, verletKickAction);
+		metrics.record(StepMetrics.Phase.INTEGRATION, start);
+		findCollisions();
 		processCollisions();
-		
-		if (!destroyedBodies.isEmpty()) {
- 			bodies.removeAll(destroyedBodies);
-			destroyedBodies.clear();
+	}
+
+	/**
+	 * Compute the accelerations at the bodies' current positions if they aren't known yet, e.g. on the first
+	 * step, and pick every body's timestep level from them.
+	 */
+	private void prepareAccelerations() {
+		if (accelerationsCurrent) {
+			return;
+		}
+		buildTree();
+		computeForces();
+		parallel.forRange(bodies.size(), levelAction);
+		accelerationsCurrent = true;
+	}
+
+	private void computeForce(int i) {
+		// Last step's acceleration, for the relative error opening criterion
+		float previous = (float) Math.sqrt(bodies.ax[i] * bodies.ax[i] + bodies.ay[i] * bodies.ay[i]);
+		bodies.ax[i] = 0;
+		bodies.ay[i] = 0;
+		solver.accelerate(i, previous);
+		if (kernel == GravityKernel.LEGACY) {
+			sun.attract(bodies, i, gravityConstant);
+		}
+		else {
+			sun.accelerate(bodies, i, gravityConstant, softening2);
 		}
 	}
-	
+
+	private float timestep(int level) {
+		return 1f / (1 << level);
+	}
+
 	/**
-	 * Process the pairs of bodies in external quads.
-	 * We don't really care if they're exactly in the same position, the fact that they were in the same external quad is enough.
+	 * @return The level whose step is the longest below sqrt(2 * eta * length / a), capped at the deepest level.
 	 */
-	private void processCollisions() {
-		List<Body> alreadyProcessed = new ArrayList<Body>();	// Don't want to double-count a destroyed body.
-		for (Body b1 : collisions.keySet()) {
-			Body b2 = collisions.get(b1);
-			if (b1.getMass() > b2.getMass() && !alreadyProcessed.contains(b2)) {
-				b1.absorbBody(b2);
-				destroyedBodies.add(b2);
-			}
-			else if (!alreadyProcessed.contains(b1)){
-				b2.absorbBody(b1);
-				destroyedBodies.add(b1);
+	private int wantedLevel(int i) {
+		float acceleration = (float) Math.sqrt(bodies.ax[i] * bodies.ax[i] + bodies.ay[i] * bodies.ay[i]);
+		float length = softening > 0 ? softening : bodies.radius[i];
+		if (!(acceleration > 0) || !(length > 0)) {
+			return 0;
+		}
+		float step = (float) Math.sqrt(2 * timestepAccuracy * length / acceleration);
+		int level = 0;
+		while (level < maxTimestepLevel && timestep(level) > step) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Level of a body's next step, starting on the current substep. A body can go down to a shorter step at
+	 * any time, but only up by one level, and only onto a substep where the longer step would start.
+	 */
+	private int nextLevel(int i) {
+		int current = bodies.level[i];
+		int wanted = wantedLevel(i);
+		if (wanted >= current) {
+			return wanted;
+		}
+		int up = current - 1;
+		return substep % (1 << (maxTimestepLevel - up)) == 0 ? up : current;
+	}
+
+	/**
+	 * First phase of {@link #update}: build the gravity solver around wherever the bodies are now. For the
+	 * Barnes-Hut solver this builds (or refits) the tree; the FMM does all of its work here.
+	 */
+	public void buildTree() {
+		long start = System.nanoTime();
+		solver.build(bodies, parallel);
+		treeCurrent = solver == barnesHut;
+		// Bodies added since the last forces have no acceleration yet, so the tree can't allow for how far they
+		// move in this step. They stay listed until the next build.
+		int kept = 0;
+		for (int k = 0; k < changedSinceBuild.size(); k++) {
+			int i = changedSinceBuild.get(k);
+			if (i < bodies.size() && bodies.ax[i] == 0 && bodies.ay[i] == 0) {
+				changedSinceBuild.set(kept++, i);
 			}
 		}
+		while (changedSinceBuild.size() > kept) {
+			changedSinceBuild.removeLast();
+		}
+		metrics.record(StepMetrics.Phase.TREE_BUILD, start);
+	}
+
+	/**
+	 * Find every pair of bodies that overlap at the start of the step, to be merged by
+	 * {@link #processCollisions}.
+	 */
+	public void findCollisions() {
+		long start = System.nanoTime();
 		collisions.clear();
+		broadphase.findCollisions(bodies, collisions, parallel);
+		metrics.record(StepMetrics.Phase.COLLISIONS, start);
 	}
 
-	public void deleteBody(Body body) {
-		bodies.remove(body);
+	/**
+	 * Second phase of {@link #update}: gather every body's acceleration from the gravity solver and the sun.
+	 * Nothing moves.
+	 */
+	public void computeForces() {
+		long start = System.nanoTime();
+		parallel.forRange(bodies.size(), forceAction);
+		metrics.record(StepMetrics.Phase.FORCES, start);
+		forceEvaluations += bodies.size();
+	}
+
+	/**
+	 * Third phase of {@link #update}: apply the accelerations and move the bodies.
+	 */
+	public void integrate() {
+		long start = System.nanoTime();
+		parallel.forRange(bodies.size(), integrateAction);
+		metrics.record(StepMetrics.Phase.INTEGRATION, start);
+	}
+
+	/**
+	 * Last phase of {@link #update}: merge the overlapping pairs found by {@link #findCollisions}, then remove
+	 * every body merged away this step. Bodies that touch through a chain of pairs are merged together into the
+	 * heaviest of them, keeping their total mass and momentum.
+	 */
+	public void processCollisions() {
+		long start = System.nanoTime();
+		collisionResolver.resolve(bodies, collisions, destroyedBodies);
+		metrics.recordCollisions(collisions.size() / 2, destroyedBodies.size());
+		// The survivors have moved, and the holes left by the others are filled by bodies from the end
+		for (int k = 0; k < collisions.size(); k++) {
+			changedSinceBuild.add(collisions.get(k));
+		}
+		collisions.clear();
+		bodies.removeAll(destroyedBodies);
+		destroyedBodies.clear();
+		metrics.record(StepMetrics.Phase.COLLISIONS, start);
+	}
+
+	public void increaseMass(int id) {
+		if (id == SUN) {
+			sun.increaseMass();
+		}
+		else if (bodies.indexOf(id) >= 0) {
+			bodies.updateMass(bodies.indexOf(id), Config.NODE_MASS_CHANGE_RATE);
+			changedSinceBuild.add(bodies.indexOf(id));
+		}
+	}
+
+	public void decreaseMass(int id) {
+		if (id == SUN) {
+			sun.decreaseMass();
+		}
+		else if (bodies.indexOf(id) >= 0) {
+			bodies.updateMass(bodies.indexOf(id), -Config.NODE_MASS_CHANGE_RATE);
+			changedSinceBuild.add(bodies.indexOf(id));
+		}
+	}
+
+	/**
+	 * Remove a body in constant time. The sun can't be deleted.
+	 */
+	public void deleteBody(int id) {
+		int index = bodies.indexOf(id);
+		if (bodies.remove(id) && index < bodies.size()) {
+			// Filled by the last body
+			changedSinceBuild.add(index);
+		}
 	}
 
 	public void clearAllBodies() {
 		bodies.clear();
+		changedSinceBuild.clear();
+		accelerationsCurrent = false;
 	}
 
 	public int getNumberOfBodies() {
 		return bodies.size();
 	}
 
-	public void toggleDrawQuadTree() {
-		drawQuadTree = !drawQuadTree;
+	public BodyStore getBodies() {
+		return bodies;
+	}
+
+	public Body getSun() {
+		return sun;
+	}
+
+	/**
+	 * The tree lists bodies by store index, where they were when it was built, and bodies keep moving and merging
+	 * after that. Within one step a body stays within {@link BHTree#getExtent} of its leaf unless its
+	 * acceleration jumps, but the bodies at these store indices may have changed in any way, so anything finding
+	 * bodies through the tree has to look at them on their own. Indices listed in the tree that are past the end of
+	 * the store belong to bodies that have been removed.
+	 * @return Store indices of the bodies merged, added, resized or replaced since the last build, and of the
+	 * bodies that had no acceleration yet when it was built. May hold duplicates and indices past the end of the
+	 * store. Not to be changed.
+	 */
+	public IntList getChangedSinceBuild() {
+		return changedSinceBuild;
+	}
+
+	/**
+	 * @return The tree built during the last update, or null if another gravity solver than Barnes-Hut is in
+	 * use, or has been since the last update.
+	 */
+	public BHTree getTree() {
+		return solver == barnesHut && treeCurrent ? tree : null;
+	}
+
+	/**
+	 * Choose what computes the pull of the bodies on each other. The sun's pull is always added on top.
+	 * @param solver	A solver, or null for the universe's own Barnes-Hut solver, which all of the tree settings
+	 * 					apply to
+	 */
+	public void setGravitySolver(GravitySolver solver) {
+		this.solver = solver != null ? solver : barnesHut;
+		this.solver.setSoftening(softening);
+		this.solver.setGravityConstant(gravityConstant);
+		treeCurrent = false;
+		accelerationsCurrent = false;
+	}
+
+	public GravitySolver getGravitySolver() {
+		return solver;
+	}
+
+	/**
+	 * Choose between the parallel Morton-sorted tree build and inserting bodies one at a time. Both produce the
+	 * same tree.
+	 */
+	public void setSortedTreeBuild(boolean sortedTreeBuild) {
+		barnesHut.setSortedBuild(sortedTreeBuild);
+	}
+
+	/**
+	 * Keep the tree between steps, only moving the bodies that have left their leaf, and build it again only when
+	 * it has degraded too far. Most steps then cost a refit rather than a build.
+	 */
+	public void setIncrementalTree(boolean incrementalTree) {
+		barnesHut.setIncremental(incrementalTree);
+		tree.setRootMargin(incrementalTree ? INCREMENTAL_ROOT_MARGIN : BHTree.DEFAULT_ROOT_MARGIN);
+	}
+
+	/**
+	 * Choose how gravity is calculated, for the tree and for the sun.
+	 */
+	public void setGravityKernel(GravityKernel kernel) {
+		this.kernel = kernel;
+		tree.setKernel(kernel);
+		accelerationsCurrent = false;
+	}
+
+	public GravityKernel getGravityKernel() {
+		return kernel;
+	}
+
+	/**
+	 * Set the Plummer softening length, which keeps close encounters from producing huge accelerations.
+	 * Only used by {@link GravityKernel#COMPONENTS}.
+	 */
+	public void setSoftening(float softening) {
+		this.softening = softening;
+		softening2 = softening * softening;
+		barnesHut.setSoftening(softening);
+		solver.setSoftening(softening);
+		accelerationsCurrent = false;
+	}
+
+	public float getSoftening() {
+		return softening;
+	}
+
+	/**
+	 * Set the gravitational constant, for the pull of the bodies on each other and of the sun. Starts at
+	 * {@link Config#GRAVITY_CONSTANT}.
+	 */
+	public void setGravityConstant(float gravityConstant) {
+		this.gravityConstant = gravityConstant;
+		barnesHut.setGravityConstant(gravityConstant);
+		solver.setGravityConstant(gravityConstant);
+		accelerationsCurrent = false;
+	}
+
+	public float getGravityConstant() {
+		return gravityConstant;
+	}
+
+	/**
+	 * Set the largest mass of the bodies made by {@link #createBody}, and by {@link InitialConditions}. Starts at
+	 * {@link Config#NODE_INITIAL_MASS}.
+	 */
+	public void setNewBodyMass(float newBodyMass) {
+		this.newBodyMass = newBodyMass;
+	}
+
+	public float getNewBodyMass() {
+		return newBodyMass;
+	}
+
+	/**
+	 * Set the speed of the bodies made by {@link #createBody}, and by {@link InitialConditions}. Starts at
+	 * {@link Config#NODE_DEFAULT_VELOCITY}.
+	 */
+	public void setNewBodyVelocity(float newBodyVelocity) {
+		this.newBodyVelocity = newBodyVelocity;
+	}
+
+	public float getNewBodyVelocity() {
+		return newBodyVelocity;
+	}
+
+	/**
+	 * Seed the generator that places and sizes the bodies made by {@link #createBody} and
+	 * {@link #createRandomBody}, so that they are the same from one run to the next.
+	 */
+	public void setRandomSeed(long seed) {
+		random.setSeed(seed);
+	}
+
+	/**
+	 * Choose how the tree walk decides which nodes are far enough away to be used whole.
+	 * Only used by {@link GravityKernel#COMPONENTS}.
+	 */
+	public void setOpeningCriterion(OpeningCriterion criterion) {
+		tree.setOpeningCriterion(criterion);
+	}
+
+	public OpeningCriterion getOpeningCriterion() {
+		return tree.getOpeningCriterion();
+	}
+
+	/**
+	 * Set the opening angle theta of the tree walk. Larger is faster and less accurate.
+	 */
+	public void setOpeningAngle(float openingAngle) {
+		tree.setOpeningAngle(openingAngle);
+	}
+
+	public float getOpeningAngle() {
+		return tree.getOpeningAngle();
+	}
+
+	/**
+	 * Set the tolerance of {@link OpeningCriterion#RELATIVE_ERROR}.
+	 */
+	public void setErrorTolerance(float errorTolerance) {
+		tree.setErrorTolerance(errorTolerance);
+	}
+
+	/**
+	 * Turn the quadrupole term of the tree walk on or off. Only used by {@link GravityKernel#COMPONENTS}.
+	 */
+	public void setQuadrupole(boolean quadrupole) {
+		tree.setQuadrupole(quadrupole);
+	}
+
+	public void setIntegrator(Integrator integrator) {
+		this.integrator = integrator;
+		accelerationsCurrent = false;
+	}
+
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+
+	/**
+	 * Let the bodies of {@link Integrator#LEAPFROG} take steps down to 1 / 2^levels of an update, each body
+	 * the longest step that keeps it accurate (see {@link #setTimestepAccuracy}). Bodies pulled hard, e.g.
+	 * close to the sun, get many short steps while the rest get one, so the step stays accurate without
+	 * computing every body's acceleration on every substep. With 0 every body takes the whole step. The tree is
+	 * still brought up to date on every substep that has a body due, so this pairs well with
+	 * {@link #setIncrementalTree}.
+	 */
+	public void setMaxTimestepLevel(int levels) {
+		if (levels < 0 || levels > 30) {
+			throw new IllegalArgumentException("Timestep levels must be between 0 and 30: " + levels);
+		}
+		maxTimestepLevel = levels;
+		if (bodiesByLevel.length <= levels) {
+			IntList[] grown = Arrays.copyOf(bodiesByLevel, levels + 1);
+			for (int level = bodiesByLevel.length; level <= levels; level++) {
+				grown[level] = new IntList();
+			}
+			bodiesByLevel = grown;
+		}
+		accelerationsCurrent = false;
+	}
+
+	public int getMaxTimestepLevel() {
+		return maxTimestepLevel;
+	}
+
+	/**
+	 * Set the accuracy of the block timesteps of {@link Integrator#LEAPFROG}. Starts at
+	 * {@link Config#TIMESTEP_ACCURACY}, which tells what it means.
+	 */
+	public void setTimestepAccuracy(float timestepAccuracy) {
+		if (!(timestepAccuracy > 0)) {
+			throw new IllegalArgumentException("Timestep accuracy must be positive: " + timestepAccuracy);
+		}
+		this.timestepAccuracy = timestepAccuracy;
+		accelerationsCurrent = false;
+	}
+
+	public float getTimestepAccuracy() {
+		return timestepAccuracy;
+	}
+
+	/**
+	 * Keep the last length positions of every body, one taken every stride updates, for drawing trails.
+	 * Any trails kept so far are dropped. A length of 0 turns trails off.
+	 */
+	public void setTrails(int length, int stride) {
+		if (length < 0 || stride < 1) {
+			throw new IllegalArgumentException("Bad trail length " + length + " or stride " + stride);
+		}
+		bodies.setTrailLength(length);
+		trailStride = stride;
+	}
+
+	public int getTrailLength() {
+		return bodies.trails.getLength();
+	}
+
+	public int getTrailStride() {
+		return trailStride;
+	}
+
+	/**
+	 * @return How many body accelerations have been computed so far, over every step.
+	 */
+	public long getForceEvaluations() {
+		return forceEvaluations;
+	}
+
+	/**
+	 * @return How many updates have been taken, counting those before the checkpoint the universe was restored from.
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return Whether the bodies' accelerations are those at their current positions, so that leapfrog and
+	 * Verlet can carry on from them without computing them again.
+	 */
+	boolean isAccelerationsCurrent() {
+		return accelerationsCurrent;
+	}
+
+	/**
+	 * Take the bodies just written into the store by a checkpoint, and the counters saved with them. The
+	 * accelerations in the store are trusted if they were current when the checkpoint was taken, so that a
+	 * restored run carries on exactly as the saved one would have.
+	 */
+	void restored(long steps, long forceEvaluations, boolean accelerationsCurrent) {
+		this.steps = steps;
+		this.forceEvaluations = forceEvaluations;
+		this.accelerationsCurrent = accelerationsCurrent;
+		changedSinceBuild.clear();
+		treeCurrent = false;
+	}
+
+	/**
+	 * Write a checkpoint every so many updates, from the end of {@link #update}.
+	 * @param checkpointer	The checkpoints to take, or null for none
+	 */
+	public void setCheckpointer(Checkpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	/**
+	 * Record the bodies every so many updates, from the end of {@link #update}.
+	 * @param recorder	The recorder to give the frames to, or null to stop recording. Closing it is up to the caller.
+	 */
+	public void setRecorder(TrajectoryRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Measure energy and momentum every so many updates, from the end of {@link #update}.
+	 * @param diagnostics	The measurements to take, or null for none. Shutting it down is up to the caller.
+	 */
+	public void setDiagnostics(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	/**
+	 * @return What the last step cost, phase by phase, updated at the end of every {@link #update}.
+	 */
+	public StepMetrics getMetrics() {
+		return metrics;
+	}
+
+	public int getParallelism() {
+		return parallel.getParallelism();
+	}
+
+	/**
+	 * @return The threads the universe is stepped on, for work done alongside its steps.
+	 */
+	Parallel getParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Stop the worker threads once the universe is no longer needed.
+	 */
+	public void shutdown() {
+		parallel.shutdown();
+	}
+
+	public int getWidth() {
+		return width;
 	}
 
-	public static void notifyCollision(Body b1, Body b2) {
-		collisions.put(b1, b2);
+	public int getHeight() {
+		return height;
 	}
 
 }
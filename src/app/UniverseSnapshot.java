@@ -0,0 +1,117 @@
+package app;
+
+/**
+ * A copy of a {@link Universe} as it was at the end of a step, for drawing and picking on another thread while
+ * the universe carries on. Holds the bodies with their trails, the sun, a copy of the Barnes-Hut tree if it was
+ * current, the bodies changed since that tree was built, and the settings shown on screen. {@link Simulation} fills these in and
+ * hands them out; once filled, a snapshot doesn't change until the thread drawing it is done with it.
+ */
+public class UniverseSnapshot {
+
+	private final BodyStore bodies = new BodyStore();
+	private final BHTree tree = new BHTree();
+	private boolean hasTree;
+	private final IntList changedSinceBuild = new IntList();
+	private final Body sun = new Body("Sol", 0, 0, 0, 0);
+	private final SpatialQueries queries = new SpatialQueries();
+	private long step;
+	private long capturedNanos;
+	private float openingAngle;
+	private float gravityConstant;
+	private OpeningCriterion openingCriterion;
+	private Integrator integrator;
+
+	/**
+	 * Copy a universe, trails and all, from the thread that steps it, between updates. Costs a few array copies.
+	 */
+	void capture(Universe universe) {
+		bodies.copyFrom(universe.getBodies());
+		BHTree universeTree = universe.getTree();
+		hasTree = universeTree != null;
+		if (hasTree) {
+			tree.copyFrom(universeTree, bodies);
+		}
+		IntList changed = universe.getChangedSinceBuild();
+		changedSinceBuild.clear();
+		for (int k = 0; k < changed.size(); k++) {
+			changedSinceBuild.add(changed.get(k));
+		}
+		sun.copyFrom(universe.getSun());
+		step = universe.getSteps();
+		openingAngle = universe.getOpeningAngle();
+		gravityConstant = universe.getGravityConstant();
+		openingCriterion = universe.getOpeningCriterion();
+		integrator = universe.getIntegrator();
+		capturedNanos = System.nanoTime();
+	}
+
+	/**
+	 * Find what is under a point, as {@link Universe#getBodyAt} does, in the snapshot.
+	 * @return The id of the body under the point, {@link Universe#SUN} or {@link Universe#NO_BODY}.
+	 */
+	public int getBodyAt(int x, int y) {
+		if (sun.containsPoint(x, y)) {
+			return Universe.SUN;
+		}
+		int index = queries.findContaining(bodies, getTree(), changedSinceBuild, x, y);
+		return index >= 0 ? bodies.idAt(index) : Universe.NO_BODY;
+	}
+
+	public BodyStore getBodies() {
+		return bodies;
+	}
+
+	/**
+	 * @return A copy of the tree built during the step, or null if the universe had no current Barnes-Hut tree.
+	 * See {@link Universe#getTree} for how it relates to the bodies.
+	 */
+	public BHTree getTree() {
+		return hasTree && tree.getNodeCount() > 0 ? tree : null;
+	}
+
+	/**
+	 * @return See {@link Universe#getChangedSinceBuild}.
+	 */
+	public IntList getChangedSinceBuild() {
+		return changedSinceBuild;
+	}
+
+	public Body getSun() {
+		return sun;
+	}
+
+	public int getNumberOfBodies() {
+		return bodies.size();
+	}
+
+	/**
+	 * @return The number of steps the universe had taken.
+	 */
+	public long getStep() {
+		return step;
+	}
+
+	/**
+	 * @return When the snapshot was taken, from {@link System#nanoTime}.
+	 */
+	public long getCapturedNanos() {
+		return capturedNanos;
+	}
+
+	public float getOpeningAngle() {
+		return openingAngle;
+	}
+
+	public float getGravityConstant() {
+		return gravityConstant;
+	}
+
+	public OpeningCriterion getOpeningCriterion() {
+		return openingCriterion;
+	}
+
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+
+}
@@ -0,0 +1,92 @@
+package app;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link DirectKernel} on the incubating Vector API, a full SIMD register of sources at a time. Only loaded by
+ * name, so that the rest of the simulation still runs on a JVM started without the jdk.incubator.vector module.
+ *
+ * Targets are taken four at a time, so that every load of sources is used four times.
+ */
+final class VectorDirectKernel implements DirectKernel {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	private static final FloatVector ONE = FloatVector.broadcast(SPECIES, 1f);
+
+	@Override
+	public int lanes() {
+		return SPECIES.length();
+	}
+
+	@Override
+	public void accumulate(float[] x, float[] y, float[] m, int targetFrom, int targetTo, int sourceFrom, int sourceTo,
+			float softening2, float[] ax, float[] ay) {
+		int t = targetFrom;
+		for (; t + 4 <= targetTo; t += 4) {
+			float x0 = x[t], x1 = x[t + 1], x2 = x[t + 2], x3 = x[t + 3];
+			float y0 = y[t], y1 = y[t + 1], y2 = y[t + 2], y3 = y[t + 3];
+			FloatVector ax0 = FloatVector.zero(SPECIES), ay0 = ax0, ax1 = ax0, ay1 = ax0;
+			FloatVector ax2 = ax0, ay2 = ax0, ax3 = ax0, ay3 = ax0;
+			for (int s = sourceFrom; s < sourceTo; s += SPECIES.length()) {
+				FloatVector sx = FloatVector.fromArray(SPECIES, x, s);
+				FloatVector sy = FloatVector.fromArray(SPECIES, y, s);
+				FloatVector sm = FloatVector.fromArray(SPECIES, m, s);
+
+				FloatVector dx = sx.sub(x0), dy = sy.sub(y0);
+				FloatVector f = strength(dx, dy, sm, softening2);
+				ax0 = f.fma(dx, ax0);
+				ay0 = f.fma(dy, ay0);
+
+				dx = sx.sub(x1);
+				dy = sy.sub(y1);
+				f = strength(dx, dy, sm, softening2);
+				ax1 = f.fma(dx, ax1);
+				ay1 = f.fma(dy, ay1);
+
+				dx = sx.sub(x2);
+				dy = sy.sub(y2);
+				f = strength(dx, dy, sm, softening2);
+				ax2 = f.fma(dx, ax2);
+				ay2 = f.fma(dy, ay2);
+
+				dx = sx.sub(x3);
+				dy = sy.sub(y3);
+				f = strength(dx, dy, sm, softening2);
+				ax3 = f.fma(dx, ax3);
+				ay3 = f.fma(dy, ay3);
+			}
+			ax[t] += ax0.reduceLanes(VectorOperators.ADD);
+			ay[t] += ay0.reduceLanes(VectorOperators.ADD);
+			ax[t + 1] += ax1.reduceLanes(VectorOperators.ADD);
+			ay[t + 1] += ay1.reduceLanes(VectorOperators.ADD);
+			ax[t + 2] += ax2.reduceLanes(VectorOperators.ADD);
+			ay[t + 2] += ay2.reduceLanes(VectorOperators.ADD);
+			ax[t + 3] += ax3.reduceLanes(VectorOperators.ADD);
+			ay[t + 3] += ay3.reduceLanes(VectorOperators.ADD);
+		}
+		for (; t < targetTo; t++) {
+			FloatVector sumX = FloatVector.zero(SPECIES), sumY = sumX;
+			for (int s = sourceFrom; s < sourceTo; s += SPECIES.length()) {
+				FloatVector dx = FloatVector.fromArray(SPECIES, x, s).sub(x[t]);
+				FloatVector dy = FloatVector.fromArray(SPECIES, y, s).sub(y[t]);
+				FloatVector f = strength(dx, dy, FloatVector.fromArray(SPECIES, m, s), softening2);
+				sumX = f.fma(dx, sumX);
+				sumY = f.fma(dy, sumY);
+			}
+			ax[t] += sumX.reduceLanes(VectorOperators.ADD);
+			ay[t] += sumY.reduceLanes(VectorOperators.ADD);
+		}
+	}
+
+	/**
+	 * @return m / (r^2 + eps^2)^(3/2) in each lane, or 0 where the source is exactly on the target.
+	 */
+	private static FloatVector strength(FloatVector dx, FloatVector dy, FloatVector m, float softening2) {
+		FloatVector softened = dx.fma(dx, dy.mul(dy)).add(softening2);
+		FloatVector inverse = ONE.div(softened.lanewise(VectorOperators.SQRT)).blend(0f, softened.eq(0f));
+		return m.mul(inverse).mul(inverse).mul(inverse);
+	}
+
+}
@@ -0,0 +1,34 @@
+package render;
+
+import org.newdawn.slick.Color;
+
+/**
+ * One color at a fixed number of transparencies, made up front so that drawing a frame doesn't allocate a
+ * {@link Color} for every line and circle.
+ */
+public class AlphaRamp {
+
+	private final Color[] colors;
+
+	/**
+	 * @param levels	Number of transparencies between fully transparent and the base color's own alpha
+	 */
+	public AlphaRamp(Color base, int levels) {
+		colors = new Color[levels + 1];
+		for (int level = 0; level <= levels; level++) {
+			colors[level] = new Color(base.r, base.g, base.b, base.a * level / levels);
+		}
+	}
+
+	/**
+	 * @param alpha	Fraction of the base color's alpha, clamped to 0..1 and rounded to the nearest level
+	 */
+	public Color get(float alpha) {
+		if (!(alpha > 0)) {
+			return colors[0];
+		}
+		int last = colors.length - 1;
+		return alpha >= 1 ? colors[last] : colors[Math.round(alpha * last)];
+	}
+
+}
@@ -0,0 +1,22 @@
+package render;
+
+import org.newdawn.slick.Color;
+
+public class RenderConfig {
+
+	// Bodies with mass less than this won't have their circles drawn (but labels still will be)
+	public static final float NODE_MIN_DRAW_MASS = 50;
+
+	public static final Color COLOR_BODY = new Color(210, 235, 240);
+	public static final Color COLOR_SUN = new Color(220, 150, 70);
+	public static final Color COLOR_TEXT = Color.white;
+	public static final Color COLOR_BACKGROUND = new Color(0, 24, 43);
+	public static final Color COLOR_WHITE = new Color(255, 255, 255);
+	public static final Color COLOR_QUAD_TREE = new Color(0, 255, 0);
+	// Transparencies made up front for each color that is drawn see-through
+	public static final int ALPHA_LEVELS = 64;
+
+	public static final float QUAD_TREE_LINE_WIDTH_MOD = 0.0005f;
+	public static final float QUAD_TREE_LINE_COLOR_MOD = 2f;
+
+}
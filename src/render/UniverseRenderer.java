@@ -0,0 +1,306 @@
+package render;
+
+import org.newdawn.slick.Graphics;
+
+import app.BHTree;
+import app.Body;
+import app.BodyStore;
+import app.IntList;
+import app.TrailBuffer;
+import app.Universe;
+import app.UniverseSnapshot;
+
+/**
+ * Draws a {@link Universe} with Slick, from a {@link UniverseSnapshot} of it, so that it can be drawn while it is
+ * being stepped on another thread. Keeps all of the rendering types out of the physics classes, so that the
+ * simulation can also be stepped headless.
+ *
+ * Only what is inside the viewport is drawn. With the Barnes-Hut tree the renderer walks the tree from the root,
+ * skipping every node whose bodies can't reach into the viewport, and drawing a node smaller than a pixel as a
+ * single point at its center of mass rather than descending into it, so that the cost of a frame follows what
+ * is on screen rather than the number of bodies. Without a tree every body is tested against the viewport on its
+ * own. Colors are made up front, and shapes are drawn without allocating.
+ *
+ * Given the snapshot before as well, bodies are drawn part of the way from where they were in it to where they
+ * are in the latest, so that they move smoothly however the steps and frames fall. The tree is the latest one,
+ * built from where the bodies were at the start of the step, which the extents of its nodes still cover.
+ */
+public class UniverseRenderer {
+
+	private boolean drawQuadTree = true;
+
+	// The part of the universe on screen, and the width of a screen pixel in universe units. Everything, with no
+	// pixel size, until setViewport is called.
+	private float viewLeft = Float.NEGATIVE_INFINITY;
+	private float viewTop = Float.NEGATIVE_INFINITY;
+	private float viewRight = Float.POSITIVE_INFINITY;
+	private float viewBottom = Float.POSITIVE_INFINITY;
+	private float pixelSize = 0;
+
+	private final AlphaRamp bodyColors = new AlphaRamp(RenderConfig.COLOR_BODY, RenderConfig.ALPHA_LEVELS);
+	private final AlphaRamp sunColors = new AlphaRamp(RenderConfig.COLOR_SUN, RenderConfig.ALPHA_LEVELS);
+	private final AlphaRamp treeColors = new AlphaRamp(RenderConfig.COLOR_QUAD_TREE, RenderConfig.ALPHA_LEVELS);
+	// Store indices of the bodies drawn whole this frame, which the gravity lines are drawn for
+	private final IntList drawn = new IntList();
+	// Frame in which each store index was last marked as changed since the tree was built, so that the walk
+	// leaves those bodies to be drawn on their own
+	private int[] changedInFrame = new int[0];
+	private int frame;
+
+	// State of the frame being drawn, for the gravity visitor
+	private Graphics graphics;
+	private BodyStore bodies;
+	private BHTree tree;
+	// The bodies of the snapshot before, or null, and how far to draw from them to the latest (0 to 1)
+	private BodyStore previousBodies;
+	private float interpolation;
+	private float gravityConstant;
+
+	private final BHTree.InteractionVisitor gravityVisitor = new BHTree.InteractionVisitor() {
+		@Override
+		public void interaction(int node, int source, int body, float gravity) {
+			float alpha = gravity * 1000;
+			if (alpha > 0.01) {
+				graphics.setColor(bodyColors.get(alpha));
+				if (source >= 0) {
+					graphics.drawLine(x(body), y(body), x(source), y(source));
+				}
+				else
+					graphics.drawLine(x(body), y(body), tree.getCenterX(node), tree.getCenterY(node));
+			}
+		}
+	};
+
+	/**
+	 * Set the part of the universe that is on screen.
+	 * @param pixelSize	Width of a screen pixel in universe units. Anything smaller is drawn as a point.
+	 */
+	public void setViewport(float left, float top, float right, float bottom, float pixelSize) {
+		viewLeft = left;
+		viewTop = top;
+		viewRight = right;
+		viewBottom = bottom;
+		this.pixelSize = pixelSize;
+	}
+
+	/**
+	 * @param previous		The snapshot before the latest, or null to draw the latest as it is
+	 * @param interpolation	How far to draw the bodies from where they were in previous (0) to the latest (1)
+	 */
+	public void draw(Graphics g, UniverseSnapshot latest, UniverseSnapshot previous, float interpolation) {
+		Body sun = latest.getSun();
+		graphics = g;
+		bodies = latest.getBodies();
+		tree = latest.getTree();
+		previousBodies = previous != null && interpolation < 1 ? previous.getBodies() : null;
+		this.interpolation = interpolation;
+		gravityConstant = latest.getGravityConstant();
+		drawn.clear();
+		if (tree != null && tree.getNodeCount() > 0) {
+			drawChangedBodies(g, latest.getChangedSinceBuild());
+			drawNode(g, 0);
+		}
+		else {
+			for (int i = 0; i < bodies.size(); i++) {
+				drawVisibleBody(g, i);
+			}
+		}
+		if (isVisible(sun.getX(), sun.getY(), sun.getRadius())) {
+			drawBody(g, sun.getX(), sun.getY(), 0, 0, sun.getMass(), sun.getRadius(), sun.getName(), null, -1, sunColors);
+		}
+		if (drawQuadTree) {
+			for (int k = 0; k < drawn.size(); k++) {
+				int i = drawn.get(k);
+				drawGravityLine(g, x(i), y(i), sun);
+			}
+		}
+		g.setColor(RenderConfig.COLOR_TEXT);
+		if (drawQuadTree && tree != null && tree.getNodeCount() > 0) {
+			drawTree(g, 0);
+			drawGravity(g);
+		}
+		graphics = null;
+		bodies = null;
+		tree = null;
+		previousBodies = null;
+	}
+
+	public void toggleDrawQuadTree() {
+		drawQuadTree = !drawQuadTree;
+	}
+
+	/**
+	 * Draw the bodies of a node that can reach into the viewport. The tree was built at the start of the last
+	 * step, so the bodies have moved since, but only by more than the node's extent if their acceleration jumped.
+	 */
+	private void drawNode(Graphics g, int node) {
+		int child = tree.getFirstChild(node);
+		if (child < 0 && tree.getContainedBody(node) < 0) {
+			return;
+		}
+		float extent = tree.getExtent(node);
+		float left = tree.getXSmall(node) - extent;
+		float top = tree.getYSmall(node) - extent;
+		float size = Math.max(tree.getWidth(node), tree.getHeight(node)) + 2 * extent;
+		if (!intersects(left, top, left + size, top + size)) {
+			return;
+		}
+		if (size < pixelSize) {
+			g.setColor(bodyColors.get(1));
+			drawPoint(g, tree.getCenterOfMassX(node), tree.getCenterOfMassY(node));
+			return;
+		}
+		if (child < 0) {
+			for (int b = tree.getContainedBody(node); b >= 0; b = tree.getNextInLeaf(b)) {
+				// Removed, or already drawn as changed
+				if (b < bodies.size() && changedInFrame[b] != frame) {
+					drawVisibleBody(g, b);
+				}
+			}
+			return;
+		}
+		for (int q = child; q < child + 4; q++) {
+			drawNode(g, q);
+		}
+	}
+
+	/**
+	 * Draw the bodies that the tree no longer places correctly, each once, and mark them so that the walk
+	 * skips them.
+	 */
+	private void drawChangedBodies(Graphics g, IntList changed) {
+		frame++;
+		if (changedInFrame.length < bodies.size()) {
+			changedInFrame = new int[Math.max(bodies.size(), changedInFrame.length * 2)];
+			frame = 1;
+		}
+		for (int k = 0; k < changed.size(); k++) {
+			int i = changed.get(k);
+			if (i < bodies.size() && changedInFrame[i] != frame) {
+				changedInFrame[i] = frame;
+				drawVisibleBody(g, i);
+			}
+		}
+	}
+
+	private void drawVisibleBody(Graphics g, int i) {
+		float x = x(i);
+		float y = y(i);
+		float radius = bodies.getRadius(i);
+		if (!isVisible(x, y, radius)) {
+			return;
+		}
+		if (2 * radius < pixelSize) {
+			g.setColor(bodyColors.get(1));
+			drawPoint(g, x, y);
+			return;
+		}
+		drawBody(g, x, y, bodies.getVelocityX(i), bodies.getVelocityY(i), bodies.getMass(i), radius, bodies.getName(i),
+				bodies.getTrails(), i, bodyColors);
+		drawn.add(i);
+	}
+
+	/**
+	 * @param trails	Trails of the body's store, or null for none
+	 * @param index		Index of the body in that store
+	 */
+	private void drawBody(Graphics g, float x, float y, float vx, float vy, float mass, float radius, String name,
+			TrailBuffer trails, int index, AlphaRamp colors) {
+		g.setColor(colors.get(1));
+		if (mass > RenderConfig.NODE_MIN_DRAW_MASS) {
+			g.setAntiAlias(true);
+			g.fillOval(x - radius, y - radius, 2 * radius, 2 * radius);
+			int count = trails != null ? trails.getCount(index) : 0;
+			if (count > 0) {
+				// Fading out from the newest sample to the oldest
+				for (int k = 0; k < count; k++) {
+					g.setColor(colors.get(1 - (k + 1f) / (count + 1)));
+					g.fillOval(trails.getX(index, k) - radius, trails.getY(index, k) - radius, 2 * radius, 2 * radius);
+				}
+				g.setColor(colors.get(1));
+			}
+		}
+		g.drawString(name, x + radius, y + radius / 2);
+
+		// Draw velocity
+		g.drawLine(x, y, x + vx, y + vy);
+	}
+
+	private void drawPoint(Graphics g, float x, float y) {
+		g.fillRect(x - pixelSize / 2, y - pixelSize / 2, pixelSize, pixelSize);
+	}
+
+	private void drawGravityLine(Graphics g, float x, float y, Body sun) {
+		float gravity = sun.getGravityMagnitudeToward(x, y, gravityConstant);
+		float alpha = gravity * 100;
+		if (alpha > 0.01) {
+			g.setColor(bodyColors.get(alpha));
+			g.setLineWidth(4);
+
+			g.drawLine(x, y, sun.getX(), sun.getY());
+			g.resetLineWidth();
+		}
+	}
+
+	/**
+	 * Draw the visible nodes, down to those about a pixel wide.
+	 */
+	private void drawTree(Graphics g, int node) {
+		float left = tree.getXSmall(node);
+		float top = tree.getYSmall(node);
+		float width = tree.getWidth(node);
+		float height = tree.getHeight(node);
+		if (!intersects(left, top, left + width, top + height)) {
+			return;
+		}
+		int child = tree.getFirstChild(node);
+		if (child >= 0 && width >= pixelSize) {
+			for (int q = child; q < child + 4; q++) {
+				drawTree(g, q);
+			}
+		}
+		float mass = tree.getMass(node);
+		if (mass > 0) {
+			g.setColor(treeColors.get(mass * RenderConfig.QUAD_TREE_LINE_COLOR_MOD));
+			g.setLineWidth(mass * RenderConfig.QUAD_TREE_LINE_WIDTH_MOD);
+
+			g.drawRect(left, top, width, height);
+			g.resetLineWidth();
+		}
+	}
+
+	/**
+	 * Draw the gravity of each node enacted on each body drawn, by walking the tree again for each of them.
+	 */
+	private void drawGravity(Graphics g) {
+		g.setLineWidth(4);
+		for (int k = 0; k < drawn.size(); k++) {
+			tree.visitInteractions(drawn.get(k), gravityVisitor);
+		}
+		g.resetLineWidth();
+	}
+
+	/**
+	 * @return Where to draw a body across, between the two snapshots.
+	 */
+	private float x(int i) {
+		float x = bodies.getX(i);
+		int before = previousBodies != null ? previousBodies.indexOf(bodies.idAt(i)) : -1;
+		return before < 0 ? x : previousBodies.getX(before) + (x - previousBodies.getX(before)) * interpolation;
+	}
+
+	private float y(int i) {
+		float y = bodies.getY(i);
+		int before = previousBodies != null ? previousBodies.indexOf(bodies.idAt(i)) : -1;
+		return before < 0 ? y : previousBodies.getY(before) + (y - previousBodies.getY(before)) * interpolation;
+	}
+
+	private boolean isVisible(float x, float y, float radius) {
+		return intersects(x - radius, y - radius, x + radius, y + radius);
+	}
+
+	private boolean intersects(float left, float top, float right, float bottom) {
+		return right >= viewLeft && left <= viewRight && bottom >= viewTop && top <= viewBottom;
+	}
+
+}
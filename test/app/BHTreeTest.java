@@ -0,0 +1,280 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BHTreeTest {
+
+	@Test
+	void sortedBuildMatchesInsertionBuild() {
+		BodyStore bodies = TestBodies.random(5000, 20000, 1);
+		BHTree inserted = new BHTree();
+		inserted.build(bodies);
+		BHTree sorted = new BHTree();
+		Parallel parallel = new Parallel(4);
+		try {
+			sorted.buildSorted(bodies, parallel);
+		}
+		finally {
+			parallel.shutdown();
+		}
+
+		assertEquals(inserted.getNodeCount(), sorted.getNodeCount());
+		assertSameNode(inserted, 0, sorted, 0);
+	}
+
+	@Test
+	void sortedBuildGivesTheSameAccelerations() {
+		BodyStore bodies = TestBodies.random(5000, 20000, 2);
+		BHTree inserted = new BHTree();
+		inserted.build(bodies);
+		float[][] expected = accelerations(inserted, bodies);
+		BHTree sorted = new BHTree();
+		Parallel parallel = new Parallel(1);
+		try {
+			sorted.buildSorted(bodies, parallel);
+		}
+		finally {
+			parallel.shutdown();
+		}
+		float[][] actual = accelerations(sorted, bodies);
+
+		for (int i = 0; i < bodies.size(); i++) {
+			float scale = (float) Math.hypot(expected[0][i], expected[1][i]);
+			assertEquals(expected[0][i], actual[0][i], 1e-4f * scale + 1e-12f, "ax of body " + i);
+			assertEquals(expected[1][i], actual[1][i], 1e-4f * scale + 1e-12f, "ay of body " + i);
+		}
+	}
+
+	@Test
+	void refitMatchesAFreshBuild() {
+		assertRefitMatchesAFreshBuild(1);
+	}
+
+	@Test
+	void parallelRefitMatchesAFreshBuild() {
+		assertRefitMatchesAFreshBuild(4);
+	}
+
+	@Test
+	void refitLeavesOutBodiesThatLeftTheRoot() {
+		BodyStore bodies = TestBodies.random(3000, 20000, 5);
+		BHTree tree = new BHTree();
+		tree.build(bodies);
+		bodies.x[17] = -1e6f;
+		bodies.y[17] = 1e6f;
+		Parallel parallel = new Parallel(1);
+		try {
+			assertTrue(tree.refit(bodies, parallel));
+		}
+		finally {
+			parallel.shutdown();
+		}
+		int[] leafOf = assertConsistent(tree, bodies);
+		assertEquals(-1, leafOf[17], "leaf of the body that left");
+		float mass = 0;
+		for (int i = 0; i < bodies.size(); i++) {
+			mass += i == 17 ? 0 : bodies.mass[i];
+		}
+		assertEquals(mass, tree.getMass(0), 1e-5f * mass, "mass of the root");
+	}
+
+	@Test
+	void refitGivesUp() {
+		BodyStore bodies = TestBodies.random(3000, 20000, 6);
+		BHTree tree = new BHTree();
+		tree.build(bodies);
+		Parallel parallel = new Parallel(1);
+		try {
+			// Not the store it was built from
+			assertFalse(tree.refit(TestBodies.random(3000, 20000, 6), parallel));
+			// Too many bodies out of their leaves
+			Random random = new Random(7);
+			for (int i = 0; i < bodies.size(); i += 2) {
+				bodies.x[i] = random.nextFloat() * 20000;
+				bodies.y[i] = random.nextFloat() * 20000;
+			}
+			assertFalse(tree.refit(bodies, parallel));
+			tree.build(bodies);
+			// Too many bodies out of the root
+			for (int i = 0; i < 10; i++) {
+				bodies.x[i] = -1e6f;
+			}
+			assertFalse(tree.refit(bodies, parallel));
+			assertEquals(0, tree.getRefitCount());
+		}
+		finally {
+			parallel.shutdown();
+		}
+		// Built again, the tree holds every body
+		tree.build(bodies);
+		assertConsistent(tree, bodies);
+	}
+
+	/**
+	 * Build, move every body by a step, throw a few elsewhere, swap-remove some and add others, then refit. The
+	 * refitted tree divides space its own way, so it is compared with a fresh build by its total and by the
+	 * accelerations, and checked node by node against the bodies it holds.
+	 */
+	private static void assertRefitMatchesAFreshBuild(int threads) {
+		BodyStore bodies = TestBodies.random(3000, 20000, 4);
+		BHTree refitted = new BHTree();
+		refitted.setOpeningAngle(0.5f);
+		refitted.build(bodies);
+		Random random = new Random(threads);
+		for (int i = 0; i < bodies.size(); i++) {
+			bodies.x[i] += bodies.vx[i] * 20;
+			bodies.y[i] += bodies.vy[i] * 20;
+		}
+		for (int k = 0; k < 40; k++) {
+			int i = random.nextInt(bodies.size());
+			bodies.x[i] = random.nextFloat() * 20000;
+			bodies.y[i] = random.nextFloat() * 20000;
+		}
+		for (int k = 0; k < 60; k++) {
+			bodies.remove(bodies.idAt(random.nextInt(bodies.size())));
+		}
+		for (int k = 0; k < 25; k++) {
+			bodies.add("new " + k, random.nextFloat() * 20000, random.nextFloat() * 20000, 0, 0, 0.1f + random.nextFloat());
+		}
+		Parallel parallel = new Parallel(threads);
+		try {
+			assertTrue(refitted.refit(bodies, parallel));
+		}
+		finally {
+			parallel.shutdown();
+		}
+		assertEquals(1, refitted.getRefitCount());
+		int[] leafOf = assertConsistent(refitted, bodies);
+		for (int i = 0; i < bodies.size(); i++) {
+			assertTrue(leafOf[i] >= 0, "body " + i + " is in the tree");
+		}
+
+		BHTree built = new BHTree();
+		built.setOpeningAngle(0.5f);
+		built.build(bodies);
+		float mass = built.getMass(0);
+		assertEquals(mass, refitted.getMass(0), 1e-5f * mass, "mass of the root");
+		assertEquals(built.getCenterOfMassX(0), refitted.getCenterOfMassX(0), 1e-2f, "center of mass of the root");
+		assertEquals(built.getCenterOfMassY(0), refitted.getCenterOfMassY(0), 1e-2f, "center of mass of the root");
+
+		float[][] expected = accelerations(built, bodies);
+		float[][] actual = accelerations(refitted, bodies);
+		double error = 0, scale = 0;
+		for (int i = 0; i < bodies.size(); i++) {
+			double dx = actual[0][i] - expected[0][i];
+			double dy = actual[1][i] - expected[1][i];
+			error += dx * dx + dy * dy;
+			scale += (double) expected[0][i] * expected[0][i] + (double) expected[1][i] * expected[1][i];
+		}
+		assertTrue(Math.sqrt(error / scale) < 1e-5, "relative RMS difference " + Math.sqrt(error / scale));
+	}
+
+	/**
+	 * Check that every body is in at most one leaf, inside its bounds, and that every node's mass and center of
+	 * mass are those of the bodies under it.
+	 * @return The leaf of each body, or -1 for bodies not in the tree.
+	 */
+	private static int[] assertConsistent(BHTree tree, BodyStore bodies) {
+		int[] leafOf = new int[bodies.size()];
+		Arrays.fill(leafOf, -1);
+		assertSubtree(tree, 0, bodies, leafOf);
+		return leafOf;
+	}
+
+	/**
+	 * @return The mass, and mass times x and y, of the bodies under a node.
+	 */
+	private static double[] assertSubtree(BHTree tree, int node, BodyStore bodies, int[] leafOf) {
+		double[] sums = new double[3];
+		int child = tree.getFirstChild(node);
+		if (child >= 0) {
+			for (int q = child; q < child + 4; q++) {
+				double[] quadrant = assertSubtree(tree, q, bodies, leafOf);
+				for (int k = 0; k < 3; k++) {
+					sums[k] += quadrant[k];
+				}
+			}
+		}
+		else {
+			for (int b = tree.getContainedBody(node); b >= 0; b = tree.getNextInLeaf(b)) {
+				assertTrue(b < bodies.size(), "leaf " + node + " holds removed body " + b);
+				assertEquals(-1, leafOf[b], "body " + b + " is in two leaves");
+				leafOf[b] = node;
+				float x = bodies.x[b];
+				float y = bodies.y[b];
+				assertTrue(x >= tree.getXSmall(node) && x < tree.getXSmall(node) + tree.getWidth(node)
+						&& y >= tree.getYSmall(node) && y < tree.getYSmall(node) + tree.getHeight(node),
+						"body " + b + " is inside leaf " + node);
+				sums[0] += bodies.mass[b];
+				sums[1] += (double) bodies.mass[b] * x;
+				sums[2] += (double) bodies.mass[b] * y;
+			}
+		}
+		float mass = tree.getMass(node);
+		assertEquals(sums[0], mass, 1e-5 * sums[0], "mass of node " + node);
+		if (sums[0] > 0) {
+			// Rounding grows with the size of the node and with how far it is from the origin
+			double x = sums[1] / sums[0];
+			double y = sums[2] / sums[0];
+			double tolerance = 1e-4 * tree.getWidth(node) + 1e-6 * (Math.abs(x) + Math.abs(y)) + 1e-2;
+			assertEquals(x, tree.getCenterOfMassX(node), tolerance, "center of mass of node " + node);
+			assertEquals(y, tree.getCenterOfMassY(node), tolerance, "center of mass of node " + node);
+		}
+		return sums;
+	}
+
+	/**
+	 * Walk both trees together, checking that they divide space the same way and agree on every moment.
+	 */
+	private static void assertSameNode(BHTree a, int nodeA, BHTree b, int nodeB) {
+		assertEquals(a.getXSmall(nodeA), b.getXSmall(nodeB), "left of node " + nodeA);
+		assertEquals(a.getYSmall(nodeA), b.getYSmall(nodeB), "top of node " + nodeA);
+		assertEquals(a.getWidth(nodeA), b.getWidth(nodeB), "width of node " + nodeA);
+		float mass = a.getMass(nodeA);
+		// The moments are summed in a different order by each build
+		assertEquals(mass, b.getMass(nodeB), 1e-5f * mass, "mass of node " + nodeA);
+		if (mass > 0) {
+			float tolerance = 1e-4f * a.getWidth(nodeA) + 1e-3f;
+			assertEquals(a.getCenterOfMassX(nodeA), b.getCenterOfMassX(nodeB), tolerance, "center of mass of node " + nodeA);
+			assertEquals(a.getCenterOfMassY(nodeA), b.getCenterOfMassY(nodeB), tolerance, "center of mass of node " + nodeA);
+		}
+		int childA = a.getFirstChild(nodeA);
+		int childB = b.getFirstChild(nodeB);
+		assertEquals(childA < 0, childB < 0, "split of node " + nodeA);
+		if (childA < 0) {
+			int bodyA = a.getContainedBody(nodeA);
+			int bodyB = b.getContainedBody(nodeB);
+			while (bodyA >= 0 || bodyB >= 0) {
+				assertEquals(bodyA, bodyB, "bodies of leaf " + nodeA);
+				bodyA = a.getNextInLeaf(bodyA);
+				bodyB = b.getNextInLeaf(bodyB);
+			}
+			return;
+		}
+		for (int q = 0; q < 4; q++) {
+			assertSameNode(a, childA + q, b, childB + q);
+		}
+	}
+
+	private static float[][] accelerations(BHTree tree, BodyStore bodies) {
+		int n = bodies.size();
+		float[][] result = new float[2][n];
+		for (int i = 0; i < n; i++) {
+			bodies.ax[i] = 0;
+			bodies.ay[i] = 0;
+			tree.updateGravity(i);
+			result[0][i] = bodies.ax[i];
+			result[1][i] = bodies.ay[i];
+			assertTrue(Float.isFinite(result[0][i]) && Float.isFinite(result[1][i]), "acceleration of body " + i);
+		}
+		return result;
+	}
+
+}
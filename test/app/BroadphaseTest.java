@@ -0,0 +1,102 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+class BroadphaseTest {
+
+	private static final float CELL_SIZE = 32;
+
+	@Test
+	void findsTheSamePairsAsBruteForce() {
+		Random random = new Random(3);
+		BodyStore bodies = new BodyStore();
+		for (int i = 0; i < 3000; i++) {
+			float x = random.nextFloat() * 2000;
+			float y = random.nextFloat() * 2000;
+			bodies.add(null, x, y, 0, 0, 1);
+			bodies.radius[i] = 1 + random.nextFloat() * 10;
+		}
+		assertSamePairs(bodies);
+	}
+
+	@Test
+	void findsPairsAcrossCellEdges() {
+		BodyStore bodies = new BodyStore();
+		// Pairs whose centers sit just either side of a cell edge, corner or the origin
+		addBody(bodies, CELL_SIZE - 0.5f, 10, 1);
+		addBody(bodies, CELL_SIZE + 0.5f, 10, 1);
+		addBody(bodies, 2 * CELL_SIZE - 0.5f, 2 * CELL_SIZE - 0.5f, 1);
+		addBody(bodies, 2 * CELL_SIZE + 0.5f, 2 * CELL_SIZE + 0.5f, 1);
+		addBody(bodies, -0.5f, -0.5f, 1);
+		addBody(bodies, 0.5f, 0.5f, 1);
+		// Touching exactly
+		addBody(bodies, 5 * CELL_SIZE - 2, 100, 2);
+		addBody(bodies, 5 * CELL_SIZE + 2, 100, 2);
+		// A near miss across an edge
+		addBody(bodies, 7 * CELL_SIZE - 1.1f, 10, 1);
+		addBody(bodies, 7 * CELL_SIZE + 1.1f, 10, 1);
+		Set<String> pairs = assertSamePairs(bodies);
+		assertEquals(4, pairs.size());
+	}
+
+	@Test
+	void findsPairsWithBodiesMuchLargerThanACell() {
+		Random random = new Random(4);
+		BodyStore bodies = new BodyStore();
+		addBody(bodies, 500, 500, 10 * CELL_SIZE);
+		addBody(bodies, 1500, 900, 4 * CELL_SIZE);
+		for (int i = 0; i < 2000; i++) {
+			addBody(bodies, random.nextFloat() * 2000, random.nextFloat() * 2000, 0.5f + random.nextFloat() * 3);
+		}
+		Set<String> pairs = assertSamePairs(bodies);
+		assertTrue(pairs.size() > 100, "the large bodies overlap many small ones");
+	}
+
+	private static void addBody(BodyStore bodies, float x, float y, float radius) {
+		bodies.add(null, x, y, 0, 0, 1);
+		bodies.radius[bodies.size() - 1] = radius;
+	}
+
+	/**
+	 * @return The pairs found, which are checked against testing every pair, on one thread and on several.
+	 */
+	private static Set<String> assertSamePairs(BodyStore bodies) {
+		Set<String> expected = new TreeSet<String>();
+		for (int i = 0; i < bodies.size(); i++) {
+			for (int j = i + 1; j < bodies.size(); j++) {
+				float dx = bodies.x[i] - bodies.x[j];
+				float dy = bodies.y[i] - bodies.y[j];
+				float reach = bodies.radius[i] + bodies.radius[j];
+				if (dx * dx + dy * dy <= reach * reach) {
+					expected.add(i + "-" + j);
+				}
+			}
+		}
+		for (int threads : new int[] { 1, 4 }) {
+			Parallel parallel = new Parallel(threads);
+			try {
+				IntList pairs = new IntList();
+				new Broadphase(CELL_SIZE).findCollisions(bodies, pairs, parallel);
+				Set<String> found = new TreeSet<String>();
+				for (int k = 0; k < pairs.size(); k += 2) {
+					int a = Math.min(pairs.get(k), pairs.get(k + 1));
+					int b = Math.max(pairs.get(k), pairs.get(k + 1));
+					assertTrue(found.add(a + "-" + b), "pair " + a + "-" + b + " reported twice");
+				}
+				assertEquals(expected, found, threads + " threads");
+			}
+			finally {
+				parallel.shutdown();
+			}
+		}
+		return expected;
+	}
+
+}
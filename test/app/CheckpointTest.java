@@ -0,0 +1,206 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void restoresWhatWasSaved() throws IOException {
+		Universe saved = savedUniverse();
+		Path path = directory.resolve("round-trip.ckpt");
+		Checkpoint.save(saved, path);
+
+		Universe restored = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		restored.addBody("to be replaced", 1, 2, 3, 4, 5);
+		Checkpoint.restore(restored, path);
+
+		assertSameUniverse(saved, restored);
+		// Both carry on the same way
+		saved.update();
+		restored.update();
+		assertSameUniverse(saved, restored);
+	}
+
+	@Test
+	void backgroundCheckpointsCanBeRestored() throws Exception {
+		Universe saved = savedUniverse();
+		Path path = directory.resolve("background.ckpt");
+		Checkpointer checkpointer = new Checkpointer(path, 3);
+		saved.setCheckpointer(checkpointer);
+		while (saved.getSteps() % 3 != 2) {
+			saved.update();
+		}
+		// The last step writes a checkpoint, which shutdown waits for
+		saved.update();
+		saved.setCheckpointer(null);
+		checkpointer.shutdown();
+		assertEquals(null, checkpointer.getLastError());
+		assertEquals(saved.getSteps(), checkpointer.getLastWrittenStep());
+
+		Universe restored = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		Checkpoint.restore(restored, path);
+		assertSameUniverse(saved, restored);
+	}
+
+	@Test
+	void truncatedCheckpointLeavesTheUniverseAlone() throws IOException {
+		Path path = directory.resolve("truncated.ckpt");
+		Checkpoint.save(savedUniverse(), path);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 7);
+		}
+		assertRejectedWithoutChange(path);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(50);
+		}
+		assertRejectedWithoutChange(path);
+	}
+
+	@Test
+	void badHeaderLeavesTheUniverseAlone() throws IOException {
+		Path path = directory.resolve("bad-header.ckpt");
+		Checkpoint.save(savedUniverse(), path);
+		byte[] good = Files.readAllBytes(path);
+
+		// Magic
+		byte[] bytes = good.clone();
+		bytes[0] = 'X';
+		Files.write(path, bytes);
+		assertRejectedWithoutChange(path);
+
+		// Version
+		bytes = good.clone();
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(8, 99);
+		Files.write(path, bytes);
+		assertRejectedWithoutChange(path);
+
+		// Integrator out of range
+		bytes = good.clone();
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(48, 1000);
+		Files.write(path, bytes);
+		assertRejectedWithoutChange(path);
+	}
+
+	/**
+	 * A checkpoint of the right size whose bodies don't add up is only found out after every section has been
+	 * read, which must still leave the universe as it was.
+	 */
+	@Test
+	void repeatedIdLeavesTheUniverseAlone() throws IOException {
+		Universe saved = savedUniverse();
+		Path path = directory.resolve("repeated-id.ckpt");
+		Checkpoint.save(saved, path);
+		byte[] bytes = Files.readAllBytes(path);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		int n = saved.getNumberOfBodies();
+		// The ids follow the header and the eight float columns
+		int idsAt = 128 + 32 * n;
+		buffer.putInt(idsAt + 4, buffer.getInt(idsAt));
+		Files.write(path, bytes);
+		assertRejectedWithoutChange(path);
+	}
+
+	/**
+	 * A universe with removed bodies, so that there are free ids, names that are missing or not ASCII, block
+	 * timestep levels and settings that differ from the defaults.
+	 */
+	private static Universe savedUniverse() {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		universe.setIntegrator(Integrator.LEAPFROG);
+		universe.setMaxTimestepLevel(3);
+		universe.setSoftening(1.5f);
+		universe.setGravityConstant(0.09f);
+		universe.setSun(new Body("Sol", 30000, 29000, 40000, 12));
+		BodyStore source = TestBodies.random(400, 4000, 7);
+		for (int i = 0; i < source.size(); i++) {
+			String name = i % 50 == 1 ? null : i % 50 == 2 ? "Ærø " + i : source.getName(i);
+			universe.addBody(name, 28000 + source.getX(i), 28000 + source.getY(i), source.getVelocityX(i),
+					source.getVelocityY(i), source.getMass(i));
+		}
+		for (int id = 5; id < 400; id += 37) {
+			universe.deleteBody(id);
+		}
+		for (int step = 0; step < 5; step++) {
+			universe.update();
+		}
+		return universe;
+	}
+
+	private void assertRejectedWithoutChange(Path path) {
+		Universe universe = untouchedUniverse();
+		assertThrows(IOException.class, () -> Checkpoint.restore(universe, path));
+		assertSameUniverse(untouchedUniverse(), universe);
+	}
+
+	/**
+	 * @return The same universe every time, with the default settings.
+	 */
+	private static Universe untouchedUniverse() {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		BodyStore source = TestBodies.random(50, 4000, 11);
+		for (int i = 0; i < source.size(); i++) {
+			universe.addBody(source.getName(i), 28000 + source.getX(i), 28000 + source.getY(i), source.getVelocityX(i),
+					source.getVelocityY(i), source.getMass(i));
+		}
+		universe.update();
+		return universe;
+	}
+
+	private static void assertSameUniverse(Universe expected, Universe actual) {
+		assertEquals(expected.getSteps(), actual.getSteps(), "steps");
+		assertEquals(expected.getForceEvaluations(), actual.getForceEvaluations(), "force evaluations");
+		assertEquals(expected.getIntegrator(), actual.getIntegrator(), "integrator");
+		assertEquals(expected.getMaxTimestepLevel(), actual.getMaxTimestepLevel(), "timestep levels");
+		assertEquals(expected.getGravityKernel(), actual.getGravityKernel(), "kernel");
+		assertEquals(expected.getSoftening(), actual.getSoftening(), "softening");
+		assertEquals(expected.getGravityConstant(), actual.getGravityConstant(), "gravity constant");
+		Body sun = expected.getSun();
+		assertEquals(sun.getX(), actual.getSun().getX(), "sun x");
+		assertEquals(sun.getY(), actual.getSun().getY(), "sun y");
+		assertEquals(sun.getMass(), actual.getSun().getMass(), "sun mass");
+		assertEquals(sun.getRadius(), actual.getSun().getRadius(), "sun radius");
+
+		BodyStore a = expected.getBodies();
+		BodyStore b = actual.getBodies();
+		int n = a.size();
+		assertEquals(n, b.size(), "bodies");
+		assertArrayEquals(Arrays.copyOf(a.x, n), Arrays.copyOf(b.x, n), "x");
+		assertArrayEquals(Arrays.copyOf(a.y, n), Arrays.copyOf(b.y, n), "y");
+		assertArrayEquals(Arrays.copyOf(a.vx, n), Arrays.copyOf(b.vx, n), "vx");
+		assertArrayEquals(Arrays.copyOf(a.vy, n), Arrays.copyOf(b.vy, n), "vy");
+		assertArrayEquals(Arrays.copyOf(a.ax, n), Arrays.copyOf(b.ax, n), "ax");
+		assertArrayEquals(Arrays.copyOf(a.ay, n), Arrays.copyOf(b.ay, n), "ay");
+		assertArrayEquals(Arrays.copyOf(a.mass, n), Arrays.copyOf(b.mass, n), "mass");
+		assertArrayEquals(Arrays.copyOf(a.radius, n), Arrays.copyOf(b.radius, n), "radius");
+		assertArrayEquals(Arrays.copyOf(a.level, n), Arrays.copyOf(b.level, n), "levels");
+		assertArrayEquals(Arrays.copyOf(a.name, n), Arrays.copyOf(b.name, n), "names");
+		for (int i = 0; i < n; i++) {
+			assertEquals(a.idAt(i), b.idAt(i), "id at " + i);
+			assertEquals(i, b.indexOf(b.idAt(i)), "index of id " + b.idAt(i));
+		}
+		assertEquals(a.getNextId(), b.getNextId(), "next id");
+		assertEquals(a.getFreeIdCount(), b.getFreeIdCount(), "free ids");
+		for (int k = 0; k < a.getFreeIdCount(); k++) {
+			assertEquals(a.getFreeId(k), b.getFreeId(k), "free id " + k);
+			assertEquals(-1, b.indexOf(a.getFreeId(k)), "free id " + a.getFreeId(k) + " in use");
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CollisionResolverTest {
+
+	@Test
+	void chainMergesIntoItsHeaviestBody() {
+		BodyStore bodies = new BodyStore();
+		int a = bodies.add("a", 0, 0, 1, 0, 2);
+		int b = bodies.add("b", 10, 0, 0, 1, 5);
+		int c = bodies.add("c", 20, 5, -1, -1, 3);
+		// Pairs reported out of order, as the broadphase may: a-b and b-c, with c never meeting a
+		IntList pairs = pairs(bodies.indexOf(b), bodies.indexOf(c), bodies.indexOf(a), bodies.indexOf(b));
+		double[] before = totals(bodies);
+
+		merge(bodies, pairs);
+
+		assertEquals(1, bodies.size());
+		assertEquals(-1, bodies.indexOf(a));
+		assertEquals(-1, bodies.indexOf(c));
+		int survivor = bodies.indexOf(b);
+		assertEquals(0, survivor);
+		assertConserved(before, totals(bodies));
+		// Center of mass and momentum over mass
+		assertEquals((0 * 2 + 10 * 5 + 20 * 3) / 10f, bodies.getX(survivor), 1e-5f);
+		assertEquals((0 * 2 + 0 * 5 + 5 * 3) / 10f, bodies.getY(survivor), 1e-5f);
+		assertEquals((1 * 2 + 0 * 5 - 1 * 3) / 10f, bodies.getVelocityX(survivor), 1e-6f);
+		assertEquals((0 * 2 + 1 * 5 - 1 * 3) / 10f, bodies.getVelocityY(survivor), 1e-6f);
+	}
+
+	@Test
+	void clustersMergeSeparatelyAndBystandersAreLeftAlone() {
+		BodyStore bodies = new BodyStore();
+		int[] cluster = new int[6];
+		for (int k = 0; k < cluster.length; k++) {
+			cluster[k] = bodies.add("c" + k, k, k * k, k - 2, 3 - k, 1 + k);
+		}
+		int bystander = bodies.add("x", 500, 500, 1, 1, 100);
+		int p = bodies.add("p", 1000, 0, 1, 0, 4);
+		int q = bodies.add("q", 1001, 0, -1, 0, 4);
+		// Every body of the cluster meets every other, and p meets q
+		IntList pairs = new IntList();
+		for (int i = 0; i < cluster.length; i++) {
+			for (int j = i + 1; j < cluster.length; j++) {
+				pairs.add(bodies.indexOf(cluster[i]));
+				pairs.add(bodies.indexOf(cluster[j]));
+			}
+		}
+		pairs.add(bodies.indexOf(p));
+		pairs.add(bodies.indexOf(q));
+		double[] before = totals(bodies);
+
+		merge(bodies, pairs);
+
+		assertEquals(3, bodies.size());
+		assertConserved(before, totals(bodies));
+		int heaviest = bodies.indexOf(cluster[cluster.length - 1]);
+		assertTrue(heaviest >= 0, "the heaviest body of the cluster survives");
+		assertEquals(21, bodies.getMass(heaviest), 1e-4f);
+		int survivor = bodies.indexOf(p) >= 0 ? bodies.indexOf(p) : bodies.indexOf(q);
+		assertTrue(survivor >= 0);
+		assertFalse(bodies.indexOf(p) >= 0 && bodies.indexOf(q) >= 0);
+		assertEquals(8, bodies.getMass(survivor), 1e-6f);
+		assertEquals(0, bodies.getVelocityX(survivor), 1e-6f);
+		int index = bodies.indexOf(bystander);
+		assertEquals(100, bodies.getMass(index));
+		assertEquals(500, bodies.getX(index));
+		assertEquals(1, bodies.getVelocityX(index));
+	}
+
+	@Test
+	void unionFindJoinsChains() {
+		UnionFind sets = new UnionFind();
+		sets.reset(10);
+		sets.union(1, 2);
+		sets.union(3, 4);
+		sets.union(2, 3);
+		sets.add(7);
+		assertEquals(sets.find(1), sets.find(4));
+		assertNotEquals(sets.find(1), sets.find(7));
+		assertFalse(sets.add(4));
+		// A new round forgets every set
+		sets.reset(10);
+		assertTrue(sets.add(4));
+		assertEquals(4, sets.find(4));
+	}
+
+	private static IntList pairs(int... indices) {
+		IntList pairs = new IntList();
+		for (int index : indices) {
+			pairs.add(index);
+		}
+		return pairs;
+	}
+
+	private static void merge(BodyStore bodies, IntList pairs) {
+		IntList merged = new IntList();
+		new CollisionResolver().resolve(bodies, pairs, merged);
+		bodies.removeAll(merged);
+	}
+
+	/**
+	 * @return Total mass and momentum of the bodies.
+	 */
+	private static double[] totals(BodyStore bodies) {
+		double[] totals = new double[3];
+		for (int i = 0; i < bodies.size(); i++) {
+			totals[0] += bodies.getMass(i);
+			totals[1] += bodies.getMass(i) * bodies.getVelocityX(i);
+			totals[2] += bodies.getMass(i) * bodies.getVelocityY(i);
+		}
+		return totals;
+	}
+
+	private static void assertConserved(double[] before, double[] after) {
+		assertEquals(before[0], after[0], 1e-5 * before[0], "mass");
+		assertEquals(before[1], after[1], 1e-5 * before[0], "momentum x");
+		assertEquals(before[2], after[2], 1e-5 * before[0], "momentum y");
+	}
+
+}
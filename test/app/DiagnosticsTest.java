@@ -0,0 +1,147 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The measurements against sums over every pair, with the universe's own gravitational constant and softening.
+ */
+class DiagnosticsTest {
+
+	private static final float GRAVITY_CONSTANT = 0.37f;
+	private static final float SOFTENING = 1.5f;
+
+	@Test
+	void potentialEnergyMatchesASumOverEveryPair() throws InterruptedException {
+		// With every node opened the tree sums every pair too, so only rounding is left
+		assertPotentialEnergyMatches(0, 1e-6);
+	}
+
+	@Test
+	void approximatePotentialEnergyIsClose() throws InterruptedException {
+		assertPotentialEnergyMatches(Diagnostics.DEFAULT_OPENING_ANGLE, 1e-3);
+	}
+
+	@Test
+	void kineticEnergyAndMomentaMatchTheBodies() throws InterruptedException {
+		Universe universe = universe();
+		Diagnostics.Sample sample = measure(universe, new Diagnostics(1));
+		BodyStore bodies = universe.getBodies();
+		Body sun = universe.getSun();
+		double mass = 0, kinetic = 0, momentumX = 0, momentumY = 0, angular = 0;
+		for (int i = 0; i < bodies.size(); i++) {
+			double m = bodies.mass[i];
+			mass += m;
+			kinetic += 0.5 * m * ((double) bodies.vx[i] * bodies.vx[i] + (double) bodies.vy[i] * bodies.vy[i]);
+			momentumX += m * bodies.vx[i];
+			momentumY += m * bodies.vy[i];
+			double dx = bodies.x[i] - sun.getX();
+			double dy = bodies.y[i] - sun.getY();
+			angular += m * (dx * bodies.vy[i] - dy * bodies.vx[i]);
+		}
+		assertEquals(bodies.size(), sample.getBodies());
+		assertEquals(mass, sample.getMass(), 1e-9 * mass);
+		assertEquals(kinetic, sample.getKineticEnergy(), 1e-9 * kinetic);
+		assertEquals(momentumX, sample.getMomentumX(), 1e-9 * mass);
+		assertEquals(momentumY, sample.getMomentumY(), 1e-9 * mass);
+		assertEquals(angular, sample.getAngularMomentum(), 1e-9 * Math.abs(angular));
+	}
+
+	/**
+	 * Bodies in pairs mirrored through the sun, each going the opposite way to its partner, pull and are pulled
+	 * symmetrically, so their total momentum starts at zero and stays there.
+	 */
+	@Test
+	void momentumOfASymmetricSystemStaysZero() throws InterruptedException {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		universe.setGravityConstant(GRAVITY_CONSTANT);
+		universe.setSoftening(SOFTENING);
+		Body sun = universe.getSun();
+		BodyStore source = TestBodies.random(100, 4000, 51);
+		for (int i = 0; i < source.size(); i++) {
+			float dx = source.getX(i) + 200;
+			float dy = source.getY(i) - 2000;
+			float vx = source.getVelocityX(i);
+			float vy = source.getVelocityY(i);
+			universe.addBody("a" + i, sun.getX() + dx, sun.getY() + dy, vx, vy, source.getMass(i));
+			universe.addBody("b" + i, sun.getX() - dx, sun.getY() - dy, -vx, -vy, source.getMass(i));
+		}
+
+		Diagnostics diagnostics = new Diagnostics(10);
+		universe.setDiagnostics(diagnostics);
+		try {
+			diagnostics.sample(universe);
+			for (int step = 0; step < 50; step++) {
+				universe.update();
+			}
+			diagnostics.sample(universe);
+		}
+		finally {
+			diagnostics.shutdown();
+		}
+		Diagnostics.Sample first = diagnostics.getFirst();
+		Diagnostics.Sample latest = diagnostics.getLatest();
+		assertEquals(50, latest.getStep());
+		assertEquals(0, first.getMomentumX(), 1e-9 * first.getMass());
+		assertEquals(0, first.getMomentumY(), 1e-9 * first.getMass());
+		// Only rounding, which is not quite symmetric, moves it
+		assertTrue(latest.getMomentumDrift(first) < 1e-5, "momentum drift " + latest.getMomentumDrift(first));
+		assertTrue(Math.abs(latest.getEnergyDrift(first)) < 1e-2, "energy drift " + latest.getEnergyDrift(first));
+	}
+
+	private static void assertPotentialEnergyMatches(float openingAngle, double tolerance) throws InterruptedException {
+		Universe universe = universe();
+		Diagnostics diagnostics = new Diagnostics(1);
+		diagnostics.setOpeningAngle(openingAngle);
+		double measured = measure(universe, diagnostics).getPotentialEnergy();
+		double expected = potentialEnergy(universe);
+		assertEquals(expected, measured, tolerance * Math.abs(expected), "opening angle " + openingAngle);
+	}
+
+	/**
+	 * @return The potential energy of every pair of bodies and of each body with the sun, softened.
+	 */
+	private static double potentialEnergy(Universe universe) {
+		BodyStore bodies = universe.getBodies();
+		Body sun = universe.getSun();
+		double g = universe.getGravityConstant();
+		double e2 = (double) universe.getSoftening() * universe.getSoftening();
+		double potential = 0;
+		for (int i = 0; i < bodies.size(); i++) {
+			for (int j = i + 1; j < bodies.size(); j++) {
+				double dx = (double) bodies.x[j] - bodies.x[i];
+				double dy = (double) bodies.y[j] - bodies.y[i];
+				potential -= g * bodies.mass[i] * bodies.mass[j] / Math.sqrt(dx * dx + dy * dy + e2);
+			}
+			double dx = (double) bodies.x[i] - sun.getX();
+			double dy = (double) bodies.y[i] - sun.getY();
+			potential -= g * sun.getMass() * bodies.mass[i] / Math.sqrt(dx * dx + dy * dy + e2);
+		}
+		return potential;
+	}
+
+	private static Diagnostics.Sample measure(Universe universe, Diagnostics diagnostics) throws InterruptedException {
+		try {
+			diagnostics.sample(universe);
+		}
+		finally {
+			diagnostics.shutdown();
+		}
+		return diagnostics.getLatest();
+	}
+
+	private static Universe universe() {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		universe.setGravityConstant(GRAVITY_CONSTANT);
+		universe.setSoftening(SOFTENING);
+		BodyStore source = TestBodies.random(500, 4000, 50);
+		for (int i = 0; i < source.size(); i++) {
+			universe.addBody(source.getName(i), 28000 + source.getX(i), 28000 + source.getY(i), source.getVelocityX(i),
+					source.getVelocityY(i), source.getMass(i));
+		}
+		return universe;
+	}
+
+}
@@ -0,0 +1,102 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Both inner loops of {@link DirectSolver} against a plain sum in double, for body counts that leave targets over
+ * after the runs of four and sources over after the last whole SIMD register, and one count that spans two tiles
+ * of sources.
+ */
+class DirectSolverTest {
+
+	private static final int[] COUNTS = { 1, 2, 3, 5, 7, 13, 17, 31, 33, 67, 130, 2053 };
+
+	@Test
+	void vectorKernelMatchesAPlainSum() {
+		DirectSolver solver = new DirectSolver(true);
+		// The tests run with the jdk.incubator.vector module
+		assertTrue(solver.isVectorized());
+		assertMatchesPlainSum(solver);
+	}
+
+	@Test
+	void scalarKernelMatchesAPlainSum() {
+		DirectSolver solver = new DirectSolver(false);
+		assertFalse(solver.isVectorized());
+		assertEquals(1, solver.getLanes());
+		assertMatchesPlainSum(solver);
+	}
+
+	private static void assertMatchesPlainSum(DirectSolver solver) {
+		for (int n : COUNTS) {
+			for (float softening : new float[] { 0, 2.5f }) {
+				BodyStore bodies = bodies(n);
+				solver.setSoftening(softening);
+				solver.setGravityConstant(0.3f);
+				Parallel parallel = new Parallel(1);
+				try {
+					solver.build(bodies, parallel);
+				}
+				finally {
+					parallel.shutdown();
+				}
+				for (int i = 0; i < n; i++) {
+					bodies.ax[i] = 0;
+					bodies.ay[i] = 0;
+					solver.accelerate(i, 0);
+					double[] expected = plainSum(bodies, i, softening);
+					String what = n + " bodies, softening " + softening + ", body " + i;
+					assertEquals(0.3 * expected[0], bodies.ax[i], 1e-5 * 0.3 * expected[2], what + " x");
+					assertEquals(0.3 * expected[1], bodies.ay[i], 1e-5 * 0.3 * expected[2], what + " y");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The pull of every body on body i, without the gravitational constant, and the sum of the sizes of
+	 * the pulls, which the rounding error is measured against. A body exactly on body i, itself included, pulls
+	 * it nowhere.
+	 */
+	private static double[] plainSum(BodyStore bodies, int i, float softening) {
+		double ax = 0, ay = 0, scale = 0;
+		for (int j = 0; j < bodies.size(); j++) {
+			double dx = (double) bodies.x[j] - bodies.x[i];
+			double dy = (double) bodies.y[j] - bodies.y[i];
+			double softened = dx * dx + dy * dy + (double) softening * softening;
+			if (softened == 0) {
+				continue;
+			}
+			double f = bodies.mass[j] / (softened * Math.sqrt(softened));
+			ax += f * dx;
+			ay += f * dy;
+			scale += f * Math.sqrt(dx * dx + dy * dy);
+		}
+		return new double[] { ax, ay, Math.max(scale, Double.MIN_NORMAL) };
+	}
+
+	/**
+	 * @return n bodies at random, where the third, if there is one, sits exactly on the first.
+	 */
+	private static BodyStore bodies(int n) {
+		Random random = new Random(n);
+		BodyStore bodies = new BodyStore();
+		for (int i = 0; i < n; i++) {
+			float x = random.nextFloat() * 1000;
+			float y = random.nextFloat() * 1000;
+			if (i == 2) {
+				x = bodies.x[0];
+				y = bodies.y[0];
+			}
+			bodies.add("b" + i, x, y, 0, 0, 0.1f + random.nextFloat());
+		}
+		return bodies;
+	}
+
+}
@@ -0,0 +1,124 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A run split over workers against the same run in one universe. The workers are threads of this process rather
+ * than processes of their own, but talk to each other and to the coordinator over loopback sockets all the same.
+ */
+class DistributedRunTest {
+
+	private static final int WORKERS = 2;
+
+	@Test
+	void twoWorkersMatchOneUniverse() {
+		DistributedRunner.Settings settings = new DistributedRunner.Settings();
+		settings.count = 600;
+		settings.seed = 8;
+		settings.steps = 12;
+		settings.openingAngle = 0.5f;
+		settings.softening = 20;
+		// Clusters, and a G strong enough that the bodies' pull on each other, not the sun's, sets where they go
+		settings.distribution = InitialConditions.Distribution.CLUSTERED;
+		settings.gravityConstant = 20;
+		settings.integrator = Integrator.LEAPFROG;
+		// Only the first rebalance, where every body counts the same, so that the domains don't depend on how long
+		// walks took. Most bodies still change workers there, and others as they cross into the other domain
+		settings.rebalanceEvery = settings.steps;
+
+		// A socket deadlock shows as a run that never ends
+		List<DomainWorker> workers = assertTimeoutPreemptively(Duration.ofSeconds(60), () -> run(settings));
+		Universe expected = universe(settings);
+		for (int step = 0; step < settings.steps; step++) {
+			expected.update();
+		}
+		expected.shutdown();
+
+		// Bodies are matched by mass, which doesn't change on the way between workers and is all but unique. The
+		// one collision of this run is within a domain, so both runs merge the same pair
+		BodyStore bodies = expected.getBodies();
+		Map<Float, Integer> byMass = new HashMap<>();
+		for (int i = 0; i < bodies.size(); i++) {
+			assertEquals(null, byMass.put(bodies.mass[i], i), "mass of body " + i + " is unique");
+		}
+		int found = 0;
+		for (DomainWorker worker : workers) {
+			BodyStore domain = worker.getUniverse().getBodies();
+			for (int j = 0; j < domain.size(); j++) {
+				Integer i = byMass.remove(domain.mass[j]);
+				assertTrue(i != null, "body " + j + " of a worker is in the single universe");
+				found++;
+				// The pull of the other domain comes from where its bodies were at the start of each step, and
+				// without their quadrupole moments, so positions drift apart by a little of each step's movement
+				double moved = settings.steps * Math.hypot(bodies.vx[i], bodies.vy[i]);
+				double off = Math.hypot(domain.x[j] - bodies.x[i], domain.y[j] - bodies.y[i]);
+				assertTrue(off < 1e-2 * moved + 1e-2, "body at (" + bodies.x[i] + ", " + bodies.y[i] + ") is off by "
+						+ off + " after moving about " + moved);
+			}
+		}
+		assertEquals(bodies.size(), found, "bodies");
+		assertTrue(byMass.isEmpty());
+	}
+
+	/**
+	 * Coordinate a run over loopback with workers on threads of their own.
+	 * @return The workers after the last step.
+	 */
+	private static List<DomainWorker> run(DistributedRunner.Settings settings)
+			throws IOException, InterruptedException, ExecutionException {
+		ExecutorService threads = Executors.newFixedThreadPool(WORKERS, runnable -> {
+			Thread thread = new Thread(runnable, "worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try (ServerSocket server = new ServerSocket(0, WORKERS, InetAddress.getLoopbackAddress())) {
+			List<Future<DomainWorker>> futures = new ArrayList<>();
+			for (int k = 0; k < WORKERS; k++) {
+				futures.add(threads.submit(() -> DomainWorker.join(server.getLocalPort())));
+			}
+			DistributedRunner.run(server, WORKERS, settings, settings.steps);
+			List<DomainWorker> workers = new ArrayList<>();
+			for (Future<DomainWorker> future : futures) {
+				workers.add(future.get());
+			}
+			return workers;
+		}
+		finally {
+			threads.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return One universe with every body of the run, set up as each worker sets up its own.
+	 */
+	private static Universe universe(DistributedRunner.Settings settings) {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, settings.threads);
+		universe.setGravityConstant(settings.gravityConstant);
+		universe.setSoftening(settings.softening);
+		universe.setIntegrator(settings.integrator);
+		universe.setMaxTimestepLevel(settings.levels);
+		universe.setOpeningCriterion(OpeningCriterion.BARNES_HUT);
+		universe.setOpeningAngle(settings.openingAngle);
+		universe.setQuadrupole(settings.quadrupole);
+		InitialConditions.generate(universe, settings.distribution, settings.count, settings.seed);
+		return universe;
+	}
+
+}
@@ -0,0 +1,95 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The approximate solvers against direct summation. The error is the relative RMS error of the accelerations,
+ * sqrt(sum |a - a_direct|^2 / sum |a_direct|^2), which is a few times 1e-6 for FMM and up to 5e-5 for Barnes-Hut
+ * with an opening angle of 0.5 on these bodies, softened or not.
+ */
+class GravitySolverTest {
+
+	private static final int BODIES = 400;
+	private static final double TOLERANCE = 1e-3;
+
+	@Test
+	void fmmMatchesDirectSummation() {
+		assertCloseToDirect(new FmmSolver(), 0);
+	}
+
+	@Test
+	void softenedFmmMatchesDirectSummation() {
+		assertCloseToDirect(new FmmSolver(), 3);
+	}
+
+	@Test
+	void barnesHutMatchesDirectSummation() {
+		assertCloseToDirect(barnesHut(), 0);
+	}
+
+	@Test
+	void softenedBarnesHutMatchesDirectSummation() {
+		assertCloseToDirect(barnesHut(), 3);
+	}
+
+	private static BarnesHutSolver barnesHut() {
+		BHTree tree = new BHTree();
+		tree.setOpeningAngle(0.5f);
+		return new BarnesHutSolver(tree);
+	}
+
+	private static void assertCloseToDirect(GravitySolver solver, float softening) {
+		BodyStore bodies = spread();
+		float[][] expected = accelerations(new DirectSolver(false), bodies, softening);
+		float[][] actual = accelerations(solver, bodies, softening);
+		double error = 0, scale = 0;
+		for (int i = 0; i < bodies.size(); i++) {
+			double dx = actual[0][i] - expected[0][i];
+			double dy = actual[1][i] - expected[1][i];
+			error += dx * dx + dy * dy;
+			scale += (double) expected[0][i] * expected[0][i] + (double) expected[1][i] * expected[1][i];
+		}
+		double relative = Math.sqrt(error / scale);
+		assertTrue(relative < TOLERANCE, solver.getClass().getSimpleName() + " with softening " + softening
+				+ " has a relative RMS error of " + relative);
+	}
+
+	/**
+	 * Bodies spread evenly, without the tight cluster of {@link TestBodies}, whose close pairs are summed directly
+	 * by every solver and would swamp the error of the far field.
+	 */
+	private static BodyStore spread() {
+		Random random = new Random(21);
+		BodyStore bodies = new BodyStore();
+		for (int i = 0; i < BODIES; i++) {
+			bodies.add("b" + i, random.nextFloat() * 4000, random.nextFloat() * 4000, 0, 0, 0.1f + random.nextFloat());
+		}
+		return bodies;
+	}
+
+	private static float[][] accelerations(GravitySolver solver, BodyStore bodies, float softening) {
+		Parallel parallel = new Parallel(1);
+		try {
+			solver.setSoftening(softening);
+			solver.setGravityConstant(0.5f);
+			solver.build(bodies, parallel);
+			float[][] accelerations = new float[2][bodies.size()];
+			for (int i = 0; i < bodies.size(); i++) {
+				bodies.ax[i] = 0;
+				bodies.ay[i] = 0;
+				solver.accelerate(i, 0);
+				accelerations[0][i] = bodies.ax[i];
+				accelerations[1][i] = bodies.ay[i];
+			}
+			return accelerations;
+		}
+		finally {
+			parallel.shutdown();
+		}
+	}
+
+}
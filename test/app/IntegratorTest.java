@@ -0,0 +1,178 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class IntegratorTest {
+
+	// A body on a circular orbit of this radius around a sun of this mass, with G = 1, goes round in about 56
+	// steps, short enough for the integrators' own errors to swamp the rounding
+	private static final float ORBIT_RADIUS = 20;
+	private static final float SUN_MASS = 100;
+	private static final int ORBITS = 50;
+	private static final int STEPS_PER_ORBIT = (int) Math.round(2 * Math.PI * ORBIT_RADIUS
+			/ Math.sqrt(SUN_MASS / ORBIT_RADIUS));
+
+	@Test
+	void leapfrogKeepsTheEnergyOfAnOrbit() {
+		double[] errors = energyErrors(Integrator.LEAPFROG);
+		assertTrue(errors[0] < 1e-4, "largest energy error " + errors[0]);
+		// Bounded: no worse over the last orbit than over the first
+		assertTrue(errors[2] < 2 * errors[1] + 1e-6, "first orbit " + errors[1] + ", last orbit " + errors[2]);
+	}
+
+	@Test
+	void velocityVerletKeepsTheEnergyOfAnOrbit() {
+		double[] errors = energyErrors(Integrator.VELOCITY_VERLET);
+		assertTrue(errors[0] < 1e-4, "largest energy error " + errors[0]);
+		assertTrue(errors[2] < 2 * errors[1] + 1e-6, "first orbit " + errors[1] + ", last orbit " + errors[2]);
+	}
+
+	@Test
+	void eulerIsFarLessAccurate() {
+		double euler = energyErrors(Integrator.EULER)[0];
+		double leapfrog = energyErrors(Integrator.LEAPFROG)[0];
+		assertTrue(euler > 100 * leapfrog, "Euler " + euler + ", leapfrog " + leapfrog);
+	}
+
+	@Test
+	void leapfrogRunsBackToItsStart() {
+		assertRunsBackToItsStart(Integrator.LEAPFROG);
+	}
+
+	@Test
+	void velocityVerletRunsBackToItsStart() {
+		assertRunsBackToItsStart(Integrator.VELOCITY_VERLET);
+	}
+
+	/**
+	 * Block timesteps only change how often each body's acceleration is computed. At the end of every update each
+	 * body must have been moved through the whole step, the same as if every body took the shortest step.
+	 */
+	@Test
+	void blockTimestepsEndEveryUpdateTogether() {
+		Universe blocks = cluster(Integrator.LEAPFROG, 4);
+		blocks.setMaxTimestepLevel(3);
+		blocks.setTimestepAccuracy(0.01f);
+		Universe uniform = cluster(Integrator.LEAPFROG, 4);
+		uniform.setMaxTimestepLevel(3);
+		// Accurate enough that every body wants the shortest step
+		uniform.setTimestepAccuracy(1e-9f);
+		for (int step = 0; step < 8; step++) {
+			blocks.update();
+			uniform.update();
+		}
+		BodyStore bodies = blocks.getBodies();
+		int[] levels = new int[4];
+		for (int i = 0; i < bodies.size(); i++) {
+			levels[bodies.level[i]]++;
+			assertEquals(3, uniform.getBodies().level[i], "level of body " + i + " with uniform steps");
+		}
+		assertTrue(levels[0] > 0 && levels[3] > 0, "bodies at levels 0 to 3: " + levels[0] + ", " + levels[1] + ", "
+				+ levels[2] + ", " + levels[3]);
+		assertTrue(blocks.getForceEvaluations() < uniform.getForceEvaluations());
+		// A body a substep behind or ahead would be off by about its speed / 8
+		for (int i = 0; i < bodies.size(); i++) {
+			float speed = (float) Math.hypot(bodies.vx[i], bodies.vy[i]);
+			assertEquals(uniform.getBodies().x[i], bodies.x[i], speed / 100, "x of body " + i);
+			assertEquals(uniform.getBodies().y[i], bodies.y[i], speed / 100, "y of body " + i);
+		}
+	}
+
+	/**
+	 * @return The largest relative energy error of the orbit over the whole run, over the first orbit, and over
+	 * the last.
+	 */
+	private static double[] energyErrors(Integrator integrator) {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		universe.setIntegrator(integrator);
+		universe.setGravityKernel(GravityKernel.COMPONENTS);
+		universe.setGravityConstant(1);
+		universe.setSoftening(0);
+		universe.setSun(new Body("Sol", 0, 0, SUN_MASS, 1));
+		float speed = (float) Math.sqrt(SUN_MASS / ORBIT_RADIUS);
+		universe.addBody("planet", ORBIT_RADIUS, 0, 0, speed, 1);
+		BodyStore bodies = universe.getBodies();
+		double start = energy(bodies);
+		double[] errors = new double[3];
+		for (int step = 1; step <= ORBITS * STEPS_PER_ORBIT; step++) {
+			universe.update();
+			double error = Math.abs((energy(bodies) - start) / start);
+			errors[0] = Math.max(errors[0], error);
+			if (step <= STEPS_PER_ORBIT) {
+				errors[1] = Math.max(errors[1], error);
+			}
+			if (step > (ORBITS - 1) * STEPS_PER_ORBIT) {
+				errors[2] = Math.max(errors[2], error);
+			}
+		}
+		assertEquals(1, bodies.size());
+		return errors;
+	}
+
+	/**
+	 * @return The energy per unit mass of the planet, with G = 1.
+	 */
+	private static double energy(BodyStore bodies) {
+		double vx = bodies.vx[0], vy = bodies.vy[0];
+		return 0.5 * (vx * vx + vy * vy) - SUN_MASS / Math.hypot(bodies.x[0], bodies.y[0]);
+	}
+
+	/**
+	 * Run a cluster forward, turn every velocity round, and run it for as long again: a time-reversible
+	 * integrator brings every body back to where it started, up to rounding.
+	 */
+	private static void assertRunsBackToItsStart(Integrator integrator) {
+		Universe universe = cluster(integrator, 15);
+		BodyStore bodies = universe.getBodies();
+		int n = bodies.size();
+		float[] x = new float[n];
+		float[] y = new float[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = bodies.x[i];
+			y[i] = bodies.y[i];
+		}
+		for (int step = 0; step < 200; step++) {
+			universe.update();
+		}
+		float moved = 0;
+		for (int i = 0; i < n; i++) {
+			moved = Math.max(moved, (float) Math.hypot(bodies.x[i] - x[i], bodies.y[i] - y[i]));
+			bodies.vx[i] = -bodies.vx[i];
+			bodies.vy[i] = -bodies.vy[i];
+		}
+		assertTrue(moved > 20, "moved " + moved);
+		for (int step = 0; step < 200; step++) {
+			universe.update();
+		}
+		assertEquals(n, bodies.size(), "bodies");
+		for (int i = 0; i < n; i++) {
+			assertEquals(x[i], bodies.x[i], 0.01f, "x of body " + i);
+			assertEquals(y[i], bodies.y[i], 0.01f, "y of body " + i);
+		}
+	}
+
+	/**
+	 * @return Bodies on rough orbits around a sun at the origin from the given radius out, close enough to pull
+	 * on each other and too small to collide. Close in, orbits take only a few steps and want short ones.
+	 */
+	private static Universe cluster(Integrator integrator, float innermost) {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		universe.setIntegrator(integrator);
+		universe.setGravityKernel(GravityKernel.COMPONENTS);
+		universe.setGravityConstant(1);
+		universe.setSoftening(2);
+		universe.setSun(new Body("Sol", 0, 0, SUN_MASS, 1));
+		for (int i = 0; i < 40; i++) {
+			double angle = i * 2.4;
+			float r = innermost + 6 * i;
+			float speed = (float) Math.sqrt(SUN_MASS / r);
+			universe.addBody("b" + i, (float) (r * Math.cos(angle)), (float) (r * Math.sin(angle)),
+					(float) (-speed * Math.sin(angle)), (float) (speed * Math.cos(angle)), 0.01f);
+		}
+		return universe;
+	}
+
+}
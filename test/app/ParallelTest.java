@@ -0,0 +1,144 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class ParallelTest {
+
+	@Test
+	void sequentialRunsOnTheCallingThread() {
+		Parallel parallel = new Parallel(1);
+		assertTrue(parallel.isSequential());
+		Thread caller = Thread.currentThread();
+		int[] covered = new int[1000];
+		parallel.forRange(covered.length, 1, (from, to) -> {
+			assertEquals(caller, Thread.currentThread());
+			for (int i = from; i < to; i++) {
+				covered[i]++;
+			}
+		});
+		for (int i = 0; i < covered.length; i++) {
+			assertEquals(1, covered[i], "index " + i);
+		}
+	}
+
+	@Test
+	void everyIndexIsRunOnceOnThePool() {
+		Parallel parallel = new Parallel(4);
+		try {
+			int[] covered = new int[100000];
+			parallel.forRange(covered.length, 16, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					covered[i]++;
+				}
+			});
+			for (int i = 0; i < covered.length; i++) {
+				assertEquals(1, covered[i], "index " + i);
+			}
+		}
+		finally {
+			parallel.shutdown();
+		}
+	}
+
+	/**
+	 * The tasks of one loop are reused by the next, which may be longer or shorter, may start loops of its own,
+	 * or may follow one that failed.
+	 */
+	@Test
+	void reusedTasksRunEveryIndexOnce() {
+		Parallel parallel = new Parallel(4);
+		try {
+			for (int count : new int[] { 100000, 37, 5000, 100001, 300 }) {
+				assertCoversOnce(parallel, count);
+			}
+			assertThrows(IllegalStateException.class, () -> parallel.forRange(10000, 16, (from, to) -> {
+				if (from == 0) {
+					throw new IllegalStateException("failed");
+				}
+			}));
+			assertCoversOnce(parallel, 10000);
+
+			int[] covered = new int[64 * 50];
+			parallel.forRange(64, 1, (from, to) -> {
+				for (int k = from; k < to; k++) {
+					int base = k * 50;
+					parallel.forRange(50, 4, (start, end) -> {
+						for (int i = start; i < end; i++) {
+							covered[base + i]++;
+						}
+					});
+				}
+			});
+			for (int i = 0; i < covered.length; i++) {
+				assertEquals(1, covered[i], "index " + i + " of the nested loops");
+			}
+		}
+		finally {
+			parallel.shutdown();
+		}
+	}
+
+	private static void assertCoversOnce(Parallel parallel, int count) {
+		int[] covered = new int[count];
+		parallel.forRange(count, 16, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				covered[i]++;
+			}
+		});
+		for (int i = 0; i < count; i++) {
+			assertEquals(1, covered[i], "index " + i + " of " + count);
+		}
+	}
+
+	/**
+	 * Stepping on one thread and on several must give bit for bit the same bodies.
+	 */
+	@Test
+	void sequentialStepsAreBitIdenticalToParallelOnes() {
+		Universe sequential = universe(1);
+		Universe parallel = universe(4);
+		try {
+			for (int step = 0; step < 20; step++) {
+				sequential.update();
+				parallel.update();
+			}
+			BodyStore a = sequential.getBodies();
+			BodyStore b = parallel.getBodies();
+			assertEquals(a.size(), b.size());
+			int n = a.size();
+			for (int i = 0; i < n; i++) {
+				assertEquals(a.idAt(i), b.idAt(i), "id at " + i);
+			}
+			assertArrayEquals(prefix(a.x, n), prefix(b.x, n));
+			assertArrayEquals(prefix(a.y, n), prefix(b.y, n));
+			assertArrayEquals(prefix(a.vx, n), prefix(b.vx, n));
+			assertArrayEquals(prefix(a.vy, n), prefix(b.vy, n));
+			assertArrayEquals(prefix(a.mass, n), prefix(b.mass, n));
+		}
+		finally {
+			sequential.shutdown();
+			parallel.shutdown();
+		}
+	}
+
+	private static Universe universe(int threads) {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, threads);
+		universe.setRandomSeed(5);
+		for (int i = 0; i < 3000; i++) {
+			universe.createRandomBody();
+		}
+		return universe;
+	}
+
+	private static float[] prefix(float[] values, int n) {
+		return Arrays.copyOf(values, n);
+	}
+
+}
@@ -0,0 +1,69 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class RadixSortTest {
+
+	@Test
+	void matchesArraysSort() {
+		for (int threads : new int[] { 1, 4 }) {
+			Parallel parallel = new Parallel(threads);
+			try {
+				for (int bits : new int[] { 1, 12, 43, 63 }) {
+					assertSortsLikeArraysSort(100000, bits, parallel, bits);
+				}
+			}
+			finally {
+				parallel.shutdown();
+			}
+		}
+	}
+
+	@Test
+	void sortsEmptyAndSingleInputs() {
+		RadixSort sorter = new RadixSort();
+		Parallel parallel = new Parallel(1);
+		long[] keys = { 7 };
+		int[] values = { 3 };
+		try {
+			sorter.sort(new long[0], new int[0], 0, 32, parallel);
+			sorter.sort(keys, values, 1, 32, parallel);
+		}
+		finally {
+			parallel.shutdown();
+		}
+		assertEquals(7, keys[0]);
+		assertEquals(3, values[0]);
+	}
+
+	private static void assertSortsLikeArraysSort(int n, int bits, Parallel parallel, long seed) {
+		Random random = new Random(seed);
+		long mask = (1L << bits) - 1;
+		long[] keys = new long[n];
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = random.nextLong() & mask;
+			values[i] = i;
+		}
+		long[] expected = keys.clone();
+		Arrays.sort(expected);
+
+		new RadixSort().sort(keys, values, n, bits, parallel);
+
+		assertArrayEquals(expected, keys, bits + " bits");
+		for (int i = 0; i < n; i++) {
+			if (i > 0 && keys[i] == keys[i - 1]) {
+				// Stable: equal keys keep their input order
+				assertTrue(values[i] > values[i - 1], "order of equal keys at " + i);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,311 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The queries against testing every body, after the bodies have moved, been added and been removed since the
+ * tree was built.
+ */
+class SpatialQueriesTest {
+
+	private static final float SIZE = 2000;
+	private static final int ROUNDS = 500;
+
+	@Test
+	void matchesBruteForceAfterChanges() {
+		BodyStore bodies = TestBodies.random(600, SIZE, 31);
+		BHTree tree = new BHTree();
+		tree.build(bodies);
+		IntList changed = new IntList();
+		change(bodies, changed, new Random(32));
+		assertMatchesBruteForce(bodies, tree, changed, new Random(33));
+	}
+
+	@Test
+	void matchesBruteForceWithoutATree() {
+		BodyStore bodies = TestBodies.random(300, SIZE, 34);
+		change(bodies, new IntList(), new Random(35));
+		assertMatchesBruteForce(bodies, null, new IntList(), new Random(36));
+	}
+
+	@Test
+	void tiesGoToTheLowerIndex() {
+		BodyStore bodies = TestBodies.random(200, SIZE, 40);
+		// Stacks of bodies on one spot, and rings of bodies at one distance from it, all in the tree
+		for (int i = 0; i < 200; i += 9) {
+			bodies.x[i] = 500;
+			bodies.y[i] = 700;
+		}
+		for (int i = 4; i < 200; i += 9) {
+			bodies.x[i] = 500 + (i % 2 == 0 ? 40 : -40);
+			bodies.y[i] = 700;
+		}
+		BHTree tree = new BHTree();
+		tree.build(bodies);
+		SpatialQueries queries = new SpatialQueries();
+		IntList out = new IntList();
+		for (int k = 1; k <= 60; k++) {
+			out.clear();
+			queries.findNearest(bodies, tree, new IntList(), 500, 700, k, out);
+			assertEquals(Arrays.toString(nearest(bodies, 500, 700, k)), Arrays.toString(toArray(out)), "nearest " + k);
+		}
+		assertEquals(containing(bodies, 500, 700), queries.findContaining(bodies, tree, new IntList(), 500, 700));
+	}
+
+	@Test
+	void bodiesNotAtANumberComeLast() {
+		BodyStore bodies = TestBodies.random(50, SIZE, 37);
+		BHTree tree = new BHTree();
+		tree.build(bodies);
+		IntList changed = new IntList();
+		for (int i = 0; i < 50; i += 7) {
+			bodies.x[i] = Float.NaN;
+			changed.add(i);
+		}
+		SpatialQueries queries = new SpatialQueries();
+		IntList out = new IntList();
+		queries.findNearest(bodies, tree, changed, SIZE / 2, SIZE / 2, 50, out);
+		assertEquals(Arrays.toString(nearest(bodies, SIZE / 2, SIZE / 2, 50)), Arrays.toString(toArray(out)));
+		for (int k = 43; k < 50; k++) {
+			assertEquals(0, out.get(k) % 7, "place " + k);
+		}
+	}
+
+	@Test
+	void universeQueriesMatchBruteForceAfterChanges() {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		BodyStore source = TestBodies.random(500, SIZE, 38);
+		for (int i = 0; i < source.size(); i++) {
+			universe.addBody(source.getName(i), 28000 + source.getX(i), 28000 + source.getY(i), source.getVelocityX(i),
+					source.getVelocityY(i), source.getMass(i));
+		}
+		universe.update();
+		// The tree from that update is used, for bodies that have moved on since, and changed in every other way
+		Random random = new Random(39);
+		for (int k = 0; k < 20; k++) {
+			BodyStore bodies = universe.getBodies();
+			universe.deleteBody(bodies.idAt(random.nextInt(bodies.size())));
+			universe.increaseMass(bodies.idAt(random.nextInt(bodies.size())));
+			int id = universe.addBody("new " + k, 28000 + random.nextFloat() * SIZE, 28000 + random.nextFloat() * SIZE, 0, 0,
+					1 + random.nextFloat() * 20);
+			if (k % 3 == 0) {
+				universe.deleteBody(id);
+			}
+		}
+
+		BodyStore bodies = universe.getBodies();
+		IntList ids = new IntList();
+		for (int round = 0; round < ROUNDS; round++) {
+			float x = 28000 + random.nextFloat() * SIZE;
+			float y = 28000 + random.nextFloat() * SIZE;
+			String query = "round " + round + " at (" + x + ", " + y + ")";
+
+			float radius = random.nextFloat() * 150;
+			ids.clear();
+			universe.findBodiesWithin(x, y, radius, ids);
+			assertEquals(Arrays.toString(within(bodies, x, y, radius)), Arrays.toString(sortedIndices(bodies, ids)),
+					query + " within " + radius);
+
+			ids.clear();
+			universe.findBodiesInRectangle(x, y, x + radius, y + radius / 2, ids);
+			assertEquals(Arrays.toString(inRectangle(bodies, x, y, x + radius, y + radius / 2)),
+					Arrays.toString(sortedIndices(bodies, ids)), query + " in rectangle");
+
+			int k = 1 + random.nextInt(12);
+			ids.clear();
+			universe.findNearestBodies(x, y, k, ids);
+			assertEquals(Arrays.toString(nearest(bodies, x, y, k)), Arrays.toString(indices(bodies, ids)),
+					query + " nearest " + k);
+
+			int containing = containing(bodies, (int) x, (int) y);
+			int expected = universe.getSun().containsPoint((int) x, (int) y) ? Universe.SUN
+					: containing >= 0 ? bodies.idAt(containing) : Universe.NO_BODY;
+			assertEquals(expected, universe.getBodyAt((int) x, (int) y), query + " picked");
+		}
+	}
+
+	/**
+	 * Move every body by a step, as the integrator would after the build, then change the store the ways the
+	 * universe does, listing each index whose body isn't where the tree has it.
+	 */
+	private static void change(BodyStore bodies, IntList changed, Random random) {
+		for (int i = 0; i < bodies.size(); i++) {
+			bodies.x[i] += bodies.vx[i];
+			bodies.y[i] += bodies.vy[i];
+		}
+		// Bodies thrown anywhere, some listed twice
+		for (int k = 0; k < 30; k++) {
+			int i = random.nextInt(bodies.size());
+			bodies.x[i] = random.nextFloat() * SIZE;
+			bodies.y[i] = random.nextFloat() * SIZE;
+			changed.add(i);
+			if (k % 4 == 0) {
+				changed.add(i);
+			}
+		}
+		// Bodies grown, so that their circles cover more than their leaves allow for
+		for (int k = 0; k < 10; k++) {
+			int i = random.nextInt(bodies.size());
+			bodies.updateMass(i, 5 + random.nextFloat() * 20);
+			changed.add(i);
+		}
+		// Pairs of bodies on the same spot, where the lower index wins a tie
+		for (int k = 0; k < 20; k++) {
+			int i = random.nextInt(bodies.size());
+			int j = random.nextInt(bodies.size());
+			bodies.x[j] = bodies.x[i];
+			bodies.y[j] = bodies.y[i];
+			changed.add(j);
+		}
+		// Removals, which fill the hole from the end
+		for (int k = 0; k < 25; k++) {
+			int index = random.nextInt(bodies.size());
+			bodies.remove(bodies.idAt(index));
+			if (index < bodies.size()) {
+				changed.add(index);
+			}
+		}
+		// Additions, some removed again so that their indices are past the end
+		for (int k = 0; k < 15; k++) {
+			int id = bodies.add("new " + k, random.nextFloat() * SIZE, random.nextFloat() * SIZE, 0, 0, 0.1f + random.nextFloat() * 3);
+			changed.add(bodies.indexOf(id));
+		}
+		for (int k = 0; k < 5; k++) {
+			bodies.remove(bodies.idAt(bodies.size() - 1));
+		}
+	}
+
+	private static void assertMatchesBruteForce(BodyStore bodies, BHTree tree, IntList changed, Random random) {
+		SpatialQueries queries = new SpatialQueries();
+		IntList out = new IntList();
+		for (int round = 0; round < ROUNDS; round++) {
+			float x = random.nextFloat() * SIZE;
+			float y = random.nextFloat() * SIZE;
+			if (round % 10 == 0) {
+				// Right on a body, which some other body may share
+				int i = random.nextInt(bodies.size());
+				x = bodies.x[i];
+				y = bodies.y[i];
+			}
+			String query = "round " + round + " at (" + x + ", " + y + ")";
+
+			float radius = random.nextFloat() * 200;
+			out.clear();
+			queries.findWithin(bodies, tree, changed, x, y, radius, out);
+			assertEquals(Arrays.toString(within(bodies, x, y, radius)), Arrays.toString(sorted(out)),
+					query + " within " + radius);
+
+			float width = random.nextFloat() * 300;
+			float height = random.nextFloat() * 300;
+			out.clear();
+			queries.findInRectangle(bodies, tree, changed, x - width / 2, y - height / 2, x + width / 2, y + height / 2, out);
+			assertEquals(Arrays.toString(inRectangle(bodies, x - width / 2, y - height / 2, x + width / 2, y + height / 2)),
+					Arrays.toString(sorted(out)), query + " in rectangle");
+
+			int k = 1 + random.nextInt(round % 50 == 0 ? 1000 : 12);
+			out.clear();
+			queries.findNearest(bodies, tree, changed, x, y, k, out);
+			assertEquals(Arrays.toString(nearest(bodies, x, y, k)), Arrays.toString(toArray(out)), query + " nearest " + k);
+
+			assertEquals(containing(bodies, x, y), queries.findContaining(bodies, tree, changed, x, y), query + " containing");
+		}
+	}
+
+	private static int[] within(BodyStore bodies, float x, float y, float radius) {
+		IntList found = new IntList();
+		for (int i = 0; i < bodies.size(); i++) {
+			if (distance2(bodies, i, x, y) <= radius * radius) {
+				found.add(i);
+			}
+		}
+		return toArray(found);
+	}
+
+	private static int[] inRectangle(BodyStore bodies, float left, float top, float right, float bottom) {
+		IntList found = new IntList();
+		for (int i = 0; i < bodies.size(); i++) {
+			if (bodies.x[i] >= left && bodies.x[i] <= right && bodies.y[i] >= top && bodies.y[i] <= bottom) {
+				found.add(i);
+			}
+		}
+		return toArray(found);
+	}
+
+	/**
+	 * @return The k closest bodies, the closest first, the lower index on a tie, and bodies not at a number last.
+	 */
+	private static int[] nearest(BodyStore bodies, float x, float y, int k) {
+		List<Integer> all = new ArrayList<>();
+		for (int i = 0; i < bodies.size(); i++) {
+			all.add(i);
+		}
+		all.sort(Comparator.<Integer> comparingDouble(i -> {
+			float d2 = distance2(bodies, i, x, y);
+			return Float.isNaN(d2) ? Double.POSITIVE_INFINITY : d2;
+		}).thenComparing(i -> Float.isNaN(distance2(bodies, i, x, y))).thenComparingInt(i -> i));
+		int[] nearest = new int[Math.min(k, all.size())];
+		for (int c = 0; c < nearest.length; c++) {
+			nearest[c] = all.get(c);
+		}
+		return nearest;
+	}
+
+	private static int containing(BodyStore bodies, float x, float y) {
+		int best = -1;
+		float best2 = Float.POSITIVE_INFINITY;
+		for (int i = 0; i < bodies.size(); i++) {
+			float d2 = distance2(bodies, i, x, y);
+			if (bodies.containsPoint(i, x, y) && d2 < best2) {
+				best2 = d2;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	private static float distance2(BodyStore bodies, int i, float x, float y) {
+		float dx = bodies.x[i] - x;
+		float dy = bodies.y[i] - y;
+		return dx * dx + dy * dy;
+	}
+
+	private static int[] toArray(IntList list) {
+		int[] array = new int[list.size()];
+		for (int k = 0; k < array.length; k++) {
+			array[k] = list.get(k);
+		}
+		return array;
+	}
+
+	/**
+	 * Sorted, so that results in any order compare equal, but duplicates still show.
+	 */
+	private static int[] sorted(IntList list) {
+		int[] array = toArray(list);
+		Arrays.sort(array);
+		return array;
+	}
+
+	private static int[] indices(BodyStore bodies, IntList ids) {
+		int[] indices = new int[ids.size()];
+		for (int k = 0; k < indices.length; k++) {
+			indices[k] = bodies.indexOf(ids.get(k));
+		}
+		return indices;
+	}
+
+	private static int[] sortedIndices(BodyStore bodies, IntList ids) {
+		int[] indices = indices(bodies, ids);
+		Arrays.sort(indices);
+		return indices;
+	}
+
+}
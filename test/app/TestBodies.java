@@ -0,0 +1,36 @@
+package app;
+
+import java.util.Random;
+
+/**
+ * Bodies for the tests, placed at random but the same for a given seed.
+ */
+final class TestBodies {
+
+	private TestBodies() {
+	}
+
+	/**
+	 * @return A store of n bodies spread over a square of the given size, a few of them clustered tightly enough
+	 * to share leaves of the tree.
+	 */
+	static BodyStore random(int n, float size, long seed) {
+		Random random = new Random(seed);
+		BodyStore bodies = new BodyStore();
+		for (int i = 0; i < n; i++) {
+			float x, y;
+			if (i % 10 == 0) {
+				// Crowd every tenth body into a tiny patch
+				x = size / 2 + random.nextFloat();
+				y = size / 2 + random.nextFloat();
+			}
+			else {
+				x = random.nextFloat() * size;
+				y = random.nextFloat() * size;
+			}
+			bodies.add("b" + i, x, y, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, 0.1f + random.nextFloat());
+		}
+		return bodies;
+	}
+
+}
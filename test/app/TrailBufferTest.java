@@ -0,0 +1,137 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class TrailBufferTest {
+
+	@Test
+	void keepsTheNewestSamplesOnceFull() {
+		BodyStore bodies = bodies(3);
+		bodies.setTrailLength(4);
+		TrailBuffer trails = bodies.getTrails();
+		for (int sample = 0; sample < 10; sample++) {
+			record(bodies, sample);
+			int kept = Math.min(sample + 1, 4);
+			for (int i = 0; i < 3; i++) {
+				assertEquals(kept, trails.getCount(i), "samples of body " + i);
+				for (int k = 0; k < kept; k++) {
+					assertSample(trails, i, k, bodies.idAt(i), sample - k);
+				}
+			}
+		}
+	}
+
+	@Test
+	void removingABodyMovesTheLastOnesTrail() {
+		BodyStore bodies = bodies(5);
+		bodies.setTrailLength(4);
+		TrailBuffer trails = bodies.getTrails();
+		for (int sample = 0; sample < 6; sample++) {
+			record(bodies, sample);
+		}
+		// The last body fills the hole at index 1, and takes its trail with it
+		int last = bodies.idAt(4);
+		bodies.remove(bodies.idAt(1));
+		assertEquals(1, bodies.indexOf(last));
+		assertEquals(4, trails.getCount(1));
+		for (int k = 0; k < 4; k++) {
+			assertSample(trails, 1, k, last, 5 - k);
+		}
+		// A body added into the freed index starts without a trail, and doesn't share the moved one's row
+		int added = bodies.add("added", 0, 0, 0, 0, 1);
+		assertEquals(4, bodies.indexOf(added));
+		assertEquals(0, trails.getCount(4));
+		for (int sample = 6; sample < 8; sample++) {
+			record(bodies, sample);
+		}
+		assertEquals(2, trails.getCount(4));
+		for (int k = 0; k < 2; k++) {
+			assertSample(trails, 4, k, added, 7 - k);
+		}
+		for (int k = 0; k < 4; k++) {
+			assertSample(trails, 1, k, last, 7 - k);
+		}
+		// Removing the last body moves nothing
+		int second = bodies.idAt(3);
+		bodies.remove(added);
+		for (int k = 0; k < 4; k++) {
+			assertSample(trails, 3, k, second, 7 - k);
+		}
+	}
+
+	@Test
+	void growingTheStoreKeepsTheTrails() {
+		BodyStore bodies = bodies(3);
+		bodies.setTrailLength(3);
+		TrailBuffer trails = bodies.getTrails();
+		for (int sample = 0; sample < 5; sample++) {
+			record(bodies, sample);
+		}
+		for (int i = 3; i < 200; i++) {
+			bodies.add("b" + i, 0, 0, 0, 0, 1);
+		}
+		record(bodies, 5);
+		for (int i = 0; i < 3; i++) {
+			for (int k = 0; k < 3; k++) {
+				assertSample(trails, i, k, bodies.idAt(i), 5 - k);
+			}
+		}
+		assertEquals(1, trails.getCount(199));
+		assertSample(trails, 199, 0, bodies.idAt(199), 5);
+	}
+
+	@Test
+	void universeSamplesEveryStrideUpdates() {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		for (int i = 0; i < 3; i++) {
+			universe.addBody("b" + i, 20000 + 5000 * i, 20000, 1, 2, 1);
+		}
+		universe.setTrails(5, 3);
+		BodyStore bodies = universe.getBodies();
+		float[][] x = new float[10][];
+		float[][] y = new float[10][];
+		for (int step = 0; step < 10; step++) {
+			universe.update();
+			x[step] = bodies.x.clone();
+			y[step] = bodies.y.clone();
+		}
+		// Taken at the end of the 3rd, 6th and 9th updates, the newest first
+		TrailBuffer trails = bodies.getTrails();
+		for (int i = 0; i < 3; i++) {
+			assertEquals(3, trails.getCount(i), "samples of body " + i);
+			for (int k = 0; k < 3; k++) {
+				int step = 8 - 3 * k;
+				assertEquals(x[step][i], trails.getX(i, k), "x of sample " + k + " of body " + i);
+				assertEquals(y[step][i], trails.getY(i, k), "y of sample " + k + " of body " + i);
+			}
+		}
+	}
+
+	private static BodyStore bodies(int n) {
+		BodyStore bodies = new BodyStore();
+		for (int i = 0; i < n; i++) {
+			bodies.add("b" + i, 0, 0, 0, 0, 1);
+		}
+		return bodies;
+	}
+
+	/**
+	 * Put every body at a position made from its id and the sample number, and record it.
+	 */
+	private static void record(BodyStore bodies, int sample) {
+		for (int i = 0; i < bodies.size(); i++) {
+			bodies.x[i] = bodies.idAt(i);
+			bodies.y[i] = sample;
+		}
+		bodies.getTrails().record(bodies, 0, bodies.size());
+		bodies.getTrails().advance();
+	}
+
+	private static void assertSample(TrailBuffer trails, int index, int k, int id, int sample) {
+		assertEquals(id, trails.getX(index, k), "body of sample " + k + " at index " + index);
+		assertEquals(sample, trails.getY(index, k), "sample " + k + " at index " + index);
+	}
+
+}
@@ -0,0 +1,171 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TrajectoryTest {
+
+	private static final int FRAMES = 30;
+	private static final int FRAMES_PER_CHUNK = 4;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void quantizedDeltaFramesReadBackWithinAQuantum() throws Exception {
+		roundTrip(true, 0.01f, 0.001f);
+	}
+
+	@Test
+	void quantizedKeyFramesReadBackWithinAQuantum() throws Exception {
+		roundTrip(false, 0.01f, 0.001f);
+	}
+
+	@Test
+	void exactDeltaFramesReadBackExactly() throws Exception {
+		roundTrip(true, 0, 0);
+	}
+
+	@Test
+	void exactKeyFramesReadBackExactly() throws Exception {
+		roundTrip(false, 0, 0);
+	}
+
+	@Test
+	void framesAreFoundByStep() throws Exception {
+		Path path = directory.resolve("interval.traj");
+		Universe universe = universe();
+		TrajectoryRecorder recorder = new TrajectoryRecorder(path, 3);
+		universe.setRecorder(recorder);
+		for (int step = 0; step < 20; step++) {
+			universe.update();
+		}
+		universe.setRecorder(null);
+		recorder.close();
+		assertNull(recorder.getLastError());
+
+		try (TrajectoryReader reader = new TrajectoryReader(path)) {
+			assertEquals(6, reader.getFrameCount());
+			assertEquals(3, reader.getInterval());
+			for (int number = 0; number < reader.getFrameCount(); number++) {
+				assertEquals(3 * (number + 1), reader.getStep(number));
+			}
+			assertEquals(-1, reader.findFrame(2));
+			assertEquals(0, reader.findFrame(3));
+			assertEquals(0, reader.findFrame(5));
+			assertEquals(1, reader.findFrame(6));
+			assertEquals(5, reader.findFrame(18));
+			assertEquals(5, reader.findFrame(1000));
+		}
+	}
+
+	/**
+	 * Record a universe that loses and gains bodies along the way, then read the frames back in a shuffled order,
+	 * so that most are reached from the key frame of their chunk and some from the frame just decoded.
+	 */
+	private void roundTrip(boolean delta, float positionQuantum, float velocityQuantum) throws Exception {
+		Path path = directory.resolve("round-trip.traj");
+		Universe universe = universe();
+		TrajectoryRecorder recorder = new TrajectoryRecorder(path, 1);
+		recorder.setDelta(delta);
+		recorder.setQuantization(positionQuantum, velocityQuantum);
+		recorder.setFramesPerChunk(FRAMES_PER_CHUNK);
+		recorder.setQueueCapacity(2);
+
+		Random random = new Random(3);
+		List<TrajectoryFrame> originals = new ArrayList<>();
+		for (int number = 0; number < FRAMES; number++) {
+			universe.update();
+			if (number % 3 == 1) {
+				// Removing a body moves the last one into its place, so the order changes as well as the size
+				BodyStore bodies = universe.getBodies();
+				universe.deleteBody(bodies.idAt(random.nextInt(bodies.size())));
+				universe.deleteBody(bodies.idAt(random.nextInt(bodies.size())));
+			}
+			if (number % 7 == 5) {
+				universe.addBody("late " + number, 29000 + random.nextFloat() * 2000, 29000 + random.nextFloat() * 2000,
+						0, 0, 0.5f);
+			}
+			recorder.record(universe);
+			TrajectoryFrame original = new TrajectoryFrame();
+			original.copyFrom(universe.getBodies(), universe.getSteps());
+			originals.add(original);
+		}
+		recorder.close();
+		assertNull(recorder.getLastError());
+		assertEquals(FRAMES, recorder.getFramesWritten());
+
+		List<Integer> order = new ArrayList<>();
+		for (int number = 0; number < FRAMES; number++) {
+			order.add(number);
+		}
+		Collections.shuffle(order, new Random(9));
+		// Read on from the frame just decoded, and the same frame again
+		int last = order.get(FRAMES - 1);
+		order.add((last + 1) % FRAMES);
+		order.add((last + 1) % FRAMES);
+
+		try (TrajectoryReader reader = new TrajectoryReader(path)) {
+			assertTrue(reader.isIndexed());
+			assertEquals(FRAMES, reader.getFrameCount());
+			assertEquals(delta, reader.isDelta());
+			assertEquals(FRAMES_PER_CHUNK, reader.getFramesPerChunk());
+			assertEquals(positionQuantum, reader.getPositionQuantum());
+			assertEquals(velocityQuantum, reader.getVelocityQuantum());
+			TrajectoryFrame frame = new TrajectoryFrame();
+			for (int number : order) {
+				reader.readFrame(number, frame);
+				assertSameFrame(originals.get(number), frame, positionQuantum, velocityQuantum, "frame " + number);
+			}
+		}
+	}
+
+	private static void assertSameFrame(TrajectoryFrame expected, TrajectoryFrame actual, float positionQuantum,
+			float velocityQuantum, String frame) {
+		assertEquals(expected.getStep(), actual.getStep(), frame + " step");
+		assertEquals(expected.size(), actual.size(), frame + " size");
+		for (int i = 0; i < expected.size(); i++) {
+			String body = frame + " body " + i;
+			assertEquals(expected.getId(i), actual.getId(i), body + " id");
+			assertEquals(expected.getMass(i), actual.getMass(i), body + " mass");
+			assertClose(expected.getX(i), actual.getX(i), positionQuantum, body + " x");
+			assertClose(expected.getY(i), actual.getY(i), positionQuantum, body + " y");
+			assertClose(expected.getVelocityX(i), actual.getVelocityX(i), velocityQuantum, body + " vx");
+			assertClose(expected.getVelocityY(i), actual.getVelocityY(i), velocityQuantum, body + " vy");
+		}
+	}
+
+	/**
+	 * A quantized value is the nearest multiple of the quantum, give or take the rounding of that multiple to a
+	 * float. An unquantized one must come back bit for bit.
+	 */
+	private static void assertClose(float expected, float actual, float quantum, String what) {
+		if (quantum == 0) {
+			assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual), what);
+		}
+		else {
+			assertEquals(expected, actual, quantum / 2 + 2 * Math.ulp(expected), what);
+		}
+	}
+
+	private static Universe universe() {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		BodyStore source = TestBodies.random(300, 4000, 13);
+		for (int i = 0; i < source.size(); i++) {
+			universe.addBody(source.getName(i), 28000 + source.getX(i), 28000 + source.getY(i), source.getVelocityX(i),
+					source.getVelocityY(i), source.getMass(i));
+		}
+		return universe;
+	}
+
+}
@@ -0,0 +1,118 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class UniverseSnapshotTest {
+
+	@Test
+	void capturesTheTrails() {
+		Universe universe = universe();
+		universe.setTrails(8, 1);
+		for (int step = 0; step < 12; step++) {
+			universe.update();
+		}
+		// Removing bodies moves trails between indices, and a body added late has a shorter trail
+		universe.deleteBody(3);
+		universe.deleteBody(40);
+		int late = universe.addBody("late", 30000, 30000, 0, 0, 1);
+		for (int step = 0; step < 3; step++) {
+			universe.update();
+		}
+
+		UniverseSnapshot snapshot = new UniverseSnapshot();
+		snapshot.capture(universe);
+		assertSameTrails(universe.getBodies(), snapshot.getBodies());
+		assertEquals(3, snapshot.getBodies().getTrails().getCount(universe.getBodies().indexOf(late)));
+
+		// The copy is the snapshot's own, and is brought up to date by the next capture
+		BodyStore before = new BodyStore();
+		before.copyFrom(snapshot.getBodies());
+		universe.update();
+		assertSameTrails(before, snapshot.getBodies());
+		snapshot.capture(universe);
+		assertSameTrails(universe.getBodies(), snapshot.getBodies());
+	}
+
+	@Test
+	void capturesTrailsOfAnotherLength() {
+		Universe universe = universe();
+		universe.setTrails(8, 2);
+		for (int step = 0; step < 20; step++) {
+			universe.update();
+		}
+		UniverseSnapshot snapshot = new UniverseSnapshot();
+		snapshot.capture(universe);
+
+		universe.setTrails(3, 1);
+		universe.update();
+		snapshot.capture(universe);
+		assertEquals(3, snapshot.getBodies().getTrails().getLength());
+		assertSameTrails(universe.getBodies(), snapshot.getBodies());
+
+		universe.setTrails(0, 1);
+		universe.update();
+		snapshot.capture(universe);
+		assertEquals(0, snapshot.getBodies().getTrails().getCount(0));
+	}
+
+	@Test
+	void copiesTheTreeWithTheUniversesGravity() {
+		Universe universe = universe();
+		universe.setGravityConstant(0.37f);
+		universe.setSoftening(2);
+		universe.setOpeningAngle(0.7f);
+		universe.update();
+
+		UniverseSnapshot snapshot = new UniverseSnapshot();
+		snapshot.capture(universe);
+		BHTree expected = universe.getTree();
+		BHTree actual = snapshot.getTree();
+		assertNotNull(expected);
+		assertNotNull(actual);
+		assertEquals(0.37f, actual.getGravityConstant());
+		assertEquals(0.7f, actual.getOpeningAngle());
+		// The gravity lines drawn from the snapshot are the pulls the universe felt
+		for (int i = 0; i < universe.getBodies().size(); i++) {
+			FloatList expectedPulls = new FloatList();
+			FloatList actualPulls = new FloatList();
+			expected.visitInteractions(i, (node, source, body, gravity) -> expectedPulls.add(gravity));
+			actual.visitInteractions(i, (node, source, body, gravity) -> actualPulls.add(gravity));
+			assertEquals(expectedPulls.size(), actualPulls.size(), "interactions of body " + i);
+			for (int k = 0; k < expectedPulls.size(); k++) {
+				assertEquals(expectedPulls.get(k), actualPulls.get(k), "interaction " + k + " of body " + i);
+			}
+			assertEquals(expected.getPotential(i), actual.getPotential(i), "potential of body " + i);
+		}
+	}
+
+	private static void assertSameTrails(BodyStore expected, BodyStore actual) {
+		TrailBuffer expectedTrails = expected.getTrails();
+		TrailBuffer actualTrails = actual.getTrails();
+		assertEquals(expected.size(), actual.size(), "bodies");
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.idAt(i), actual.idAt(i), "id at " + i);
+			int count = expectedTrails.getCount(i);
+			assertEquals(count, actualTrails.getCount(i), "samples of body " + i);
+			assertTrue(count > 0, "body " + i + " has a trail");
+			for (int k = 0; k < count; k++) {
+				assertEquals(expectedTrails.getX(i, k), actualTrails.getX(i, k), "x of sample " + k + " of body " + i);
+				assertEquals(expectedTrails.getY(i, k), actualTrails.getY(i, k), "y of sample " + k + " of body " + i);
+			}
+		}
+	}
+
+	private static Universe universe() {
+		Universe universe = new Universe(Config.UNIVERSE_WIDTH, Config.UNIVERSE_HEIGHT, 1);
+		BodyStore source = TestBodies.random(100, 4000, 17);
+		for (int i = 0; i < source.size(); i++) {
+			universe.addBody(source.getName(i), 28000 + source.getX(i), 28000 + source.getY(i), source.getVelocityX(i),
+					source.getVelocityY(i), source.getMass(i));
+		}
+		return universe;
+	}
+
+}